@@ -0,0 +1,15 @@
+package com.akichou.elasticsearch.benchmark;
+
+import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.utils.StudentGenerator;
+
+import java.util.List;
+
+// Benchmark fixture - generated students with the default seed, the same documentations on every run
+class BenchmarkStudents {
+
+    static List<Student> create(int count) {
+
+        return new StudentGenerator().generate(0, count) ;
+    }
+}
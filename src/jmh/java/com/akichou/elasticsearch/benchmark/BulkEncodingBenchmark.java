@@ -0,0 +1,107 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.NdJsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.akichou.elasticsearch.entity.Student;
+import jakarta.json.stream.JsonGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Building and NDJSON-encoding a bulk request of 10k students, the way the transport writes it out
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkEncodingBenchmark {
+
+    @Param({"10000"})
+    private int studentCount ;
+
+    private final JsonpMapper jsonpMapper = new JacksonJsonpMapper() ;
+
+    private List<Student> students ;
+
+    private BulkRequest bulkRequest ;
+
+    @Setup
+    public void setup() {
+
+        students = BenchmarkStudents.create(studentCount) ;
+        bulkRequest = buildBulkRequest() ;
+    }
+
+    @Benchmark
+    public BulkRequest build() {
+
+        return buildBulkRequest() ;
+    }
+
+    @Benchmark
+    public byte[] encode() {
+
+        return encode(bulkRequest) ;
+    }
+
+    @Benchmark
+    public byte[] buildAndEncode() {
+
+        return encode(buildBulkRequest()) ;
+    }
+
+    private BulkRequest buildBulkRequest() {
+
+        BulkRequest.Builder builder = new BulkRequest.Builder().index("student") ;
+
+        for (Student student : students) {
+
+            builder.operations(BulkOperation.of(b -> b.create(c -> c
+                    .id(student.getStudentId())
+                    .document(student)))) ;
+        }
+
+        return builder.build() ;
+    }
+
+    // One JSON line per serializable, as RestClientTransport does for NDJSON requests
+    private byte[] encode(BulkRequest request) {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream() ;
+
+        writeLines(request, outputStream) ;
+
+        return outputStream.toByteArray() ;
+    }
+
+    // A bulk operation is NDJSON itself - its action line followed by the documentation
+    private void writeLines(NdJsonpSerializable value, ByteArrayOutputStream outputStream) {
+
+        Iterator<?> serializables = value._serializables() ;
+
+        while (serializables.hasNext()) {
+
+            Object serializable = serializables.next() ;
+
+            if (serializable instanceof NdJsonpSerializable ndJsonpSerializable && serializable != value) {
+
+                writeLines(ndJsonpSerializable, outputStream) ;
+
+                continue ;
+            }
+
+            JsonGenerator generator = jsonpMapper.jsonProvider().createGenerator(outputStream) ;
+            jsonpMapper.serialize(serializable, generator) ;
+            generator.close() ;
+
+            outputStream.write('\n') ;
+        }
+    }
+}
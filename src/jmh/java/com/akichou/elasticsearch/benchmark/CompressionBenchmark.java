@@ -0,0 +1,167 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.NdJsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.akichou.elasticsearch.entity.Student;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.json.stream.JsonGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// CPU cost of gzip for the bodies that compression applies to, the bytes saved are printed once per trial:
+//      bulk   -> NDJSON bulk request of 'documents' students (elasticsearch.compression.enabled)
+//      search -> ES search response with 'documents' hits (elasticsearch.compression.enabled)
+//      api    -> JSON list of 'documents' students as find / batch return it (server.compression.*)
+// Level 6 is what the rest client and Tomcat use, level 1 trades ratio for speed.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"bulk", "search", "api"})
+    private String payload ;
+
+    @Param({"100", "1000"})
+    private int documents ;
+
+    @Param({"1", "6"})
+    private int level ;
+
+    private final JsonpMapper jsonpMapper = new JacksonJsonpMapper() ;
+    private final ObjectMapper objectMapper = new ObjectMapper() ;
+
+    private byte[] body ;
+    private byte[] compressedBody ;
+
+    @Setup
+    public void setup() throws IOException {
+
+        List<Student> students = BenchmarkStudents.create(documents) ;
+
+        body = switch (payload) {
+
+            case "bulk" -> bulkBody(students) ;
+            case "search" -> searchResponseBody(students) ;
+            default -> objectMapper.writeValueAsBytes(students) ;
+        } ;
+
+        compressedBody = compress() ;
+
+        System.out.printf("%n%s x %d, level %d: %,d bytes -> %,d bytes gzip (%.1f%%)%n",
+                payload, documents, level, body.length, compressedBody.length, 100.0 * compressedBody.length / body.length) ;
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(body.length / 4) ;
+
+        try (GZIPOutputStream gzipOutputStream = new LevelGzipOutputStream(outputStream, level)) {
+
+            gzipOutputStream.write(body) ;
+        }
+
+        return outputStream.toByteArray() ;
+    }
+
+    @Benchmark
+    public byte[] decompress() throws IOException {
+
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(compressedBody))) {
+
+            return gzipInputStream.readAllBytes() ;
+        }
+    }
+
+    // One JSON line per serializable, as RestClientTransport writes NDJSON requests
+    private byte[] bulkBody(List<Student> students) {
+
+        BulkRequest.Builder builder = new BulkRequest.Builder().index("student") ;
+
+        for (Student student : students) {
+
+            builder.operations(BulkOperation.of(b -> b.create(c -> c
+                    .id(student.getStudentId())
+                    .document(student)))) ;
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream() ;
+
+        writeLines(builder.build(), outputStream) ;
+
+        return outputStream.toByteArray() ;
+    }
+
+    // A bulk operation is NDJSON itself - its action line followed by the documentation
+    private void writeLines(NdJsonpSerializable value, ByteArrayOutputStream outputStream) {
+
+        Iterator<?> serializables = value._serializables() ;
+
+        while (serializables.hasNext()) {
+
+            Object serializable = serializables.next() ;
+
+            if (serializable instanceof NdJsonpSerializable ndJsonpSerializable && serializable != value) {
+
+                writeLines(ndJsonpSerializable, outputStream) ;
+
+                continue ;
+            }
+
+            JsonGenerator generator = jsonpMapper.jsonProvider().createGenerator(outputStream) ;
+            jsonpMapper.serialize(serializable, generator) ;
+            generator.close() ;
+
+            outputStream.write('\n') ;
+        }
+    }
+
+    private byte[] searchResponseBody(List<Student> students) throws IOException {
+
+        ObjectNode response = objectMapper.createObjectNode() ;
+        response.put("took", 1).put("timed_out", false) ;
+        response.putObject("_shards").put("total", 1).put("successful", 1).put("skipped", 0).put("failed", 0) ;
+
+        ObjectNode hits = response.putObject("hits") ;
+        hits.putObject("total").put("value", students.size()).put("relation", "eq") ;
+        hits.put("max_score", 1.0) ;
+
+        ArrayNode hitArray = hits.putArray("hits") ;
+
+        for (Student student : students) {
+
+            ObjectNode hit = hitArray.addObject() ;
+            hit.put("_index", "student").put("_id", student.getStudentId()).put("_score", 1.0) ;
+            hit.set("_source", objectMapper.valueToTree(student)) ;
+        }
+
+        return objectMapper.writeValueAsBytes(response) ;
+    }
+
+    private static class LevelGzipOutputStream extends GZIPOutputStream {
+
+        LevelGzipOutputStream(OutputStream outputStream, int level) throws IOException {
+
+            super(outputStream) ;
+
+            def.setLevel(level) ;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.FieldValueFactorModifier;
+import co.elastic.clients.elasticsearch._types.query_dsl.FunctionScore;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.json.JsonpUtils;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.akichou.elasticsearch.entity.search.SearchInfo;
+import com.akichou.elasticsearch.utils.SearchUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Client-side cost of SearchInfo.toQuery() with many function scores, with and without JSON serialization
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBuildingBenchmark {
+
+    @Param({"10", "100"})
+    private int functionCount ;
+
+    private final JacksonJsonpMapper jsonpMapper = new JacksonJsonpMapper() ;
+
+    @Benchmark
+    public Query functionScoreQuery() {
+
+        return createSearchInfo().toQuery() ;
+    }
+
+    @Benchmark
+    public String functionScoreQuerySerialized() {
+
+        return JsonpUtils.toJsonString(createSearchInfo().toQuery(), jsonpMapper) ;
+    }
+
+    private SearchInfo createSearchInfo() {
+
+        List<FunctionScore> functionScores = new ArrayList<>(functionCount) ;
+
+        for (var i = 0 ; i < functionCount ; i ++) {
+
+            Query departmentQuery = SearchUtils.createTermQuery("departments", "department-" + i) ;
+
+            functionScores.add(i % 2 == 0
+                    ? SearchUtils.createConditionalWeightFunctionScore(departmentQuery, 1.0 + i)
+                    : SearchUtils.createFieldValueFactor("grade", 0.5, FieldValueFactorModifier.Square, 0.0)) ;
+        }
+
+        SearchInfo searchInfo = SearchInfo.of(SearchUtils.createRangeQuery("grade", 1, 4)) ;
+        searchInfo.setFunctionScores(functionScores) ;
+
+        return searchInfo ;
+    }
+}
@@ -0,0 +1,90 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.akichou.elasticsearch.entity.Student;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.json.stream.JsonParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Decoding a search response and mapping its hits to students, as find() does
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchResponseDecodingBenchmark {
+
+    @Param({"10", "1000"})
+    private int hitCount ;
+
+    private final JsonpMapper jsonpMapper = new JacksonJsonpMapper() ;
+
+    private final JsonpDeserializer<SearchResponse<Student>> deserializer =
+            SearchResponse.createSearchResponseDeserializer(JsonpDeserializer.of(Student.class)) ;
+
+    private byte[] responseBody ;
+
+    @Setup
+    public void setup() throws Exception {
+
+        ObjectMapper objectMapper = new ObjectMapper() ;
+
+        ObjectNode response = objectMapper.createObjectNode() ;
+        response.put("took", 1).put("timed_out", false) ;
+        response.putObject("_shards").put("total", 1).put("successful", 1).put("skipped", 0).put("failed", 0) ;
+
+        ObjectNode hits = response.putObject("hits") ;
+        hits.putObject("total").put("value", hitCount).put("relation", "eq") ;
+        hits.put("max_score", 1.0) ;
+
+        ArrayNode hitArray = hits.putArray("hits") ;
+
+        for (Student student : BenchmarkStudents.create(hitCount)) {
+
+            ObjectNode hit = hitArray.addObject() ;
+            hit.put("_index", "student").put("_id", student.getStudentId()).put("_score", 1.0) ;
+            hit.set("_source", objectMapper.valueToTree(student)) ;
+        }
+
+        responseBody = objectMapper.writeValueAsBytes(response) ;
+    }
+
+    @Benchmark
+    public SearchResponse<Student> decode() {
+
+        JsonParser parser = jsonpMapper.jsonProvider().createParser(new ByteArrayInputStream(responseBody)) ;
+
+        return deserializer.deserialize(parser, jsonpMapper) ;
+    }
+
+    @Benchmark
+    public List<Student> decodeAndMapHits() {
+
+        return decode().hits()
+                .hits()
+                .stream()
+                .map(SearchResponseDecodingBenchmark::toStudent)
+                .toList() ;
+    }
+
+    // Same as StudentElasticsearchRepository.toStudent(), which is package-private
+    private static Student toStudent(Hit<Student> hit) {
+
+        Student student = hit.source() ;
+
+        if (student != null) student.setStudentId(hit.id()) ;
+
+        return student ;
+    }
+}
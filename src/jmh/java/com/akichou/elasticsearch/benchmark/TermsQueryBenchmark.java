@@ -0,0 +1,48 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.json.JsonpUtils;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.akichou.elasticsearch.utils.SearchUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// Client-side cost of createTermsQuery with a large value list, with and without JSON serialization
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TermsQueryBenchmark {
+
+    @Param({"10000"})
+    private int valueCount ;
+
+    private final JacksonJsonpMapper jsonpMapper = new JacksonJsonpMapper() ;
+
+    private List<String> termValues ;
+
+    @Setup
+    public void setup() {
+
+        termValues = IntStream.range(0, valueCount)
+                .mapToObj(i -> "department-" + i)
+                .toList() ;
+    }
+
+    @Benchmark
+    public Query termsQuery() {
+
+        return SearchUtils.createTermsQuery("departments", termValues) ;
+    }
+
+    @Benchmark
+    public String termsQuerySerialized() {
+
+        return JsonpUtils.toJsonString(SearchUtils.createTermsQuery("departments", termValues), jsonpMapper) ;
+    }
+}
@@ -1,38 +1,565 @@
 package com.akichou.elasticsearch.config;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.akichou.elasticsearch.entity.ingest.LoadResult;
+import com.akichou.elasticsearch.repository.StudentElasticsearchAsyncRepository;
 import com.akichou.elasticsearch.repository.StudentElasticsearchRepository;
+import com.akichou.elasticsearch.repository.cache.SearchResultCache;
+import com.akichou.elasticsearch.repository.cache.StudentDocumentCache;
+import com.akichou.elasticsearch.repository.index.StudentIndexManager;
+import com.akichou.elasticsearch.repository.ingest.DeadLetterSink;
+import com.akichou.elasticsearch.repository.ingest.FileDeadLetterSink;
+import com.akichou.elasticsearch.repository.ingest.LoggingDeadLetterSink;
+import com.akichou.elasticsearch.repository.ingest.StudentBulkIngester;
+import com.akichou.elasticsearch.repository.ingest.StudentFileLoader;
+import com.akichou.elasticsearch.repository.ingest.StudentWriteCoalescer;
+import com.akichou.elasticsearch.repository.limit.AdaptiveConcurrencyLimiter;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyBudgets;
+import com.akichou.elasticsearch.repository.metrics.ElasticsearchMetrics;
+import com.akichou.elasticsearch.repository.routing.PrimaryDepartmentRoutingStrategy;
+import com.akichou.elasticsearch.repository.routing.StudentRoutingStrategy;
+import com.akichou.elasticsearch.repository.search.MultiSearchCoalescer;
+import com.akichou.elasticsearch.repository.search.ReadHedger;
+import com.akichou.elasticsearch.repository.search.SlowQueryLog;
+import com.akichou.elasticsearch.transport.InMemoryElasticsearchTransport;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.elasticsearch.client.NodeSelector;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
 @Configuration
 public class ElasticsearchConfig {
 
     @Value("${elasticsearch.index.name}")
     private String indexName ;
 
+    // Comma-separated node urls, requests are spread over them round-robin
+    @Value("${elasticsearch.hosts}")
+    private String[] hosts ;
+
+    @Value("${elasticsearch.connection.max-total}")
+    private int maxConnectionsTotal ;
+
+    @Value("${elasticsearch.connection.max-per-route}")
+    private int maxConnectionsPerRoute ;
+
+    @Value("${elasticsearch.connection.connect-timeout-ms}")
+    private int connectTimeoutMillis ;
+
+    @Value("${elasticsearch.connection.socket-timeout-ms}")
+    private int socketTimeoutMillis ;
+
+    @Value("${elasticsearch.connection.keep-alive-ms}")
+    private long keepAliveMillis ;
+
+    // 0 -> keep the client default (number of available processors)
+    @Value("${elasticsearch.connection.io-thread-count}")
+    private int ioThreadCount ;
+
+    // Gzip request bodies and accept gzip responses - every body is compressed, the rest client has no size threshold
+    @Value("${elasticsearch.compression.enabled}")
+    private boolean compressionEnabled ;
+
+    @Value("${elasticsearch.sniffer.interval-ms}")
+    private int sniffIntervalMillis ;
+
+    @Value("${elasticsearch.sniffer.after-failure-delay-ms}")
+    private int sniffAfterFailureDelayMillis ;
+
+    // 0 -> search result caching disabled
+    @Value("${elasticsearch.cache.search.max-entries}")
+    private int searchCacheMaxEntries ;
+
+    @Value("${elasticsearch.cache.search.ttl-ms}")
+    private long searchCacheTtlMillis ;
+
+    // 0 -> documentation caching disabled
+    @Value("${elasticsearch.cache.document.max-entries}")
+    private int documentCacheMaxEntries ;
+
+    @Value("${elasticsearch.cache.document.ttl-ms}")
+    private long documentCacheTtlMillis ;
+
+    @Value("${elasticsearch.cache.document.negative-ttl-ms}")
+    private long documentCacheNegativeTtlMillis ;
+
+    @Value("${elasticsearch.bulk.max-operations}")
+    private int bulkMaxOperations ;
+
+    @Value("${elasticsearch.bulk.max-size-bytes}")
+    private long bulkMaxSizeBytes ;
+
+    @Value("${elasticsearch.bulk.flush-interval-ms}")
+    private long bulkFlushIntervalMillis ;
+
+    @Value("${elasticsearch.bulk.max-concurrent-requests}")
+    private int bulkMaxConcurrentRequests ;
+
+    // Retries of bulk items ES pushed back on (429...), the backoff doubles per attempt
+    @Value("${elasticsearch.bulk.retry.max-retries}")
+    private int bulkMaxRetries ;
+
+    @Value("${elasticsearch.bulk.retry.initial-backoff-ms}")
+    private long bulkInitialBackoffMillis ;
+
+    @Value("${elasticsearch.bulk.retry.max-backoff-ms}")
+    private long bulkMaxBackoffMillis ;
+
+    // Empty -> dead letters are only logged
+    @Value("${elasticsearch.bulk.dead-letter.file}")
+    private String deadLetterFile ;
+
+    // Longest a search waits for others to share its _msearch
+    @Value("${elasticsearch.coalesce.search.window-ms}")
+    private long searchCoalesceWindowMillis ;
+
+    @Value("${elasticsearch.coalesce.search.max-batch-size}")
+    private int searchCoalesceMaxBatchSize ;
+
+    // Longest a single write waits for others to share its bulk
+    @Value("${elasticsearch.coalesce.write.window-ms}")
+    private long writeCoalesceWindowMillis ;
+
+    @Value("${elasticsearch.coalesce.write.max-batch-size}")
+    private int writeCoalesceMaxBatchSize ;
+
+    @Value("${elasticsearch.coalesce.write.max-concurrent-requests}")
+    private int writeCoalesceMaxConcurrentRequests ;
+
+    // Adaptive concurrency limits of the repositories' reads and writes, the limit moves between min and max
+    @Value("${elasticsearch.limit.read.initial}")
+    private int readInitialLimit ;
+
+    @Value("${elasticsearch.limit.read.min}")
+    private int readMinLimit ;
+
+    @Value("${elasticsearch.limit.read.max}")
+    private int readMaxLimit ;
+
+    @Value("${elasticsearch.limit.write.initial}")
+    private int writeInitialLimit ;
+
+    @Value("${elasticsearch.limit.write.min}")
+    private int writeMinLimit ;
+
+    @Value("${elasticsearch.limit.write.max}")
+    private int writeMaxLimit ;
+
+    // Callers over the limit wait this long at most, when the queue is full they are rejected at once
+    @Value("${elasticsearch.limit.max-queue-size}")
+    private int limitMaxQueueSize ;
+
+    @Value("${elasticsearch.limit.max-queue-wait-ms}")
+    private long limitMaxQueueWaitMillis ;
+
+    // A read not answered after this percentile of the recent latencies (never sooner than min-delay-ms) is sent again
+    @Value("${elasticsearch.hedge.percentile}")
+    private double hedgePercentile ;
+
+    @Value("${elasticsearch.hedge.min-delay-ms}")
+    private long hedgeMinDelayMillis ;
+
+    // Share of the reads that may be hedged at most
+    @Value("${elasticsearch.hedge.max-ratio}")
+    private double hedgeMaxRatio ;
+
+    // Searches whose 'took' reaches the threshold are logged, negative -> slow-query log disabled
+    @Value("${elasticsearch.slow-query.threshold-ms}")
+    private long slowQueryThresholdMillis ;
+
+    // Share of the slow searches sent again with the profile API
+    @Value("${elasticsearch.slow-query.profile-sample-rate}")
+    private double slowQueryProfileSampleRate ;
+
+    @Value("${elasticsearch.slow-query.max-entries}")
+    private int slowQueryMaxEntries ;
+
+    // Empty -> next to the loaded file, as '<file>.checkpoint'
+    @Value("${elasticsearch.load.checkpoint-file}")
+    private String loadCheckpointFile ;
+
+    @Value("${elasticsearch.load.checkpoint-interval}")
+    private int loadCheckpointInterval ;
+
+    // Bulks of the loader in flight at once - its own ingester, so the application's writes keep their budget
+    @Value("${elasticsearch.load.max-concurrent-requests}")
+    private int loadMaxConcurrentRequests ;
+
+    @Value("${elasticsearch.load.exit-when-done}")
+    private boolean loadExitWhenDone ;
+
+    // Only present when sniffing is enabled - a failed node triggers an immediate re-sniff
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.sniffer.enabled", havingValue = "true")
+    public SniffOnFailureListener sniffOnFailureListener() {
+
+        return new SniffOnFailureListener() ;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.transport", havingValue = "rest", matchIfMissing = true)
+    public RestClient restClient(ObjectProvider<SniffOnFailureListener> sniffOnFailureListener) {
+
+        HttpHost[] httpHosts = Arrays.stream(hosts)
+                .map(String::trim)
+                .map(HttpHost::create)
+                .toArray(HttpHost[]::new) ;
+
+        RestClientBuilder restClientBuilder = RestClient.builder(httpHosts)
+                .setNodeSelector(NodeSelector.SKIP_DEDICATED_MASTERS)
+                .setCompressionEnabled(compressionEnabled)
+                .setRequestConfigCallback(requestConfig -> requestConfig
+                        .setConnectTimeout(connectTimeoutMillis)
+                        .setSocketTimeout(socketTimeoutMillis))
+                .setHttpClientConfigCallback(httpClient -> {
+
+                    httpClient
+                            .setMaxConnTotal(maxConnectionsTotal)
+                            .setMaxConnPerRoute(maxConnectionsPerRoute)
+                            .setKeepAliveStrategy((response, context) -> keepAliveMillis) ;
+
+                    if (ioThreadCount > 0) {
+
+                        httpClient.setDefaultIOReactorConfig(IOReactorConfig.custom()
+                                .setIoThreadCount(ioThreadCount)
+                                .build()) ;
+                    }
+
+                    return httpClient ;
+                }) ;
+
+        sniffOnFailureListener.ifAvailable(restClientBuilder::setFailureListener) ;
+
+        return restClientBuilder.build() ;
+    }
+
+    // Periodically replaces the host list with the http nodes currently in the cluster
     @Bean
-    public ElasticsearchClient elasticsearchClient() {
+    @ConditionalOnProperty(name = "elasticsearch.sniffer.enabled", havingValue = "true")
+    public Sniffer sniffer(RestClient restClient, SniffOnFailureListener sniffOnFailureListener) {
+
+        Sniffer sniffer = Sniffer.builder(restClient)
+                .setSniffIntervalMillis(sniffIntervalMillis)
+                .setSniffAfterFailureDelayMillis(sniffAfterFailureDelayMillis)
+                .build() ;
 
-        HttpHost httpHost = new HttpHost("localhost", 9200, "http") ;
-        RestClient restClient = RestClient.builder(httpHost).build() ;
-        RestClientTransport transport = new RestClientTransport(restClient, new JacksonJsonpMapper()) ;
+        sniffOnFailureListener.setSniffer(sniffer) ;
 
-        return new ElasticsearchClient(transport) ;
+        return sniffer ;
     }
 
+    // Shared by the blocking and the async client, so both use the same connection pool
     @Bean
-    public StudentElasticsearchRepository studentElasticsearchRepository(ElasticsearchClient elasticsearchClient) {
+    @ConditionalOnProperty(name = "elasticsearch.transport", havingValue = "rest", matchIfMissing = true)
+    public ElasticsearchTransport elasticsearchTransport(RestClient restClient) {
+
+        return new RestClientTransport(restClient, new JacksonJsonpMapper()) ;
+    }
 
-        StudentElasticsearchRepository studentElasticsearchRepository = new StudentElasticsearchRepository(elasticsearchClient, indexName) ;
+    // No ES needed at all - every index lives in this process (offline tests, load tests of the application itself)
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.transport", havingValue = "in-memory")
+    public ElasticsearchTransport inMemoryElasticsearchTransport() {
+
+        return new InMemoryElasticsearchTransport(new JacksonJsonpMapper()) ;
+    }
+
+    @Bean
+    public ElasticsearchClient elasticsearchClient(ElasticsearchTransport elasticsearchTransport) {
+
+        return new ElasticsearchClient(elasticsearchTransport) ;
+    }
+
+    @Bean
+    public ElasticsearchAsyncClient elasticsearchAsyncClient(ElasticsearchTransport elasticsearchTransport) {
+
+        return new ElasticsearchAsyncClient(elasticsearchTransport) ;
+    }
+
+    // Shared by every write path, so any write invalidates the cached searches
+    @Bean
+    public SearchResultCache searchResultCache() {
+
+        return new SearchResultCache(searchCacheMaxEntries, searchCacheTtlMillis) ;
+    }
+
+    @Bean
+    public StudentDocumentCache studentDocumentCache() {
+
+        return new StudentDocumentCache(documentCacheMaxEntries, documentCacheTtlMillis, documentCacheNegativeTtlMillis) ;
+    }
+
+    // Shared by both repositories, listed by GET /students/slow-queries
+    @Bean
+    public SlowQueryLog slowQueryLog(ElasticsearchAsyncClient elasticsearchAsyncClient) {
+
+        return new SlowQueryLog(elasticsearchAsyncClient, slowQueryThresholdMillis, slowQueryProfileSampleRate, slowQueryMaxEntries) ;
+    }
+
+    // Published through Actuator - /actuator/metrics and /actuator/prometheus
+    @Bean
+    public ElasticsearchMetrics elasticsearchMetrics(MeterRegistry meterRegistry,
+                                                     SearchResultCache searchResultCache,
+                                                     StudentDocumentCache studentDocumentCache) {
+
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(meterRegistry) ;
+
+        elasticsearchMetrics.bindSearchResultCache(searchResultCache) ;
+        elasticsearchMetrics.bindStudentDocumentCache(studentDocumentCache) ;
+
+        return elasticsearchMetrics ;
+    }
+
+    // Only present when limiting is enabled - otherwise every request is sent at once
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.limit.enabled", havingValue = "true")
+    public ConcurrencyBudgets concurrencyBudgets(ElasticsearchMetrics elasticsearchMetrics) {
+
+        AdaptiveConcurrencyLimiter readLimiter = new AdaptiveConcurrencyLimiter("read",
+                readInitialLimit, readMinLimit, readMaxLimit, limitMaxQueueSize, limitMaxQueueWaitMillis) ;
+        AdaptiveConcurrencyLimiter writeLimiter = new AdaptiveConcurrencyLimiter("write",
+                writeInitialLimit, writeMinLimit, writeMaxLimit, limitMaxQueueSize, limitMaxQueueWaitMillis) ;
+
+        elasticsearchMetrics.bindConcurrencyLimiter(readLimiter) ;
+        elasticsearchMetrics.bindConcurrencyLimiter(writeLimiter) ;
+
+        return new ConcurrencyBudgets(readLimiter, writeLimiter) ;
+    }
+
+    // Only present when hedging is enabled - one per read operation, each learns the latencies of its own reads
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.hedge.enabled", havingValue = "true")
+    public ReadHedger getHedger(ElasticsearchMetrics elasticsearchMetrics) {
+
+        return readHedger("get", elasticsearchMetrics) ;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.hedge.enabled", havingValue = "true")
+    public ReadHedger searchHedger(ElasticsearchMetrics elasticsearchMetrics) {
+
+        return readHedger("search", elasticsearchMetrics) ;
+    }
+
+    private ReadHedger readHedger(String operation, ElasticsearchMetrics elasticsearchMetrics) {
+
+        ReadHedger readHedger = new ReadHedger(operation, hedgePercentile, hedgeMinDelayMillis, hedgeMaxRatio) ;
+
+        elasticsearchMetrics.bindReadHedger(readHedger) ;
+
+        return readHedger ;
+    }
+
+    // Only present when routing is enabled - shared by every read and write path, so a documentation is always looked up where it was written
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.routing.enabled", havingValue = "true")
+    public StudentRoutingStrategy studentRoutingStrategy() {
+
+        return new PrimaryDepartmentRoutingStrategy() ;
+    }
+
+    // Bulk operations that failed for good - appended to a file when one is configured (closed by the container)
+    @Bean
+    public DeadLetterSink deadLetterSink(ObjectMapper objectMapper) throws IOException {
+
+        if (deadLetterFile.isBlank()) return new LoggingDeadLetterSink() ;
+
+        return new FileDeadLetterSink(Path.of(deadLetterFile), objectMapper) ;
+    }
+
+    // Closed by the container on shutdown, which flushes the buffered documentations
+    @Bean
+    public StudentBulkIngester studentBulkIngester(ElasticsearchClient elasticsearchClient,
+                                                   SearchResultCache searchResultCache,
+                                                   StudentDocumentCache studentDocumentCache,
+                                                   ElasticsearchMetrics elasticsearchMetrics,
+                                                   DeadLetterSink deadLetterSink,
+                                                   ObjectProvider<ConcurrencyBudgets> concurrencyBudgets,
+                                                   ObjectProvider<StudentRoutingStrategy> studentRoutingStrategy) {
+
+        // Bulks go through the write alias, like every other write
+        StudentBulkIngester studentBulkIngester = new StudentBulkIngester(elasticsearchClient, StudentIndexManager.writeAliasOf(indexName),
+                bulkMaxOperations, bulkMaxSizeBytes, bulkFlushIntervalMillis, bulkMaxConcurrentRequests) ;
+
+        studentBulkIngester.setSearchResultCache(searchResultCache) ;
+        studentBulkIngester.setStudentDocumentCache(studentDocumentCache) ;
+        studentBulkIngester.setElasticsearchMetrics(elasticsearchMetrics) ;
+        studentBulkIngester.setDeadLetterSink(deadLetterSink) ;
+        studentBulkIngester.setRetries(bulkMaxRetries, bulkInitialBackoffMillis, bulkMaxBackoffMillis) ;
+        concurrencyBudgets.ifAvailable(studentBulkIngester::setConcurrencyBudgets) ;
+        studentRoutingStrategy.ifAvailable(studentBulkIngester::setStudentRoutingStrategy) ;
+
+        return studentBulkIngester ;
+    }
+
+    // Only present when coalescing is enabled - closed by the container on shutdown, which sends the queued searches
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.coalesce.search.enabled", havingValue = "true")
+    public MultiSearchCoalescer multiSearchCoalescer(ElasticsearchAsyncClient elasticsearchAsyncClient,
+                                                     ElasticsearchMetrics elasticsearchMetrics,
+                                                     ObjectProvider<ConcurrencyBudgets> concurrencyBudgets) {
+
+        MultiSearchCoalescer multiSearchCoalescer =
+                new MultiSearchCoalescer(elasticsearchAsyncClient, searchCoalesceWindowMillis, searchCoalesceMaxBatchSize) ;
+
+        multiSearchCoalescer.setElasticsearchMetrics(elasticsearchMetrics) ;
+        concurrencyBudgets.ifAvailable(multiSearchCoalescer::setConcurrencyBudgets) ;
+
+        return multiSearchCoalescer ;
+    }
+
+    // Only present when write coalescing is enabled - closed by the container on shutdown, which sends the queued writes
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.coalesce.write.enabled", havingValue = "true")
+    public StudentWriteCoalescer studentWriteCoalescer(ElasticsearchClient elasticsearchClient,
+                                                       SearchResultCache searchResultCache,
+                                                       StudentDocumentCache studentDocumentCache,
+                                                       ElasticsearchMetrics elasticsearchMetrics,
+                                                       ObjectProvider<ConcurrencyBudgets> concurrencyBudgets,
+                                                       ObjectProvider<StudentRoutingStrategy> studentRoutingStrategy) {
+
+        StudentWriteCoalescer studentWriteCoalescer = new StudentWriteCoalescer(elasticsearchClient, StudentIndexManager.writeAliasOf(indexName),
+                writeCoalesceWindowMillis, writeCoalesceMaxBatchSize, writeCoalesceMaxConcurrentRequests) ;
+
+        studentWriteCoalescer.setSearchResultCache(searchResultCache) ;
+        studentWriteCoalescer.setStudentDocumentCache(studentDocumentCache) ;
+        studentWriteCoalescer.setElasticsearchMetrics(elasticsearchMetrics) ;
+        concurrencyBudgets.ifAvailable(studentWriteCoalescer::setConcurrencyBudgets) ;
+        studentRoutingStrategy.ifAvailable(studentWriteCoalescer::setStudentRoutingStrategy) ;
+
+        return studentWriteCoalescer ;
+    }
+
+    @Bean
+    public StudentElasticsearchRepository studentElasticsearchRepository(ElasticsearchClient elasticsearchClient,
+                                                                         StudentBulkIngester studentBulkIngester,
+                                                                         SearchResultCache searchResultCache,
+                                                                         StudentDocumentCache studentDocumentCache,
+                                                                         ElasticsearchMetrics elasticsearchMetrics,
+                                                                         SlowQueryLog slowQueryLog,
+                                                                         ObjectProvider<ConcurrencyBudgets> concurrencyBudgets,
+                                                                         @Qualifier("getHedger") ObjectProvider<ReadHedger> getHedger,
+                                                                         @Qualifier("searchHedger") ObjectProvider<ReadHedger> searchHedger,
+                                                                         ObjectProvider<MultiSearchCoalescer> multiSearchCoalescer,
+                                                                         ObjectProvider<StudentWriteCoalescer> studentWriteCoalescer,
+                                                                         ObjectProvider<StudentRoutingStrategy> studentRoutingStrategy) {
+
+        StudentElasticsearchRepository studentElasticsearchRepository =
+                new StudentElasticsearchRepository(elasticsearchClient, indexName, studentBulkIngester) ;
+
+        studentElasticsearchRepository.setSearchResultCache(searchResultCache) ;
+        studentElasticsearchRepository.setStudentDocumentCache(studentDocumentCache) ;
+        studentElasticsearchRepository.setElasticsearchMetrics(elasticsearchMetrics) ;
+        studentElasticsearchRepository.setSlowQueryLog(slowQueryLog) ;
+        concurrencyBudgets.ifAvailable(studentElasticsearchRepository::setConcurrencyBudgets) ;
+        getHedger.ifAvailable(studentElasticsearchRepository::setGetHedger) ;
+        searchHedger.ifAvailable(studentElasticsearchRepository::setSearchHedger) ;
+        multiSearchCoalescer.ifAvailable(studentElasticsearchRepository::setMultiSearchCoalescer) ;
+        studentRoutingStrategy.ifAvailable(studentElasticsearchRepository::setStudentRoutingStrategy) ;
+
+        studentWriteCoalescer.ifAvailable(coalescer -> {
+
+            coalescer.setStudentIndexManager(studentElasticsearchRepository.getStudentIndexManager()) ;
+
+            studentElasticsearchRepository.setStudentWriteCoalescer(coalescer) ;
+        }) ;
 
         studentElasticsearchRepository.init() ;
 
         return studentElasticsearchRepository ;
     }
+
+    // Only present when a file is given - loads it at startup, after the index is ensured by the repository.
+    // With 'exit-when-done' the application is a command line loader, exiting with 1 when documentations failed.
+    @Bean
+    @ConditionalOnProperty(name = "elasticsearch.load.file")
+    public ApplicationRunner studentFileLoadRunner(@Value("${elasticsearch.load.file}") String loadFile,
+                                                   ElasticsearchClient elasticsearchClient,
+                                                   StudentElasticsearchRepository studentElasticsearchRepository,
+                                                   SearchResultCache searchResultCache,
+                                                   StudentDocumentCache studentDocumentCache,
+                                                   ElasticsearchMetrics elasticsearchMetrics,
+                                                   DeadLetterSink deadLetterSink,
+                                                   ObjectProvider<ConcurrencyBudgets> concurrencyBudgets,
+                                                   ObjectProvider<StudentRoutingStrategy> studentRoutingStrategy,
+                                                   ObjectMapper objectMapper,
+                                                   ConfigurableApplicationContext applicationContext) {
+
+        return args -> {
+
+            Path file = Path.of(loadFile) ;
+            Path checkpointFile = Path.of(loadCheckpointFile.isBlank() ? loadFile + ".checkpoint" : loadCheckpointFile) ;
+
+            LoadResult loadResult ;
+
+            try (StudentBulkIngester loadIngester = new StudentBulkIngester(elasticsearchClient, StudentIndexManager.writeAliasOf(indexName),
+                    bulkMaxOperations, bulkMaxSizeBytes, bulkFlushIntervalMillis, loadMaxConcurrentRequests)) {
+
+                loadIngester.setSearchResultCache(searchResultCache) ;
+                loadIngester.setStudentDocumentCache(studentDocumentCache) ;
+                loadIngester.setStudentIndexManager(studentElasticsearchRepository.getStudentIndexManager()) ;
+                loadIngester.setElasticsearchMetrics(elasticsearchMetrics) ;
+                loadIngester.setDeadLetterSink(deadLetterSink) ;
+                loadIngester.setRetries(bulkMaxRetries, bulkInitialBackoffMillis, bulkMaxBackoffMillis) ;
+                concurrencyBudgets.ifAvailable(loadIngester::setConcurrencyBudgets) ;
+                studentRoutingStrategy.ifAvailable(loadIngester::setStudentRoutingStrategy) ;
+
+                loadResult = new StudentFileLoader(loadIngester, objectMapper, loadCheckpointInterval).load(file, checkpointFile) ;
+            }
+
+            if (loadExitWhenDone) {
+
+                int exitCode = loadResult.getFailed() == 0 ? 0 : 1 ;
+
+                System.exit(SpringApplication.exit(applicationContext, () -> exitCode)) ;
+            }
+        } ;
+    }
+
+    // The one the blocking repository is built on - already configured with the same collaborators
+    @Bean
+    public StudentElasticsearchAsyncRepository studentElasticsearchAsyncRepository(StudentElasticsearchRepository studentElasticsearchRepository) {
+
+        return studentElasticsearchRepository.getStudentElasticsearchAsyncRepository() ;
+    }
+
+    // Published through Actuator as 'studentIndex' - DOWN once a mapping migration failed, until a restart resumes it
+    @Bean
+    public HealthIndicator studentIndexHealthIndicator(StudentElasticsearchRepository studentElasticsearchRepository) {
+
+        StudentIndexManager studentIndexManager = studentElasticsearchRepository.getStudentIndexManager() ;
+
+        return () -> {
+
+            String migrationFailure = studentIndexManager.getMigrationFailure() ;
+
+            if (migrationFailure != null) return Health.down().withDetail("error", migrationFailure).build() ;
+
+            return Health.up().withDetail("migrating", studentIndexManager.isMigrating()).build() ;
+        } ;
+    }
 }
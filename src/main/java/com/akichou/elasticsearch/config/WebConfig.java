@@ -0,0 +1,28 @@
+package com.akichou.elasticsearch.config;
+
+import com.akichou.elasticsearch.controller.GzipRequestFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Response compression is Spring Boot's own (server.compression.*), only request bodies need a filter
+@Configuration
+public class WebConfig {
+
+    @Value("${web.compression.request.max-size-bytes}")
+    private long requestMaxSizeBytes ;
+
+    @Bean
+    @ConditionalOnProperty(name = "web.compression.request.enabled", havingValue = "true")
+    public FilterRegistrationBean<GzipRequestFilter> gzipRequestFilter() {
+
+        FilterRegistrationBean<GzipRequestFilter> registration =
+                new FilterRegistrationBean<>(new GzipRequestFilter(requestMaxSizeBytes)) ;
+
+        registration.addUrlPatterns("/students/*") ;
+
+        return registration ;
+    }
+}
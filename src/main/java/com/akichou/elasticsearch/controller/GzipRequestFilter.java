@@ -0,0 +1,196 @@
+package com.akichou.elasticsearch.controller;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+
+// Inflates request bodies sent with 'Content-Encoding: gzip' before the message converters read them -
+// the servlet container only compresses responses. The inflated size is capped, so a small body cannot expand without bound.
+public class GzipRequestFilter extends OncePerRequestFilter {
+
+    private static final String GZIP = "gzip" ;
+
+    private final long maxSizeBytes ;
+
+    // Constructor
+    public GzipRequestFilter(long maxSizeBytes) {
+
+        this.maxSizeBytes = maxSizeBytes ;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        String contentEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING) ;
+
+        if (contentEncoding == null || !GZIP.equalsIgnoreCase(contentEncoding.trim())) {
+
+            filterChain.doFilter(request, response) ;
+
+            return ;
+        }
+
+        filterChain.doFilter(new GzipRequestWrapper(request, maxSizeBytes), response) ;
+    }
+
+    // The request as the handler should see it - inflated body, no encoding and an unknown length
+    private static class GzipRequestWrapper extends HttpServletRequestWrapper {
+
+        private final long maxSizeBytes ;
+
+        private ServletInputStream inputStream ;
+
+        GzipRequestWrapper(HttpServletRequest request, long maxSizeBytes) {
+
+            super(request) ;
+
+            this.maxSizeBytes = maxSizeBytes ;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+
+            if (inputStream == null) inputStream = new InflatingInputStream(new GZIPInputStream(super.getInputStream()), maxSizeBytes) ;
+
+            return inputStream ;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+
+            String characterEncoding = getCharacterEncoding() ;
+            Charset charset = characterEncoding == null ? StandardCharsets.UTF_8 : Charset.forName(characterEncoding) ;
+
+            return new BufferedReader(new InputStreamReader(getInputStream(), charset)) ;
+        }
+
+        @Override
+        public int getContentLength() {
+
+            return -1 ;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+
+            return -1 ;
+        }
+
+        @Override
+        public String getHeader(String name) {
+
+            return isHidden(name) ? null : super.getHeader(name) ;
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+
+            return isHidden(name) ? Collections.emptyEnumeration() : super.getHeaders(name) ;
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+
+            return Collections.enumeration(Collections.list(super.getHeaderNames())
+                    .stream()
+                    .filter(name -> !isHidden(name))
+                    .toList()) ;
+        }
+
+        private static boolean isHidden(String name) {
+
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) ;
+        }
+    }
+
+    private static class InflatingInputStream extends ServletInputStream {
+
+        private final InputStream inflater ;
+        private final long maxSizeBytes ;
+
+        private long readBytes = 0 ;
+        private boolean finished = false ;
+
+        InflatingInputStream(InputStream inflater, long maxSizeBytes) {
+
+            this.inflater = inflater ;
+            this.maxSizeBytes = maxSizeBytes ;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            int value = inflater.read() ;
+
+            count(value < 0 ? -1 : 1) ;
+
+            return value ;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+
+            int read = inflater.read(buffer, offset, length) ;
+
+            count(read) ;
+
+            return read ;
+        }
+
+        private void count(int read) throws IOException {
+
+            if (read < 0) {
+
+                finished = true ;
+
+                return ;
+            }
+
+            readBytes += read ;
+
+            if (readBytes > maxSizeBytes) throw new IOException("Inflated request body exceeds " + maxSizeBytes + " bytes") ;
+        }
+
+        @Override
+        public boolean isFinished() {
+
+            return finished ;
+        }
+
+        @Override
+        public boolean isReady() {
+
+            return true ;
+        }
+
+        // Only blocking reads - the message converters never read asynchronously
+        @Override
+        public void setReadListener(ReadListener readListener) {
+
+            throw new UnsupportedOperationException("Gzip request bodies are read blocking only") ;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            inflater.close() ;
+        }
+    }
+}
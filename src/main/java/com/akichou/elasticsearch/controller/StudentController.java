@@ -1,71 +1,260 @@
 package com.akichou.elasticsearch.controller;
 
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import com.akichou.elasticsearch.entity.ingest.BulkResult;
+import com.akichou.elasticsearch.entity.update.UpdateInfo;
+import com.akichou.elasticsearch.entity.update.UpdateResult;
+import com.akichou.elasticsearch.repository.StudentElasticsearchAsyncRepository;
+import com.akichou.elasticsearch.entity.search.BatchGetInfo;
+import com.akichou.elasticsearch.entity.search.InvalidSearchCursorException;
+import com.akichou.elasticsearch.entity.search.SearchInfo;
+import com.akichou.elasticsearch.entity.search.SearchPage;
+import com.akichou.elasticsearch.entity.search.SlowQuery;
 import com.akichou.elasticsearch.repository.StudentElasticsearchRepository;
+import com.akichou.elasticsearch.repository.index.IndexMigrationInProgressException;
+import com.akichou.elasticsearch.repository.ingest.StudentBulkIngester;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyLimitExceededException;
+import com.akichou.elasticsearch.repository.routing.RoutingKeyChangedException;
+import com.akichou.elasticsearch.repository.routing.StudentRoutingStrategy;
 import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.utils.SearchUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequiredArgsConstructor
 @RequestMapping(value = "/students", produces = MediaType.APPLICATION_JSON_VALUE)
 public class StudentController {
 
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson" ;
+
+    // Every slice is a thread here and a slice of the point-in-time in ES - more than the shards of the index only adds overhead
+    private static final int MAX_EXPORT_SLICES = 16 ;
+
+    // The page size of one slice request - ES rejects more than index.max_result_window (10000 by default)
+    private static final int MAX_EXPORT_BATCH_SIZE = 10000 ;
+
+    // A page is one search request - ES rejects more than index.max_result_window (10000 by default)
+    private static final int MAX_PAGE_SIZE = 10000 ;
+
+    private final StudentBulkIngester studentBulkIngester ;
+
     private final StudentElasticsearchRepository studentElasticsearchRepository ;
 
+    private final ObjectMapper objectMapper ;
+
+    // Single-document endpoints return futures, so the servlet thread is released while ES works
+    private final StudentElasticsearchAsyncRepository studentElasticsearchAsyncRepository ;
+
     // Post single student documentation to ES
     @PostMapping
-    public ResponseEntity<Student> create(@Validated @RequestBody Student requestStudent) {
-
-        Student createdStudent = studentElasticsearchRepository.insertStudent(requestStudent) ;
+    public CompletableFuture<ResponseEntity<Student>> create(@Validated @RequestBody Student requestStudent) {
 
-        return ResponseEntity.status(HttpStatus.CREATED).body(createdStudent) ;
+        return studentElasticsearchAsyncRepository.insertStudent(requestStudent)
+                .thenApply(createdStudent -> ResponseEntity.status(HttpStatus.CREATED).body(createdStudent)) ;
     }
 
-    // Post multiple student documentations to ES
+    // Post multiple student documentations to ES - fed through the bulk ingester in size-bounded bulks.
+    // 201 when every documentation was created, otherwise 207 with the status and error of each item
     @PostMapping("/multi")
-    public ResponseEntity<List<Student>> create(@Validated @RequestBody List<Student> requestStudents) {
+    public CompletableFuture<ResponseEntity<BulkResult>> create(@Validated @RequestBody List<Student> requestStudents) {
 
-        List<Student> createdStudents = studentElasticsearchRepository.insertStudents(requestStudents) ;
-
-        return ResponseEntity.status(HttpStatus.CREATED).body(createdStudents) ;
+        return studentBulkIngester.addAll(requestStudents)
+                .thenApply(bulkResult -> ResponseEntity
+                        .status(bulkResult.isErrors() ? HttpStatus.MULTI_STATUS : HttpStatus.CREATED)
+                        .body(bulkResult)) ;
     }
 
     // Put single student documentation in ES
     @PutMapping("/{studentId}")
-    public ResponseEntity<Student> update(@PathVariable("studentId") String studentId,
-                                          @Validated @RequestBody Student requestStudent) {
+    public CompletableFuture<ResponseEntity<Student>> update(@PathVariable("studentId") String studentId,
+                                                             @Validated @RequestBody Student requestStudent) {
 
         // New student id
         requestStudent.setStudentId(studentId) ;
 
-        Student updatedStudent = studentElasticsearchRepository.saveStudent(requestStudent) ;
+        return studentElasticsearchAsyncRepository.saveStudent(requestStudent)
+                .thenApply(updatedStudent -> ResponseEntity.status(HttpStatus.ACCEPTED).body(updatedStudent)) ;
+    }
+
+    // Patch single student documentation in ES - only the given fields are sent and re-analyzed
+    @PatchMapping("/{studentId}")
+    public CompletableFuture<ResponseEntity<UpdateResult>> patch(@PathVariable("studentId") String studentId,
+                                                                 @RequestParam(value = "routing", required = false) String routing,
+                                                                 @Validated @RequestBody UpdateInfo updateInfo) {
+
+        // The id cannot change, and unmapped fields would be added to the mapping dynamically
+        Set<String> updatableFields = studentElasticsearchRepository.getPropertyMappings().keySet() ;
+
+        if (updateInfo.getFields().containsKey("studentId") || !updatableFields.containsAll(updateInfo.getFields().keySet())) {
+
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).build()) ;
+        }
+
+        // Neither can the routing key - the documentation would stay on the shard of the old one
+        StudentRoutingStrategy studentRoutingStrategy = studentElasticsearchRepository.getStudentRoutingStrategy() ;
 
-        return ResponseEntity.status(HttpStatus.ACCEPTED).body(updatedStudent) ;
+        if (studentRoutingStrategy != null && updateInfo.getFields().containsKey(studentRoutingStrategy.routingField())) {
+
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).build()) ;
+        }
+
+        return studentElasticsearchAsyncRepository.updateStudent(studentId, routing, updateInfo)
+                .thenApply(updateResult -> ResponseEntity.status(HttpStatus.OK).body(updateResult)) ;
     }
 
     // Delete single student documentation in ES via studentId (set identifier of index)
     @DeleteMapping("/{studentId}")
-    public ResponseEntity<Void> delete(@PathVariable("studentId") String studentId) {
+    public CompletableFuture<ResponseEntity<Void>> delete(@PathVariable("studentId") String studentId,
+                                                          @RequestParam(value = "routing", required = false) String routing) {
+
+        return studentElasticsearchAsyncRepository.deleteStudentById(studentId, routing)
+                .thenApply(ignored -> ResponseEntity.status(HttpStatus.NO_CONTENT).<Void>build()) ;
+    }
+
+    // Get a single student documentation - 'routing' (the primary department, when routing is enabled) saves a search on every shard
+    @GetMapping("/{studentId}")
+    public CompletableFuture<ResponseEntity<Student>> get(@PathVariable("studentId") String studentId,
+                                                          @RequestParam(value = "routing", required = false) String routing) {
+
+        return studentElasticsearchAsyncRepository.findStudentById(studentId, routing)
+                .thenApply(foundStudent -> foundStudent
+                        .map(student -> ResponseEntity.status(HttpStatus.OK).body(student))
+                        .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).build())) ;
+    }
 
-        studentElasticsearchRepository.deleteStudentById(studentId) ;
+    // Get multiple student documentations in one round trip (mget), missing ids are left out
+    @PostMapping("/batch")
+    public ResponseEntity<List<Student>> getBatch(@Validated @RequestBody BatchGetInfo batchGetInfo) {
+
+        List<Student> foundStudents =
+                studentElasticsearchRepository.findStudentsByIds(batchGetInfo.getIds(), batchGetInfo.getFields()) ;
+
+        return ResponseEntity.status(HttpStatus.OK).body(foundStudents) ;
+    }
+
+    // Page through student documentations with a cursor - pass the 'cursor' of a page (and the same 'q') back for the next one,
+    // until it is null. 'q' optionally restricts the pages to a full-text match on name and introduction. A made-up cursor -> 400
+    @GetMapping("/page")
+    public ResponseEntity<SearchPage> page(@RequestParam(value = "q", required = false) String searchText,
+                                           @RequestParam(value = "size", defaultValue = "10")
+                                           @Min(1) @Max(MAX_PAGE_SIZE) int size,
+                                           @RequestParam(value = "cursor", required = false) String cursor) {
+
+        SearchInfo searchInfo = searchText == null
+                ? new SearchInfo()
+                : SearchInfo.of(SearchUtils.createMatchQuery(Set.of("name", "introduction"), searchText)) ;
+
+        searchInfo.setSize(size) ;
+        searchInfo.setCursor(cursor) ;
+
+        return ResponseEntity.status(HttpStatus.OK).body(studentElasticsearchRepository.findPage(searchInfo)) ;
+    }
+
+    // Stop paging before the last page - releases the point-in-time of the cursor instead of waiting for its keep-alive
+    @DeleteMapping("/page")
+    public ResponseEntity<Void> closePage(@RequestParam("cursor") String cursor) {
+
+        studentElasticsearchRepository.closeCursor(cursor) ;
 
         return ResponseEntity.status(HttpStatus.NO_CONTENT).build() ;
     }
 
-    // Get a single student documentation
-    @GetMapping("/{studentId}")
-    public ResponseEntity<Student> get(@PathVariable("studentId") String studentId) {
+    // Export student documentations as NDJSON (one documentation per line), streamed while the slices scan.
+    // 'q' optionally restricts the export to a full-text match on name and introduction. Out-of-range slices or batchSize -> 400
+    @GetMapping(value = "/export", produces = NDJSON_MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(value = "q", required = false) String searchText,
+                                                        @RequestParam(value = "slices", defaultValue = "4")
+                                                        @Min(1) @Max(MAX_EXPORT_SLICES) int slices,
+                                                        @RequestParam(value = "batchSize", defaultValue = "1000")
+                                                        @Min(1) @Max(MAX_EXPORT_BATCH_SIZE) int batchSize) {
+
+        SearchInfo searchInfo = searchText == null
+                ? new SearchInfo()
+                : SearchInfo.of(SearchUtils.createMatchQuery(Set.of("name", "introduction"), searchText)) ;
+
+        StreamingResponseBody responseBody = outputStream -> {
+
+            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream) ;
+
+            studentElasticsearchRepository.exportStudents(searchInfo, slices, batchSize, student -> {
+
+                try {
+
+                    bufferedOutputStream.write(objectMapper.writeValueAsBytes(student)) ;
+                    bufferedOutputStream.write('\n') ;
+                } catch (IOException e) {
+
+                    throw new UncheckedIOException(e) ;
+                }
+            }) ;
+
+            bufferedOutputStream.flush() ;
+        } ;
+
+        return ResponseEntity.status(HttpStatus.OK).body(responseBody) ;
+    }
+
+    // The slowest query fingerprints of find(), with the per-clause profile of a sampled run when there is one
+    @GetMapping("/slow-queries")
+    public ResponseEntity<List<SlowQuery>> slowQueries(@RequestParam(value = "top", defaultValue = "10") int top) {
+
+        return ResponseEntity.status(HttpStatus.OK).body(studentElasticsearchRepository.getSlowQueryLog().top(top)) ;
+    }
+
+    // ES errors keep their status - e.g. 409 for a failed if_seq_no check, 404 for patching a missing documentation
+    @ExceptionHandler(ElasticsearchException.class)
+    public ResponseEntity<Map<String, Object>> handleElasticsearchException(ElasticsearchException e) {
+
+        return ResponseEntity.status(e.status()).body(Map.of("status", e.status(), "error", e.getMessage())) ;
+    }
+
+    // A cursor the client made up or altered - not a server error
+    @ExceptionHandler(InvalidSearchCursorException.class)
+    public ResponseEntity<Map<String, Object>> handleInvalidSearchCursorException(InvalidSearchCursorException e) {
+
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("status", HttpStatus.BAD_REQUEST.value(), "error", e.getMessage())) ;
+    }
+
+    // Patched while the index is migrated, before the documentation was copied - it will be there once the migration is done
+    @ExceptionHandler(IndexMigrationInProgressException.class)
+    public ResponseEntity<Map<String, Object>> handleIndexMigrationInProgressException(IndexMigrationInProgressException e) {
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(Map.of("status", HttpStatus.SERVICE_UNAVAILABLE.value(), "error", e.getMessage())) ;
+    }
+
+    // PUT with another routing key than the stored documentation - it would be indexed a second time on another shard
+    @ExceptionHandler(RoutingKeyChangedException.class)
+    public ResponseEntity<Map<String, Object>> handleRoutingKeyChangedException(RoutingKeyChangedException e) {
+
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("status", HttpStatus.BAD_REQUEST.value(), "error", e.getMessage())) ;
+    }
 
-        Student foundStudent = studentElasticsearchRepository.findStudentById(studentId).orElse(null) ;
+    // Rejected by the concurrency limit before reaching ES - the client should back off and retry
+    @ExceptionHandler(ConcurrencyLimitExceededException.class)
+    public ResponseEntity<Map<String, Object>> handleConcurrencyLimitExceededException(ConcurrencyLimitExceededException e) {
 
-        return foundStudent == null
-                ? ResponseEntity.status(HttpStatus.NOT_FOUND).build()
-                : ResponseEntity.status(HttpStatus.OK).body(foundStudent) ;
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("status", HttpStatus.SERVICE_UNAVAILABLE.value(), "error", e.getMessage())) ;
     }
 }
@@ -1,5 +1,7 @@
 package com.akichou.elasticsearch.entity;
 
+import com.akichou.elasticsearch.repository.mapping.FieldMapping;
+import com.akichou.elasticsearch.repository.mapping.FieldType;
 import lombok.Data;
 
 @Data
@@ -7,5 +9,16 @@ public class Course {
 
     private String courseName ;
 
+    @FieldMapping(type = FieldType.Byte)
     private int point ;
+
+    public Course copy() {
+
+        Course copy = new Course() ;
+
+        copy.courseName = courseName ;
+        copy.point = point ;
+
+        return copy ;
+    }
 }
@@ -8,4 +8,14 @@ public class Job {
     private String jobName ;
 
     private Boolean primary ;
+
+    public Job copy() {
+
+        Job copy = new Job() ;
+
+        copy.jobName = jobName ;
+        copy.primary = primary ;
+
+        return copy ;
+    }
 }
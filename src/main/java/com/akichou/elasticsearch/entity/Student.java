@@ -1,18 +1,22 @@
 package com.akichou.elasticsearch.entity;
 
+import com.akichou.elasticsearch.repository.mapping.FieldMapping;
+import com.akichou.elasticsearch.repository.mapping.FieldType;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 @Data
 public class Student {
 
-    // As index -> documentation identifier
+    // As index -> documentation identifier (also kept as _id, so no doc values for sorting here)
     @NotBlank
+    @FieldMapping(type = FieldType.Keyword, docValues = false)
     private String studentId ;
 
     @NotBlank
@@ -22,24 +26,64 @@ public class Student {
     @NotEmpty
     private List<String> departments ;
 
+    // The department the student is filed under - the first of departments unless given (the routing key, see PrimaryDepartmentRoutingStrategy)
+    private String primaryDepartment ;
+
     // Courses student taken
     private List<Course> courses ;
 
     @NotNull
+    @FieldMapping(type = FieldType.Byte)
     private Integer grade ;
 
+    @FieldMapping(type = FieldType.Short)
     private Integer chineseScore ;
 
+    @FieldMapping(type = FieldType.Short)
     private Integer mathScore ;
 
     private Job job ;
 
+    // The only full-text field
     @NotBlank
+    @FieldMapping(type = FieldType.Text)
     private String introduction ;
 
     private Date englishTestIssuedDate ;
 
     private String bloodType ;
 
+    // Only looked up exactly, never sorted or aggregated
+    @FieldMapping(type = FieldType.Keyword, docValues = false)
     private List<String> phoneNumbers ;
+
+    // Serialized with the fallback, so the stored documentation always holds the key it was routed by
+    public String getPrimaryDepartment() {
+
+        if (primaryDepartment != null || departments == null || departments.isEmpty()) return primaryDepartment ;
+
+        return departments.get(0) ;
+    }
+
+    // Deep copy - the caches hand out copies, so a caller changing its student never changes the cached one
+    public Student copy() {
+
+        Student copy = new Student() ;
+
+        copy.studentId = studentId ;
+        copy.name = name ;
+        copy.departments = departments == null ? null : new ArrayList<>(departments) ;
+        copy.primaryDepartment = primaryDepartment ;
+        copy.courses = courses == null ? null : new ArrayList<>(courses.stream().map(Course::copy).toList()) ;
+        copy.grade = grade ;
+        copy.chineseScore = chineseScore ;
+        copy.mathScore = mathScore ;
+        copy.job = job == null ? null : job.copy() ;
+        copy.introduction = introduction ;
+        copy.englishTestIssuedDate = englishTestIssuedDate == null ? null : new Date(englishTestIssuedDate.getTime()) ;
+        copy.bloodType = bloodType ;
+        copy.phoneNumbers = phoneNumbers == null ? null : new ArrayList<>(phoneNumbers) ;
+
+        return copy ;
+    }
 }
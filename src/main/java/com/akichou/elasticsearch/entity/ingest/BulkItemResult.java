@@ -0,0 +1,18 @@
+package com.akichou.elasticsearch.entity.ingest;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// Outcome of one documentation of a bulk insert, after any retries
+@Data
+@AllArgsConstructor
+public class BulkItemResult {
+
+    private String studentId ;
+
+    // As ES answered the item - 201 created, 409 already exists, 429 still rejected after the last retry...
+    private int status ;
+
+    // null when the item succeeded
+    private String error ;
+}
@@ -0,0 +1,21 @@
+package com.akichou.elasticsearch.entity.ingest;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+// Per-documentation outcome of a bulk insert, items in the order of the request
+@Data
+@AllArgsConstructor
+public class BulkResult {
+
+    // true -> at least one item failed, see its error
+    private boolean errors ;
+
+    private int succeeded ;
+
+    private int failed ;
+
+    private List<BulkItemResult> items ;
+}
@@ -0,0 +1,30 @@
+package com.akichou.elasticsearch.entity.ingest;
+
+import com.akichou.elasticsearch.entity.Student;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Date;
+
+// A bulk operation that failed for good - kept with its documentation, so it can be inspected and replayed
+@Data
+@AllArgsConstructor
+public class DeadLetter {
+
+    // create / index / delete
+    private String operation ;
+
+    private String studentId ;
+
+    // null for a delete
+    private Student student ;
+
+    private int status ;
+
+    private String error ;
+
+    // Bulk requests the operation was sent in, the first one included
+    private int attempts ;
+
+    private Date failedAt ;
+}
@@ -0,0 +1,20 @@
+package com.akichou.elasticsearch.entity.ingest;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// Outcome of one run of the file loader - a resumed run only counts the documentations after its checkpoint
+@Data
+@AllArgsConstructor
+public class LoadResult {
+
+    private long loaded ;
+
+    private long failed ;
+
+    // Byte offset the run started at (0, or the checkpoint it resumed from)
+    private long startOffset ;
+
+    // Byte offset every documentation before has been acknowledged by ES - the next checkpoint
+    private long endOffset ;
+}
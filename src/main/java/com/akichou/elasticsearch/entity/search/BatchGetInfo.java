@@ -0,0 +1,17 @@
+package com.akichou.elasticsearch.entity.search;
+
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchGetInfo {
+
+    // The ids of documentations to get
+    @NotEmpty
+    private List<String> ids ;
+
+    // The fields to return (empty -> whole documentation)
+    private List<String> fields = List.of() ;
+}
@@ -0,0 +1,12 @@
+package com.akichou.elasticsearch.entity.search;
+
+// Thrown for a cursor that was not handed out by findPage (or was cut or altered on the way back) -
+// a client error, so it is answered with 400 instead of failing the request on the server side.
+public class InvalidSearchCursorException extends IllegalArgumentException {
+
+    // Constructor
+    public InvalidSearchCursorException(String message, Throwable cause) {
+
+        super(message, cause) ;
+    }
+}
@@ -0,0 +1,25 @@
+package com.akichou.elasticsearch.entity.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+// Time one clause of a query took on a shard, as the ES profile API reports it (Lucene query type and description)
+@Data
+@AllArgsConstructor
+public class QueryClauseProfile {
+
+    private String type ;
+
+    private String description ;
+
+    // This clause and its children
+    private long timeNanos ;
+
+    // create_weight, build_scorer, next_doc, advance, match, score... -> nanoseconds
+    private Map<String, Long> breakdown ;
+
+    private List<QueryClauseProfile> children ;
+}
@@ -0,0 +1,14 @@
+package com.akichou.elasticsearch.entity.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// A hit without its documentation - only the identifier and the score
+@Data
+@AllArgsConstructor
+public class ScoredId {
+
+    private String studentId ;
+
+    private Double score ;
+}
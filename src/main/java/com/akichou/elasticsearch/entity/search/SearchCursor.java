@@ -0,0 +1,109 @@
+package com.akichou.elasticsearch.entity.search;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+// Position of a point-in-time scan - the PIT id and the sort values of the last hit returned.
+// Handed to callers as an opaque url-safe string, and decoded again when they pass it back.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchCursor {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper() ;
+
+    private String pitId ;
+
+    // Raw sort values of the last hit (Long, Double, Boolean, String or null)
+    private List<Object> searchAfter ;
+
+    public static SearchCursor of(String pitId, List<FieldValue> sortValues) {
+
+        List<Object> searchAfter = sortValues.stream()
+                .map(SearchCursor::toRawValue)
+                .toList() ;
+
+        return new SearchCursor(pitId, searchAfter) ;
+    }
+
+    public static SearchCursor decode(String encodedCursor) {
+
+        try {
+
+            byte[] json = Base64.getUrlDecoder().decode(encodedCursor) ;
+
+            SearchCursor searchCursor = OBJECT_MAPPER.readValue(json, SearchCursor.class) ;
+
+            // Valid JSON is not enough - a cursor without a PIT id or sort values cannot be resumed
+            if (searchCursor == null || searchCursor.pitId == null || searchCursor.pitId.isBlank() || searchCursor.searchAfter == null) {
+
+                throw new IllegalArgumentException("Incomplete search cursor") ;
+            }
+
+            // Only what of() writes can be read back - an object or array would fail later, as a 500
+            for (Object rawValue : searchCursor.searchAfter) {
+
+                if (rawValue != null && !(rawValue instanceof Number) && !(rawValue instanceof Boolean) && !(rawValue instanceof String)) {
+
+                    throw new IllegalArgumentException("Unsupported sort value in search cursor") ;
+                }
+            }
+
+            return searchCursor ;
+        } catch (IOException | IllegalArgumentException e) {
+
+            throw new InvalidSearchCursorException("Invalid search cursor", e) ;
+        }
+    }
+
+    public String encode() {
+
+        try {
+
+            byte[] json = OBJECT_MAPPER.writeValueAsString(this).getBytes(StandardCharsets.UTF_8) ;
+
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(json) ;
+        } catch (IOException e) {
+
+            throw new UncheckedIOException(e) ;
+        }
+    }
+
+    public List<FieldValue> toSearchAfter() {
+
+        return searchAfter.stream()
+                .map(SearchCursor::toFieldValue)
+                .toList() ;
+    }
+
+    private static Object toRawValue(FieldValue fieldValue) {
+
+        if (fieldValue.isLong()) return fieldValue.longValue() ;
+        if (fieldValue.isDouble()) return fieldValue.doubleValue() ;
+        if (fieldValue.isBoolean()) return fieldValue.booleanValue() ;
+        if (fieldValue.isString()) return fieldValue.stringValue() ;
+        if (fieldValue.isNull()) return null ;
+
+        throw new UnsupportedOperationException("This type of sort value is not supported !") ;
+    }
+
+    // Jackson reads small integers back as Integer, so every integral number is widened to long
+    private static FieldValue toFieldValue(Object rawValue) {
+
+        if (rawValue == null) return FieldValue.NULL ;
+        if (rawValue instanceof Double || rawValue instanceof Float) return FieldValue.of(((Number) rawValue).doubleValue()) ;
+        if (rawValue instanceof Number) return FieldValue.of(((Number) rawValue).longValue()) ;
+        if (rawValue instanceof Boolean) return FieldValue.of((boolean) rawValue) ;
+
+        return FieldValue.of((String) rawValue) ;
+    }
+}
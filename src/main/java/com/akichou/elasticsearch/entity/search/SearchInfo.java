@@ -2,6 +2,7 @@ package com.akichou.elasticsearch.entity.search;
 
 import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.query_dsl.*;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
 import lombok.Data;
 import org.springframework.util.CollectionUtils;
 
@@ -25,6 +26,15 @@ public class SearchInfo {
     // The number of data requiring
     private Integer size ;
 
+    // The opaque cursor of the previous page (cursor mode only, 'from' is ignored there)
+    private String cursor ;
+
+    // The fields of _source to return (empty -> all fields)
+    private List<String> includes = List.of() ;
+
+    // The fields of _source to leave out
+    private List<String> excludes = List.of() ;
+
     // Init query condition -> match_all
     public SearchInfo() {
 
@@ -52,6 +62,16 @@ public class SearchInfo {
     }
 
 
+    // Source filtering of the hits, null when the whole _source is wanted
+    public SourceConfig toSourceConfig() {
+
+        if (CollectionUtils.isEmpty(includes) && CollectionUtils.isEmpty(excludes)) return null ;
+
+        return SourceConfig.of(b -> b.filter(f -> f
+                .includes(includes == null ? List.of() : includes)
+                .excludes(excludes == null ? List.of() : excludes))) ;
+    }
+
     public Query toQuery() {
 
         // If FunctionScore hasn't set, return basic Query
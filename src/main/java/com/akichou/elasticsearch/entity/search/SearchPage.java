@@ -0,0 +1,17 @@
+package com.akichou.elasticsearch.entity.search;
+
+import com.akichou.elasticsearch.entity.Student;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+// A page of a cursor search - 'cursor' is null once the last page has been returned
+@Data
+@AllArgsConstructor
+public class SearchPage {
+
+    private List<Student> students ;
+
+    private String cursor ;
+}
@@ -0,0 +1,18 @@
+package com.akichou.elasticsearch.entity.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+// Per-clause profile of a query on one shard - '[node][index][shard]'
+@Data
+@AllArgsConstructor
+public class ShardQueryProfile {
+
+    private String shardId ;
+
+    private long rewriteTimeNanos ;
+
+    private List<QueryClauseProfile> clauses ;
+}
@@ -0,0 +1,44 @@
+package com.akichou.elasticsearch.entity.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Date;
+import java.util.List;
+
+// A query of find() that took longer than the slow-query threshold, summed over every run with the same fingerprint.
+// Shards and hits are those of the latest slow run.
+@Data
+@AllArgsConstructor
+public class SlowQuery {
+
+    private String fingerprint ;
+
+    // The built query as JSON
+    private String query ;
+
+    private long count ;
+
+    private long maxTookMillis ;
+
+    private long averageTookMillis ;
+
+    private long lastTookMillis ;
+
+    private Date lastSeen ;
+
+    private int totalShards ;
+
+    private int successfulShards ;
+
+    private int skippedShards ;
+
+    private int failedShards ;
+
+    private long hits ;
+
+    // null until a sampled run has been profiled
+    private List<ShardQueryProfile> profile ;
+
+    private Date profiledAt ;
+}
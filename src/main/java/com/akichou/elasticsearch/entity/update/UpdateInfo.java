@@ -0,0 +1,36 @@
+package com.akichou.elasticsearch.entity.update;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Data;
+
+import java.util.Map;
+
+// A partial update - only 'fields' are sent and merged into the stored documentation
+@Data
+public class UpdateInfo {
+
+    // Field name -> new value, fields left out keep their value
+    @NotEmpty
+    private Map<String, Object> fields ;
+
+    // Optimistic concurrency - the update fails with 409 unless the documentation is still at this seq_no / primary_term
+    private Long ifSeqNo ;
+
+    private Long ifPrimaryTerm ;
+
+    // Retries of a conflicting concurrent update, ES refuses it together with ifSeqNo
+    @PositiveOrZero
+    private Integer retryOnConflict ;
+
+    @JsonIgnore
+    @AssertTrue(message = "ifSeqNo and ifPrimaryTerm go together, and cannot be combined with retryOnConflict")
+    public boolean isConcurrencyControlValid() {
+
+        if ((ifSeqNo == null) != (ifPrimaryTerm == null)) return false ;
+
+        return ifSeqNo == null || retryOnConflict == null ;
+    }
+}
@@ -0,0 +1,20 @@
+package com.akichou.elasticsearch.entity.update;
+
+import com.akichou.elasticsearch.entity.Student;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// The documentation after a partial update, with the seq_no / primary_term for the next conditional update
+@Data
+@AllArgsConstructor
+public class UpdateResult {
+
+    private Student student ;
+
+    private Long seqNo ;
+
+    private Long primaryTerm ;
+
+    // false -> the fields already had these values and nothing was written (noop)
+    private boolean changed ;
+}
@@ -0,0 +1,424 @@
+package com.akichou.elasticsearch.repository;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.*;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.entity.update.UpdateInfo;
+import com.akichou.elasticsearch.entity.update.UpdateResult;
+import com.akichou.elasticsearch.entity.search.SearchInfo;
+import com.akichou.elasticsearch.repository.cache.SearchResultCache;
+import com.akichou.elasticsearch.repository.cache.StudentDocumentCache;
+import com.akichou.elasticsearch.repository.index.IndexMigrationInProgressException;
+import com.akichou.elasticsearch.repository.index.StudentIndexManager;
+import com.akichou.elasticsearch.repository.ingest.StudentWriteCoalescer;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyBudgets;
+import com.akichou.elasticsearch.repository.metrics.ElasticsearchMetrics;
+import com.akichou.elasticsearch.repository.routing.RoutingKeyChangedException;
+import com.akichou.elasticsearch.repository.routing.StudentRoutingStrategy;
+import com.akichou.elasticsearch.repository.search.MultiSearchCoalescer;
+import com.akichou.elasticsearch.repository.search.ReadHedger;
+import com.akichou.elasticsearch.repository.search.SlowQueryLog;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+// Non-blocking counterpart of StudentElasticsearchRepository.
+// Every method returns as soon as the request is handed to the IO reactor, so no caller thread waits on ES.
+@Slf4j
+public class StudentElasticsearchAsyncRepository {
+
+    private final ElasticsearchAsyncClient elasticsearchAsyncClient;
+    private final String indexName;
+    private final String writeIndexName;
+
+    // Optional - records deletes while a mapping migration runs
+    private StudentIndexManager studentIndexManager;
+
+    // Optional - shared with the blocking repository, so writes here invalidate its cached searches too
+    private SearchResultCache searchResultCache = SearchResultCache.disabled();
+    private StudentDocumentCache studentDocumentCache = StudentDocumentCache.disabled();
+
+    // Optional - meters go nowhere unless set
+    private ElasticsearchMetrics elasticsearchMetrics = ElasticsearchMetrics.disabled();
+
+    // Optional - shared with the blocking repository, requests are not limited unless set
+    private ConcurrencyBudgets concurrencyBudgets = ConcurrencyBudgets.unlimited();
+
+    // Optional - when set, find() is sent through a shared _msearch with other concurrent searches
+    private MultiSearchCoalescer multiSearchCoalescer;
+
+    // Optional - when set, single-documentation writes are sent through shared bulk requests
+    private StudentWriteCoalescer studentWriteCoalescer;
+
+    // Optional - shared with the blocking repository, when set a slow GET by id / search is sent a second time
+    private ReadHedger getHedger;
+    private ReadHedger searchHedger;
+
+    // Optional - shared with the blocking repository, slow searches are not logged unless set
+    private SlowQueryLog slowQueryLog = SlowQueryLog.disabled();
+
+    // Optional - documentations are routed by their id and searches ask every shard unless set
+    private StudentRoutingStrategy studentRoutingStrategy;
+
+    // Constructor
+    public StudentElasticsearchAsyncRepository(ElasticsearchAsyncClient elasticsearchAsyncClient, String indexName) {
+        this.elasticsearchAsyncClient = elasticsearchAsyncClient;
+        this.indexName = indexName;
+        this.writeIndexName = StudentIndexManager.writeAliasOf(indexName);
+    }
+
+    public void setStudentIndexManager(StudentIndexManager studentIndexManager) {
+        this.studentIndexManager = studentIndexManager;
+    }
+
+    public void setSearchResultCache(SearchResultCache searchResultCache) {
+        this.searchResultCache = searchResultCache;
+    }
+
+    public void setStudentDocumentCache(StudentDocumentCache studentDocumentCache) {
+        this.studentDocumentCache = studentDocumentCache;
+    }
+
+    public void setElasticsearchMetrics(ElasticsearchMetrics elasticsearchMetrics) {
+        this.elasticsearchMetrics = elasticsearchMetrics;
+    }
+
+    public void setConcurrencyBudgets(ConcurrencyBudgets concurrencyBudgets) {
+        this.concurrencyBudgets = concurrencyBudgets;
+    }
+
+    public void setMultiSearchCoalescer(MultiSearchCoalescer multiSearchCoalescer) {
+        this.multiSearchCoalescer = multiSearchCoalescer;
+    }
+
+    public void setStudentWriteCoalescer(StudentWriteCoalescer studentWriteCoalescer) {
+        this.studentWriteCoalescer = studentWriteCoalescer;
+    }
+
+    public void setGetHedger(ReadHedger getHedger) {
+        this.getHedger = getHedger;
+    }
+
+    public void setSearchHedger(ReadHedger searchHedger) {
+        this.searchHedger = searchHedger;
+    }
+
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    public void setStudentRoutingStrategy(StudentRoutingStrategy studentRoutingStrategy) {
+        this.studentRoutingStrategy = studentRoutingStrategy;
+    }
+
+    public CompletableFuture<Student> insertStudent(Student studentDocumentation) {
+
+        if (studentWriteCoalescer != null) return studentWriteCoalescer.insert(studentDocumentation) ;
+
+        // Set index, id(make studentId as identifier), document entity into request for ES.
+        CreateRequest<Student> createRequest =
+                new CreateRequest.Builder<Student>()
+                    .index(writeIndexName)
+                    .id(studentDocumentation.getStudentId())
+                    .routing(StudentElasticsearchRepository.routingOf(studentRoutingStrategy, studentDocumentation))
+                    .document(studentDocumentation)
+                    .build() ;
+
+        return execute("create", () -> elasticsearchAsyncClient.create(createRequest))
+                .thenApply(createResponse -> {
+
+                    searchResultCache.invalidate() ;
+
+                    studentDocumentation.setStudentId(createResponse.id()) ;
+
+                    studentDocumentCache.put(studentDocumentation) ;
+
+                    return studentDocumentation ;
+                }) ;
+    }
+
+    // When documentations are custom-routed, a changed routing key is rejected - move a documentation by deleting it first.
+    // A student the lookup does not find is created rather than indexed, so of two concurrent PUTs of a new id one gets a 409.
+    // Still open: a student written within the refresh interval under another routing is not found by the lookup's search,
+    // and its create lands on another shard - the documentation is then stored twice.
+    public CompletableFuture<Student> saveStudent(Student studentDocumentation) {
+
+        if (studentRoutingStrategy == null) return indexStudent(studentDocumentation) ;
+
+        return requireStoredRouting(studentDocumentation).thenCompose(stored -> stored
+                ? indexStudent(studentDocumentation)
+                : insertStudent(studentDocumentation)) ;
+    }
+
+    private CompletableFuture<Student> indexStudent(Student studentDocumentation) {
+
+        if (studentWriteCoalescer != null) return studentWriteCoalescer.save(studentDocumentation) ;
+
+        // Index-level request - with new studentDocumentation data of indicated id
+        IndexRequest<Student> indexRequest =
+                new IndexRequest.Builder<Student>()
+                    .index(writeIndexName)
+                    .id(studentDocumentation.getStudentId())
+                    .routing(StudentElasticsearchRepository.routingOf(studentRoutingStrategy, studentDocumentation))
+                    .document(studentDocumentation)
+                    .build() ;
+
+        return execute("index", () -> elasticsearchAsyncClient.index(indexRequest))
+                .thenApply(indexResponse -> {
+
+                    searchResultCache.invalidate() ;
+
+                    studentDocumentation.setStudentId(indexResponse.id()) ;
+
+                    studentDocumentCache.put(studentDocumentation) ;
+
+                    return studentDocumentation ;
+                }) ;
+    }
+
+    // Fails unless the documentation is new or stored under the routing it is about to be indexed with - completes with
+    // whether it is stored. A real-time GET on the shard of that routing answers the usual case, only a miss there searches
+    // every shard - of the read and the write alias, which are different indices while a mapping migration runs.
+    private CompletableFuture<Boolean> requireStoredRouting(Student studentDocumentation) {
+
+        String studentId = studentDocumentation.getStudentId() ;
+        String routing = StudentElasticsearchRepository.routingOf(studentRoutingStrategy, studentDocumentation) ;
+
+        GetRequest getRequest = new GetRequest.Builder()
+                .index(writeIndexName)
+                .id(studentId)
+                .routing(routing)
+                .source(s -> s.fetch(false))
+                .build() ;
+
+        return execute("get", () -> elasticsearchAsyncClient.get(getRequest, Void.class))
+                .thenCompose(getResponse -> {
+
+                    if (getResponse.found()) {
+
+                        requireRouting(studentId, getResponse.routing(), routing) ;
+
+                        return CompletableFuture.completedFuture(true) ;
+                    }
+
+                    return searchStudentById(indexName + "," + writeIndexName, studentId, false).thenApply(hit -> {
+
+                        hit.ifPresent(storedHit -> requireRouting(studentId, storedHit.routing(), routing)) ;
+
+                        return hit.isPresent() ;
+                    }) ;
+                }) ;
+    }
+
+    private static void requireRouting(String studentId, String storedRouting, String routing) {
+
+        if (storedRouting != null && !storedRouting.equals(routing)) {
+
+            throw new RoutingKeyChangedException("[" + studentId + "] is stored under routing [" + storedRouting
+                    + "], not [" + routing + "] - delete it before indexing it again") ;
+        }
+    }
+
+    // Partial update - only the given fields are sent, and an update that changes nothing is not written at all
+    public CompletableFuture<UpdateResult> updateStudent(String studentId, UpdateInfo updateInfo) {
+
+        return updateStudent(studentId, null, updateInfo) ;
+    }
+
+    // 'routing' the documentation was written with - null -> looked up when documentations are custom-routed
+    public CompletableFuture<UpdateResult> updateStudent(String studentId, String routing, UpdateInfo updateInfo) {
+
+        return withRouting(studentId, routing)
+                .thenCompose(documentRouting -> execute("update", () -> elasticsearchAsyncClient.update(
+                        StudentElasticsearchRepository.toUpdateRequest(writeIndexName, studentId, documentRouting, updateInfo), Student.class)))
+                .exceptionally(throwable -> {
+
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable ;
+
+                    // The write index is the migration target - the documentation may still be waiting in the source
+                    if (cause instanceof ElasticsearchException elasticsearchException && elasticsearchException.status() == 404
+                            && studentIndexManager != null && studentIndexManager.isMigrating()) {
+
+                        throw new IndexMigrationInProgressException("[" + studentId + "] is not in the migrated index yet, retry when the migration is done", cause) ;
+                    }
+
+                    throw throwable instanceof CompletionException completionException ? completionException : new CompletionException(throwable) ;
+                })
+                .thenApply(updateResponse -> {
+
+                    UpdateResult updateResult = StudentElasticsearchRepository.toUpdateResult(updateResponse) ;
+
+                    if (updateResult.isChanged()) searchResultCache.invalidate() ;
+
+                    studentDocumentCache.put(updateResult.getStudent()) ;
+
+                    return updateResult ;
+                }) ;
+    }
+
+    public CompletableFuture<Void> deleteStudentById(String studentId) {
+
+        return deleteStudentById(studentId, null) ;
+    }
+
+    // 'routing' the documentation was written with - null -> looked up when documentations are custom-routed
+    public CompletableFuture<Void> deleteStudentById(String studentId, String routing) {
+
+        return withRouting(studentId, routing).thenCompose(documentRouting -> deleteStudent(studentId, documentRouting)) ;
+    }
+
+    private CompletableFuture<Void> deleteStudent(String studentId, String routing) {
+
+        if (studentWriteCoalescer != null) return studentWriteCoalescer.delete(studentId, routing) ;
+
+        // Set a delete request - with indicated index and the documentation id
+        DeleteRequest deleteRequest = new DeleteRequest.Builder()
+                .index(writeIndexName)
+                .id(studentId)
+                .routing(routing)
+                .build() ;
+
+        return execute("delete", () -> elasticsearchAsyncClient.delete(deleteRequest))
+                .thenApply(deleteResponse -> {
+
+                    if (studentIndexManager != null) studentIndexManager.onDeleted(studentId, routing) ;
+
+                    searchResultCache.invalidate() ;
+                    studentDocumentCache.evict(studentId) ;
+
+                    return null ;
+                }) ;
+    }
+
+    public CompletableFuture<Optional<Student>> findStudentById(String studentId) {
+
+        return findStudentById(studentId, null) ;
+    }
+
+    // 'routing' the documentation was written with - null while documentations are custom-routed costs a search on every shard
+    public CompletableFuture<Optional<Student>> findStudentById(String studentId, String routing) {
+
+        // Read-through - only a miss reaches ES, and concurrent misses of one id share its GET
+        return studentDocumentCache.get(studentId, id -> getStudentById(id, routing)) ;
+    }
+
+    private CompletableFuture<Optional<Student>> getStudentById(String studentId, String routing) {
+
+        // An id alone does not tell the shard of a custom-routed documentation
+        if (routing == null && studentRoutingStrategy != null) {
+
+            return searchStudentById(indexName, studentId, true).thenApply(hit -> hit.map(StudentElasticsearchRepository::toStudent)) ;
+        }
+
+        // Set a get request - with indicated index and the studentId
+        GetRequest getRequest = StudentElasticsearchRepository.toGetRequest(indexName, studentId, routing, null) ;
+
+        CompletableFuture<GetResponse<Student>> getFuture = getHedger != null
+                ? getHedger.read(preference -> execute("get", () -> elasticsearchAsyncClient.get(
+                        preference == null ? getRequest : StudentElasticsearchRepository.toGetRequest(indexName, studentId, routing, preference),
+                        Student.class)))
+                : execute("get", () -> elasticsearchAsyncClient.get(getRequest, Student.class)) ;
+
+        return getFuture.thenApply(getResponse -> Optional.ofNullable(getResponse.source())) ;
+    }
+
+    // The given routing, or the one of the stored documentation when documentations are custom-routed
+    private CompletableFuture<String> withRouting(String studentId, String routing) {
+
+        if (routing != null || studentRoutingStrategy == null) return CompletableFuture.completedFuture(routing) ;
+
+        return searchStudentById(indexName, studentId, false).thenApply(hit -> hit.map(Hit::routing).orElse(null)) ;
+    }
+
+    // One search on every shard instead of a GET on one. A search only sees refreshed documentations, so one written within
+    // the refresh interval is missed (and that miss is cached like the miss of a GET). Not refreshed on a miss - any client
+    // could refresh the whole index at will that way. Only ids asked for without their routing pay for this.
+    private CompletableFuture<Optional<Hit<Student>>> searchStudentById(String searchIndexName, String studentId, boolean fetchSource) {
+
+        SearchRequest searchRequest = StudentElasticsearchRepository.toIdsSearchRequest(searchIndexName, List.of(studentId), fetchSource, List.of()) ;
+
+        return execute("search_ids", () -> elasticsearchAsyncClient.search(searchRequest, Student.class))
+                .thenApply(searchResponse -> searchResponse.hits()
+                        .hits()
+                        .stream()
+                        .findFirst()) ;
+    }
+
+    // For full-text search - only the shards of the routing keys it filters on are asked, when documentations are custom-routed
+    public CompletableFuture<List<Student>> find(SearchInfo searchInfo) {
+
+        String routing = StudentElasticsearchRepository.routingOf(studentRoutingStrategy, searchInfo) ;
+
+        SearchRequest searchRequest = StudentElasticsearchRepository.toSearchRequest(indexName, searchInfo, routing, null) ;
+
+        String fingerprint = searchResultCache.isEnabled()
+                ? SearchResultCache.fingerprint(searchRequest, elasticsearchAsyncClient._jsonpMapper())
+                : null ;
+
+        if (fingerprint != null) {
+
+            Optional<List<Student>> cachedStudents = searchResultCache.get(fingerprint) ;
+
+            if (cachedStudents.isPresent()) return CompletableFuture.completedFuture(cachedStudents.get()) ;
+        }
+
+        long searchedGeneration = searchResultCache.currentGeneration() ;
+
+        CompletableFuture<? extends ResponseBody<Student>> searchFuture ;
+
+        if (multiSearchCoalescer != null) {
+
+            searchFuture = multiSearchCoalescer.search(searchRequest) ;
+        } else {
+
+            CompletableFuture<SearchResponse<Student>> responseFuture = searchHedger != null
+                    ? searchHedger.read(preference -> execute("search", () -> elasticsearchAsyncClient.search(
+                            preference == null ? searchRequest : StudentElasticsearchRepository.toSearchRequest(indexName, searchInfo, routing, preference),
+                            Student.class)))
+                    : execute("search", () -> elasticsearchAsyncClient.search(searchRequest, Student.class)) ;
+
+            searchFuture = responseFuture.thenApply(searchResponse -> {
+
+                elasticsearchMetrics.recordTook("search", searchResponse.took()) ;
+
+                return searchResponse ;
+            }) ;
+        }
+
+        return searchFuture
+                .thenApply(searchResponse -> {
+
+                    slowQueryLog.onSearch(searchRequest, searchResponse,
+                            () -> StudentElasticsearchRepository.toProfileRequest(indexName, searchInfo, routing)) ;
+
+                    List<Student> students = searchResponse.hits()
+                            .hits()
+                            .stream()
+                            .map(StudentElasticsearchRepository::toStudent)
+                            .toList() ;
+
+                    if (fingerprint != null) searchResultCache.put(fingerprint, searchedGeneration, students) ;
+
+                    return students ;
+                }) ;
+    }
+
+    // Failure Logging - the failure itself is left in the future for the caller to handle.
+    // Every call is timed under its operation name until the future completes, within the budget of the operation.
+    private <V> CompletableFuture<V> execute(String operation, Supplier<CompletableFuture<V>> futureSupplier) {
+
+        return concurrencyBudgets.of(operation).executeAsync(() -> elasticsearchMetrics.recordAsync(operation, futureSupplier))
+                .whenComplete((result, throwable) -> {
+
+                    if (throwable != null) log.error(throwable.getMessage()) ;
+                }) ;
+    }
+}
@@ -1,246 +1,696 @@
 package com.akichou.elasticsearch.repository;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch._types.mapping.DateProperty;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.Result;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch._types.mapping.Property;
-import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
 import co.elastic.clients.elasticsearch.core.*;
 
-import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
-import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
-import co.elastic.clients.elasticsearch.core.bulk.CreateOperation;
+import co.elastic.clients.elasticsearch.core.get.GetResult;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
 import co.elastic.clients.elasticsearch.core.search.Hit;
-import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
-import co.elastic.clients.elasticsearch.indices.DeleteIndexRequest;
-import co.elastic.clients.elasticsearch.indices.ExistsRequest;
-import co.elastic.clients.transport.endpoints.BooleanResponse;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
+import com.akichou.elasticsearch.entity.search.ScoredId;
+import com.akichou.elasticsearch.entity.search.SearchCursor;
 import com.akichou.elasticsearch.entity.search.SearchInfo;
+import com.akichou.elasticsearch.entity.search.SearchPage;
 import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.entity.ingest.BulkResult;
+import com.akichou.elasticsearch.entity.update.UpdateInfo;
+import com.akichou.elasticsearch.entity.update.UpdateResult;
 import com.akichou.elasticsearch.functionalInterface.IOSupplier;
+import com.akichou.elasticsearch.repository.cache.SearchResultCache;
+import com.akichou.elasticsearch.repository.cache.StudentDocumentCache;
+import com.akichou.elasticsearch.repository.index.StudentIndexManager;
+import com.akichou.elasticsearch.repository.ingest.StudentBulkIngester;
+import com.akichou.elasticsearch.repository.ingest.StudentWriteCoalescer;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyBudgets;
 import com.akichou.elasticsearch.repository.mapping.FieldValuePropertyMapping;
+import com.akichou.elasticsearch.repository.metrics.ElasticsearchMetrics;
+import com.akichou.elasticsearch.repository.routing.StudentRoutingStrategy;
+import com.akichou.elasticsearch.repository.search.MultiSearchCoalescer;
+import com.akichou.elasticsearch.repository.search.ReadHedger;
+import com.akichou.elasticsearch.repository.search.SlowQueryLog;
+import com.akichou.elasticsearch.utils.SearchUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.CollectionUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Slf4j
 public class StudentElasticsearchRepository implements FieldValuePropertyMapping {
 
+    private static final int DEFAULT_PAGE_SIZE = 10 ;
+
+    // Upper bound of ids sent in one mget request
+    private static final int MGET_CHUNK_SIZE = 1000 ;
+
+    // How long a point-in-time stays open between two pages of a cursor
+    private static final String POINT_IN_TIME_KEEP_ALIVE = "1m" ;
+
     private final ElasticsearchClient elasticsearchClient;
     private final String indexName;
+    private final StudentBulkIngester studentBulkIngester;
+    private final StudentIndexManager studentIndexManager;
+
+    // Same transport - single-documentation reads and writes and find() are implemented once, there, and joined here
+    private final StudentElasticsearchAsyncRepository studentElasticsearchAsyncRepository;
+
+    // Optional - caching stays off unless a cache is set
+    private SearchResultCache searchResultCache = SearchResultCache.disabled();
+    private StudentDocumentCache studentDocumentCache = StudentDocumentCache.disabled();
+
+    // Optional - meters go nowhere unless set
+    private ElasticsearchMetrics elasticsearchMetrics = ElasticsearchMetrics.disabled();
+
+    // Optional - requests are not limited unless set
+    private ConcurrencyBudgets concurrencyBudgets = ConcurrencyBudgets.unlimited();
+
+    // Optional - slow searches are not logged unless set
+    private SlowQueryLog slowQueryLog = SlowQueryLog.disabled();
+
+    // Optional - documentations are routed by their id and searches ask every shard unless set
+    private StudentRoutingStrategy studentRoutingStrategy;
 
     // Constructor
     public StudentElasticsearchRepository(ElasticsearchClient elasticsearchClient, String indexName) {
+        this(elasticsearchClient, indexName,
+                new StudentBulkIngester(elasticsearchClient, StudentIndexManager.writeAliasOf(indexName)));
+    }
+
+    public StudentElasticsearchRepository(ElasticsearchClient elasticsearchClient, String indexName,
+                                          StudentBulkIngester studentBulkIngester) {
         this.elasticsearchClient = elasticsearchClient;
         this.indexName = indexName;
+        this.studentBulkIngester = studentBulkIngester;
+        this.studentIndexManager = new StudentIndexManager(elasticsearchClient, indexName, this);
+        this.studentElasticsearchAsyncRepository = new StudentElasticsearchAsyncRepository(
+                new ElasticsearchAsyncClient(elasticsearchClient._transport(), elasticsearchClient._transportOptions()), indexName);
+        this.studentElasticsearchAsyncRepository.setStudentIndexManager(studentIndexManager);
     }
 
-    // Initialization
-    public void init() {
+    // Every setter below also configures the async repository, so both always share the same collaborators
+    public void setSearchResultCache(SearchResultCache searchResultCache) {
+        this.searchResultCache = searchResultCache;
+        studentElasticsearchAsyncRepository.setSearchResultCache(searchResultCache);
+    }
 
-        if (isIndexExists(indexName)) deleteIndex() ;
+    public void setStudentDocumentCache(StudentDocumentCache studentDocumentCache) {
+        this.studentDocumentCache = studentDocumentCache;
+        studentElasticsearchAsyncRepository.setStudentDocumentCache(studentDocumentCache);
+    }
 
-        createIndex() ;
+    public void setElasticsearchMetrics(ElasticsearchMetrics elasticsearchMetrics) {
+        this.elasticsearchMetrics = elasticsearchMetrics;
+        studentElasticsearchAsyncRepository.setElasticsearchMetrics(elasticsearchMetrics);
     }
 
-    private boolean isIndexExists(String indexName) {
+    public void setConcurrencyBudgets(ConcurrencyBudgets concurrencyBudgets) {
+        this.concurrencyBudgets = concurrencyBudgets;
+        studentElasticsearchAsyncRepository.setConcurrencyBudgets(concurrencyBudgets);
+    }
 
-        ExistsRequest existsRequest = ExistsRequest.of(b -> b.index(indexName)) ;
+    public void setMultiSearchCoalescer(MultiSearchCoalescer multiSearchCoalescer) {
+        studentElasticsearchAsyncRepository.setMultiSearchCoalescer(multiSearchCoalescer);
+    }
 
-        BooleanResponse booleanResponse = execute(() -> elasticsearchClient.indices().exists(existsRequest)) ;
+    public void setStudentWriteCoalescer(StudentWriteCoalescer studentWriteCoalescer) {
+        studentElasticsearchAsyncRepository.setStudentWriteCoalescer(studentWriteCoalescer);
+    }
 
-        return booleanResponse.value() ;
+    public void setGetHedger(ReadHedger getHedger) {
+        studentElasticsearchAsyncRepository.setGetHedger(getHedger);
     }
 
-    public void deleteIndex() {
+    public void setSearchHedger(ReadHedger searchHedger) {
+        studentElasticsearchAsyncRepository.setSearchHedger(searchHedger);
+    }
+
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+        studentElasticsearchAsyncRepository.setSlowQueryLog(slowQueryLog);
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
 
-        // Set the request - Delete the index (indexName)
-        DeleteIndexRequest deleteIndexRequest = DeleteIndexRequest.of(b -> b.index(indexName)) ;
+    public void setStudentRoutingStrategy(StudentRoutingStrategy studentRoutingStrategy) {
+        this.studentRoutingStrategy = studentRoutingStrategy;
+        studentElasticsearchAsyncRepository.setStudentRoutingStrategy(studentRoutingStrategy);
+    }
 
-        // indices() method - Index-level operation API
-        execute(() -> elasticsearchClient.indices().delete(deleteIndexRequest)) ;
+    public StudentRoutingStrategy getStudentRoutingStrategy() {
+        return studentRoutingStrategy;
     }
 
-    public void createIndex() {
+    public StudentIndexManager getStudentIndexManager() {
+        return studentIndexManager;
+    }
 
-        Map<String, Property> propertyMapping = getPropertyMappings() ;
+    public StudentElasticsearchAsyncRepository getStudentElasticsearchAsyncRepository() {
+        return studentElasticsearchAsyncRepository;
+    }
 
-        // Create index with 'propertyMapping' mapping strategy
-        CreateIndexRequest createIndexRequest =
-                new CreateIndexRequest.Builder()
-                    .index(indexName)
-                    .mappings(TypeMapping.of(b -> b.properties(propertyMapping)))
-                    .build() ;
+    // Initialization - keeps the existing data, a changed mapping is migrated in the background
+    public void init() {
+
+        studentIndexManager.ensureIndex() ;
+    }
+
+    // Drop all data and start over with an empty index (tests and benchmarks)
+    public void recreateIndex() {
+
+        deleteIndex() ;
+
+        init() ;
+    }
+
+    public void deleteIndex() {
+
+        // Every concrete index behind the read and write alias
+        studentIndexManager.deleteIndices() ;
 
-        // Index-level operation
-        execute(() -> elasticsearchClient.indices().create(createIndexRequest)) ;
+        searchResultCache.invalidate() ;
+        studentDocumentCache.clear() ;
     }
 
-    // Mapping column "englishTestIssuedData"'s value as DateProperty format
+    // Make every write so far visible to searches, instead of waiting for the refresh interval (tests and benchmarks)
+    public void refresh() {
+
+        execute("refresh", () -> elasticsearchClient.indices().refresh(b -> b.index(indexName))) ;
+    }
+
+    // Explicit mapping of every Student field - strings are keyword unless marked as text (see @FieldMapping on Student)
     @Override
     public Map<String, Property> getPropertyMappings() {
 
-        Property englishTestIssuedDateProperty = DateProperty.of(b -> b)._toProperty() ;
-
-        return Map.of("englishTestIssuedDate", englishTestIssuedDateProperty) ;
+        return generatePropertyMappings(Student.class) ;
     }
 
-    // Controller Relations...
+    // Controller Relations... - the single-documentation calls wait for the async repository
     public Student insertStudent(Student studentDocumentation) {
 
-        // Set index, id(make studentId as identifier), document entity into request for ES.
-        CreateRequest<Student> createRequest =
-                new CreateRequest.Builder<Student>()
-                    .index(indexName)
-                    .id(studentDocumentation.getStudentId())
-                    .document(studentDocumentation)
-                    .build();
+        return join(studentElasticsearchAsyncRepository.insertStudent(studentDocumentation)) ;
+    }
 
-        return execute(() -> {
+    // Every documentation gets its own result - rejected items are retried by the ingester, the others are reported
+    public BulkResult insertStudents(List<Student> studentDocumentations) {
 
-            // Create documentation in the index indicated
-            CreateResponse createResponse = elasticsearchClient.create(createRequest) ;
+        // Feed the bulk ingester, which splits the list into size-bounded bulk requests
+        return studentBulkIngester.addAll(studentDocumentations).join() ;
+    }
 
-            studentDocumentation.setStudentId(createResponse.id()) ;
+    public Student saveStudent(Student studentDocumentation) {
 
-            return studentDocumentation ;
-        }) ;
+        return join(studentElasticsearchAsyncRepository.saveStudent(studentDocumentation)) ;
     }
 
-    public List<Student> insertStudents(List<Student> studentDocumentations) {
+    // Partial update - only the given fields are sent, and an update that changes nothing is not written at all
+    public UpdateResult updateStudent(String studentId, UpdateInfo updateInfo) {
 
-        // Set a bulk-request builder binding with 'indexName'
-        BulkRequest.Builder builder = new BulkRequest.Builder().index(indexName) ;
+        return updateStudent(studentId, null, updateInfo) ;
+    }
 
-        studentDocumentations.forEach(studentDocumentation -> {
+    // 'routing' the documentation was written with - null -> looked up when documentations are custom-routed
+    public UpdateResult updateStudent(String studentId, String routing, UpdateInfo updateInfo) {
 
-            // Create an operation for a studentDocumentation
-            CreateOperation<Student> createOperation =
-                    new CreateOperation.Builder<Student>()
-                        .id(studentDocumentation.getStudentId())
-                        .document(studentDocumentation)
-                        .build() ;
+        return join(studentElasticsearchAsyncRepository.updateStudent(studentId, routing, updateInfo)) ;
+    }
 
-            // Make an operation a bulk-operation
-            BulkOperation bulkOperation = BulkOperation.of(b -> b.create(createOperation)) ;
+    public void deleteStudentById(String studentId) {
 
-            // Add the bulk-operation into bulk-request builder
-            builder.operations(bulkOperation) ;
-        }) ;
-        BulkRequest bulkRequest = builder.build() ;
+        deleteStudentById(studentId, null) ;
+    }
 
-        return execute(() -> {
+    // 'routing' the documentation was written with - null -> looked up when documentations are custom-routed
+    public void deleteStudentById(String studentId, String routing) {
 
-            // Execute bulk insert operation, and get corresponding response
-            BulkResponse bulkResponse = elasticsearchClient.bulk(bulkRequest) ;
+        join(studentElasticsearchAsyncRepository.deleteStudentById(studentId, routing)) ;
+    }
 
+    public Optional<Student> findStudentById(String studentId) {
 
-            List<BulkResponseItem> items = bulkResponse.items() ;
+        return findStudentById(studentId, null) ;
+    }
 
-            for (var i = 0 ; i < items.size() ; i ++) {
+    // 'routing' the documentation was written with - null while documentations are custom-routed costs a search on every shard
+    public Optional<Student> findStudentById(String studentId, String routing) {
 
-                String studentId = items.get(i).id() ;
+        return join(studentElasticsearchAsyncRepository.findStudentById(studentId, routing)) ;
+    }
 
-                studentDocumentations.get(i).setStudentId(studentId) ;
-            }
+    // For batch lookup - one mget per chunk of ids instead of one GET per id.
+    // Missing ids are skipped, the found documentations keep the order of 'studentIds'
+    public List<Student> findStudentsByIds(Collection<String> studentIds) {
 
-            return studentDocumentations ;
-        }) ;
+        return findStudentsByIds(studentIds, List.of()) ;
     }
 
-    public Student saveStudent(Student studentDocumentation) {
+    // 'sourceIncludes' limits the returned fields (empty -> whole documentation), studentId is always filled in
+    public List<Student> findStudentsByIds(Collection<String> studentIds, List<String> sourceIncludes) {
+
+        List<String> distinctIds = studentIds.stream()
+                .distinct()
+                .toList() ;
+
+        List<Student> students = new ArrayList<>(distinctIds.size()) ;
 
-        // Index-level request - with new studentDocumentation data of indicated id
-        IndexRequest<Student> indexRequest =
-                new IndexRequest.Builder<Student>()
+        for (var chunkStart = 0 ; chunkStart < distinctIds.size() ; chunkStart += MGET_CHUNK_SIZE) {
+
+            List<String> chunkIds = distinctIds.subList(chunkStart, Math.min(chunkStart + MGET_CHUNK_SIZE, distinctIds.size())) ;
+
+            // The routing of every id is unknown - one search over every shard per chunk instead of the mget
+            if (studentRoutingStrategy != null) {
+
+                students.addAll(searchStudentsByIds(chunkIds, sourceIncludes)) ;
+
+                continue ;
+            }
+
+            MgetRequest.Builder builder = new MgetRequest.Builder()
                     .index(indexName)
-                    .id(studentDocumentation.getStudentId())
-                    .document(studentDocumentation)
-                    .build() ;
+                    .ids(chunkIds) ;
 
-        return execute(() -> {
+            if (!CollectionUtils.isEmpty(sourceIncludes)) builder.sourceIncludes(sourceIncludes) ;
 
-            IndexResponse indexResponse = elasticsearchClient.index(indexRequest) ;
+            MgetRequest mgetRequest = builder.build() ;
 
-            studentDocumentation.setStudentId(indexResponse.id()) ;
+            MgetResponse<Student> mgetResponse =
+                    execute("mget", () -> elasticsearchClient.mget(mgetRequest, Student.class)) ;
 
-            return studentDocumentation ;
-        }) ;
-    }
+            mgetResponse.docs().stream()
+                    .filter(MultiGetResponseItem::isResult)
+                    .map(MultiGetResponseItem::result)
+                    .filter(GetResult::found)
+                    .forEach(result -> {
 
-    public void deleteStudentById(String studentId) {
+                        Student student = result.source() ;
 
-        // Set a delete request - with indicated index and the documentation id
-        DeleteRequest deleteRequest = new DeleteRequest.Builder()
-                .index(indexName)
-                .id(studentId)
-                .build() ;
+                        student.setStudentId(result.id()) ;
 
-        execute(() -> elasticsearchClient.delete(deleteRequest)) ;
+                        students.add(student) ;
+                    }) ;
+        }
+
+        return students ;
     }
 
-    public Optional<Student> findStudentById(String studentId) {
+    private List<Student> searchStudentsByIds(List<String> studentIds, List<String> sourceIncludes) {
 
-        // Set a get request - with indicated index and the studentId
-        GetRequest getRequest = new GetRequest.Builder()
-                .index(indexName)
-                .id(studentId)
-                .build() ;
+        SearchRequest searchRequest = toIdsSearchRequest(indexName, studentIds, true, sourceIncludes) ;
 
-        // Send the request and define the class of documentation to find
-        GetResponse<Student> getResponse =
-                execute(() -> elasticsearchClient.get(getRequest, Student.class)) ;
+        SearchResponse<Student> searchResponse =
+                execute("mget", () -> elasticsearchClient.search(searchRequest, Student.class)) ;
 
-        return Optional.ofNullable(getResponse.source()) ;
+        Map<String, Student> foundStudents = searchResponse.hits()
+                .hits()
+                .stream()
+                .collect(Collectors.toMap(Hit::id, StudentElasticsearchRepository::toStudent)) ;
+
+        // Hits come back by shard, the result keeps the order of the ids
+        return studentIds.stream()
+                .map(foundStudents::get)
+                .filter(Objects::nonNull)
+                .toList() ;
     }
 
-    // For full-text search
+    // For full-text search - only the shards of the routing keys it filters on are asked, when documentations are custom-routed
     public List<Student> find(SearchInfo searchInfo) {
 
-        // Set a search request - with index,
-        // ( query condition, functions, score mode, boost mode, max boost of FunctionScoreQuery ),
-        // sort order, start-require index, actual-require documentation number
+        return join(studentElasticsearchAsyncRepository.find(searchInfo)) ;
+    }
+
+    // For list views that only need ranking - no _source is fetched or deserialized at all
+    public List<ScoredId> findScoredIds(SearchInfo searchInfo) {
+
         SearchRequest searchRequest = new SearchRequest.Builder()
                 .index(indexName)
+                .routing(routingOf(studentRoutingStrategy, searchInfo))
                 .query(searchInfo.toQuery())
+                .source(b -> b.fetch(false))
                 .sort(searchInfo.getSortOptions())
                 .from(searchInfo.getFrom())
                 .size(searchInfo.getSize())
                 .build() ;
 
-        SearchResponse<Student> searchResponse =
-                execute(() -> elasticsearchClient.search(searchRequest, Student.class)) ;
-
-        // Print out scores of students
-        searchResponse.hits().hits()
-                .forEach(hit ->
-                        System.out.print("ID: " + hit.id() + ", Score: " + String.format("%.3f", hit.score()) + "\n")) ;
-
-        // hits.hits -> result.result array
-        // hits.hits : [
-        //
-        //      {
-        //              "_index":
-        //              "_id":
-        //              "_score":
-        //              "_source": { documentation columns and values }
-        //      }, ...
-        // ]
+        SearchResponse<Void> searchResponse =
+                execute("search_ids", () -> elasticsearchClient.search(searchRequest, Void.class)) ;
+
+        elasticsearchMetrics.recordTook("search_ids", searchResponse.took()) ;
+
         return searchResponse.hits()
                 .hits()
                 .stream()
-                .map(Hit::source)
+                .map(hit -> new ScoredId(hit.id(), hit.score()))
                 .toList() ;
     }
 
-    // IOException Handling
-    private <V> V execute(IOSupplier<V> ioSupplier) {
+    // For deep pagination - pages through a point-in-time with search_after instead of from/size,
+    // so every page costs the same no matter how deep it is, and max_result_window does not apply
+    public SearchPage findPage(SearchInfo searchInfo) {
+
+        // The point-in-time only covers the shards of the routing keys filtered on - its later pages stay there
+        SearchCursor searchCursor = searchInfo.getCursor() == null
+                ? new SearchCursor(openPointInTime(routingOf(studentRoutingStrategy, searchInfo)), List.of())
+                : SearchCursor.decode(searchInfo.getCursor()) ;
+
+        int size = searchInfo.getSize() == null ? DEFAULT_PAGE_SIZE : searchInfo.getSize() ;
+
+        // Without a sort the pages follow relevance, the same as find() - '_shard_doc' alone would page in index order.
+        // '_shard_doc' breaks ties between equal sort values, so no hit is skipped or repeated across pages
+        List<SortOptions> sortOptions = new ArrayList<>(searchInfo.getSortOptions()) ;
+        if (sortOptions.isEmpty()) sortOptions.add(SearchUtils.createSortOption("_score", SortOrder.Desc)) ;
+        sortOptions.add(SearchUtils.createSortOption("_shard_doc", SortOrder.Asc)) ;
+
+        SearchRequest.Builder builder = new SearchRequest.Builder()
+                .pit(b -> b
+                        .id(searchCursor.getPitId())
+                        .keepAlive(t -> t.time(POINT_IN_TIME_KEEP_ALIVE)))
+                .query(searchInfo.toQuery())
+                .source(searchInfo.toSourceConfig())
+                .sort(sortOptions)
+                .size(size) ;
+
+        if (!searchCursor.getSearchAfter().isEmpty()) builder.searchAfter(searchCursor.toSearchAfter()) ;
+
+        SearchRequest searchRequest = builder.build() ;
+
+        SearchResponse<Student> searchResponse =
+                execute("search_page", () -> elasticsearchClient.search(searchRequest, Student.class)) ;
+
+        elasticsearchMetrics.recordTook("search_page", searchResponse.took()) ;
+
+        List<Hit<Student>> hits = searchResponse.hits().hits() ;
+
+        List<Student> students = hits.stream()
+                .map(StudentElasticsearchRepository::toStudent)
+                .toList() ;
+
+        // A short page is the last one - release the point-in-time right away
+        if (hits.size() < size) {
+
+            closePointInTime(searchResponse.pitId()) ;
+
+            return new SearchPage(students, null) ;
+        }
+
+        // ES may hand back a new PIT id, the next page has to use the latest one
+        SearchCursor nextCursor = SearchCursor.of(searchResponse.pitId(), hits.get(hits.size() - 1).sort()) ;
+
+        return new SearchPage(students, nextCursor.encode()) ;
+    }
+
+    // Release the point-in-time of a cursor the caller stops paging through
+    public void closeCursor(String cursor) {
+
+        closePointInTime(SearchCursor.decode(cursor).getPitId()) ;
+    }
+
+    // For exporting - scans every matching documentation with 'slices' parallel point-in-time slices.
+    // Slices hand their pages to the calling thread through a bounded queue, so heap usage stays constant
+    // however many documentations match, and a slow consumer simply holds the slices back.
+    public void exportStudents(SearchInfo searchInfo, int slices, int batchSize, Consumer<Student> consumer) {
+
+        // Checked before the point-in-time is opened, so a bad argument leaves nothing behind in ES
+        if (slices < 1 || batchSize < 1) throw new IllegalArgumentException("slices and batchSize must be at least 1 !") ;
+
+        String pitId = openPointInTime(routingOf(studentRoutingStrategy, searchInfo)) ;
+
+        // Every slice keeps at most one page in flight on top of the queued ones
+        BlockingQueue<List<Student>> pageQueue = new ArrayBlockingQueue<>(slices * 2) ;
+        AtomicReference<Throwable> sliceFailure = new AtomicReference<>() ;
+        ExecutorService sliceExecutor = Executors.newFixedThreadPool(slices) ;
+
+        try {
+
+            for (var sliceId = 0 ; sliceId < slices ; sliceId ++) {
+
+                int currentSliceId = sliceId ;
+
+                sliceExecutor.execute(() -> {
+
+                    try {
+
+                        scanSlice(searchInfo, pitId, currentSliceId, slices, batchSize, pageQueue) ;
+                    } catch (Throwable throwable) {
+
+                        sliceFailure.compareAndSet(null, throwable) ;
+                    } finally {
+
+                        // An empty page marks the end of the slice
+                        putPage(pageQueue, List.of()) ;
+                    }
+                }) ;
+            }
+
+            var finishedSlices = 0 ;
+
+            while (finishedSlices < slices) {
+
+                List<Student> page = takePage(pageQueue) ;
+
+                if (page.isEmpty()) finishedSlices ++ ;
+                else page.forEach(consumer) ;
+            }
+
+            if (sliceFailure.get() != null) throw new RuntimeException(sliceFailure.get()) ;
+        } finally {
+
+            // Stops the slices still running, when the consumer gave up half way
+            sliceExecutor.shutdownNow() ;
+
+            closePointInTime(pitId) ;
+        }
+    }
+
+    private void scanSlice(SearchInfo searchInfo, String pitId, int sliceId, int slices, int batchSize,
+                           BlockingQueue<List<Student>> pageQueue) {
+
+        List<FieldValue> searchAfter = List.of() ;
+
+        while (!Thread.currentThread().isInterrupted()) {
+
+            SearchRequest.Builder builder = new SearchRequest.Builder()
+                    .pit(b -> b
+                            .id(pitId)
+                            .keepAlive(t -> t.time(POINT_IN_TIME_KEEP_ALIVE)))
+                    .query(searchInfo.toQuery())
+                    .source(searchInfo.toSourceConfig())
+                    .sort(SearchUtils.createSortOption("_shard_doc", SortOrder.Asc))
+                    .size(batchSize) ;
+
+            // ES rejects a slice definition with max 1
+            if (slices > 1) builder.slice(b -> b.id(String.valueOf(sliceId)).max(slices)) ;
+
+            if (!searchAfter.isEmpty()) builder.searchAfter(searchAfter) ;
+
+            SearchRequest searchRequest = builder.build() ;
+
+            SearchResponse<Student> searchResponse =
+                    execute("search_slice", () -> elasticsearchClient.search(searchRequest, Student.class)) ;
+
+            elasticsearchMetrics.recordTook("search_slice", searchResponse.took()) ;
+
+            List<Hit<Student>> hits = searchResponse.hits().hits() ;
+
+            if (hits.isEmpty()) return ;
+
+            putPage(pageQueue, hits.stream().map(StudentElasticsearchRepository::toStudent).toList()) ;
+
+            if (hits.size() < batchSize) return ;
+
+            searchAfter = hits.get(hits.size() - 1).sort() ;
+        }
+    }
+
+    private static void putPage(BlockingQueue<List<Student>> pageQueue, List<Student> page) {
+
+        try {
+
+            pageQueue.put(page) ;
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt() ;
+        }
+    }
+
+    private static List<Student> takePage(BlockingQueue<List<Student>> pageQueue) {
+
+        try {
+
+            return pageQueue.take() ;
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt() ;
+
+            throw new IllegalStateException("Export interrupted", e) ;
+        }
+    }
+
+    // 'routing' null -> every shard. Searches through a point-in-time cannot be routed themselves, only its opening
+    private String openPointInTime(String routing) {
+
+        OpenPointInTimeRequest openPointInTimeRequest = OpenPointInTimeRequest.of(b -> b
+                .index(indexName)
+                .routing(routing)
+                .keepAlive(t -> t.time(POINT_IN_TIME_KEEP_ALIVE))) ;
+
+        return execute("open_pit", () -> elasticsearchClient.openPointInTime(openPointInTimeRequest)).id() ;
+    }
+
+    private void closePointInTime(String pitId) {
+
+        ClosePointInTimeRequest closePointInTimeRequest = ClosePointInTimeRequest.of(b -> b.id(pitId)) ;
+
+        execute("close_pit", () -> elasticsearchClient.closePointInTime(closePointInTimeRequest)) ;
+    }
+
+    // Shared with the async repository - the partial documentation is merged on the ES side,
+    // 'detect_noop' skips the write when every field already has its value
+    static UpdateRequest<Student, Map<String, Object>> toUpdateRequest(String indexName, String studentId, String routing,
+                                                                     UpdateInfo updateInfo) {
+
+        return new UpdateRequest.Builder<Student, Map<String, Object>>()
+                .index(indexName)
+                .id(studentId)
+                .routing(routing)
+                .doc(updateInfo.getFields())
+                .detectNoop(true)
+                .ifSeqNo(updateInfo.getIfSeqNo())
+                .ifPrimaryTerm(updateInfo.getIfPrimaryTerm())
+                .retryOnConflict(updateInfo.getRetryOnConflict())
+                // Return the merged documentation, so the caller does not need another GET
+                .source(s -> s.fetch(true))
+                .build() ;
+    }
+
+    static UpdateResult toUpdateResult(UpdateResponse<Student> updateResponse) {
+
+        Student student = updateResponse.get().source() ;
+
+        if (student != null && student.getStudentId() == null) student.setStudentId(updateResponse.id()) ;
+
+        return new UpdateResult(student, updateResponse.seqNo(), updateResponse.primaryTerm(),
+                updateResponse.result() != Result.NoOp) ;
+    }
+
+    // Set a search request - with index,
+    // ( query condition, functions, score mode, boost mode, max boost of FunctionScoreQuery ),
+    // sort order, start-require index, actual-require documentation number.
+    // 'routing' null -> every shard is asked, 'preference' null -> ES picks the shard copies
+    static SearchRequest toSearchRequest(String indexName, SearchInfo searchInfo, String routing, String preference) {
+
+        return searchRequestBuilder(indexName, searchInfo, routing)
+                .preference(preference)
+                .build() ;
+    }
+
+    // The same search with the profile API on - what the slow-query log sends again for a sampled search
+    static SearchRequest toProfileRequest(String indexName, SearchInfo searchInfo, String routing) {
+
+        return searchRequestBuilder(indexName, searchInfo, routing)
+                .profile(true)
+                .build() ;
+    }
+
+    private static SearchRequest.Builder searchRequestBuilder(String indexName, SearchInfo searchInfo, String routing) {
+
+        return new SearchRequest.Builder()
+                .index(indexName)
+                .routing(routing)
+                .query(searchInfo.toQuery())
+                .source(searchInfo.toSourceConfig())
+                .sort(searchInfo.getSortOptions())
+                .from(searchInfo.getFrom())
+                .size(searchInfo.getSize()) ;
+    }
+
+    // 'routing' null -> the shard of the id
+    static GetRequest toGetRequest(String indexName, String studentId, String routing, String preference) {
+
+        return new GetRequest.Builder()
+                .index(indexName)
+                .id(studentId)
+                .routing(routing)
+                .preference(preference)
+                .build() ;
+    }
+
+    // Documentations by id when their routing is unknown - 'fetchSource' false only brings back the '_routing' of the hits
+    static SearchRequest toIdsSearchRequest(String indexName, List<String> studentIds, boolean fetchSource, List<String> sourceIncludes) {
+
+        return new SearchRequest.Builder()
+                .index(indexName)
+                .query(q -> q.ids(i -> i.values(studentIds)))
+                .source(fetchSource
+                        ? CollectionUtils.isEmpty(sourceIncludes) ? null : SourceConfig.of(b -> b.filter(f -> f.includes(sourceIncludes)))
+                        : SourceConfig.of(b -> b.fetch(false)))
+                .size(studentIds.size())
+                .build() ;
+    }
+
+    // Routing key of a documentation - null when documentations are routed by id
+    static String routingOf(StudentRoutingStrategy studentRoutingStrategy, Student studentDocumentation) {
+
+        return studentRoutingStrategy == null ? null : studentRoutingStrategy.routingOf(studentDocumentation) ;
+    }
+
+    // Routing of a search - null when it has to ask every shard
+    static String routingOf(StudentRoutingStrategy studentRoutingStrategy, SearchInfo searchInfo) {
+
+        return studentRoutingStrategy == null ? null : studentRoutingStrategy.routingOf(searchInfo) ;
+    }
+
+    // A projected _source may leave studentId out, it is always the same as the hit id
+    static Student toStudent(Hit<Student> hit) {
+
+        Student student = hit.source() ;
+
+        if (student != null && student.getStudentId() == null) student.setStudentId(hit.id()) ;
+
+        return student ;
+    }
+
+    // Wait for an async call - its failure is thrown as is, the same as a direct call would throw it
+    private static <V> V join(CompletableFuture<V> future) {
+
+        try {
+
+            return future.join() ;
+        } catch (CompletionException e) {
+
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException ;
+
+            throw e ;
+        }
+    }
+
+    // IOException Handling - every call is timed under its operation name, within the budget of the operation.
+    // The time waiting for a slot is not part of the round trip.
+    private <V> V execute(String operation, IOSupplier<V> ioSupplier) {
 
         try {
 
-            return ioSupplier.get() ;
+            return concurrencyBudgets.of(operation).execute(() -> elasticsearchMetrics.record(operation, ioSupplier)) ;
         } catch (IOException e) {
 
             log.error(e.getMessage()) ;
@@ -0,0 +1,166 @@
+package com.akichou.elasticsearch.repository.cache;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpUtils;
+import com.akichou.elasticsearch.entity.Student;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded LRU cache of search results, keyed by a fingerprint of the serialized search request body
+// (query built by SearchInfo.toQuery(), sort, from and size).
+// Every write bumps the index generation, and entries cached under an older generation count as misses.
+// Writes only become searchable after the next ES refresh, so 'ttlMillis' also bounds that staleness window.
+// Students are copied in and out - a caller changing a returned student never changes what later callers get.
+public class SearchResultCache {
+
+    private final int maxEntries ;
+    private final long ttlNanos ;
+
+    private final AtomicLong generation = new AtomicLong() ;
+
+    private final AtomicLong hitCount = new AtomicLong() ;
+    private final AtomicLong missCount = new AtomicLong() ;
+    private final AtomicLong evictionCount = new AtomicLong() ;
+
+    // Access-ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries ;
+
+    // Constructor - 'maxEntries' of 0 disables caching
+    public SearchResultCache(int maxEntries, long ttlMillis) {
+
+        this.maxEntries = maxEntries ;
+        this.ttlNanos = ttlMillis * 1_000_000 ;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+
+                boolean evict = size() > SearchResultCache.this.maxEntries ;
+
+                if (evict) evictionCount.incrementAndGet() ;
+
+                return evict ;
+            }
+        } ;
+    }
+
+    public static SearchResultCache disabled() {
+
+        return new SearchResultCache(0, 0) ;
+    }
+
+    // Stable key of a search - the same SearchInfo always serializes to the same request body
+    public static String fingerprint(SearchRequest searchRequest, JsonpMapper jsonpMapper) {
+
+        String json = JsonpUtils.toJsonString(searchRequest, jsonpMapper) ;
+
+        try {
+
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8)) ;
+
+            return HexFormat.of().formatHex(digest) ;
+        } catch (NoSuchAlgorithmException e) {
+
+            throw new IllegalStateException(e) ;
+        }
+    }
+
+    public boolean isEnabled() {
+
+        return maxEntries > 0 ;
+    }
+
+    // Read before the search is sent, and handed back to put() with its result
+    public long currentGeneration() {
+
+        return generation.get() ;
+    }
+
+    public Optional<List<Student>> get(String fingerprint) {
+
+        if (!isEnabled()) return Optional.empty() ;
+
+        synchronized (entries) {
+
+            Entry entry = entries.get(fingerprint) ;
+
+            if (entry != null && (entry.generation != generation.get() || entry.expiresAt - System.nanoTime() < 0)) {
+
+                entries.remove(fingerprint) ;
+                evictionCount.incrementAndGet() ;
+
+                entry = null ;
+            }
+
+            if (entry == null) {
+
+                missCount.incrementAndGet() ;
+
+                return Optional.empty() ;
+            }
+
+            hitCount.incrementAndGet() ;
+
+            return Optional.of(copyOf(entry.students)) ;
+        }
+    }
+
+    public void put(String fingerprint, long searchedGeneration, List<Student> students) {
+
+        // A write landed while searching - the result may already be outdated
+        if (!isEnabled() || searchedGeneration != generation.get()) return ;
+
+        synchronized (entries) {
+
+            entries.put(fingerprint, new Entry(searchedGeneration, System.nanoTime() + ttlNanos, copyOf(students))) ;
+        }
+    }
+
+    // Called after every write to the index - all cached results become stale at once
+    public void invalidate() {
+
+        generation.incrementAndGet() ;
+    }
+
+    public long hitCount() {
+
+        return hitCount.get() ;
+    }
+
+    public long missCount() {
+
+        return missCount.get() ;
+    }
+
+    public long evictionCount() {
+
+        return evictionCount.get() ;
+    }
+
+    public int size() {
+
+        synchronized (entries) {
+
+            return entries.size() ;
+        }
+    }
+
+    private static List<Student> copyOf(List<Student> students) {
+
+        return students.stream()
+                .map(Student::copy)
+                .toList() ;
+    }
+
+    private record Entry(long generation, long expiresAt, List<Student> students) {
+    }
+}
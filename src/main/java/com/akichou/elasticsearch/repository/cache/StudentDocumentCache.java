@@ -0,0 +1,238 @@
+package com.akichou.elasticsearch.repository.cache;
+
+import com.akichou.elasticsearch.entity.Student;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Size-bounded LRU read-through cache of student documentations by id.
+// Misses are cached too (for 'negativeTtlMillis'), and concurrent misses of one id share a single load.
+// Writes go through put()/evict(), and bump a generation so a load started before a write never stores its older result.
+// Students are copied in and out - neither the writer nor a reader can change the cached one afterwards.
+public class StudentDocumentCache {
+
+    private final int maxEntries ;
+    private final long ttlNanos ;
+    private final long negativeTtlNanos ;
+
+    private final AtomicLong generation = new AtomicLong() ;
+
+    private final AtomicLong hitCount = new AtomicLong() ;
+    private final AtomicLong negativeHitCount = new AtomicLong() ;
+    private final AtomicLong missCount = new AtomicLong() ;
+    private final AtomicLong collapsedLoadCount = new AtomicLong() ;
+
+    // Loads currently waiting on ES, by student id
+    private final ConcurrentHashMap<String, CompletableFuture<Optional<Student>>> inFlightLoads = new ConcurrentHashMap<>() ;
+
+    // Access-ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries ;
+
+    // Constructor - 'maxEntries' of 0 disables caching
+    public StudentDocumentCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+
+        this.maxEntries = maxEntries ;
+        this.ttlNanos = ttlMillis * 1_000_000 ;
+        this.negativeTtlNanos = negativeTtlMillis * 1_000_000 ;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+
+                return size() > StudentDocumentCache.this.maxEntries ;
+            }
+        } ;
+    }
+
+    public static StudentDocumentCache disabled() {
+
+        return new StudentDocumentCache(0, 0, 0) ;
+    }
+
+    public boolean isEnabled() {
+
+        return maxEntries > 0 ;
+    }
+
+    // Cached documentation, or the shared result of 'loader' - which runs once per id however many callers miss at the same time
+    public CompletableFuture<Optional<Student>> get(String studentId,
+                                                    Function<String, CompletableFuture<Optional<Student>>> loader) {
+
+        if (!isEnabled()) return loader.apply(studentId) ;
+
+        Optional<Optional<Student>> cachedStudent = lookup(studentId) ;
+
+        if (cachedStudent.isPresent()) return CompletableFuture.completedFuture(copyOf(cachedStudent.get())) ;
+
+        CompletableFuture<Optional<Student>> load = new CompletableFuture<>() ;
+        CompletableFuture<Optional<Student>> runningLoad = inFlightLoads.putIfAbsent(studentId, load) ;
+
+        if (runningLoad != null) {
+
+            collapsedLoadCount.incrementAndGet() ;
+
+            return runningLoad.thenApply(StudentDocumentCache::copyOf) ;
+        }
+
+        long loadedGeneration = generation.get() ;
+
+        CompletableFuture<Optional<Student>> loaderFuture ;
+
+        // A loader that throws instead of returning a failed future must not leave its id in flight for good
+        try {
+
+            loaderFuture = loader.apply(studentId) ;
+        } catch (RuntimeException e) {
+
+            inFlightLoads.remove(studentId, load) ;
+
+            load.completeExceptionally(e) ;
+
+            return load.thenApply(StudentDocumentCache::copyOf) ;
+        }
+
+        loaderFuture.whenComplete((student, throwable) -> {
+
+            inFlightLoads.remove(studentId, load) ;
+
+            if (throwable != null) {
+
+                load.completeExceptionally(throwable) ;
+
+                return ;
+            }
+
+            store(studentId, copyOf(student), loadedGeneration) ;
+
+            load.complete(student) ;
+        }) ;
+
+        return load.thenApply(StudentDocumentCache::copyOf) ;
+    }
+
+    // Write-through - after the documentation was created or indexed
+    public void put(Student student) {
+
+        if (!isEnabled()) return ;
+
+        generation.incrementAndGet() ;
+
+        synchronized (entries) {
+
+            entries.put(student.getStudentId(), new Entry(Optional.of(student.copy()), System.nanoTime() + ttlNanos)) ;
+        }
+    }
+
+    // After the documentation was deleted
+    public void evict(String studentId) {
+
+        if (!isEnabled()) return ;
+
+        generation.incrementAndGet() ;
+
+        synchronized (entries) {
+
+            entries.remove(studentId) ;
+        }
+    }
+
+    public void clear() {
+
+        generation.incrementAndGet() ;
+
+        synchronized (entries) {
+
+            entries.clear() ;
+        }
+    }
+
+    public long hitCount() {
+
+        return hitCount.get() ;
+    }
+
+    public long negativeHitCount() {
+
+        return negativeHitCount.get() ;
+    }
+
+    public long missCount() {
+
+        return missCount.get() ;
+    }
+
+    public long collapsedLoadCount() {
+
+        return collapsedLoadCount.get() ;
+    }
+
+    // Share of lookups answered without asking ES
+    public double hitRate() {
+
+        long hits = hitCount.get() + negativeHitCount.get() ;
+        long lookups = hits + missCount.get() ;
+
+        return lookups == 0 ? 0.0 : (double) hits / lookups ;
+    }
+
+    public int size() {
+
+        synchronized (entries) {
+
+            return entries.size() ;
+        }
+    }
+
+    private Optional<Optional<Student>> lookup(String studentId) {
+
+        synchronized (entries) {
+
+            Entry entry = entries.get(studentId) ;
+
+            if (entry != null && entry.expiresAt - System.nanoTime() < 0) {
+
+                entries.remove(studentId) ;
+
+                entry = null ;
+            }
+
+            if (entry == null) {
+
+                missCount.incrementAndGet() ;
+
+                return Optional.empty() ;
+            }
+
+            if (entry.student.isPresent()) hitCount.incrementAndGet() ;
+            else negativeHitCount.incrementAndGet() ;
+
+            return Optional.of(entry.student) ;
+        }
+    }
+
+    private void store(String studentId, Optional<Student> student, long loadedGeneration) {
+
+        synchronized (entries) {
+
+            // A write happened during the load, the loaded version may be older than the one written
+            if (loadedGeneration != generation.get()) return ;
+
+            long ttl = student.isPresent() ? ttlNanos : negativeTtlNanos ;
+
+            entries.put(studentId, new Entry(student, System.nanoTime() + ttl)) ;
+        }
+    }
+
+    private static Optional<Student> copyOf(Optional<Student> student) {
+
+        return student.map(Student::copy) ;
+    }
+
+    private record Entry(Optional<Student> student, long expiresAt) {
+    }
+}
@@ -0,0 +1,12 @@
+package com.akichou.elasticsearch.repository.index;
+
+// Thrown for a partial update that found no documentation while the index is migrated - writes already go to
+// the target index, and the documentation may not be copied there yet, so the caller should retry later.
+public class IndexMigrationInProgressException extends RuntimeException {
+
+    // Constructor
+    public IndexMigrationInProgressException(String message, Throwable cause) {
+
+        super(message, cause) ;
+    }
+}
@@ -0,0 +1,416 @@
+package com.akichou.elasticsearch.repository.index;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.OpType;
+import co.elastic.clients.elasticsearch._types.SlicesCalculation;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.core.ReindexRequest;
+import co.elastic.clients.elasticsearch.indices.update_aliases.Action;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.JsonpUtils;
+import com.akichou.elasticsearch.functionalInterface.IOSupplier;
+import com.akichou.elasticsearch.repository.mapping.FieldValuePropertyMapping;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Versioned concrete indices behind two aliases:
+//      '<indexName>'       -> read alias, used by get / search
+//      '<indexName>_write' -> write alias, used by create / index / delete / bulk
+// A concrete index is named '<indexName>_<mapping hash>', and the hash is also kept in its mapping '_meta'.
+// When the mapping changes, the data is reindexed into a new concrete index in the background,
+// then the read alias is swapped atomically and the old index is deleted - startup never drops data.
+// An interrupted migration is resumed into the target index it left behind on the next start, and every alias
+// change is built from the current holders of the alias, so each step can run again.
+// While a migration runs, writes already go to the target but reads still come from the source:
+//      - a documentation written since the migration started is not found until the read alias is swapped
+//      - a partial update of a documentation not copied yet fails with IndexMigrationInProgressException (retry later)
+// A failed migration is kept in getMigrationFailure() (reported by the 'studentIndex' health indicator) until restart.
+@Slf4j
+public class StudentIndexManager {
+
+    private static final String MAPPING_HASH_META_KEY = "mapping_hash" ;
+
+    private static final long REINDEX_POLL_INTERVAL_MILLIS = 1000 ;
+
+    private final ElasticsearchClient elasticsearchClient ;
+    private final String readAlias ;
+    private final String writeAlias ;
+    private final FieldValuePropertyMapping fieldValuePropertyMapping ;
+
+    private final ExecutorService migrationExecutor = Executors.newSingleThreadExecutor(runnable -> {
+
+        Thread thread = new Thread(runnable, "student-index-migration") ;
+        thread.setDaemon(true) ;
+
+        return thread ;
+    }) ;
+
+    // Source index of the running migration, null while no migration runs
+    private volatile String migrationSourceIndex ;
+
+    // Why the last migration failed, null while none did
+    private volatile String migrationFailure ;
+
+    // Ids deleted while a migration runs, with their routing ("" -> by id) - the reindex could copy them back from the source index
+    private final Map<String, String> deletedDuringMigration = new ConcurrentHashMap<>() ;
+
+    // Constructor
+    public StudentIndexManager(ElasticsearchClient elasticsearchClient, String indexName,
+                               FieldValuePropertyMapping fieldValuePropertyMapping) {
+
+        this.elasticsearchClient = elasticsearchClient ;
+        this.readAlias = indexName ;
+        this.writeAlias = writeAliasOf(indexName) ;
+        this.fieldValuePropertyMapping = fieldValuePropertyMapping ;
+    }
+
+    public static String writeAliasOf(String indexName) {
+
+        return indexName + "_write" ;
+    }
+
+    public String getReadAlias() {
+
+        return readAlias ;
+    }
+
+    public String getWriteAlias() {
+
+        return writeAlias ;
+    }
+
+    public boolean isMigrating() {
+
+        return migrationSourceIndex != null ;
+    }
+
+    public String getMigrationFailure() {
+
+        return migrationFailure ;
+    }
+
+    // The concrete index of the current mapping - the target while a migration runs
+    public String currentIndexName() {
+
+        return versionedIndexName(currentMappingHash()) ;
+    }
+
+    // Make sure both aliases point to an index with the current mapping.
+    // Only creating a missing index is done synchronously, a mapping change is migrated in the background.
+    public void ensureIndex() {
+
+        String mappingHash = currentMappingHash() ;
+
+        if (isAliasExists(readAlias)) {
+
+            String currentIndex = resolveAlias(readAlias).get(0) ;
+
+            if (mappingHash.equals(readMappingHash(currentIndex))) return ;
+
+            startMigration(currentIndex, false, mappingHash) ;
+
+        } else if (isIndexExists(readAlias)) {
+
+            // Index created before aliases were used - route the writes through the write alias first
+            // (unless an interrupted migration already moved it to the target)
+            if (!isAliasExists(writeAlias)) {
+
+                execute(() -> elasticsearchClient.indices().updateAliases(b -> b
+                        .actions(addAlias(readAlias, writeAlias)))) ;
+            }
+
+            startMigration(readAlias, true, mappingHash) ;
+
+        } else {
+
+            createIndex(versionedIndexName(mappingHash), mappingHash) ;
+
+            execute(() -> elasticsearchClient.indices().updateAliases(b -> b
+                    .actions(addAlias(versionedIndexName(mappingHash), readAlias))
+                    .actions(addAlias(versionedIndexName(mappingHash), writeAlias)))) ;
+        }
+    }
+
+    // Delete every concrete index behind the aliases (or the alias-less index of the same name)
+    public void deleteIndices() {
+
+        Set<String> concreteIndices = new HashSet<>() ;
+
+        if (isAliasExists(readAlias)) concreteIndices.addAll(resolveAlias(readAlias)) ;
+        else if (isIndexExists(readAlias)) concreteIndices.add(readAlias) ;
+
+        if (isAliasExists(writeAlias)) concreteIndices.addAll(resolveAlias(writeAlias)) ;
+
+        if (concreteIndices.isEmpty()) return ;
+
+        execute(() -> elasticsearchClient.indices().delete(b -> b.index(new ArrayList<>(concreteIndices)))) ;
+    }
+
+    // Called after every delete by id, so a running reindex cannot bring the documentation back.
+    // 'routing' null -> routed by its id
+    public void onDeleted(String studentId, String routing) {
+
+        if (isMigrating()) deletedDuringMigration.put(studentId, routing == null ? "" : routing) ;
+    }
+
+    private void startMigration(String sourceIndex, boolean legacySource, String mappingHash) {
+
+        String targetIndex = versionedIndexName(mappingHash) ;
+
+        log.info("Mapping of [{}] changed, migrating [{}] -> [{}] in background", readAlias, sourceIndex, targetIndex) ;
+
+        migrationSourceIndex = sourceIndex ;
+        migrationFailure = null ;
+
+        migrationExecutor.execute(() -> {
+
+            try {
+
+                migrate(sourceIndex, targetIndex, legacySource, mappingHash) ;
+
+                log.info("Migration of [{}] -> [{}] completed", sourceIndex, targetIndex) ;
+            } catch (RuntimeException e) {
+
+                // Reads stay on the source and writes on the target until the next start resumes the migration
+                migrationFailure = "Migration of [" + sourceIndex + "] -> [" + targetIndex + "] failed: " + e.getMessage() ;
+
+                log.error(migrationFailure, e) ;
+            } finally {
+
+                migrationSourceIndex = null ;
+                deletedDuringMigration.clear() ;
+            }
+        }) ;
+    }
+
+    private void migrate(String sourceIndex, String targetIndex, boolean legacySource, String mappingHash) {
+
+        // Left by an interrupted migration - the write alias may already point at it, so it holds data and is resumed.
+        // Deletes that reached it before the interruption are not known any more, the reindex may copy those back.
+        if (!isIndexExists(targetIndex)) {
+
+            createIndex(targetIndex, mappingHash) ;
+        } else if (!mappingHash.equals(readMappingHash(targetIndex))) {
+
+            throw new IllegalStateException("Index [" + targetIndex + "] exists with another mapping") ;
+        }
+
+        // 1. New writes go to the target from now on
+        moveAlias(writeAlias, targetIndex) ;
+
+        // 2. Copy the rest - 'create' never overwrites a documentation written to the target meanwhile
+        ReindexRequest reindexRequest = ReindexRequest.of(b -> b
+                .source(s -> s.index(sourceIndex))
+                .dest(d -> d.index(targetIndex).opType(OpType.Create))
+                .conflicts(Conflicts.Proceed)
+                .slices(s -> s.computed(SlicesCalculation.Auto))
+                .waitForCompletion(false)) ;
+
+        String taskId = execute(() -> elasticsearchClient.reindex(reindexRequest)).task() ;
+
+        awaitTask(taskId) ;
+
+        // 3. Deletes that reached the target before their documentation was copied
+        deletedDuringMigration.forEach((studentId, routing) -> execute(() -> elasticsearchClient.delete(b -> b
+                .index(targetIndex)
+                .id(studentId)
+                .routing(routing.isEmpty() ? null : routing)))) ;
+
+        execute(() -> elasticsearchClient.indices().refresh(b -> b.index(targetIndex))) ;
+
+        // 4. Atomic swap of the read alias
+        if (legacySource) {
+
+            // An alias cannot share the name of an index, so the old index is removed in the same action
+            execute(() -> elasticsearchClient.indices().updateAliases(b -> b
+                    .actions(a -> a.removeIndex(r -> r.index(sourceIndex)))
+                    .actions(addAlias(targetIndex, readAlias)))) ;
+        } else {
+
+            moveAlias(readAlias, targetIndex) ;
+
+            // 5. Cleanup
+            if (isIndexExists(sourceIndex)) execute(() -> elasticsearchClient.indices().delete(b -> b.index(sourceIndex))) ;
+        }
+    }
+
+    // Point 'alias' at 'concreteIndex' only, in one atomic update built from the indices holding it now -
+    // nothing is sent when it already does, and no action fails on an alias an earlier run already moved
+    private void moveAlias(String alias, String concreteIndex) {
+
+        List<String> holders = isAliasExists(alias) ? resolveAlias(alias) : List.of() ;
+
+        List<Action> actions = new ArrayList<>() ;
+
+        for (String holder : holders) {
+
+            if (!holder.equals(concreteIndex)) actions.add(removeAlias(holder, alias)) ;
+        }
+
+        if (!holders.contains(concreteIndex)) actions.add(addAlias(concreteIndex, alias)) ;
+
+        if (actions.isEmpty()) return ;
+
+        execute(() -> elasticsearchClient.indices().updateAliases(b -> b.actions(actions))) ;
+    }
+
+    // Reindex runs as a task, so no single request has to outlive the socket timeout.
+    // Polled without 'wait_for_completion' - a wait that runs out is answered with an error, not with 'completed: false'
+    private void awaitTask(String taskId) {
+
+        GetTasksResponse getTasksResponse = execute(() -> elasticsearchClient.tasks().get(b -> b.taskId(taskId))) ;
+
+        while (!getTasksResponse.completed()) {
+
+            try {
+
+                Thread.sleep(REINDEX_POLL_INTERVAL_MILLIS) ;
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt() ;
+
+                throw new IllegalStateException("Interrupted while waiting for reindex task [" + taskId + "]", e) ;
+            }
+
+            getTasksResponse = execute(() -> elasticsearchClient.tasks().get(b -> b.taskId(taskId))) ;
+        }
+
+        if (getTasksResponse.error() != null) {
+
+            throw new IllegalStateException("Reindex task failed: " + getTasksResponse.error().reason()) ;
+        }
+
+        checkReindexResponse(getTasksResponse.response().toJson().asJsonObject()) ;
+    }
+
+    // A task that completed can still have left documentations behind - those are only reported in its response.
+    // Conflicts are expected ('create' skips what was written to the target meanwhile), everything else has to be copied.
+    // Read as plain JSON: the failures of Elasticsearch 8 have no 'type', which ReindexResponse requires
+    private static void checkReindexResponse(JsonObject reindexResponse) {
+
+        JsonArray failures = reindexResponse.getJsonArray("failures") ;
+
+        if (failures != null && !failures.isEmpty()) {
+
+            JsonObject failure = failures.getJsonObject(0) ;
+
+            throw new IllegalStateException("Reindex left " + failures.size() + " failure(s), first [" +
+                    failure.getString("id", null) + "]: " + failure.getJsonObject("cause").getString("reason", null)) ;
+        }
+
+        long total = reindexResponse.getJsonNumber("total").longValue() ;
+        long created = reindexResponse.getJsonNumber("created").longValue() ;
+        long versionConflicts = reindexResponse.getJsonNumber("version_conflicts").longValue() ;
+
+        if (created + versionConflicts < total) {
+
+            throw new IllegalStateException("Reindex copied " + created + " and skipped " + versionConflicts + " of " + total + " documentations") ;
+        }
+    }
+
+    private void createIndex(String concreteIndex, String mappingHash) {
+
+        TypeMapping typeMapping = TypeMapping.of(b -> b
+                .properties(fieldValuePropertyMapping.getPropertyMappings())
+                .meta(MAPPING_HASH_META_KEY, JsonData.of(mappingHash))) ;
+
+        execute(() -> elasticsearchClient.indices().create(b -> b
+                .index(concreteIndex)
+                .mappings(typeMapping))) ;
+    }
+
+    private String readMappingHash(String concreteIndex) {
+
+        TypeMapping typeMapping = execute(() -> elasticsearchClient.indices().getMapping(b -> b.index(concreteIndex)))
+                .get(concreteIndex)
+                .mappings() ;
+
+        JsonData mappingHash = typeMapping.meta().get(MAPPING_HASH_META_KEY) ;
+
+        return mappingHash == null ? null : mappingHash.to(String.class) ;
+    }
+
+    // Hash of the mapping serialized with sorted keys - Map.of() iteration order changes between JVM runs
+    private String currentMappingHash() {
+
+        TypeMapping typeMapping = TypeMapping.of(b -> b.properties(fieldValuePropertyMapping.getPropertyMappings())) ;
+
+        String json = JsonpUtils.toJsonString(typeMapping, elasticsearchClient._jsonpMapper()) ;
+
+        try {
+
+            ObjectMapper objectMapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true) ;
+
+            byte[] canonicalJson = objectMapper.writeValueAsString(
+                    objectMapper.readValue(json, new TypeReference<Map<String, Object>>() {}))
+                    .getBytes(StandardCharsets.UTF_8) ;
+
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonicalJson) ;
+
+            return HexFormat.of().formatHex(digest, 0, 6) ;
+        } catch (IOException | NoSuchAlgorithmException e) {
+
+            throw new IllegalStateException(e) ;
+        }
+    }
+
+    private String versionedIndexName(String mappingHash) {
+
+        return readAlias + "_" + mappingHash ;
+    }
+
+    private boolean isIndexExists(String indexName) {
+
+        return execute(() -> elasticsearchClient.indices().exists(b -> b.index(indexName))).value() ;
+    }
+
+    private boolean isAliasExists(String alias) {
+
+        return execute(() -> elasticsearchClient.indices().existsAlias(b -> b.name(alias))).value() ;
+    }
+
+    // Concrete indices behind an alias
+    private List<String> resolveAlias(String alias) {
+
+        return new ArrayList<>(execute(() -> elasticsearchClient.indices().getAlias(b -> b.name(alias))).result().keySet()) ;
+    }
+
+    private static Action addAlias(String concreteIndex, String alias) {
+
+        return Action.of(a -> a.add(b -> b.index(concreteIndex).alias(alias))) ;
+    }
+
+    private static Action removeAlias(String concreteIndex, String alias) {
+
+        return Action.of(a -> a.remove(b -> b.index(concreteIndex).alias(alias))) ;
+    }
+
+    // IOException Handling
+    private <V> V execute(IOSupplier<V> ioSupplier) {
+
+        try {
+
+            return ioSupplier.get() ;
+        } catch (IOException e) {
+
+            log.error(e.getMessage()) ;
+
+            throw new RuntimeException(e) ;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.akichou.elasticsearch.repository.ingest;
+
+import com.akichou.elasticsearch.entity.ingest.DeadLetter;
+
+// Where the bulk ingester puts operations that failed for good - non-retryable errors, or retries used up.
+// Called on the client's callback threads, so implementations must be thread-safe and must not block for long.
+@FunctionalInterface
+public interface DeadLetterSink {
+
+    void accept(DeadLetter deadLetter) ;
+}
@@ -0,0 +1,52 @@
+package com.akichou.elasticsearch.repository.ingest;
+
+import com.akichou.elasticsearch.entity.ingest.DeadLetter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Appends every dead letter as one JSON line, with the documentation as it was sent in its 'student' field.
+// Written through on every letter, so nothing is lost when the application stops.
+@Slf4j
+public class FileDeadLetterSink implements DeadLetterSink, AutoCloseable {
+
+    private final Path file ;
+
+    private final ObjectMapper objectMapper ;
+
+    private final BufferedWriter writer ;
+
+    // Constructor
+    public FileDeadLetterSink(Path file, ObjectMapper objectMapper) throws IOException {
+
+        this.file = file ;
+        this.objectMapper = objectMapper ;
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND) ;
+    }
+
+    @Override
+    public synchronized void accept(DeadLetter deadLetter) {
+
+        try {
+
+            writer.write(objectMapper.writeValueAsString(deadLetter)) ;
+            writer.newLine() ;
+            writer.flush() ;
+        } catch (IOException e) {
+
+            log.error("Writing dead letter of [{}] to {} failed: {}", deadLetter.getStudentId(), file, e.getMessage()) ;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        writer.close() ;
+    }
+}
@@ -0,0 +1,17 @@
+package com.akichou.elasticsearch.repository.ingest;
+
+import com.akichou.elasticsearch.entity.ingest.DeadLetter;
+import lombok.extern.slf4j.Slf4j;
+
+// Default dead-letter sink - only the id and the error are logged, the documentation itself is lost
+@Slf4j
+public class LoggingDeadLetterSink implements DeadLetterSink {
+
+    @Override
+    public void accept(DeadLetter deadLetter) {
+
+        log.error("Dead letter: {} [{}] failed after {} attempt(s) with status {}: {}",
+                deadLetter.getOperation(), deadLetter.getStudentId(), deadLetter.getAttempts(),
+                deadLetter.getStatus(), deadLetter.getError()) ;
+    }
+}
@@ -0,0 +1,513 @@
+package com.akichou.elasticsearch.repository.ingest;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
+import co.elastic.clients.elasticsearch._helpers.bulk.IngesterOperation;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.CreateOperation;
+import co.elastic.clients.elasticsearch.core.bulk.DeleteOperation;
+import co.elastic.clients.elasticsearch.core.bulk.IndexOperation;
+import co.elastic.clients.json.JsonpMapper;
+import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.entity.ingest.BulkItemResult;
+import com.akichou.elasticsearch.entity.ingest.BulkResult;
+import com.akichou.elasticsearch.entity.ingest.DeadLetter;
+import com.akichou.elasticsearch.repository.cache.SearchResultCache;
+import com.akichou.elasticsearch.repository.cache.StudentDocumentCache;
+import com.akichou.elasticsearch.repository.index.StudentIndexManager;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyBudgets;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyLimitExceededException;
+import com.akichou.elasticsearch.repository.metrics.ElasticsearchMetrics;
+import com.akichou.elasticsearch.repository.routing.StudentRoutingStrategy;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Long-lived bulk ingestion - student documentations are buffered and sent as bulk requests
+// whenever the operation count, the byte size or the flush interval is reached.
+// At most 'maxConcurrentRequests' bulks are in flight, further add() calls block until one of them completes.
+// Items ES pushes back on (429 and other retryable statuses) are queued again on their own after an exponential
+// backoff with jitter, the items that succeeded are never sent twice. Failures for good go to the dead-letter sink.
+// Every bulk also takes a slot of the write budget, when one is set - a bulk it sheds is retried like a 429.
+@Slf4j
+public class StudentBulkIngester implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_OPERATIONS = 1000 ;
+    public static final long DEFAULT_MAX_SIZE_BYTES = 5 * 1024 * 1024 ;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000 ;
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 2 ;
+
+    public static final int DEFAULT_MAX_RETRIES = 3 ;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100 ;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 5000 ;
+
+    // Rejected by a full write queue, or a node / proxy that is temporarily unavailable
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(429, 502, 503, 504) ;
+
+    // Every operation carries its own original form and the future of its caller as context
+    private final BulkIngester<PendingOperation> bulkIngester ;
+
+    private final JsonpMapper jsonpMapper ;
+
+    // Delays the retries, so the callback threads of the client never wait for a backoff
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+
+        Thread thread = new Thread(runnable, "bulk-ingester-retry") ;
+        thread.setDaemon(true) ;
+
+        return thread ;
+    }) ;
+
+    // Operations whose future is not completed yet, retries waiting for their backoff included
+    private final AtomicLong outstandingOperations = new AtomicLong() ;
+
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES ;
+    private volatile long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS ;
+    private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS ;
+
+    // Optional - invalidated after every bulk that reached ES
+    private volatile SearchResultCache searchResultCache = SearchResultCache.disabled() ;
+
+    // Optional - every created documentation is written through
+    private volatile StudentDocumentCache studentDocumentCache = StudentDocumentCache.disabled() ;
+
+    // Optional - records deletes while a mapping migration runs
+    private volatile StudentIndexManager studentIndexManager ;
+
+    // Optional - meters go nowhere unless set
+    private volatile ElasticsearchMetrics elasticsearchMetrics = ElasticsearchMetrics.disabled() ;
+
+    // Optional - without a sink the callers' futures are the only place a failure shows up
+    private volatile DeadLetterSink deadLetterSink ;
+
+    // Optional - documentations are routed by their id unless set
+    private volatile StudentRoutingStrategy studentRoutingStrategy ;
+
+    // Optional - bulks are not limited beyond 'maxConcurrentRequests' unless set
+    private volatile ConcurrencyBudgets concurrencyBudgets = ConcurrencyBudgets.unlimited() ;
+
+    // An operation as it was queued, 'attempt' counts the bulks it has been sent in
+    private record PendingOperation(BulkOperation operation, CompletableFuture<BulkResponseItem> future, int attempt) {
+
+        PendingOperation nextAttempt() {
+
+            return new PendingOperation(operation, future, attempt + 1) ;
+        }
+    }
+
+    // Constructor - with default flush thresholds
+    public StudentBulkIngester(ElasticsearchClient elasticsearchClient, String indexName) {
+
+        this(elasticsearchClient, indexName,
+                DEFAULT_MAX_OPERATIONS, DEFAULT_MAX_SIZE_BYTES, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_CONCURRENT_REQUESTS) ;
+    }
+
+    // Constructor
+    public StudentBulkIngester(ElasticsearchClient elasticsearchClient,
+                               String indexName,
+                               int maxOperations,
+                               long maxSizeBytes,
+                               long flushIntervalMillis,
+                               int maxConcurrentRequests) {
+
+        this.jsonpMapper = elasticsearchClient._jsonpMapper() ;
+
+        // The ingester sends its bulks itself - through a client that asks the write budget first
+        ElasticsearchAsyncClient budgetedClient = new ElasticsearchAsyncClient(elasticsearchClient._transport(), elasticsearchClient._transportOptions()) {
+
+            @Override
+            public CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+
+                return concurrencyBudgets.of("bulk").executeAsync(() -> super.bulk(request)) ;
+            }
+        } ;
+
+        this.bulkIngester = BulkIngester.of(b -> b
+                .client(budgetedClient)
+                .globalSettings(settings -> settings.index(indexName))
+                .maxOperations(maxOperations)
+                .maxSize(maxSizeBytes)
+                .flushInterval(flushIntervalMillis, TimeUnit.MILLISECONDS)
+                .maxConcurrentRequests(maxConcurrentRequests)
+                .listener(new FutureCompletingListener())) ;
+    }
+
+    // Queue a single documentation, the future completes when the bulk containing it returns
+    public CompletableFuture<Student> add(Student studentDocumentation) {
+
+        return create(studentDocumentation).thenApply(item -> studentDocumentation) ;
+    }
+
+    // Queue a create-or-replace of a single documentation
+    public CompletableFuture<Student> index(Student studentDocumentation) {
+
+        IndexOperation<Student> indexOperation =
+                new IndexOperation.Builder<Student>()
+                    .id(studentDocumentation.getStudentId())
+                    .routing(routingOf(studentDocumentation))
+                    .document(studentDocumentation)
+                    .build() ;
+
+        return enqueue(BulkOperation.of(b -> b.index(indexOperation)))
+                .thenApply(item -> {
+
+                    studentDocumentation.setStudentId(item.id()) ;
+
+                    studentDocumentCache.put(studentDocumentation) ;
+
+                    return studentDocumentation ;
+                }) ;
+    }
+
+    // Queue a delete by id - a missing documentation is not an error, like a single DELETE.
+    // 'routing' the documentation was written with, null -> routed by its id
+    public CompletableFuture<Void> delete(String studentId, String routing) {
+
+        DeleteOperation deleteOperation = DeleteOperation.of(b -> b.id(studentId).routing(routing)) ;
+
+        return enqueue(BulkOperation.of(b -> b.delete(deleteOperation)))
+                .thenApply(item -> {
+
+                    StudentIndexManager indexManager = studentIndexManager ;
+
+                    if (indexManager != null) indexManager.onDeleted(studentId, routing) ;
+
+                    studentDocumentCache.evict(studentId) ;
+
+                    return null ;
+                }) ;
+    }
+
+    // Queue a batch of documentations, and flush the tail instead of waiting for the interval.
+    // Completes once every item has its final outcome - a failed item never fails the others.
+    public CompletableFuture<BulkResult> addAll(List<Student> studentDocumentations) {
+
+        List<CompletableFuture<BulkItemResult>> futures = studentDocumentations.stream()
+                .map(studentDocumentation -> create(studentDocumentation)
+                        .handle((item, throwable) -> throwable == null
+                                ? new BulkItemResult(item.id(), item.status(), null)
+                                : failedItem(studentDocumentation.getStudentId(), throwable)))
+                .toList() ;
+
+        bulkIngester.flush() ;
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+
+                    List<BulkItemResult> items = futures.stream()
+                            .map(CompletableFuture::join)
+                            .toList() ;
+
+                    int failed = (int) items.stream().filter(item -> item.getError() != null).count() ;
+
+                    return new BulkResult(failed > 0, items.size() - failed, failed, items) ;
+                }) ;
+    }
+
+    private CompletableFuture<BulkResponseItem> create(Student studentDocumentation) {
+
+        CreateOperation<Student> createOperation =
+                new CreateOperation.Builder<Student>()
+                    .id(studentDocumentation.getStudentId())
+                    .routing(routingOf(studentDocumentation))
+                    .document(studentDocumentation)
+                    .build() ;
+
+        return enqueue(BulkOperation.of(b -> b.create(createOperation)))
+                .thenApply(item -> {
+
+                    studentDocumentation.setStudentId(item.id()) ;
+
+                    studentDocumentCache.put(studentDocumentation) ;
+
+                    return item ;
+                }) ;
+    }
+
+    private String routingOf(Student studentDocumentation) {
+
+        StudentRoutingStrategy routingStrategy = studentRoutingStrategy ;
+
+        return routingStrategy == null ? null : routingStrategy.routingOf(studentDocumentation) ;
+    }
+
+    private CompletableFuture<BulkResponseItem> enqueue(BulkOperation bulkOperation) {
+
+        CompletableFuture<BulkResponseItem> itemFuture = new CompletableFuture<>() ;
+
+        outstandingOperations.incrementAndGet() ;
+
+        itemFuture.whenComplete((item, throwable) -> {
+
+            if (outstandingOperations.decrementAndGet() == 0) {
+
+                synchronized (outstandingOperations) {
+
+                    outstandingOperations.notifyAll() ;
+                }
+            }
+        }) ;
+
+        // Blocks while the buffer is full and 'maxConcurrentRequests' bulks are in flight
+        bulkIngester.add(bulkOperation, new PendingOperation(bulkOperation, itemFuture, 1)) ;
+
+        return itemFuture ;
+    }
+
+    public void setSearchResultCache(SearchResultCache searchResultCache) {
+
+        this.searchResultCache = searchResultCache ;
+    }
+
+    public void setStudentDocumentCache(StudentDocumentCache studentDocumentCache) {
+
+        this.studentDocumentCache = studentDocumentCache ;
+    }
+
+    public void setStudentIndexManager(StudentIndexManager studentIndexManager) {
+
+        this.studentIndexManager = studentIndexManager ;
+    }
+
+    public void setElasticsearchMetrics(ElasticsearchMetrics elasticsearchMetrics) {
+
+        this.elasticsearchMetrics = elasticsearchMetrics ;
+    }
+
+    public void setDeadLetterSink(DeadLetterSink deadLetterSink) {
+
+        this.deadLetterSink = deadLetterSink ;
+    }
+
+    public void setStudentRoutingStrategy(StudentRoutingStrategy studentRoutingStrategy) {
+
+        this.studentRoutingStrategy = studentRoutingStrategy ;
+    }
+
+    public void setConcurrencyBudgets(ConcurrencyBudgets concurrencyBudgets) {
+
+        this.concurrencyBudgets = concurrencyBudgets ;
+    }
+
+    // maxRetries 0 -> every failure is final
+    public void setRetries(int maxRetries, long initialBackoffMillis, long maxBackoffMillis) {
+
+        this.maxRetries = maxRetries ;
+        this.initialBackoffMillis = initialBackoffMillis ;
+        this.maxBackoffMillis = maxBackoffMillis ;
+    }
+
+    public void flush() {
+
+        bulkIngester.flush() ;
+    }
+
+    // Flush the buffered operations and wait for the in-flight bulks - and for the retries they still cause
+    @Override
+    public void close() {
+
+        try {
+
+            while (outstandingOperations.get() > 0) {
+
+                // Outside the lock - a flush may wait for a bulk slot, and completing bulks take the lock to notify
+                bulkIngester.flush() ;
+
+                synchronized (outstandingOperations) {
+
+                    if (outstandingOperations.get() > 0) outstandingOperations.wait(100) ;
+                }
+            }
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt() ;
+        }
+
+        bulkIngester.close() ;
+        retryScheduler.shutdownNow() ;
+    }
+
+    // Full backoff doubles per attempt up to the maximum, half of it is random - so rejected items do not return in lockstep
+    private long backoffMillis(int attempt) {
+
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30)) ;
+
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1) ;
+    }
+
+    private boolean isRetryable(int status, PendingOperation pendingOperation) {
+
+        return RETRYABLE_STATUSES.contains(status) && pendingOperation.attempt() <= maxRetries ;
+    }
+
+    private void retry(PendingOperation pendingOperation) {
+
+        elasticsearchMetrics.recordBulkItemsRetried(1) ;
+
+        retryScheduler.schedule(() -> {
+
+            try {
+
+                bulkIngester.add(pendingOperation.operation(), pendingOperation.nextAttempt()) ;
+            } catch (RuntimeException e) {
+
+                // The ingester was closed meanwhile
+                fail(pendingOperation, e, 0, e.getMessage()) ;
+            }
+        }, backoffMillis(pendingOperation.attempt()), TimeUnit.MILLISECONDS) ;
+    }
+
+    private void fail(PendingOperation pendingOperation, Throwable failure, int status, String error) {
+
+        DeadLetterSink sink = deadLetterSink ;
+
+        elasticsearchMetrics.recordBulkItemsFailed() ;
+
+        if (sink != null) {
+
+            BulkOperation operation = pendingOperation.operation() ;
+
+            String studentId = operation.isCreate() ? operation.create().id()
+                    : operation.isIndex() ? operation.index().id()
+                    : operation.isDelete() ? operation.delete().id() : null ;
+
+            Object document = operation.isCreate() ? operation.create().document()
+                    : operation.isIndex() ? operation.index().document() : null ;
+
+            try {
+
+                sink.accept(new DeadLetter(operation._kind().jsonValue(), studentId,
+                        document instanceof Student student ? student : null,
+                        status, error, pendingOperation.attempt(), new Date())) ;
+            } catch (RuntimeException e) {
+
+                log.error("Dead-letter sink failed for [{}]: {}", studentId, e.getMessage()) ;
+            }
+        }
+
+        pendingOperation.future().completeExceptionally(failure) ;
+    }
+
+    private static BulkItemResult failedItem(String studentId, Throwable throwable) {
+
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable ;
+
+        if (cause instanceof ElasticsearchException elasticsearchException) {
+
+            return new BulkItemResult(studentId, elasticsearchException.status(),
+                    elasticsearchException.error().type() + ": " + elasticsearchException.error().reason()) ;
+        }
+
+        return new BulkItemResult(studentId, 0, String.valueOf(cause.getMessage())) ;
+    }
+
+    // Complete the caller futures with their own bulk item, retry what was pushed back, and time every bulk
+    private class FutureCompletingListener implements BulkListener<PendingOperation> {
+
+        // Start of the bulks in flight, by execution id
+        private final Map<Long, Long> startNanos = new ConcurrentHashMap<>() ;
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request, List<PendingOperation> contexts) {
+
+            // The ingester already holds every documentation as serialized bytes, so the estimate is cheap
+            long estimatedBytes = request.operations().stream()
+                    .mapToLong(operation -> IngesterOperation.of(operation, jsonpMapper).size())
+                    .sum() ;
+
+            elasticsearchMetrics.recordBulkRequest(request.operations().size(), estimatedBytes) ;
+
+            startNanos.put(executionId, System.nanoTime()) ;
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request,
+                              List<PendingOperation> contexts, BulkResponse response) {
+
+            recordRequest(executionId, ElasticsearchMetrics.OUTCOME_SUCCESS) ;
+
+            elasticsearchMetrics.recordTook("bulk", response.took()) ;
+
+            searchResultCache.invalidate() ;
+
+            List<BulkResponseItem> items = response.items() ;
+
+            var failedItems = 0 ;
+
+            for (var i = 0 ; i < items.size() ; i ++) {
+
+                BulkResponseItem item = items.get(i) ;
+                PendingOperation pendingOperation = contexts.get(i) ;
+
+                if (item.error() == null) {
+
+                    pendingOperation.future().complete(item) ;
+
+                    continue ;
+                }
+
+                failedItems ++ ;
+
+                if (isRetryable(item.status(), pendingOperation)) {
+
+                    retry(pendingOperation) ;
+
+                    continue ;
+                }
+
+                // Same exception a single-documentation request fails with, e.g. a 409 version conflict
+                ErrorResponse errorResponse = ErrorResponse.of(b -> b
+                        .error(item.error())
+                        .status(item.status())) ;
+
+                fail(pendingOperation, new ElasticsearchException("bulk", errorResponse),
+                        item.status(), item.error().type() + ": " + item.error().reason()) ;
+            }
+
+            elasticsearchMetrics.recordBulkItems(items.size() - failedItems, failedItems) ;
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request,
+                              List<PendingOperation> contexts, Throwable failure) {
+
+            recordRequest(executionId, ElasticsearchMetrics.OUTCOME_ERROR) ;
+
+            elasticsearchMetrics.recordBulkItems(0, contexts.size()) ;
+
+            Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure ;
+
+            // The whole request was pushed back, e.g. 429 from a coordinating node, or shed by the write budget - none of it was applied
+            int status = cause instanceof ElasticsearchException elasticsearchException ? elasticsearchException.status()
+                    : cause instanceof ConcurrencyLimitExceededException ? 429
+                    : 0 ;
+
+            log.error(cause.getMessage()) ;
+
+            for (PendingOperation pendingOperation : contexts) {
+
+                if (isRetryable(status, pendingOperation)) retry(pendingOperation) ;
+                else fail(pendingOperation, cause, status, cause.getMessage()) ;
+            }
+        }
+
+        private void recordRequest(long executionId, String outcome) {
+
+            Long start = startNanos.remove(executionId) ;
+
+            if (start != null) elasticsearchMetrics.recordRequest("bulk", outcome, System.nanoTime() - start) ;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.akichou.elasticsearch.repository.ingest;
+
+import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.entity.ingest.LoadResult;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Loads a JSON array of students or NDJSON (one student per line) of any size with constant memory -
+// the file is parsed one documentation at a time and fed to the bulk ingester, which sends the bulks in parallel.
+// Every documentation is indexed (create-or-replace), so re-sending the ones after the last checkpoint is harmless.
+// The checkpoint is the byte offset every documentation before has been acknowledged by ES;
+// a run given the same checkpoint file continues from there.
+@Slf4j
+public class StudentFileLoader {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000 ;
+
+    private static final long PROGRESS_LOG_INTERVAL_NANOS = 10_000_000_000L ;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024 ;
+
+    private final StudentBulkIngester studentBulkIngester ;
+
+    private final ObjectMapper objectMapper ;
+
+    // Documentations per checkpoint step
+    private final int checkpointInterval ;
+
+    // Documentations of one checkpoint step, and the offset right after the last of them
+    private record PendingBatch(long endOffset, List<CompletableFuture<Student>> futures) {}
+
+    // Constructor
+    public StudentFileLoader(StudentBulkIngester studentBulkIngester, ObjectMapper objectMapper, int checkpointInterval) {
+
+        this.studentBulkIngester = studentBulkIngester ;
+        this.objectMapper = objectMapper ;
+        this.checkpointInterval = checkpointInterval ;
+    }
+
+    public LoadResult load(Path file) throws IOException {
+
+        return load(file, null) ;
+    }
+
+    // checkpointFile null -> always from the start, nothing is recorded
+    public LoadResult load(Path file, Path checkpointFile) throws IOException {
+
+        long fileSize = Files.size(file) ;
+        long startOffset = checkpointFile == null ? 0 : readCheckpoint(checkpointFile) ;
+
+        if (startOffset > fileSize) {
+
+            throw new IllegalStateException("Checkpoint " + startOffset + " of " + checkpointFile + " is beyond the end of " + file) ;
+        }
+
+        // Loaded completely by an earlier run
+        if (startOffset == fileSize && startOffset > 0) return new LoadResult(0, 0, startOffset, startOffset) ;
+
+        if (startOffset > 0) log.info("Resuming load of [{}] at byte {} of {}", file, startOffset, fileSize) ;
+
+        boolean jsonArray = isJsonArray(file) ;
+
+        long loaded = 0 ;
+        long failed = 0 ;
+        long checkpoint = startOffset ;
+
+        Deque<PendingBatch> pendingBatches = new ArrayDeque<>() ;
+        List<CompletableFuture<Student>> batch = new ArrayList<>(checkpointInterval) ;
+
+        long lastProgressLog = System.nanoTime() ;
+
+        try (InputStream fileInputStream = new BufferedInputStream(Files.newInputStream(file), READ_BUFFER_SIZE)) {
+
+            fileInputStream.skipNBytes(startOffset) ;
+
+            // Offsets reported by the parser are relative to the stream it reads
+            long baseOffset = startOffset ;
+            InputStream inputStream = fileInputStream ;
+
+            // Resumed inside an array - re-open it right before the next element, so the parser sees '[{...}, ...]'
+            if (jsonArray && startOffset > 0) {
+
+                PushbackInputStream pushbackInputStream = new PushbackInputStream(fileInputStream, 1) ;
+
+                baseOffset += skipSeparators(pushbackInputStream) - 1 ;
+
+                inputStream = new SequenceInputStream(new ByteArrayInputStream("[".getBytes(StandardCharsets.UTF_8)), pushbackInputStream) ;
+            }
+
+            try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+
+                JsonToken token = parser.nextToken() ;
+
+                if (jsonArray) {
+
+                    if (token != JsonToken.START_ARRAY) throw new IOException("Expected a JSON array in " + file) ;
+
+                    token = parser.nextToken() ;
+                }
+
+                while (token == JsonToken.START_OBJECT) {
+
+                    Student student = objectMapper.readValue(parser, Student.class) ;
+
+                    // Right after the closing '}' of this documentation
+                    long endOffset = baseOffset + parser.currentLocation().getByteOffset() ;
+
+                    batch.add(studentBulkIngester.index(student)) ;
+
+                    if (batch.size() >= checkpointInterval) {
+
+                        pendingBatches.add(new PendingBatch(endOffset, batch)) ;
+                        batch = new ArrayList<>(checkpointInterval) ;
+
+                        // Only the batches ES already answered are taken, the parser never waits here
+                        long[] completed = completeBatches(pendingBatches, false) ;
+
+                        if (completed != null) {
+
+                            loaded += completed[0] ;
+                            failed += completed[1] ;
+                            checkpoint = completed[2] ;
+
+                            writeCheckpoint(checkpointFile, checkpoint) ;
+                        }
+
+                        if (System.nanoTime() - lastProgressLog > PROGRESS_LOG_INTERVAL_NANOS) {
+
+                            log.info("Loading [{}]: {} documentations acknowledged, {} failed, byte {} of {}",
+                                    file, loaded, failed, checkpoint, fileSize) ;
+
+                            lastProgressLog = System.nanoTime() ;
+                        }
+                    }
+
+                    token = parser.nextToken() ;
+                }
+
+                if (token != null && !(jsonArray && token == JsonToken.END_ARRAY)) {
+
+                    throw new IOException("Expected a student object at byte " +
+                            (baseOffset + parser.currentTokenLocation().getByteOffset()) + " of " + file + ", found " + token) ;
+                }
+            }
+        }
+
+        // The tail - whatever follows the last documentation (e.g. ']') needs no loading, so the checkpoint is the file end
+        pendingBatches.add(new PendingBatch(fileSize, batch)) ;
+
+        studentBulkIngester.flush() ;
+
+        long[] completed = completeBatches(pendingBatches, true) ;
+
+        loaded += completed[0] ;
+        failed += completed[1] ;
+        checkpoint = completed[2] ;
+
+        writeCheckpoint(checkpointFile, checkpoint) ;
+
+        log.info("Loaded [{}]: {} documentations, {} failed", file, loaded, failed) ;
+
+        return new LoadResult(loaded, failed, startOffset, checkpoint) ;
+    }
+
+    // Removes the completed batches from the head of the queue, in file order -> { loaded, failed, checkpoint },
+    // null when the head is still in flight. 'wait' blocks until every batch has completed.
+    private long[] completeBatches(Deque<PendingBatch> pendingBatches, boolean wait) {
+
+        long loaded = 0 ;
+        long failed = 0 ;
+        long checkpoint = -1 ;
+
+        while (!pendingBatches.isEmpty()) {
+
+            PendingBatch head = pendingBatches.peek() ;
+
+            if (!wait && !head.futures().stream().allMatch(CompletableFuture::isDone)) break ;
+
+            for (CompletableFuture<Student> future : head.futures()) {
+
+                try {
+
+                    future.join() ;
+
+                    loaded ++ ;
+                } catch (RuntimeException e) {
+
+                    failed ++ ;
+
+                    log.warn("Loading a documentation failed: {}", e.getMessage()) ;
+                }
+            }
+
+            checkpoint = head.endOffset() ;
+
+            pendingBatches.poll() ;
+        }
+
+        return checkpoint < 0 ? null : new long[] { loaded, failed, checkpoint } ;
+    }
+
+    // The format is told by the first character of the file, not of the resumed part
+    private static boolean isJsonArray(Path file) throws IOException {
+
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file))) {
+
+            int character ;
+
+            do {
+
+                character = inputStream.read() ;
+            } while (character != -1 && Character.isWhitespace(character)) ;
+
+            return character == '[' ;
+        }
+    }
+
+    // Skips whitespace and the ',' between array elements -> bytes skipped
+    private static long skipSeparators(PushbackInputStream inputStream) throws IOException {
+
+        long skipped = 0 ;
+
+        int character ;
+
+        while ((character = inputStream.read()) != -1) {
+
+            if (character != ',' && !Character.isWhitespace(character)) {
+
+                inputStream.unread(character) ;
+
+                break ;
+            }
+
+            skipped ++ ;
+        }
+
+        return skipped ;
+    }
+
+    private static long readCheckpoint(Path checkpointFile) throws IOException {
+
+        if (!Files.exists(checkpointFile)) return 0 ;
+
+        return Long.parseLong(Files.readString(checkpointFile).trim()) ;
+    }
+
+    // Written next to the checkpoint first, so a crash never leaves a half-written checkpoint
+    private static void writeCheckpoint(Path checkpointFile, long offset) throws IOException {
+
+        if (checkpointFile == null) return ;
+
+        Path temporaryFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp") ;
+
+        Files.writeString(temporaryFile, Long.toString(offset)) ;
+        Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE) ;
+    }
+}
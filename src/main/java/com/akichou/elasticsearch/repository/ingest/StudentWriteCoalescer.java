@@ -0,0 +1,81 @@
+package com.akichou.elasticsearch.repository.ingest;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.repository.cache.SearchResultCache;
+import com.akichou.elasticsearch.repository.cache.StudentDocumentCache;
+import com.akichou.elasticsearch.repository.index.StudentIndexManager;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyBudgets;
+import com.akichou.elasticsearch.repository.metrics.ElasticsearchMetrics;
+import com.akichou.elasticsearch.repository.routing.StudentRoutingStrategy;
+
+import java.util.concurrent.CompletableFuture;
+
+// Write-behind for single-documentation writes - concurrent create / index / delete calls share bulk requests.
+// A bulk is sent every 'windowMillis', or as soon as it holds 'maxBatchSize' operations,
+// and every caller still gets its own result, including per-item errors such as a 409 version conflict.
+// Kept apart from the StudentBulkIngester bean, which is tuned for large batches instead of latency.
+public class StudentWriteCoalescer implements AutoCloseable {
+
+    private final StudentBulkIngester studentBulkIngester ;
+
+    // Constructor
+    public StudentWriteCoalescer(ElasticsearchClient elasticsearchClient, String indexName,
+                                 long windowMillis, int maxBatchSize, int maxConcurrentRequests) {
+
+        this.studentBulkIngester = new StudentBulkIngester(elasticsearchClient, indexName,
+                maxBatchSize, StudentBulkIngester.DEFAULT_MAX_SIZE_BYTES, windowMillis, maxConcurrentRequests) ;
+    }
+
+    public CompletableFuture<Student> insert(Student studentDocumentation) {
+
+        return studentBulkIngester.add(studentDocumentation) ;
+    }
+
+    public CompletableFuture<Student> save(Student studentDocumentation) {
+
+        return studentBulkIngester.index(studentDocumentation) ;
+    }
+
+    public CompletableFuture<Void> delete(String studentId, String routing) {
+
+        return studentBulkIngester.delete(studentId, routing) ;
+    }
+
+    public void setSearchResultCache(SearchResultCache searchResultCache) {
+
+        studentBulkIngester.setSearchResultCache(searchResultCache) ;
+    }
+
+    public void setStudentDocumentCache(StudentDocumentCache studentDocumentCache) {
+
+        studentBulkIngester.setStudentDocumentCache(studentDocumentCache) ;
+    }
+
+    public void setStudentIndexManager(StudentIndexManager studentIndexManager) {
+
+        studentBulkIngester.setStudentIndexManager(studentIndexManager) ;
+    }
+
+    public void setConcurrencyBudgets(ConcurrencyBudgets concurrencyBudgets) {
+
+        studentBulkIngester.setConcurrencyBudgets(concurrencyBudgets) ;
+    }
+
+    public void setElasticsearchMetrics(ElasticsearchMetrics elasticsearchMetrics) {
+
+        studentBulkIngester.setElasticsearchMetrics(elasticsearchMetrics) ;
+    }
+
+    public void setStudentRoutingStrategy(StudentRoutingStrategy studentRoutingStrategy) {
+
+        studentBulkIngester.setStudentRoutingStrategy(studentRoutingStrategy) ;
+    }
+
+    // Send the queued writes and wait for them
+    @Override
+    public void close() {
+
+        studentBulkIngester.close() ;
+    }
+}
@@ -0,0 +1,316 @@
+package com.akichou.elasticsearch.repository.limit;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.transport.TransportException;
+import com.akichou.elasticsearch.functionalInterface.IOSupplier;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Adaptive bound of the requests one budget has in flight at ES (AIMD), the limit moves with what ES answers:
+//      overload -> 429 / 503 or a socket timeout, the limit is multiplied by BACKOFF_RATIO
+//      latency  -> the short-term average round trip is LATENCY_TOLERANCE times the long-term one (and 1 ms more), same decrease
+//      healthy  -> every success while at least half the limit is in use adds 1 / limit, about +1 per full window
+// A decrease takes effect at most once per round trip, the requests already in flight report the same overload.
+// A caller over the limit waits in a bounded queue for at most 'maxQueueWaitMillis', then gets a ConcurrencyLimitExceededException.
+// Waiters are futures, so the async repository queues without blocking a thread.
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9 ;
+    private static final double LATENCY_TOLERANCE = 2.0 ;
+
+    // A rise below this is jitter, not ES falling behind
+    private static final long MIN_LATENCY_RISE_NANOS = 1_000_000 ;
+
+    // Weight of a new round trip in the short- and in the long-term average
+    private static final double SHORT_RTT_WEIGHT = 0.1 ;
+    private static final double LONG_RTT_WEIGHT = 0.01 ;
+
+    private static final Set<Integer> OVERLOAD_STATUSES = Set.of(429, 503) ;
+
+    private final String name ;
+    private final boolean enabled ;
+    private final int minLimit ;
+    private final int maxLimit ;
+    private final int maxQueueSize ;
+    private final long maxQueueWaitMillis ;
+
+    private final AtomicLong rejectedCount = new AtomicLong() ;
+
+    // Guarded by 'this'
+    private double limit ;
+    private int inFlight ;
+    private double shortRttNanos ;
+    private double longRttNanos ;
+    private long lastDecreaseNanos ;
+    private final Deque<CompletableFuture<Permit>> waiters = new ArrayDeque<>() ;
+
+    // Constructor
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                                      int maxQueueSize, long maxQueueWaitMillis) {
+
+        this(name, true, initialLimit, minLimit, maxLimit, maxQueueSize, maxQueueWaitMillis) ;
+    }
+
+    private AdaptiveConcurrencyLimiter(String name, boolean enabled, int initialLimit, int minLimit, int maxLimit,
+                                       int maxQueueSize, long maxQueueWaitMillis) {
+
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+
+            throw new IllegalArgumentException("Limits of " + name + " must satisfy 1 <= min <= initial <= max") ;
+        }
+
+        this.name = name ;
+        this.enabled = enabled ;
+        this.minLimit = minLimit ;
+        this.maxLimit = maxLimit ;
+        this.maxQueueSize = maxQueueSize ;
+        this.maxQueueWaitMillis = maxQueueWaitMillis ;
+        this.limit = initialLimit ;
+        this.lastDecreaseNanos = System.nanoTime() ;
+    }
+
+    // Lets every request through - for repositories built outside Spring (tests, benchmarks)
+    public static AdaptiveConcurrencyLimiter unlimited(String name) {
+
+        return new AdaptiveConcurrencyLimiter(name, false, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0) ;
+    }
+
+    public String getName() {
+
+        return name ;
+    }
+
+    public synchronized int getLimit() {
+
+        return (int) limit ;
+    }
+
+    public synchronized int getInFlight() {
+
+        return inFlight ;
+    }
+
+    public synchronized int getQueueSize() {
+
+        return waiters.size() ;
+    }
+
+    public long rejectedCount() {
+
+        return rejectedCount.get() ;
+    }
+
+    // Run a blocking call within the budget - waits at most 'maxQueueWaitMillis' for a slot
+    public <V> V execute(IOSupplier<V> ioSupplier) throws IOException {
+
+        if (!enabled) return ioSupplier.get() ;
+
+        Permit permit = join(acquire()) ;
+        Throwable failure = null ;
+
+        try {
+
+            return ioSupplier.get() ;
+        } catch (IOException | RuntimeException | Error e) {
+
+            failure = e ;
+
+            throw e ;
+        } finally {
+
+            permit.release(failure) ;
+        }
+    }
+
+    // Run a non-blocking call within the budget - the call is made once a slot is free, the slot is held until its future completes
+    public <V> CompletableFuture<V> executeAsync(Supplier<CompletableFuture<V>> futureSupplier) {
+
+        if (!enabled) return futureSupplier.get() ;
+
+        return acquire().thenCompose(permit -> {
+
+            CompletableFuture<V> future ;
+
+            try {
+
+                future = futureSupplier.get() ;
+            } catch (RuntimeException e) {
+
+                permit.release(e) ;
+
+                throw e ;
+            }
+
+            return future.whenComplete((result, failure) -> permit.release(failure)) ;
+        }) ;
+    }
+
+    // A slot, now or after a short wait - completed exceptionally when the queue is full or the wait is over
+    public CompletableFuture<Permit> acquire() {
+
+        if (!enabled) return CompletableFuture.completedFuture(new Permit(System.nanoTime())) ;
+
+        CompletableFuture<Permit> waiter ;
+
+        synchronized (this) {
+
+            // Waiters go first - a new caller never overtakes a queued one
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+
+                inFlight ++ ;
+
+                return CompletableFuture.completedFuture(new Permit(System.nanoTime())) ;
+            }
+
+            if (waiters.size() >= maxQueueSize) return CompletableFuture.failedFuture(reject("the queue is full")) ;
+
+            waiter = new CompletableFuture<>() ;
+            waiters.add(waiter) ;
+        }
+
+        CompletableFuture.delayedExecutor(maxQueueWaitMillis, TimeUnit.MILLISECONDS).execute(() -> {
+
+            ConcurrencyLimitExceededException exception = null ;
+
+            synchronized (this) {
+
+                // Not granted in the meantime
+                if (waiters.remove(waiter)) exception = reject("no slot within " + maxQueueWaitMillis + " ms") ;
+            }
+
+            if (exception != null) waiter.completeExceptionally(exception) ;
+        }) ;
+
+        return waiter ;
+    }
+
+    private void release(long startNanos, Throwable failure) {
+
+        long now = System.nanoTime() ;
+
+        List<CompletableFuture<Permit>> granted = new ArrayList<>() ;
+
+        synchronized (this) {
+
+            int used = inFlight ;
+
+            inFlight -- ;
+
+            // Other failures (400, 404, 409...) say nothing about the load of ES
+            if (failure == null) {
+
+                onRoundTrip(now - startNanos, used, now) ;
+            } else if (isOverload(failure)) {
+
+                decrease(now) ;
+            }
+
+            while (!waiters.isEmpty() && inFlight < (int) limit) {
+
+                inFlight ++ ;
+
+                granted.add(waiters.poll()) ;
+            }
+        }
+
+        // Outside the lock - completing a waiter sends its request
+        for (CompletableFuture<Permit> waiter : granted) waiter.complete(new Permit(now)) ;
+    }
+
+    // Caller holds the lock
+    private void onRoundTrip(long rttNanos, int used, long now) {
+
+        if (longRttNanos == 0) {
+
+            shortRttNanos = rttNanos ;
+            longRttNanos = rttNanos ;
+        } else {
+
+            shortRttNanos += (rttNanos - shortRttNanos) * SHORT_RTT_WEIGHT ;
+            longRttNanos += (rttNanos - longRttNanos) * LONG_RTT_WEIGHT ;
+        }
+
+        if (shortRttNanos > longRttNanos * LATENCY_TOLERANCE && shortRttNanos - longRttNanos > MIN_LATENCY_RISE_NANOS) {
+
+            decrease(now) ;
+        } else if (used * 2 >= limit) {
+
+            // Only grows while the limit is actually what bounds the callers
+            limit = Math.min(maxLimit, limit + 1 / limit) ;
+        }
+    }
+
+    // Caller holds the lock
+    private void decrease(long now) {
+
+        if (now - lastDecreaseNanos < shortRttNanos) return ;
+
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO) ;
+        lastDecreaseNanos = now ;
+    }
+
+    // Caller holds the lock
+    private ConcurrencyLimitExceededException reject(String reason) {
+
+        rejectedCount.incrementAndGet() ;
+
+        return new ConcurrencyLimitExceededException(name, "Elasticsearch " + name + " concurrency limit reached (" +
+                inFlight + " in flight, limit " + (int) limit + ", " + waiters.size() + " queued) - " + reason) ;
+    }
+
+    private static boolean isOverload(Throwable failure) {
+
+        for (Throwable cause = failure ; cause != null ; cause = cause.getCause()) {
+
+            if (cause instanceof ElasticsearchException elasticsearchException
+                    && OVERLOAD_STATUSES.contains(elasticsearchException.status())) return true ;
+
+            if (cause instanceof TransportException transportException
+                    && OVERLOAD_STATUSES.contains(transportException.statusCode())) return true ;
+
+            if (cause instanceof SocketTimeoutException) return true ;
+        }
+
+        return false ;
+    }
+
+    private static Permit join(CompletableFuture<Permit> future) {
+
+        try {
+
+            return future.join() ;
+        } catch (CompletionException e) {
+
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException ;
+
+            throw e ;
+        }
+    }
+
+    // One slot of the budget, released exactly once with the outcome of its request
+    public final class Permit {
+
+        private final long startNanos ;
+
+        private Permit(long startNanos) {
+
+            this.startNanos = startNanos ;
+        }
+
+        public void release(Throwable failure) {
+
+            if (enabled) AdaptiveConcurrencyLimiter.this.release(startNanos, failure) ;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.akichou.elasticsearch.repository.limit;
+
+import java.util.Set;
+
+// Separate budgets for reads and writes, so a burst of one never queues the other.
+// Shared by the blocking and the async repository - both load the same cluster.
+// The bulks of the ingesters and the _msearch of the search coalescer count as one request each.
+// Operations outside both sets (refresh, point-in-time open / close) are not limited - no client request
+// sends them on its own: refresh is an admin call, and a point-in-time is opened once per scan.
+public class ConcurrencyBudgets {
+
+    private static final Set<String> READ_OPERATIONS = Set.of("get", "mget", "search", "search_ids", "search_page", "search_slice", "msearch") ;
+    private static final Set<String> WRITE_OPERATIONS = Set.of("create", "index", "update", "delete", "bulk") ;
+
+    private static final AdaptiveConcurrencyLimiter UNLIMITED = AdaptiveConcurrencyLimiter.unlimited("other") ;
+
+    private final AdaptiveConcurrencyLimiter readLimiter ;
+    private final AdaptiveConcurrencyLimiter writeLimiter ;
+
+    // Constructor
+    public ConcurrencyBudgets(AdaptiveConcurrencyLimiter readLimiter, AdaptiveConcurrencyLimiter writeLimiter) {
+
+        this.readLimiter = readLimiter ;
+        this.writeLimiter = writeLimiter ;
+    }
+
+    public static ConcurrencyBudgets unlimited() {
+
+        return new ConcurrencyBudgets(AdaptiveConcurrencyLimiter.unlimited("read"), AdaptiveConcurrencyLimiter.unlimited("write")) ;
+    }
+
+    public AdaptiveConcurrencyLimiter getReadLimiter() {
+
+        return readLimiter ;
+    }
+
+    public AdaptiveConcurrencyLimiter getWriteLimiter() {
+
+        return writeLimiter ;
+    }
+
+    // The budget an operation name (as timed by ElasticsearchMetrics) is counted against
+    public AdaptiveConcurrencyLimiter of(String operation) {
+
+        if (READ_OPERATIONS.contains(operation)) return readLimiter ;
+
+        if (WRITE_OPERATIONS.contains(operation)) return writeLimiter ;
+
+        return UNLIMITED ;
+    }
+}
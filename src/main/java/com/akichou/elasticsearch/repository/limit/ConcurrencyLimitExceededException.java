@@ -0,0 +1,21 @@
+package com.akichou.elasticsearch.repository.limit;
+
+// Thrown instead of sending a request when its budget is used up and it could not wait for a slot -
+// ES is not asked at all, so the caller may retry later without adding to the overload.
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    private final String budget ;
+
+    // Constructor
+    public ConcurrencyLimitExceededException(String budget, String message) {
+
+        super(message) ;
+
+        this.budget = budget ;
+    }
+
+    public String getBudget() {
+
+        return budget ;
+    }
+}
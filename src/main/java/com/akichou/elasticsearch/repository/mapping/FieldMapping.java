@@ -0,0 +1,24 @@
+package com.akichou.elasticsearch.repository.mapping;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Mapping of a documentation field, read by PropertyMappingGenerator.
+// Fields without it are mapped by their Java type (String -> keyword, Integer -> integer, nested class -> object...)
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FieldMapping {
+
+    FieldType type() default FieldType.Auto ;
+
+    // false -> not searchable, the value is only kept in _source
+    boolean index() default true ;
+
+    // false -> cannot be sorted, aggregated or used by scripts, but saves disk (not applicable to text)
+    boolean docValues() default true ;
+
+    // false -> length normalization is skipped in scoring, saves heap and disk (text only, keyword never has norms)
+    boolean norms() default true ;
+}
@@ -0,0 +1,17 @@
+package com.akichou.elasticsearch.repository.mapping;
+
+// ES field types the mapping generator can emit - 'Auto' infers the type from the Java field
+public enum FieldType {
+
+    Auto,
+    Keyword,
+    Text,
+    Byte,
+    Short,
+    Integer,
+    Long,
+    Double,
+    Boolean,
+    Date,
+    Object
+}
@@ -7,4 +7,10 @@ import java.util.Map;
 public interface FieldValuePropertyMapping {
 
     Map<String, Property> getPropertyMappings() ;
+
+    // Explicit mappings of every field of 'documentClass', driven by its field types and @FieldMapping
+    default Map<String, Property> generatePropertyMappings(Class<?> documentClass) {
+
+        return PropertyMappingGenerator.generate(documentClass) ;
+    }
 }
@@ -0,0 +1,122 @@
+package com.akichou.elasticsearch.repository.mapping;
+
+import co.elastic.clients.elasticsearch._types.mapping.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Builds explicit ES property mappings from a documentation class, so nothing is left to dynamic mapping
+// (which maps every string as both 'text' and '.keyword').
+public class PropertyMappingGenerator {
+
+    public static Map<String, Property> generate(Class<?> documentClass) {
+
+        Map<String, Property> propertyMappings = new LinkedHashMap<>() ;
+
+        for (Field field : documentClass.getDeclaredFields()) {
+
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()) || field.isSynthetic()) continue ;
+
+            propertyMappings.put(field.getName(), toProperty(field)) ;
+        }
+
+        return propertyMappings ;
+    }
+
+    private static Property toProperty(Field field) {
+
+        FieldMapping fieldMapping = field.getAnnotation(FieldMapping.class) ;
+
+        // Collections are mapped by their element type - ES fields are multi-valued anyway
+        Class<?> valueClass = elementClassOf(field) ;
+
+        FieldType fieldType = fieldMapping == null || fieldMapping.type() == FieldType.Auto
+                ? inferFieldType(valueClass)
+                : fieldMapping.type() ;
+
+        boolean index = fieldMapping == null || fieldMapping.index() ;
+        boolean docValues = fieldMapping == null || fieldMapping.docValues() ;
+        boolean norms = fieldMapping == null || fieldMapping.norms() ;
+
+        // Only settings that differ from the ES defaults are written out
+        return switch (fieldType) {
+
+            case Keyword -> KeywordProperty.of(b -> {
+
+                if (!index) b.index(false) ;
+                if (!docValues) b.docValues(false) ;
+
+                return b ;
+            })._toProperty() ;
+
+            case Text -> TextProperty.of(b -> {
+
+                if (!index) b.index(false) ;
+                if (!norms) b.norms(false) ;
+
+                return b ;
+            })._toProperty() ;
+
+            case Byte -> ByteNumberProperty.of(b -> numeric(b, index, docValues))._toProperty() ;
+            case Short -> ShortNumberProperty.of(b -> numeric(b, index, docValues))._toProperty() ;
+            case Integer -> IntegerNumberProperty.of(b -> numeric(b, index, docValues))._toProperty() ;
+            case Long -> LongNumberProperty.of(b -> numeric(b, index, docValues))._toProperty() ;
+            case Double -> DoubleNumberProperty.of(b -> numeric(b, index, docValues))._toProperty() ;
+
+            case Boolean -> BooleanProperty.of(b -> {
+
+                if (!index) b.index(false) ;
+                if (!docValues) b.docValues(false) ;
+
+                return b ;
+            })._toProperty() ;
+
+            case Date -> DateProperty.of(b -> {
+
+                if (!index) b.index(false) ;
+                if (!docValues) b.docValues(false) ;
+
+                return b ;
+            })._toProperty() ;
+
+            case Object -> ObjectProperty.of(b -> b.properties(generate(valueClass)))._toProperty() ;
+
+            case Auto -> throw new IllegalStateException("Unresolved field type of " + field.getName()) ;
+        } ;
+    }
+
+    private static <B extends NumberPropertyBase.AbstractBuilder<B>> B numeric(B builder, boolean index, boolean docValues) {
+
+        if (!index) builder.index(false) ;
+        if (!docValues) builder.docValues(false) ;
+
+        return builder ;
+    }
+
+    private static FieldType inferFieldType(Class<?> valueClass) {
+
+        if (valueClass == String.class) return FieldType.Keyword ;
+        if (valueClass == Integer.class || valueClass == int.class) return FieldType.Integer ;
+        if (valueClass == Long.class || valueClass == long.class) return FieldType.Long ;
+        if (valueClass == Double.class || valueClass == double.class) return FieldType.Double ;
+        if (valueClass == Boolean.class || valueClass == boolean.class) return FieldType.Boolean ;
+        if (Date.class.isAssignableFrom(valueClass)) return FieldType.Date ;
+
+        return FieldType.Object ;
+    }
+
+    private static Class<?> elementClassOf(Field field) {
+
+        if (!Collection.class.isAssignableFrom(field.getType())) return field.getType() ;
+
+        Type elementType = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0] ;
+
+        return (Class<?>) elementType ;
+    }
+}
@@ -0,0 +1,275 @@
+package com.akichou.elasticsearch.repository.metrics;
+
+import com.akichou.elasticsearch.functionalInterface.IOSupplier;
+import com.akichou.elasticsearch.repository.cache.SearchResultCache;
+import com.akichou.elasticsearch.repository.cache.StudentDocumentCache;
+import com.akichou.elasticsearch.repository.limit.AdaptiveConcurrencyLimiter;
+import com.akichou.elasticsearch.repository.search.ReadHedger;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+// Micrometer meters of every ES call made by the repositories and the bulk ingester:
+//      elasticsearch.client.requests    -> client round trip (serialization + network + ES), tags: operation, outcome
+//      elasticsearch.server.took        -> 'took' reported by ES for the same call, tags: operation
+//      elasticsearch.bulk.operations    -> operations per bulk request
+//      elasticsearch.bulk.request.bytes -> estimated body size per bulk request
+//      elasticsearch.bulk.items         -> bulk items, tags: outcome
+//      elasticsearch.bulk.items.retried -> bulk items queued again after a retryable error (e.g. 429)
+//      elasticsearch.bulk.items.failed  -> bulk operations that failed for good, after their last retry
+//      elasticsearch.batch.size         -> calls coalesced into one request, tags: operation
+//      elasticsearch.concurrency.*      -> limit, in-flight, queued and rejected requests of a budget, tags: budget
+//      elasticsearch.hedge.*            -> hedge delay, and hedges sent / won / throttled by the rate cap, tags: operation
+// The gap between the round trip and 'took' is what the client, the network and (de)serialization cost.
+public class ElasticsearchMetrics {
+
+    public static final String REQUESTS = "elasticsearch.client.requests" ;
+    public static final String TOOK = "elasticsearch.server.took" ;
+    public static final String BULK_OPERATIONS = "elasticsearch.bulk.operations" ;
+    public static final String BULK_REQUEST_BYTES = "elasticsearch.bulk.request.bytes" ;
+    public static final String BULK_ITEMS = "elasticsearch.bulk.items" ;
+    public static final String BULK_ITEMS_RETRIED = "elasticsearch.bulk.items.retried" ;
+    public static final String BULK_ITEMS_FAILED = "elasticsearch.bulk.items.failed" ;
+    public static final String BATCH_SIZE = "elasticsearch.batch.size" ;
+    public static final String CONCURRENCY_LIMIT = "elasticsearch.concurrency.limit" ;
+    public static final String CONCURRENCY_IN_FLIGHT = "elasticsearch.concurrency.in.flight" ;
+    public static final String CONCURRENCY_QUEUED = "elasticsearch.concurrency.queued" ;
+    public static final String CONCURRENCY_REJECTED = "elasticsearch.concurrency.rejected" ;
+    public static final String HEDGE_DELAY = "elasticsearch.hedge.delay" ;
+    public static final String HEDGE_REQUESTS = "elasticsearch.hedge.requests" ;
+
+    public static final String OUTCOME_SUCCESS = "success" ;
+    public static final String OUTCOME_ERROR = "error" ;
+
+    private final MeterRegistry meterRegistry ;
+
+    // Meters are looked up once per tag combination instead of on every call
+    private final Map<String, Timer> requestTimers = new ConcurrentHashMap<>() ;
+    private final Map<String, Timer> tookTimers = new ConcurrentHashMap<>() ;
+    private final Map<String, DistributionSummary> batchSizes = new ConcurrentHashMap<>() ;
+
+    private final DistributionSummary bulkOperations ;
+    private final DistributionSummary bulkRequestBytes ;
+    private final Counter bulkItemsSucceeded ;
+    private final Counter bulkItemsFailed ;
+    private final Counter bulkItemsRetried ;
+    private final Counter bulkOperationsFailed ;
+
+    // Constructor
+    public ElasticsearchMetrics(MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry ;
+
+        this.bulkOperations = DistributionSummary.builder(BULK_OPERATIONS)
+                .description("Operations per bulk request")
+                .publishPercentileHistogram()
+                .register(meterRegistry) ;
+
+        this.bulkRequestBytes = DistributionSummary.builder(BULK_REQUEST_BYTES)
+                .description("Estimated body size of a bulk request")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(meterRegistry) ;
+
+        this.bulkItemsSucceeded = bulkItemsCounter(OUTCOME_SUCCESS) ;
+        this.bulkItemsFailed = bulkItemsCounter(OUTCOME_ERROR) ;
+
+        this.bulkItemsRetried = Counter.builder(BULK_ITEMS_RETRIED)
+                .description("Bulk items queued again after a retryable error")
+                .register(meterRegistry) ;
+
+        this.bulkOperationsFailed = Counter.builder(BULK_ITEMS_FAILED)
+                .description("Bulk operations that failed after their last attempt")
+                .register(meterRegistry) ;
+    }
+
+    // Records into a registry without backends - for repositories built outside Spring (tests, benchmarks)
+    public static ElasticsearchMetrics disabled() {
+
+        return new ElasticsearchMetrics(new CompositeMeterRegistry()) ;
+    }
+
+    public MeterRegistry getMeterRegistry() {
+
+        return meterRegistry ;
+    }
+
+    // Time a blocking call, a thrown exception is recorded as an error and rethrown unchanged
+    public <V> V record(String operation, IOSupplier<V> ioSupplier) throws IOException {
+
+        long start = System.nanoTime() ;
+        String outcome = OUTCOME_ERROR ;
+
+        try {
+
+            V result = ioSupplier.get() ;
+
+            outcome = OUTCOME_SUCCESS ;
+
+            return result ;
+        } finally {
+
+            recordRequest(operation, outcome, System.nanoTime() - start) ;
+        }
+    }
+
+    // Time a non-blocking call until its future completes
+    public <V> CompletableFuture<V> recordAsync(String operation, Supplier<CompletableFuture<V>> futureSupplier) {
+
+        long start = System.nanoTime() ;
+
+        return futureSupplier.get()
+                .whenComplete((result, throwable) -> recordRequest(operation,
+                        throwable == null ? OUTCOME_SUCCESS : OUTCOME_ERROR, System.nanoTime() - start)) ;
+    }
+
+    public void recordRequest(String operation, String outcome, long elapsedNanos) {
+
+        requestTimers.computeIfAbsent(operation + ':' + outcome, key -> Timer.builder(REQUESTS)
+                        .description("Client round trip of an Elasticsearch request")
+                        .tag("operation", operation)
+                        .tag("outcome", outcome)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(elapsedNanos, TimeUnit.NANOSECONDS) ;
+    }
+
+    public void recordTook(String operation, long tookMillis) {
+
+        tookTimers.computeIfAbsent(operation, key -> Timer.builder(TOOK)
+                        .description("Time Elasticsearch reports spending on a request")
+                        .tag("operation", operation)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(tookMillis, TimeUnit.MILLISECONDS) ;
+    }
+
+    public void recordBulkRequest(int operations, long estimatedBytes) {
+
+        bulkOperations.record(operations) ;
+        bulkRequestBytes.record(estimatedBytes) ;
+    }
+
+    public void recordBulkItems(int succeeded, int failed) {
+
+        bulkItemsSucceeded.increment(succeeded) ;
+        bulkItemsFailed.increment(failed) ;
+    }
+
+    public void recordBulkItemsRetried(int retried) {
+
+        bulkItemsRetried.increment(retried) ;
+    }
+
+    public void recordBulkItemsFailed() {
+
+        bulkOperationsFailed.increment() ;
+    }
+
+    // Number of caller requests a coalescer sent as one ES request
+    public void recordBatch(String operation, int size) {
+
+        batchSizes.computeIfAbsent(operation, key -> DistributionSummary.builder(BATCH_SIZE)
+                        .description("Caller requests coalesced into one Elasticsearch request")
+                        .tag("operation", operation)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(size) ;
+    }
+
+    // Publish the counters the caches already keep
+    public void bindSearchResultCache(SearchResultCache searchResultCache) {
+
+        cacheCounter("search", "hit", searchResultCache, SearchResultCache::hitCount) ;
+        cacheCounter("search", "miss", searchResultCache, SearchResultCache::missCount) ;
+
+        FunctionCounter.builder("elasticsearch.cache.evictions", searchResultCache, SearchResultCache::evictionCount)
+                .tag("cache", "search")
+                .register(meterRegistry) ;
+
+        Gauge.builder("elasticsearch.cache.size", searchResultCache, SearchResultCache::size)
+                .tag("cache", "search")
+                .register(meterRegistry) ;
+    }
+
+    public void bindStudentDocumentCache(StudentDocumentCache studentDocumentCache) {
+
+        cacheCounter("document", "hit", studentDocumentCache, StudentDocumentCache::hitCount) ;
+        cacheCounter("document", "negative_hit", studentDocumentCache, StudentDocumentCache::negativeHitCount) ;
+        cacheCounter("document", "miss", studentDocumentCache, StudentDocumentCache::missCount) ;
+        cacheCounter("document", "collapsed_load", studentDocumentCache, StudentDocumentCache::collapsedLoadCount) ;
+
+        Gauge.builder("elasticsearch.cache.size", studentDocumentCache, StudentDocumentCache::size)
+                .tag("cache", "document")
+                .register(meterRegistry) ;
+    }
+
+    public void bindConcurrencyLimiter(AdaptiveConcurrencyLimiter limiter) {
+
+        Gauge.builder(CONCURRENCY_LIMIT, limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive limit of requests in flight")
+                .tag("budget", limiter.getName())
+                .register(meterRegistry) ;
+
+        Gauge.builder(CONCURRENCY_IN_FLIGHT, limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Requests in flight")
+                .tag("budget", limiter.getName())
+                .register(meterRegistry) ;
+
+        Gauge.builder(CONCURRENCY_QUEUED, limiter, AdaptiveConcurrencyLimiter::getQueueSize)
+                .description("Requests waiting for a slot")
+                .tag("budget", limiter.getName())
+                .register(meterRegistry) ;
+
+        FunctionCounter.builder(CONCURRENCY_REJECTED, limiter, AdaptiveConcurrencyLimiter::rejectedCount)
+                .description("Requests rejected without being sent")
+                .tag("budget", limiter.getName())
+                .register(meterRegistry) ;
+    }
+
+    public void bindReadHedger(ReadHedger readHedger) {
+
+        Gauge.builder(HEDGE_DELAY, readHedger, ReadHedger::delayMillis)
+                .description("Wait before a read is sent a second time, 0 until enough reads are seen")
+                .tag("operation", readHedger.getOperation())
+                .baseUnit("milliseconds")
+                .register(meterRegistry) ;
+
+        hedgeCounter(readHedger, "read", ReadHedger::reads) ;
+        hedgeCounter(readHedger, "sent", ReadHedger::hedgesSent) ;
+        hedgeCounter(readHedger, "won", ReadHedger::hedgesWon) ;
+        hedgeCounter(readHedger, "throttled", ReadHedger::hedgesThrottled) ;
+    }
+
+    private void hedgeCounter(ReadHedger readHedger, String result, ToDoubleFunction<ReadHedger> count) {
+
+        FunctionCounter.builder(HEDGE_REQUESTS, readHedger, count)
+                .description("Reads, and the hedges sent for them")
+                .tag("operation", readHedger.getOperation())
+                .tag("result", result)
+                .register(meterRegistry) ;
+    }
+
+    private <T> void cacheCounter(String cache, String result, T target, ToDoubleFunction<T> count) {
+
+        FunctionCounter.builder("elasticsearch.cache.requests", target, count)
+                .tag("cache", cache)
+                .tag("result", result)
+                .register(meterRegistry) ;
+    }
+
+    private Counter bulkItemsCounter(String outcome) {
+
+        return Counter.builder(BULK_ITEMS)
+                .description("Items of bulk responses")
+                .tag("outcome", outcome)
+                .register(meterRegistry) ;
+    }
+}
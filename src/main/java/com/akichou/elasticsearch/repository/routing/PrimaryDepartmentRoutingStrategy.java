@@ -0,0 +1,24 @@
+package com.akichou.elasticsearch.repository.routing;
+
+import com.akichou.elasticsearch.entity.Student;
+
+// Routes every student by its primary department, so the students of one department share a shard
+// and a search filtering on 'primaryDepartment' asks that shard only.
+// Not 'departments' itself - a student of two departments sits on the shard of the first one only,
+// a routed search on the second one would miss it. A popular department makes its shard larger than the others.
+public class PrimaryDepartmentRoutingStrategy implements StudentRoutingStrategy {
+
+    public static final String ROUTING_FIELD = "primaryDepartment" ;
+
+    @Override
+    public String routingField() {
+
+        return ROUTING_FIELD ;
+    }
+
+    @Override
+    public String routingOf(Student studentDocumentation) {
+
+        return studentDocumentation.getPrimaryDepartment() ;
+    }
+}
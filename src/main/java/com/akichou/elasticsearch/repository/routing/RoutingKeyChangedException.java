@@ -0,0 +1,12 @@
+package com.akichou.elasticsearch.repository.routing;
+
+// Thrown for a full replace (PUT) whose routing key differs from the one the documentation is stored under -
+// indexing it would leave the stored documentation on its shard and add a second copy on another one.
+public class RoutingKeyChangedException extends RuntimeException {
+
+    // Constructor
+    public RoutingKeyChangedException(String message) {
+
+        super(message) ;
+    }
+}
@@ -0,0 +1,89 @@
+package com.akichou.elasticsearch.repository.routing;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.entity.search.SearchInfo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Custom routing of student documentations - a documentation is stored on the shard of its routing key instead of
+// the shard of its id, so a search filtering on the routing field only has to ask the shards of the keys it filters on.
+// The routing field has to be single-valued, and its value must not change once the documentation is written:
+// written again under another key, the old copy would stay behind on the shard of the old key.
+public interface StudentRoutingStrategy {
+
+    // Field of the documentation its routing key is kept in
+    String routingField() ;
+
+    // Routing key of a documentation, null -> routed by its id
+    String routingOf(Student studentDocumentation) ;
+
+    // The keys a search can only match - from term / terms filters on the routing field (comma-separated, as ES takes them).
+    // null when the search is not restricted to some keys and has to ask every shard.
+    default String routingOf(SearchInfo searchInfo) {
+
+        BoolQuery boolQuery = searchInfo.getBoolQuery() ;
+
+        if (boolQuery == null) return null ;
+
+        // Required clauses only - a 'should' or 'must_not' on the routing field does not exclude the other keys
+        List<Query> requiredClauses = new ArrayList<>(boolQuery.filter()) ;
+        requiredClauses.addAll(boolQuery.must()) ;
+
+        Set<String> keys = null ;
+
+        for (Query clause : requiredClauses) {
+
+            Set<String> clauseKeys = keysOf(clause) ;
+
+            if (clauseKeys == null) continue ;
+
+            // Every clause has to hold, so only the keys of all of them are left
+            if (keys == null) keys = clauseKeys ;
+            else keys.retainAll(clauseKeys) ;
+        }
+
+        // No hit can match an empty set, a key with a comma cannot be told apart from two keys
+        if (keys == null || keys.isEmpty() || keys.stream().anyMatch(key -> key.contains(","))) return null ;
+
+        return String.join(",", keys) ;
+    }
+
+    private Set<String> keysOf(Query clause) {
+
+        if (clause.isTerm() && isRoutingField(clause.term().field())) return stringValues(List.of(clause.term().value())) ;
+
+        if (clause.isTerms() && isRoutingField(clause.terms().field()) && clause.terms().terms().isValue()) {
+
+            return stringValues(clause.terms().terms().value()) ;
+        }
+
+        return null ;
+    }
+
+    // 'x.keyword' is the same values as 'x'
+    private boolean isRoutingField(String field) {
+
+        return routingField().equals(field) || (routingField() + ".keyword").equals(field) ;
+    }
+
+    private static Set<String> stringValues(List<FieldValue> fieldValues) {
+
+        Set<String> values = new LinkedHashSet<>() ;
+
+        for (FieldValue fieldValue : fieldValues) {
+
+            // Routing keys are strings, a filter on any other value is left to every shard
+            if (!fieldValue.isString()) return null ;
+
+            values.add(fieldValue.stringValue()) ;
+        }
+
+        return values ;
+    }
+}
@@ -0,0 +1,191 @@
+package com.akichou.elasticsearch.repository.search;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import co.elastic.clients.elasticsearch.core.MsearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.msearch.MultiSearchResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.MultisearchBody;
+import co.elastic.clients.elasticsearch.core.msearch.MultisearchHeader;
+import co.elastic.clients.elasticsearch.core.msearch.RequestItem;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyBudgets;
+import com.akichou.elasticsearch.repository.metrics.ElasticsearchMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Micro-batching of concurrent searches - searches arriving within 'windowMillis' of the first one
+// are sent together as one _msearch request, and every caller gets its own item of the response.
+// A batch is sent as soon as it holds 'maxBatchSize' searches, so no search waits longer than the window.
+@Slf4j
+public class MultiSearchCoalescer implements AutoCloseable {
+
+    private final ElasticsearchAsyncClient elasticsearchAsyncClient ;
+    private final long windowMillis ;
+    private final int maxBatchSize ;
+
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+
+        Thread thread = new Thread(runnable, "msearch-coalescer") ;
+        thread.setDaemon(true) ;
+
+        return thread ;
+    }) ;
+
+    // Guarded by 'this'
+    private List<PendingSearch> pendingSearches = new ArrayList<>() ;
+    private ScheduledFuture<?> scheduledFlush ;
+
+    // Optional - meters go nowhere unless set
+    private volatile ElasticsearchMetrics elasticsearchMetrics = ElasticsearchMetrics.disabled() ;
+
+    // Optional - an _msearch takes one slot of the read budget, it is not limited unless set
+    private volatile ConcurrencyBudgets concurrencyBudgets = ConcurrencyBudgets.unlimited() ;
+
+    // Constructor
+    public MultiSearchCoalescer(ElasticsearchAsyncClient elasticsearchAsyncClient, long windowMillis, int maxBatchSize) {
+
+        this.elasticsearchAsyncClient = elasticsearchAsyncClient ;
+        this.windowMillis = windowMillis ;
+        this.maxBatchSize = maxBatchSize ;
+    }
+
+    public void setElasticsearchMetrics(ElasticsearchMetrics elasticsearchMetrics) {
+
+        this.elasticsearchMetrics = elasticsearchMetrics ;
+    }
+
+    public void setConcurrencyBudgets(ConcurrencyBudgets concurrencyBudgets) {
+
+        this.concurrencyBudgets = concurrencyBudgets ;
+    }
+
+    // Queue a search, the future completes when the _msearch containing it returns
+    public CompletableFuture<ResponseBody<Student>> search(SearchRequest searchRequest) {
+
+        PendingSearch pendingSearch = new PendingSearch(toRequestItem(searchRequest), new CompletableFuture<>()) ;
+
+        List<PendingSearch> fullBatch = null ;
+
+        synchronized (this) {
+
+            pendingSearches.add(pendingSearch) ;
+
+            if (pendingSearches.size() >= maxBatchSize) fullBatch = drain() ;
+            else if (pendingSearches.size() == 1) scheduledFlush = flushScheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS) ;
+        }
+
+        if (fullBatch != null) send(fullBatch) ;
+
+        return pendingSearch.future() ;
+    }
+
+    // Send whatever is queued right away
+    public void flush() {
+
+        List<PendingSearch> batch ;
+
+        synchronized (this) {
+
+            batch = drain() ;
+        }
+
+        if (!batch.isEmpty()) send(batch) ;
+    }
+
+    @Override
+    public void close() {
+
+        flush() ;
+
+        flushScheduler.shutdown() ;
+    }
+
+    // Caller holds the lock
+    private List<PendingSearch> drain() {
+
+        if (scheduledFlush != null) {
+
+            scheduledFlush.cancel(false) ;
+            scheduledFlush = null ;
+        }
+
+        List<PendingSearch> batch = pendingSearches ;
+        pendingSearches = new ArrayList<>() ;
+
+        return batch ;
+    }
+
+    private void send(List<PendingSearch> batch) {
+
+        MsearchRequest msearchRequest = MsearchRequest.of(b -> b
+                .searches(batch.stream().map(PendingSearch::requestItem).toList())) ;
+
+        elasticsearchMetrics.recordBatch("msearch", batch.size()) ;
+
+        concurrencyBudgets.of("msearch")
+                .executeAsync(() -> elasticsearchMetrics.recordAsync("msearch", () -> elasticsearchAsyncClient.msearch(msearchRequest, Student.class)))
+                .whenComplete((msearchResponse, throwable) -> {
+
+                    if (throwable != null) {
+
+                        log.error(throwable.getMessage()) ;
+
+                        batch.forEach(pendingSearch -> pendingSearch.future().completeExceptionally(throwable)) ;
+
+                        return ;
+                    }
+
+                    elasticsearchMetrics.recordTook("msearch", msearchResponse.took()) ;
+
+                    List<MultiSearchResponseItem<Student>> items = msearchResponse.responses() ;
+
+                    for (var i = 0 ; i < batch.size() ; i ++) {
+
+                        MultiSearchResponseItem<Student> item = items.get(i) ;
+
+                        if (item.isResult()) {
+
+                            batch.get(i).future().complete(item.result()) ;
+                        } else {
+
+                            batch.get(i).future().completeExceptionally(toElasticsearchException(item.failure())) ;
+                        }
+                    }
+                }) ;
+    }
+
+    // The same exception a direct search would fail with, so the caller still sees the status (e.g. 404 for a missing index)
+    static ElasticsearchException toElasticsearchException(ErrorResponse failure) {
+
+        return new ElasticsearchException("es/msearch", ErrorResponse.of(b -> b
+                .status(failure.status())
+                .error(failure.error()))) ;
+    }
+
+    // The parts of a search request the repositories set, split into an _msearch header and body
+    static RequestItem toRequestItem(SearchRequest searchRequest) {
+
+        MultisearchHeader header = MultisearchHeader.of(b -> b
+                .index(searchRequest.index())
+                .routing(searchRequest.routing())
+                .preference(searchRequest.preference())) ;
+
+        MultisearchBody body = MultisearchBody.of(b -> b
+                .query(searchRequest.query())
+                .source(searchRequest.source())
+                .sort(searchRequest.sort())
+                .from(searchRequest.from())
+                .size(searchRequest.size())) ;
+
+        return RequestItem.of(b -> b.header(header).body(body)) ;
+    }
+
+    private record PendingSearch(RequestItem requestItem, CompletableFuture<ResponseBody<Student>> future) {
+    }
+}
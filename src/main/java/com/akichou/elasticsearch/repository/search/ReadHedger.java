@@ -0,0 +1,186 @@
+package com.akichou.elasticsearch.repository.search;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Hedged reads against one slow shard copy - when a read has not answered after the 'percentile' latency of the recent reads,
+// a second attempt is sent with a 'preference' of its own, and whichever answers first is used.
+// The custom preference makes ES pick the shard copies by its hash instead of by adaptive replica selection,
+// and the rest client sends the attempt to the next node, so it rarely waits on the same copy as the first one.
+// At most 'maxHedgeRatio' of the reads are hedged (token bucket), so a slow cluster is never sent twice the load.
+// No read is hedged until the window holds MIN_SAMPLES latencies.
+public class ReadHedger {
+
+    private static final int WINDOW_SIZE = 1024 ;
+
+    // The delay is recomputed from the window every this many reads
+    private static final int MIN_SAMPLES = 64 ;
+
+    // Unused hedges saved for a burst of slow reads
+    private static final double MAX_TOKENS = 10 ;
+
+    private static final String PREFERENCE_PREFIX = "hedge-" ;
+
+    private final String operation ;
+    private final double percentile ;
+    private final long minDelayNanos ;
+    private final double maxHedgeRatio ;
+
+    private final AtomicLong reads = new AtomicLong() ;
+    private final AtomicLong hedgesSent = new AtomicLong() ;
+    private final AtomicLong hedgesWon = new AtomicLong() ;
+    private final AtomicLong hedgesThrottled = new AtomicLong() ;
+
+    // Guarded by 'this' - ring buffer of the latest read latencies
+    private final long[] latencies = new long[WINDOW_SIZE] ;
+    private long samples ;
+    private double tokens ;
+
+    // 0 -> not hedging yet
+    private volatile long delayNanos ;
+
+    // Constructor
+    public ReadHedger(String operation, double percentile, long minDelayMillis, double maxHedgeRatio) {
+
+        this.operation = operation ;
+        this.percentile = percentile ;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis) ;
+        this.maxHedgeRatio = maxHedgeRatio ;
+    }
+
+    public String getOperation() {
+
+        return operation ;
+    }
+
+    public double delayMillis() {
+
+        return delayNanos / 1_000_000.0 ;
+    }
+
+    public long hedgesSent() {
+
+        return hedgesSent.get() ;
+    }
+
+    public long hedgesWon() {
+
+        return hedgesWon.get() ;
+    }
+
+    public long hedgesThrottled() {
+
+        return hedgesThrottled.get() ;
+    }
+
+    public long reads() {
+
+        return reads.get() ;
+    }
+
+    // 'attempt' sends the read with the given preference - null for the first attempt, which keeps the ES default
+    public <V> CompletableFuture<V> read(Function<String, CompletableFuture<V>> attempt) {
+
+        long start = System.nanoTime() ;
+        long readNumber = reads.incrementAndGet() ;
+
+        synchronized (this) {
+
+            tokens = Math.min(MAX_TOKENS, tokens + maxHedgeRatio) ;
+        }
+
+        CompletableFuture<V> result = new CompletableFuture<>() ;
+
+        // Attempts not failed yet - the read only fails when the last of them does
+        AtomicInteger pendingAttempts = new AtomicInteger(1) ;
+        AtomicBoolean answered = new AtomicBoolean() ;
+
+        CompletableFuture<V> first = attempt.apply(null) ;
+
+        first.whenComplete((value, throwable) -> complete(result, answered, pendingAttempts, value, throwable, start, false)) ;
+
+        long delay = delayNanos ;
+
+        if (delay > 0 && !result.isDone()) {
+
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+
+                if (result.isDone()) return ;
+
+                if (!takeToken()) {
+
+                    hedgesThrottled.incrementAndGet() ;
+
+                    return ;
+                }
+
+                pendingAttempts.incrementAndGet() ;
+                hedgesSent.incrementAndGet() ;
+
+                CompletableFuture<V> hedge = attempt.apply(PREFERENCE_PREFIX + readNumber) ;
+
+                hedge.whenComplete((value, throwable) -> complete(result, answered, pendingAttempts, value, throwable, start, true)) ;
+
+                // Nobody waits for the slower attempt any more - a request already sent still runs to its end at ES
+                result.whenComplete((value, throwable) -> {
+
+                    first.cancel(false) ;
+                    hedge.cancel(false) ;
+                }) ;
+            }) ;
+        }
+
+        return result ;
+    }
+
+    private <V> void complete(CompletableFuture<V> result, AtomicBoolean answered, AtomicInteger pendingAttempts,
+                              V value, Throwable throwable, long start, boolean hedge) {
+
+        if (throwable == null) {
+
+            // The first answer decides - counted before the caller can see it
+            if (answered.compareAndSet(false, true)) {
+
+                if (hedge) hedgesWon.incrementAndGet() ;
+
+                record(System.nanoTime() - start) ;
+
+                result.complete(value) ;
+            }
+
+            return ;
+        }
+
+        // A cancelled loser, or one attempt failing while the other may still answer
+        if (pendingAttempts.decrementAndGet() == 0 && answered.compareAndSet(false, true)) result.completeExceptionally(throwable) ;
+    }
+
+    private synchronized boolean takeToken() {
+
+        if (tokens < 1) return false ;
+
+        tokens -= 1 ;
+
+        return true ;
+    }
+
+    private synchronized void record(long latencyNanos) {
+
+        latencies[(int) (samples % WINDOW_SIZE)] = latencyNanos ;
+        samples ++ ;
+
+        if (samples % MIN_SAMPLES != 0) return ;
+
+        long[] window = Arrays.copyOf(latencies, (int) Math.min(samples, WINDOW_SIZE)) ;
+        Arrays.sort(window) ;
+
+        long percentileLatency = window[(int) Math.max(0, Math.ceil(percentile * window.length) - 1)] ;
+
+        delayNanos = Math.max(minDelayNanos, percentileLatency) ;
+    }
+}
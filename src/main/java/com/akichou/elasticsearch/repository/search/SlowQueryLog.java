@@ -0,0 +1,256 @@
+package com.akichou.elasticsearch.repository.search;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.ShardStatistics;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.search.Profile;
+import co.elastic.clients.elasticsearch.core.search.QueryBreakdown;
+import co.elastic.clients.elasticsearch.core.search.QueryProfile;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import co.elastic.clients.elasticsearch.core.search.SearchProfile;
+import co.elastic.clients.elasticsearch.core.search.ShardProfile;
+import co.elastic.clients.json.JsonpUtils;
+import com.akichou.elasticsearch.entity.search.QueryClauseProfile;
+import com.akichou.elasticsearch.entity.search.ShardQueryProfile;
+import com.akichou.elasticsearch.entity.search.SlowQuery;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+// Slow-query log of find() - a search whose 'took' reaches 'thresholdMillis' is logged with the fingerprint of its query,
+// took, shard statistics and hit count, and summed up per fingerprint (the 'maxEntries' most recently slow ones are kept).
+// 'profileSampleRate' of the slow searches are sent once more with the profile API in the background, and the per-clause
+// timings are kept with their fingerprint - one profile per fingerprint is in flight at most.
+@Slf4j
+public class SlowQueryLog {
+
+    // Hex digits of the SHA-256 of the query JSON
+    private static final int FINGERPRINT_LENGTH = 16 ;
+
+    private final ElasticsearchAsyncClient elasticsearchAsyncClient ;
+    private final long thresholdMillis ;
+    private final double profileSampleRate ;
+    private final int maxEntries ;
+
+    // Guarded by 'this' - access-ordered, so the eldest entry is the one not slow for the longest time
+    private final LinkedHashMap<String, Entry> entries ;
+
+    // Constructor - a negative 'thresholdMillis' or 'maxEntries' of 0 disables the log
+    public SlowQueryLog(ElasticsearchAsyncClient elasticsearchAsyncClient, long thresholdMillis, double profileSampleRate, int maxEntries) {
+
+        this.elasticsearchAsyncClient = elasticsearchAsyncClient ;
+        this.thresholdMillis = thresholdMillis ;
+        this.profileSampleRate = profileSampleRate ;
+        this.maxEntries = maxEntries ;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+
+                return size() > SlowQueryLog.this.maxEntries ;
+            }
+        } ;
+    }
+
+    public static SlowQueryLog disabled() {
+
+        return new SlowQueryLog(null, -1, 0, 0) ;
+    }
+
+    public boolean isEnabled() {
+
+        return thresholdMillis >= 0 && maxEntries > 0 ;
+    }
+
+    // 'profileRequest' builds the same search with profiling on - only called when this search is sampled
+    public void onSearch(SearchRequest searchRequest, ResponseBody<?> searchResponse, Supplier<SearchRequest> profileRequest) {
+
+        if (!isEnabled() || searchResponse.took() < thresholdMillis) return ;
+
+        String query = searchRequest.query() == null
+                ? "{}"
+                : JsonpUtils.toJsonString(searchRequest.query(), elasticsearchAsyncClient._jsonpMapper()) ;
+
+        String fingerprint = fingerprint(query) ;
+
+        ShardStatistics shards = searchResponse.shards() ;
+
+        long hits = searchResponse.hits().total() != null
+                ? searchResponse.hits().total().value()
+                : searchResponse.hits().hits().size() ;
+
+        log.warn("Slow query [{}]: took {} ms, shards {} total / {} successful / {} skipped / {} failed, {} hits",
+                fingerprint, searchResponse.took(), shards.total(), shards.successful(), shards.skipped(), shards.failed(), hits) ;
+
+        log.debug("Slow query [{}]: {}", fingerprint, query) ;
+
+        boolean sampled ;
+
+        synchronized (this) {
+
+            Entry entry = entries.computeIfAbsent(fingerprint, key -> new Entry(fingerprint, query)) ;
+
+            entry.add(searchResponse.took(), shards, hits) ;
+
+            sampled = !entry.profiling && ThreadLocalRandom.current().nextDouble() < profileSampleRate ;
+
+            if (sampled) entry.profiling = true ;
+        }
+
+        if (sampled) profile(fingerprint, profileRequest.get()) ;
+    }
+
+    // The 'size' slowest fingerprints, by their slowest run
+    public synchronized List<SlowQuery> top(int size) {
+
+        return entries.values()
+                .stream()
+                .sorted(Comparator.comparingLong((Entry entry) -> entry.maxTookMillis).reversed())
+                .limit(size)
+                .map(Entry::toSlowQuery)
+                .toList() ;
+    }
+
+    private void profile(String fingerprint, SearchRequest profileRequest) {
+
+        elasticsearchAsyncClient.search(profileRequest, Void.class)
+                .whenComplete((searchResponse, throwable) -> {
+
+                    if (throwable != null) log.warn("Profiling slow query [{}] failed: {}", fingerprint, throwable.getMessage()) ;
+
+                    List<ShardQueryProfile> profile = throwable == null && searchResponse.profile() != null
+                            ? toShardProfiles(searchResponse.profile())
+                            : null ;
+
+                    synchronized (this) {
+
+                        Entry entry = entries.get(fingerprint) ;
+
+                        // Evicted in the meantime
+                        if (entry == null) return ;
+
+                        entry.profiling = false ;
+
+                        if (profile != null) {
+
+                            entry.profile = profile ;
+                            entry.profiledAt = new Date() ;
+                        }
+                    }
+                }) ;
+    }
+
+    private static List<ShardQueryProfile> toShardProfiles(Profile profile) {
+
+        List<ShardQueryProfile> shardProfiles = new ArrayList<>() ;
+
+        for (ShardProfile shardProfile : profile.shards()) {
+
+            List<QueryClauseProfile> clauses = new ArrayList<>() ;
+            long rewriteTimeNanos = 0 ;
+
+            for (SearchProfile searchProfile : shardProfile.searches()) {
+
+                rewriteTimeNanos += searchProfile.rewriteTime() ;
+
+                searchProfile.query().forEach(queryProfile -> clauses.add(toClauseProfile(queryProfile))) ;
+            }
+
+            shardProfiles.add(new ShardQueryProfile(shardProfile.id(), rewriteTimeNanos, clauses)) ;
+        }
+
+        return shardProfiles ;
+    }
+
+    private static QueryClauseProfile toClauseProfile(QueryProfile queryProfile) {
+
+        QueryBreakdown queryBreakdown = queryProfile.breakdown() ;
+
+        Map<String, Long> breakdown = new LinkedHashMap<>() ;
+        breakdown.put("create_weight", queryBreakdown.createWeight()) ;
+        breakdown.put("build_scorer", queryBreakdown.buildScorer()) ;
+        breakdown.put("next_doc", queryBreakdown.nextDoc()) ;
+        breakdown.put("advance", queryBreakdown.advance()) ;
+        breakdown.put("match", queryBreakdown.match()) ;
+        breakdown.put("score", queryBreakdown.score()) ;
+        breakdown.put("shallow_advance", queryBreakdown.shallowAdvance()) ;
+        breakdown.put("compute_max_score", queryBreakdown.computeMaxScore()) ;
+        breakdown.put("set_min_competitive_score", queryBreakdown.setMinCompetitiveScore()) ;
+
+        List<QueryClauseProfile> children = queryProfile.children()
+                .stream()
+                .map(SlowQueryLog::toClauseProfile)
+                .toList() ;
+
+        return new QueryClauseProfile(queryProfile.type(), queryProfile.description(), queryProfile.timeInNanos(), breakdown, children) ;
+    }
+
+    private static String fingerprint(String query) {
+
+        try {
+
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8)) ;
+
+            return HexFormat.of().formatHex(digest).substring(0, FINGERPRINT_LENGTH) ;
+        } catch (NoSuchAlgorithmException e) {
+
+            throw new IllegalStateException(e) ;
+        }
+    }
+
+    // Guarded by the log
+    private static class Entry {
+
+        private final String fingerprint ;
+        private final String query ;
+
+        private long count ;
+        private long totalTookMillis ;
+        private long maxTookMillis ;
+        private long lastTookMillis ;
+        private Date lastSeen ;
+        private ShardStatistics shards ;
+        private long hits ;
+
+        private boolean profiling ;
+        private List<ShardQueryProfile> profile ;
+        private Date profiledAt ;
+
+        Entry(String fingerprint, String query) {
+
+            this.fingerprint = fingerprint ;
+            this.query = query ;
+        }
+
+        void add(long tookMillis, ShardStatistics shards, long hits) {
+
+            count ++ ;
+            totalTookMillis += tookMillis ;
+            maxTookMillis = Math.max(maxTookMillis, tookMillis) ;
+            lastTookMillis = tookMillis ;
+            lastSeen = new Date() ;
+
+            this.shards = shards ;
+            this.hits = hits ;
+        }
+
+        SlowQuery toSlowQuery() {
+
+            return new SlowQuery(fingerprint, query, count, maxTookMillis, totalTookMillis / count, lastTookMillis, lastSeen,
+                    shards.total().intValue(), shards.successful().intValue(),
+                    shards.skipped() == null ? 0 : shards.skipped().intValue(), shards.failed().intValue(),
+                    hits, profile, profiledAt) ;
+        }
+    }
+}
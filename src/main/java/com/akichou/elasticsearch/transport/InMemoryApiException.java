@@ -0,0 +1,46 @@
+package com.akichou.elasticsearch.transport;
+
+// An error the in-memory cluster answers with - rendered as the same error body and status ES would send
+class InMemoryApiException extends RuntimeException {
+
+    private final int status ;
+    private final String type ;
+
+    InMemoryApiException(int status, String type, String reason) {
+
+        super(reason) ;
+
+        this.status = status ;
+        this.type = type ;
+    }
+
+    int getStatus() {
+
+        return status ;
+    }
+
+    String getType() {
+
+        return type ;
+    }
+
+    static InMemoryApiException indexNotFound(String index) {
+
+        return new InMemoryApiException(404, "index_not_found_exception", "no such index [" + index + "]") ;
+    }
+
+    static InMemoryApiException badRequest(String reason) {
+
+        return new InMemoryApiException(400, "illegal_argument_exception", reason) ;
+    }
+
+    static InMemoryApiException versionConflict(String id, String reason) {
+
+        return new InMemoryApiException(409, "version_conflict_engine_exception", "[" + id + "]: version conflict, " + reason) ;
+    }
+
+    static InMemoryApiException rejectedExecution() {
+
+        return new InMemoryApiException(429, "es_rejected_execution_exception", "rejected execution of bulk item, write queue is full") ;
+    }
+}
@@ -0,0 +1,1472 @@
+package com.akichou.elasticsearch.transport;
+
+import com.akichou.elasticsearch.transport.InMemoryIndex.StoredDocument;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+// Single-node, single-shard cluster state behind InMemoryElasticsearchTransport.
+// Every API works on the JSON a real node would receive (path / query parameters and body) and answers with
+// the status and JSON body a real node would send, so the client decodes responses and errors exactly as over HTTP.
+// Writes are visible to the next search right away - there is no refresh interval to wait for.
+class InMemoryCluster {
+
+    private static final String NODE_ID = "in-memory" ;
+
+    private static final int DEFAULT_SEARCH_SIZE = 10 ;
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance ;
+
+    // Timings of a profiled query clause, each also reported with its '_count'
+    private static final List<String> PROFILE_TIMINGS = List.of("create_weight", "build_scorer", "next_doc", "advance", "match",
+            "score", "shallow_advance", "compute_max_score", "set_min_competitive_score") ;
+
+    // Searches, gets and alias lookups run in parallel, writes one at a time
+    private final ReadWriteLock lock = new ReentrantReadWriteLock() ;
+
+    private final Map<String, InMemoryIndex> indices = new LinkedHashMap<>() ;
+
+    // alias -> concrete indices
+    private final Map<String, Set<String>> aliases = new LinkedHashMap<>() ;
+
+    private final Map<String, PointInTime> pointsInTime = new ConcurrentHashMap<>() ;
+    private final Map<String, ObjectNode> completedTasks = new ConcurrentHashMap<>() ;
+
+    // Global write order - the '_doc' / '_shard_doc' tie-breaker
+    private final AtomicLong writeSequence = new AtomicLong() ;
+    private final AtomicLong taskSequence = new AtomicLong() ;
+
+    // Bulk items still to be rejected with 429, like a write thread pool under pressure
+    private final AtomicInteger pendingBulkRejections = new AtomicInteger() ;
+
+    record Response(int status, JsonNode body) {}
+
+    private record PointInTime(Map<InMemoryIndex, List<StoredDocument>> snapshot, AtomicLong expiresAtMillis) {}
+
+    private record SourceFilter(boolean fetch, List<String> includes, List<String> excludes) {
+
+        static final SourceFilter ALL = new SourceFilter(true, List.of(), List.of()) ;
+    }
+
+    private record SortField(String field, boolean descending, String mode, boolean missingFirst) {}
+
+    private record ScoredHit(InMemoryIndex index, StoredDocument document, Double score, List<Comparable<?>> sortValues) {}
+
+    void rejectBulkItems(int count) {
+
+        pendingBulkRejections.addAndGet(count) ;
+    }
+
+    Response handle(String endpointId, Map<String, String> pathParameters, Map<String, String> queryParameters, List<JsonNode> body) {
+
+        JsonNode firstBody = body.isEmpty() ? NODES.objectNode() : body.get(0) ;
+
+        try {
+
+            return switch (endpointId) {
+
+                case "es/info" -> ok(info()) ;
+                case "es/ping" -> new Response(200, null) ;
+
+                case "es/indices.create" -> write(() -> createIndex(pathParameters.get("index"), firstBody)) ;
+                case "es/indices.delete" -> write(() -> deleteIndices(pathParameters.get("index"))) ;
+                case "es/indices.exists" -> read(() -> existsIndices(pathParameters.get("index"))) ;
+                case "es/indices.exists_alias" -> read(() -> existsAlias(pathParameters.get("name"), pathParameters.get("index"))) ;
+                case "es/indices.get_alias" -> read(() -> getAlias(pathParameters.get("name"), pathParameters.get("index"))) ;
+                case "es/indices.update_aliases" -> write(() -> updateAliases(firstBody)) ;
+                case "es/indices.get_mapping" -> read(() -> getMapping(pathParameters.get("index"))) ;
+                case "es/indices.refresh" -> read(() -> refresh(pathParameters.get("index"))) ;
+
+                case "es/create" -> write(() -> writeDocument(pathParameters.get("index"), pathParameters.get("id"), firstBody, true, queryParameters.get("routing"),
+                        longParameter(queryParameters, "if_seq_no"), longParameter(queryParameters, "if_primary_term"))) ;
+                case "es/index" -> write(() -> writeDocument(pathParameters.get("index"), pathParameters.get("id"), firstBody,
+                        "create".equals(queryParameters.get("op_type")), queryParameters.get("routing"),
+                        longParameter(queryParameters, "if_seq_no"), longParameter(queryParameters, "if_primary_term"))) ;
+                case "es/update" -> write(() -> updateDocument(pathParameters.get("index"), pathParameters.get("id"), firstBody, queryParameters.get("routing"),
+                        longParameter(queryParameters, "if_seq_no"), longParameter(queryParameters, "if_primary_term"))) ;
+                case "es/delete" -> write(() -> deleteDocument(pathParameters.get("index"), pathParameters.get("id"),
+                        longParameter(queryParameters, "if_seq_no"), longParameter(queryParameters, "if_primary_term"))) ;
+                case "es/get" -> read(() -> getDocument(pathParameters.get("index"), pathParameters.get("id"), sourceFilter(queryParameters))) ;
+                case "es/mget" -> read(() -> multiGet(pathParameters.get("index"), sourceFilter(queryParameters), firstBody)) ;
+                case "es/bulk" -> write(() -> bulk(pathParameters.get("index"), body)) ;
+
+                case "es/search" -> read(() -> ok(search(pathParameters.get("index"), queryParameters, firstBody))) ;
+                case "es/msearch" -> read(() -> multiSearch(pathParameters.get("index"), body)) ;
+                case "es/open_point_in_time" -> read(() -> openPointInTime(pathParameters.get("index"), queryParameters.get("keep_alive"))) ;
+                case "es/close_point_in_time" -> read(() -> closePointInTime(firstBody.path("id").asText())) ;
+
+                case "es/reindex" -> write(() -> reindex(queryParameters, firstBody)) ;
+                case "es/tasks.get" -> read(() -> getTask(pathParameters.get("taskId"))) ;
+
+                default -> throw new InMemoryApiException(400, "unsupported_operation_exception",
+                        "[" + endpointId + "] is not supported by the in-memory transport") ;
+            } ;
+        } catch (InMemoryApiException e) {
+
+            return new Response(e.getStatus(), errorBody(e)) ;
+        }
+    }
+
+    // Indices...
+
+    private Response createIndex(String indexName, JsonNode body) {
+
+        if (indices.containsKey(indexName) || aliases.containsKey(indexName)) {
+
+            throw new InMemoryApiException(400, "resource_already_exists_exception", "index [" + indexName + "] already exists") ;
+        }
+
+        JsonNode mappings = body.path("mappings") ;
+
+        indices.put(indexName, new InMemoryIndex(indexName, mappings.isObject() ? (ObjectNode) mappings : null)) ;
+
+        body.path("aliases").fieldNames().forEachRemaining(alias ->
+                aliases.computeIfAbsent(alias, key -> new LinkedHashSet<>()).add(indexName)) ;
+
+        return ok(NODES.objectNode()
+                .put("acknowledged", true)
+                .put("shards_acknowledged", true)
+                .put("index", indexName)) ;
+    }
+
+    private Response deleteIndices(String expression) {
+
+        List<String> indexNames = new ArrayList<>() ;
+
+        for (String name : expression.split(",")) {
+
+            if (isWildcard(name)) {
+
+                indices.keySet().stream().filter(globMatcher(name)).forEach(indexNames::add) ;
+            } else if (indices.containsKey(name)) {
+
+                indexNames.add(name) ;
+            } else {
+
+                throw InMemoryApiException.indexNotFound(name) ;
+            }
+        }
+
+        indexNames.forEach(this::removeIndex) ;
+
+        return acknowledged() ;
+    }
+
+    private Response existsIndices(String expression) {
+
+        for (String name : expression.split(",")) {
+
+            boolean exists = isWildcard(name)
+                    ? indices.keySet().stream().anyMatch(globMatcher(name)) || aliases.keySet().stream().anyMatch(globMatcher(name))
+                    : indices.containsKey(name) || aliases.containsKey(name) ;
+
+            if (!exists) return new Response(404, null) ;
+        }
+
+        return new Response(200, null) ;
+    }
+
+    private Response existsAlias(String names, String indexExpression) {
+
+        return new Response(matchingAliases(names, indexExpression).isEmpty() ? 404 : 200, null) ;
+    }
+
+    // { concrete index: { aliases: { alias: {} } } }
+    private Response getAlias(String names, String indexExpression) {
+
+        ObjectNode result = NODES.objectNode() ;
+
+        if (names == null) {
+
+            for (InMemoryIndex index : resolveRead(indexExpression)) result.putObject(index.getName()).putObject("aliases") ;
+        }
+
+        matchingAliases(names, indexExpression).forEach((alias, indexNames) -> indexNames.forEach(indexName -> {
+
+            ObjectNode indexAliases = result.has(indexName)
+                    ? (ObjectNode) result.get(indexName).get("aliases")
+                    : result.putObject(indexName).putObject("aliases") ;
+
+            indexAliases.putObject(alias) ;
+        })) ;
+
+        return ok(result) ;
+    }
+
+    // All actions are validated first and applied together, so readers never see half of an alias swap
+    private Response updateAliases(JsonNode body) {
+
+        Map<String, Set<String>> updatedAliases = new LinkedHashMap<>() ;
+        aliases.forEach((alias, indexNames) -> updatedAliases.put(alias, new LinkedHashSet<>(indexNames))) ;
+
+        Set<String> removedIndices = new LinkedHashSet<>() ;
+
+        for (JsonNode action : body.path("actions")) {
+
+            if (action.has("add")) {
+
+                JsonNode add = action.get("add") ;
+
+                for (String indexName : namesOf(add, "index", "indices")) {
+
+                    requireIndex(indexName) ;
+
+                    for (String alias : namesOf(add, "alias", "aliases")) {
+
+                        if (indices.containsKey(alias)) {
+
+                            throw new InMemoryApiException(400, "invalid_alias_name_exception",
+                                    "Invalid alias name [" + alias + "]: an index or data stream exists with the same name as the alias") ;
+                        }
+
+                        updatedAliases.computeIfAbsent(alias, key -> new LinkedHashSet<>()).add(indexName) ;
+                    }
+                }
+            } else if (action.has("remove")) {
+
+                JsonNode remove = action.get("remove") ;
+
+                for (String indexName : namesOf(remove, "index", "indices")) {
+
+                    for (String alias : namesOf(remove, "alias", "aliases")) {
+
+                        Set<String> indexNames = updatedAliases.get(alias) ;
+
+                        if (indexNames == null || !indexNames.remove(indexName)) {
+
+                            throw new InMemoryApiException(404, "aliases_not_found_exception", "aliases [" + alias + "] missing") ;
+                        }
+                    }
+                }
+            } else if (action.has("remove_index")) {
+
+                for (String indexName : namesOf(action.get("remove_index"), "index", "indices")) {
+
+                    requireIndex(indexName) ;
+
+                    removedIndices.add(indexName) ;
+                }
+            } else {
+
+                throw new InMemoryApiException(400, "parsing_exception", "unsupported alias action " + action) ;
+            }
+        }
+
+        updatedAliases.values().removeIf(Set::isEmpty) ;
+
+        aliases.clear() ;
+        aliases.putAll(updatedAliases) ;
+
+        removedIndices.forEach(this::removeIndex) ;
+
+        return acknowledged() ;
+    }
+
+    private Response getMapping(String expression) {
+
+        ObjectNode result = NODES.objectNode() ;
+
+        for (InMemoryIndex index : resolveRead(expression)) {
+
+            result.putObject(index.getName()).set("mappings", index.getMappings()) ;
+        }
+
+        return ok(result) ;
+    }
+
+    // Nothing to do - every write is searchable as soon as it is acknowledged
+    private Response refresh(String expression) {
+
+        int shards = expression == null ? indices.size() : resolveRead(expression).size() ;
+
+        return ok(NODES.objectNode().set("_shards", shards(shards))) ;
+    }
+
+    // Documents...
+
+    // One shard per index - 'routing' picks no shard here, it is only kept as the '_routing' of the documentation
+    private Response writeDocument(String target, String id, JsonNode source, boolean createOnly, String routing, Long ifSeqNo, Long ifPrimaryTerm) {
+
+        if (!source.isObject()) throw new InMemoryApiException(400, "mapper_parsing_exception", "failed to parse, document is empty") ;
+
+        InMemoryIndex index = resolveWrite(target, true) ;
+
+        String documentId = id == null ? UUID.randomUUID().toString() : id ;
+
+        StoredDocument current = index.get(documentId) ;
+
+        if (createOnly && current != null) {
+
+            throw InMemoryApiException.versionConflict(documentId, "document already exists (current version [" + current.version() + "])") ;
+        }
+
+        checkSeqNo(documentId, current, ifSeqNo, ifPrimaryTerm) ;
+
+        StoredDocument stored = index.put(documentId, (ObjectNode) source, writeSequence.getAndIncrement(), routing) ;
+
+        return new Response(current == null ? 201 : 200, writeResult(index, stored, current == null ? "created" : "updated")) ;
+    }
+
+    // Partial update - the 'doc' is merged into the stored source, and 'detect_noop' (on by default) skips a merge that changes nothing
+    private Response updateDocument(String target, String id, JsonNode body, String routing, Long ifSeqNo, Long ifPrimaryTerm) {
+
+        if (body.has("script")) {
+
+            throw new InMemoryApiException(400, "unsupported_operation_exception", "scripted updates are not supported by the in-memory transport") ;
+        }
+
+        InMemoryIndex index = resolveWrite(target, true) ;
+
+        StoredDocument current = index.get(id) ;
+
+        checkSeqNo(id, current, ifSeqNo, ifPrimaryTerm) ;
+
+        JsonNode doc = body.get("doc") ;
+
+        StoredDocument stored ;
+        String result ;
+        int status ;
+
+        if (current == null) {
+
+            JsonNode upsert = body.path("doc_as_upsert").asBoolean(false) ? doc : body.get("upsert") ;
+
+            if (upsert == null || !upsert.isObject()) {
+
+                throw new InMemoryApiException(404, "document_missing_exception", "[" + id + "]: document missing") ;
+            }
+
+            stored = index.put(id, (ObjectNode) upsert, writeSequence.getAndIncrement(), routing) ;
+            result = "created" ;
+            status = 201 ;
+        } else {
+
+            ObjectNode merged = current.source().deepCopy() ;
+
+            if (doc != null && doc.isObject()) merge(merged, (ObjectNode) doc) ;
+
+            if (body.path("detect_noop").asBoolean(true) && merged.equals(current.source())) {
+
+                stored = current ;
+                result = "noop" ;
+            } else {
+
+                stored = index.put(id, merged, writeSequence.getAndIncrement(), current.routing()) ;
+                result = "updated" ;
+            }
+
+            status = 200 ;
+        }
+
+        ObjectNode response = writeResult(index, stored, result) ;
+
+        SourceFilter sourceFilter = sourceFilter(body.get("_source"), false) ;
+
+        if (sourceFilter.fetch()) {
+
+            ObjectNode get = response.putObject("get")
+                    .put("found", true)
+                    .put("_seq_no", stored.seqNo())
+                    .put("_primary_term", 1) ;
+
+            get.set("_source", filterSource(stored.source(), sourceFilter)) ;
+        }
+
+        return new Response(status, response) ;
+    }
+
+    // A missing documentation is answered with 404 'not_found', which the client returns as a normal response
+    private Response deleteDocument(String target, String id, Long ifSeqNo, Long ifPrimaryTerm) {
+
+        InMemoryIndex index = resolveWrite(target, false) ;
+
+        StoredDocument current = index.get(id) ;
+
+        checkSeqNo(id, current, ifSeqNo, ifPrimaryTerm) ;
+
+        if (current == null) {
+
+            return new Response(404, writeResult(index, new StoredDocument(id, null, 1, index.claimSeqNo(), -1, null), "not_found")) ;
+        }
+
+        return ok(writeResult(index, index.remove(id), "deleted")) ;
+    }
+
+    private Response getDocument(String expression, String id, SourceFilter sourceFilter) {
+
+        InMemoryIndex index = resolveSingle(expression) ;
+
+        ObjectNode result = getResult(index, id, sourceFilter) ;
+
+        return new Response(result.get("found").asBoolean() ? 200 : 404, result) ;
+    }
+
+    // Missing ids come back as 'found: false', a missing index as a per-item error
+    private Response multiGet(String defaultExpression, SourceFilter defaultSourceFilter, JsonNode body) {
+
+        ArrayNode docs = NODES.arrayNode() ;
+
+        List<JsonNode> requests = new ArrayList<>() ;
+
+        body.path("ids").forEach(id -> requests.add(NODES.objectNode().put("_id", id.asText()))) ;
+        body.path("docs").forEach(requests::add) ;
+
+        for (JsonNode request : requests) {
+
+            String expression = request.path("_index").asText(defaultExpression) ;
+            String id = request.path("_id").asText() ;
+
+            SourceFilter sourceFilter = request.has("_source") ? sourceFilter(request.get("_source"), true) : defaultSourceFilter ;
+
+            try {
+
+                docs.add(getResult(resolveSingle(expression), id, sourceFilter)) ;
+            } catch (InMemoryApiException e) {
+
+                ObjectNode failure = docs.addObject()
+                        .put("_index", expression)
+                        .put("_id", id) ;
+
+                failure.set("error", errorCause(e)) ;
+            }
+        }
+
+        return ok(NODES.objectNode().set("docs", docs)) ;
+    }
+
+    // NDJSON pairs of action and source - every item succeeds or fails on its own, like on a real node
+    private Response bulk(String defaultIndex, List<JsonNode> lines) {
+
+        long start = System.nanoTime() ;
+
+        ArrayNode items = NODES.arrayNode() ;
+        var errors = false ;
+
+        for (var line = 0 ; line < lines.size() ; line ++) {
+
+            Map.Entry<String, JsonNode> action = lines.get(line).fields().next() ;
+
+            String operation = action.getKey() ;
+            JsonNode metadata = action.getValue() ;
+
+            String target = metadata.path("_index").asText(defaultIndex) ;
+            String id = metadata.hasNonNull("_id") ? metadata.get("_id").asText() : null ;
+            Long ifSeqNo = metadata.has("if_seq_no") ? metadata.get("if_seq_no").asLong() : null ;
+            Long ifPrimaryTerm = metadata.has("if_primary_term") ? metadata.get("if_primary_term").asLong() : null ;
+            String routing = metadata.hasNonNull("routing") ? metadata.get("routing").asText() : null ;
+
+            JsonNode source = "delete".equals(operation) ? null : lines.get(++ line) ;
+
+            ObjectNode item ;
+
+            try {
+
+                if (pendingBulkRejections.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+
+                    throw InMemoryApiException.rejectedExecution() ;
+                }
+
+                Response response = switch (operation) {
+
+                    case "index" -> writeDocument(target, id, source, false, routing, ifSeqNo, ifPrimaryTerm) ;
+                    case "create" -> writeDocument(target, id, source, true, routing, ifSeqNo, ifPrimaryTerm) ;
+                    case "update" -> updateDocument(target, id, source, routing, ifSeqNo, ifPrimaryTerm) ;
+                    case "delete" -> deleteDocument(target, id, ifSeqNo, ifPrimaryTerm) ;
+
+                    default -> throw new InMemoryApiException(400, "illegal_argument_exception", "Malformed action/metadata line [" + operation + "]") ;
+                } ;
+
+                item = ((ObjectNode) response.body()).put("status", response.status()) ;
+            } catch (InMemoryApiException e) {
+
+                errors = true ;
+
+                item = NODES.objectNode()
+                        .put("_index", target)
+                        .put("_id", id)
+                        .put("status", e.getStatus()) ;
+
+                item.set("error", errorCause(e)) ;
+            }
+
+            items.addObject().set(operation, item) ;
+        }
+
+        return ok(NODES.objectNode()
+                .put("took", elapsedMillis(start))
+                .put("errors", errors)
+                .set("items", items)) ;
+    }
+
+    // Search...
+
+    private ObjectNode search(String expression, Map<String, String> queryParameters, JsonNode body) {
+
+        long start = System.nanoTime() ;
+        long nowMillis = System.currentTimeMillis() ;
+
+        if (body.has("aggregations") || body.has("aggs")) {
+
+            throw new InMemoryApiException(400, "unsupported_operation_exception", "aggregations are not supported by the in-memory transport") ;
+        }
+
+        Map<InMemoryIndex, List<StoredDocument>> targets ;
+        String pitId = null ;
+
+        if (body.has("pit")) {
+
+            pitId = body.path("pit").path("id").asText() ;
+
+            targets = pointInTime(pitId, body.path("pit").get("keep_alive")).snapshot() ;
+        } else {
+
+            targets = new LinkedHashMap<>() ;
+
+            for (InMemoryIndex index : resolveRead(expression)) targets.put(index, index.snapshot()) ;
+        }
+
+        List<SortField> sortFields = sortFields(body.get("sort")) ;
+
+        boolean scored = sortFields.isEmpty()
+                || body.path("track_scores").asBoolean(false)
+                || sortFields.stream().anyMatch(sortField -> "_score".equals(sortField.field())) ;
+
+        JsonNode slice = body.get("slice") ;
+        JsonNode query = body.get("query") ;
+
+        List<ScoredHit> hits = new ArrayList<>() ;
+        QueryEvaluator firstEvaluator = null ;
+
+        for (Map.Entry<InMemoryIndex, List<StoredDocument>> target : targets.entrySet()) {
+
+            QueryEvaluator evaluator = new QueryEvaluator(target.getKey(), nowMillis) ;
+
+            if (firstEvaluator == null) firstEvaluator = evaluator ;
+
+            for (StoredDocument document : target.getValue()) {
+
+                // Slices split the documentations by id, the same split for every page of a scan
+                if (slice != null && Math.floorMod(document.id().hashCode(), slice.path("max").asInt()) != slice.path("id").asInt()) continue ;
+
+                Double score = evaluator.score(query, document) ;
+
+                if (score == null) continue ;
+
+                if (body.has("min_score") && score < body.get("min_score").asDouble()) continue ;
+
+                hits.add(new ScoredHit(target.getKey(), document, score, sortValues(evaluator, sortFields, document, score))) ;
+            }
+        }
+
+        // No sort -> by score, ties in write order
+        List<SortField> effectiveSort = sortFields.isEmpty() ? List.of(new SortField("_score", true, null, false)) : sortFields ;
+
+        Comparator<ScoredHit> comparator = (left, right) -> compareSortValues(effectiveSort,
+                sortFields.isEmpty() ? List.of(left.score()) : left.sortValues(),
+                sortFields.isEmpty() ? List.of(right.score()) : right.sortValues()) ;
+
+        hits.sort(comparator.thenComparingLong(hit -> hit.document().sequence())) ;
+
+        int totalHits = hits.size() ;
+
+        if (body.has("search_after") && firstEvaluator != null) {
+
+            List<Comparable<?>> searchAfter = searchAfterValues(firstEvaluator, sortFields, body.get("search_after")) ;
+
+            hits.removeIf(hit -> compareSortValues(sortFields, hit.sortValues(), searchAfter) <= 0) ;
+        }
+
+        int from = body.has("from") ? body.get("from").asInt() : Integer.parseInt(queryParameters.getOrDefault("from", "0")) ;
+        int size = body.has("size") ? body.get("size").asInt() : Integer.parseInt(queryParameters.getOrDefault("size", String.valueOf(DEFAULT_SEARCH_SIZE))) ;
+
+        List<ScoredHit> page = hits.subList(Math.min(from, hits.size()), Math.min(from + size, hits.size())) ;
+
+        SourceFilter sourceFilter = body.has("_source") ? sourceFilter(body.get("_source"), true) : sourceFilter(queryParameters) ;
+
+        ArrayNode hitArray = NODES.arrayNode() ;
+
+        for (ScoredHit hit : page) {
+
+            ObjectNode hitNode = hitArray.addObject()
+                    .put("_index", hit.index().getName())
+                    .put("_id", hit.document().id()) ;
+
+            if (hit.document().routing() != null) hitNode.put("_routing", hit.document().routing()) ;
+
+            if (scored) hitNode.put("_score", hit.score()) ;
+            else hitNode.putNull("_score") ;
+
+            if (body.path("seq_no_primary_term").asBoolean(false)) {
+
+                hitNode.put("_seq_no", hit.document().seqNo()).put("_primary_term", 1) ;
+            }
+
+            if (body.path("version").asBoolean(false)) hitNode.put("_version", hit.document().version()) ;
+
+            if (sourceFilter.fetch()) hitNode.set("_source", filterSource(hit.document().source(), sourceFilter)) ;
+
+            if (!sortFields.isEmpty()) hitNode.set("sort", sortValuesJson(sortFields, hit)) ;
+        }
+
+        ObjectNode hitsNode = NODES.objectNode() ;
+
+        hitsNode.putObject("total").put("value", totalHits).put("relation", "eq") ;
+
+        OptionalDouble maxScore = page.stream().mapToDouble(ScoredHit::score).max() ;
+
+        if (scored && maxScore.isPresent()) hitsNode.put("max_score", maxScore.getAsDouble()) ;
+        else hitsNode.putNull("max_score") ;
+
+        hitsNode.set("hits", hitArray) ;
+
+        ObjectNode response = NODES.objectNode()
+                .put("took", elapsedMillis(start))
+                .put("timed_out", false) ;
+
+        response.set("_shards", shards(targets.size())) ;
+        response.set("hits", hitsNode) ;
+
+        if (pitId != null) response.put("pit_id", pitId) ;
+
+        if (body.path("profile").asBoolean(false)) response.set("profile", profile(targets, query, nowMillis)) ;
+
+        return response ;
+    }
+
+    // Header and body pairs - a failed search is a per-item error, the other searches still answer
+    private Response multiSearch(String defaultExpression, List<JsonNode> lines) {
+
+        long start = System.nanoTime() ;
+
+        ArrayNode responses = NODES.arrayNode() ;
+
+        for (var line = 0 ; line + 1 < lines.size() ; line += 2) {
+
+            JsonNode header = lines.get(line) ;
+            JsonNode index = header.get("index") ;
+
+            String expression = index == null ? defaultExpression
+                    : String.join(",", textValues(index)) ;
+
+            try {
+
+                responses.add(search(expression, Map.of(), lines.get(line + 1)).put("status", 200)) ;
+            } catch (InMemoryApiException e) {
+
+                responses.add(errorBody(e)) ;
+            }
+        }
+
+        return ok(NODES.objectNode()
+                .put("took", elapsedMillis(start))
+                .set("responses", responses)) ;
+    }
+
+    private Response openPointInTime(String expression, String keepAlive) {
+
+        if (keepAlive == null) throw InMemoryApiException.badRequest("[keep_alive] is required") ;
+
+        pointsInTime.values().removeIf(pointInTime -> pointInTime.expiresAtMillis().get() < System.currentTimeMillis()) ;
+
+        Map<InMemoryIndex, List<StoredDocument>> snapshot = new LinkedHashMap<>() ;
+
+        for (InMemoryIndex index : resolveRead(expression)) snapshot.put(index, index.snapshot()) ;
+
+        String pitId = Base64.getUrlEncoder().withoutPadding().encodeToString(UUID.randomUUID().toString().getBytes()) ;
+
+        long expiresAtMillis = System.currentTimeMillis() + QueryEvaluator.parseDuration(NODES.textNode(keepAlive)) ;
+
+        pointsInTime.put(pitId, new PointInTime(snapshot, new AtomicLong(expiresAtMillis))) ;
+
+        return ok(NODES.objectNode().put("id", pitId)) ;
+    }
+
+    private Response closePointInTime(String pitId) {
+
+        boolean freed = pointsInTime.remove(pitId) != null ;
+
+        return ok(NODES.objectNode()
+                .put("succeeded", true)
+                .put("num_freed", freed ? 1 : 0)) ;
+    }
+
+    // Every search through a point-in-time extends its keep-alive
+    private PointInTime pointInTime(String pitId, JsonNode keepAlive) {
+
+        PointInTime pointInTime = pointsInTime.get(pitId) ;
+
+        if (pointInTime == null || pointInTime.expiresAtMillis().get() < System.currentTimeMillis()) {
+
+            pointsInTime.remove(pitId) ;
+
+            throw new InMemoryApiException(404, "search_context_missing_exception", "No search context found for id [" + pitId + "]") ;
+        }
+
+        if (keepAlive != null) pointInTime.expiresAtMillis().set(System.currentTimeMillis() + QueryEvaluator.parseDuration(keepAlive)) ;
+
+        return pointInTime ;
+    }
+
+    // Tasks...
+
+    // Runs right away - with 'wait_for_completion=false' the result is kept as an already completed task
+    private Response reindex(Map<String, String> queryParameters, JsonNode body) {
+
+        long start = System.nanoTime() ;
+
+        JsonNode source = body.path("source") ;
+        JsonNode destination = body.path("dest") ;
+
+        if (source.has("remote") || body.has("script")) {
+
+            throw new InMemoryApiException(400, "unsupported_operation_exception", "remote / scripted reindex is not supported by the in-memory transport") ;
+        }
+
+        String sourceExpression = String.join(",", textValues(source.path("index"))) ;
+        String destinationIndex = destination.path("index").asText() ;
+
+        boolean createOnly = "create".equals(destination.path("op_type").asText()) ;
+        boolean proceedOnConflicts = "proceed".equals(body.path("conflicts").asText()) ;
+
+        long total = 0, created = 0, updated = 0, versionConflicts = 0 ;
+        ArrayNode failures = NODES.arrayNode() ;
+
+        long nowMillis = System.currentTimeMillis() ;
+
+        for (InMemoryIndex index : resolveRead(sourceExpression)) {
+
+            QueryEvaluator evaluator = new QueryEvaluator(index, nowMillis) ;
+
+            for (StoredDocument document : index.snapshot()) {
+
+                if (evaluator.score(source.get("query"), document) == null) continue ;
+
+                total ++ ;
+
+                try {
+
+                    Response response = writeDocument(destinationIndex, document.id(), document.source().deepCopy(), createOnly,
+                            document.routing(), null, null) ;
+
+                    if (response.status() == 201) created ++ ;
+                    else updated ++ ;
+                } catch (InMemoryApiException e) {
+
+                    if (e.getStatus() == 409) versionConflicts ++ ;
+
+                    if (e.getStatus() != 409 || !proceedOnConflicts) {
+
+                        failures.addObject()
+                                .put("index", destinationIndex)
+                                .put("id", document.id())
+                                .put("status", e.getStatus())
+                                .set("cause", errorCause(e)) ;
+
+                        break ;
+                    }
+                }
+            }
+        }
+
+        ObjectNode result = NODES.objectNode()
+                .put("took", elapsedMillis(start))
+                .put("timed_out", false)
+                .put("total", total)
+                .put("created", created)
+                .put("updated", updated)
+                .put("deleted", 0)
+                .put("batches", 1)
+                .put("version_conflicts", versionConflicts)
+                .put("noops", 0)
+                .put("throttled_millis", 0)
+                .put("requests_per_second", -1.0)
+                .put("throttled_until_millis", 0) ;
+
+        result.putObject("retries").put("bulk", 0).put("search", 0) ;
+        result.set("failures", failures) ;
+
+        if (!"false".equals(queryParameters.get("wait_for_completion"))) return ok(result) ;
+
+        String taskId = NODE_ID + ":" + taskSequence.incrementAndGet() ;
+
+        completedTasks.put(taskId, result) ;
+
+        return ok(NODES.objectNode().put("task", taskId)) ;
+    }
+
+    private Response getTask(String taskId) {
+
+        ObjectNode result = completedTasks.get(taskId) ;
+
+        if (result == null) throw new InMemoryApiException(404, "resource_not_found_exception", "task [" + taskId + "] isn't running and hasn't stored its results") ;
+
+        ObjectNode response = NODES.objectNode().put("completed", true) ;
+
+        ObjectNode task = response.putObject("task")
+                .put("node", NODE_ID)
+                .put("id", Long.parseLong(taskId.substring(taskId.indexOf(':') + 1)))
+                .put("type", "transport")
+                .put("action", "indices:data/write/reindex")
+                .put("description", "reindex")
+                .put("start_time_in_millis", System.currentTimeMillis())
+                .put("running_time_in_nanos", 0)
+                .put("cancellable", true) ;
+
+        task.putObject("headers") ;
+        response.set("response", result) ;
+
+        return ok(response) ;
+    }
+
+    private ObjectNode info() {
+
+        ObjectNode info = NODES.objectNode()
+                .put("name", NODE_ID)
+                .put("cluster_name", NODE_ID)
+                .put("cluster_uuid", NODE_ID)
+                .put("tagline", "You Know, for Search") ;
+
+        info.putObject("version")
+                .put("number", "8.13.4")
+                .put("build_flavor", "default")
+                .put("build_type", NODE_ID)
+                .put("build_hash", NODE_ID)
+                .put("build_date", "2024-05-06T22:04:45.107Z")
+                .put("build_snapshot", false)
+                .put("lucene_version", "9.10.0")
+                .put("minimum_wire_compatibility_version", "7.17.0")
+                .put("minimum_index_compatibility_version", "7.0.0") ;
+
+        return info ;
+    }
+
+    // Helpers...
+
+    private Response read(Supplier<Response> operation) {
+
+        lock.readLock().lock() ;
+
+        try {
+
+            return operation.get() ;
+        } finally {
+
+            lock.readLock().unlock() ;
+        }
+    }
+
+    private Response write(Supplier<Response> operation) {
+
+        lock.writeLock().lock() ;
+
+        try {
+
+            return operation.get() ;
+        } finally {
+
+            lock.writeLock().unlock() ;
+        }
+    }
+
+    // Comma-separated names of indices, aliases or wildcards - null, '_all' and '*' mean every index
+    private List<InMemoryIndex> resolveRead(String expression) {
+
+        if (expression == null || expression.isEmpty() || "_all".equals(expression)) return new ArrayList<>(indices.values()) ;
+
+        Set<String> indexNames = new LinkedHashSet<>() ;
+
+        for (String name : expression.split(",")) {
+
+            if (isWildcard(name)) {
+
+                indices.keySet().stream().filter(globMatcher(name)).forEach(indexNames::add) ;
+
+                aliases.entrySet().stream()
+                        .filter(alias -> globMatcher(name).test(alias.getKey()))
+                        .forEach(alias -> indexNames.addAll(alias.getValue())) ;
+            } else if (aliases.containsKey(name)) {
+
+                indexNames.addAll(aliases.get(name)) ;
+            } else if (indices.containsKey(name)) {
+
+                indexNames.add(name) ;
+            } else {
+
+                throw InMemoryApiException.indexNotFound(name) ;
+            }
+        }
+
+        return indexNames.stream().map(indices::get).toList() ;
+    }
+
+    // GET by id needs exactly one concrete index behind the name
+    private InMemoryIndex resolveSingle(String expression) {
+
+        List<InMemoryIndex> resolved = resolveRead(expression) ;
+
+        if (resolved.size() != 1) {
+
+            throw InMemoryApiException.badRequest("alias [" + expression + "] has more than one index associated with it, can't execute a single index op") ;
+        }
+
+        return resolved.get(0) ;
+    }
+
+    // An alias has to point to exactly one index to be written through - a missing index is created on the fly
+    private InMemoryIndex resolveWrite(String name, boolean autoCreate) {
+
+        Set<String> aliasIndices = aliases.get(name) ;
+
+        if (aliasIndices != null) {
+
+            if (aliasIndices.size() != 1) {
+
+                throw InMemoryApiException.badRequest("no write index is defined for alias [" + name + "]."
+                        + " The write index may be explicitly disabled using is_write_index=false or the alias points to multiple"
+                        + " indices without one being designated as a write index") ;
+            }
+
+            return indices.get(aliasIndices.iterator().next()) ;
+        }
+
+        InMemoryIndex index = indices.get(name) ;
+
+        if (index != null) return index ;
+
+        if (!autoCreate) throw InMemoryApiException.indexNotFound(name) ;
+
+        index = new InMemoryIndex(name, null) ;
+
+        indices.put(name, index) ;
+
+        return index ;
+    }
+
+    private void requireIndex(String indexName) {
+
+        if (!indices.containsKey(indexName)) throw InMemoryApiException.indexNotFound(indexName) ;
+    }
+
+    private void removeIndex(String indexName) {
+
+        indices.remove(indexName) ;
+
+        aliases.values().forEach(indexNames -> indexNames.remove(indexName)) ;
+        aliases.values().removeIf(Set::isEmpty) ;
+    }
+
+    private Map<String, Set<String>> matchingAliases(String names, String indexExpression) {
+
+        Set<String> indexNames = indexExpression == null ? null
+                : new HashSet<>(resolveRead(indexExpression).stream().map(InMemoryIndex::getName).toList()) ;
+
+        Map<String, Set<String>> matching = new LinkedHashMap<>() ;
+
+        aliases.forEach((alias, aliasIndices) -> {
+
+            if (names != null && Arrays.stream(names.split(",")).noneMatch(name -> globMatcher(name).test(alias))) return ;
+
+            Set<String> matchingIndices = new LinkedHashSet<>(aliasIndices) ;
+
+            if (indexNames != null) matchingIndices.retainAll(indexNames) ;
+
+            if (!matchingIndices.isEmpty()) matching.put(alias, matchingIndices) ;
+        }) ;
+
+        return matching ;
+    }
+
+    private static void checkSeqNo(String id, StoredDocument current, Long ifSeqNo, Long ifPrimaryTerm) {
+
+        if (ifSeqNo == null && ifPrimaryTerm == null) return ;
+
+        String required = "required seqNo [" + ifSeqNo + "], primary term [" + ifPrimaryTerm + "]" ;
+
+        if (current == null) throw InMemoryApiException.versionConflict(id, required + ". but no document was found") ;
+
+        if (!Objects.equals(ifSeqNo, current.seqNo()) || (ifPrimaryTerm != null && ifPrimaryTerm != 1)) {
+
+            throw InMemoryApiException.versionConflict(id, required + ". current document has seqNo ["
+                    + current.seqNo() + "] and primary term [1]") ;
+        }
+    }
+
+    private static ObjectNode getResult(InMemoryIndex index, String id, SourceFilter sourceFilter) {
+
+        StoredDocument document = index.get(id) ;
+
+        ObjectNode result = NODES.objectNode()
+                .put("_index", index.getName())
+                .put("_id", id)
+                .put("found", document != null) ;
+
+        if (document == null) return result ;
+
+        result.put("_version", document.version())
+                .put("_seq_no", document.seqNo())
+                .put("_primary_term", 1) ;
+
+        if (document.routing() != null) result.put("_routing", document.routing()) ;
+
+        if (sourceFilter.fetch()) result.set("_source", filterSource(document.source(), sourceFilter)) ;
+
+        return result ;
+    }
+
+    private static ObjectNode writeResult(InMemoryIndex index, StoredDocument document, String result) {
+
+        ObjectNode response = NODES.objectNode()
+                .put("_index", index.getName())
+                .put("_id", document.id())
+                .put("_version", document.version())
+                .put("result", result)
+                .put("_seq_no", document.seqNo())
+                .put("_primary_term", 1) ;
+
+        response.set("_shards", shards(1)) ;
+
+        return response ;
+    }
+
+    // Objects are merged field by field, anything else (arrays included) is replaced
+    private static void merge(ObjectNode target, ObjectNode update) {
+
+        update.fields().forEachRemaining(field -> {
+
+            JsonNode current = target.get(field.getKey()) ;
+
+            if (current != null && current.isObject() && field.getValue().isObject()) {
+
+                merge((ObjectNode) current, (ObjectNode) field.getValue()) ;
+            } else {
+
+                target.set(field.getKey(), field.getValue()) ;
+            }
+        }) ;
+    }
+
+    // Sort...
+
+    private static List<SortField> sortFields(JsonNode sort) {
+
+        List<SortField> sortFields = new ArrayList<>() ;
+
+        if (sort == null || sort.isNull()) return sortFields ;
+
+        for (JsonNode option : sort.isArray() ? sort : NODES.arrayNode().add(sort)) {
+
+            if (option.isTextual()) {
+
+                sortFields.add(new SortField(option.asText(), "_score".equals(option.asText()), null, false)) ;
+
+                continue ;
+            }
+
+            Map.Entry<String, JsonNode> field = option.fields().next() ;
+
+            JsonNode params = field.getValue() ;
+
+            String order = params.isTextual() ? params.asText() : params.path("order").asText("_score".equals(field.getKey()) ? "desc" : "asc") ;
+
+            sortFields.add(new SortField(field.getKey(), "desc".equals(order),
+                    params.path("mode").isTextual() ? params.get("mode").asText() : null,
+                    "_first".equals(params.path("missing").asText()))) ;
+        }
+
+        return sortFields ;
+    }
+
+    private static List<Comparable<?>> sortValues(QueryEvaluator evaluator, List<SortField> sortFields, StoredDocument document, double score) {
+
+        List<Comparable<?>> sortValues = new ArrayList<>(sortFields.size()) ;
+
+        for (SortField sortField : sortFields) {
+
+            sortValues.add(switch (sortField.field()) {
+
+                case "_score" -> score ;
+                case "_doc", "_shard_doc" -> document.sequence() ;
+
+                default -> {
+
+                    List<Comparable<?>> fieldValues = QueryEvaluator.values(document.source(), sortField.field())
+                            .stream()
+                            .<Comparable<?>>map(value -> evaluator.comparable(sortField.field(), value))
+                            .toList() ;
+
+                    yield selectByMode(fieldValues, sortField) ;
+                }
+            }) ;
+        }
+
+        return sortValues ;
+    }
+
+    // min for ascending, max for descending, unless the sort asks for another mode
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparable<?> selectByMode(List<Comparable<?>> values, SortField sortField) {
+
+        if (values.isEmpty()) return null ;
+
+        String mode = sortField.mode() != null ? sortField.mode() : sortField.descending() ? "max" : "min" ;
+
+        return switch (mode) {
+
+            case "min" -> values.stream().min((left, right) -> QueryEvaluator.compare((Comparable) left, (Comparable) right)).orElseThrow() ;
+            case "max" -> values.stream().max((left, right) -> QueryEvaluator.compare((Comparable) left, (Comparable) right)).orElseThrow() ;
+            case "sum" -> values.stream().mapToDouble(value -> ((Number) value).doubleValue()).sum() ;
+            case "avg" -> values.stream().mapToDouble(value -> ((Number) value).doubleValue()).average().orElseThrow() ;
+
+            case "median" -> {
+
+                double[] sorted = values.stream().mapToDouble(value -> ((Number) value).doubleValue()).sorted().toArray() ;
+
+                yield sorted.length % 2 == 1 ? sorted[sorted.length / 2] : (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2 ;
+            }
+
+            default -> throw InMemoryApiException.badRequest("Unknown SortMode [" + mode + "]") ;
+        } ;
+    }
+
+    // Missing values go last in either direction, unless 'missing: _first'
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareSortValues(List<SortField> sortFields, List<Comparable<?>> left, List<Comparable<?>> right) {
+
+        for (var i = 0 ; i < sortFields.size() ; i ++) {
+
+            SortField sortField = sortFields.get(i) ;
+
+            Comparable leftValue = left.get(i) ;
+            Comparable rightValue = right.get(i) ;
+
+            int comparison ;
+
+            if (leftValue == null || rightValue == null) {
+
+                if (leftValue == rightValue) continue ;
+
+                comparison = (leftValue == null) == sortField.missingFirst() ? -1 : 1 ;
+            } else {
+
+                comparison = QueryEvaluator.compare(leftValue, rightValue) ;
+
+                if (sortField.descending()) comparison = -comparison ;
+            }
+
+            if (comparison != 0) return comparison ;
+        }
+
+        return 0 ;
+    }
+
+    private static List<Comparable<?>> searchAfterValues(QueryEvaluator evaluator, List<SortField> sortFields, JsonNode searchAfter) {
+
+        if (searchAfter.size() != sortFields.size()) {
+
+            throw InMemoryApiException.badRequest("search_after has " + searchAfter.size() + " value(s) but sort has " + sortFields.size() + ".") ;
+        }
+
+        List<Comparable<?>> values = new ArrayList<>() ;
+
+        for (var i = 0 ; i < sortFields.size() ; i ++) {
+
+            JsonNode value = searchAfter.get(i) ;
+            String field = sortFields.get(i).field() ;
+
+            values.add(value.isNull() ? null
+                    : "_score".equals(field) ? value.asDouble()
+                    : "_doc".equals(field) || "_shard_doc".equals(field) ? (Comparable<?>) value.asLong()
+                    : evaluator.comparable(field, value)) ;
+        }
+
+        return values ;
+    }
+
+    // Dates and whole numbers come back as longs, like the doc values ES sorts on
+    private static ArrayNode sortValuesJson(List<SortField> sortFields, ScoredHit hit) {
+
+        ArrayNode sort = NODES.arrayNode() ;
+
+        for (var i = 0 ; i < sortFields.size() ; i ++) {
+
+            Comparable<?> value = hit.sortValues().get(i) ;
+
+            if (value == null) sort.add(NullNode.getInstance()) ;
+            else if (value instanceof Long longValue) sort.add(longValue) ;
+            else if (value instanceof Double doubleValue && !"_score".equals(sortFields.get(i).field())
+                    && doubleValue == Math.rint(doubleValue) && !Double.isInfinite(doubleValue)) sort.add(doubleValue.longValue()) ;
+            else if (value instanceof Double doubleValue) sort.add(doubleValue) ;
+            else if (value instanceof Boolean booleanValue) sort.add(booleanValue) ;
+            else sort.add(value.toString()) ;
+        }
+
+        return sort ;
+    }
+
+    // Source filtering...
+
+    // '_source' of a search / update / mget body: true, false, a list of includes, or an includes / excludes object
+    private static SourceFilter sourceFilter(JsonNode source, boolean fetchByDefault) {
+
+        if (source == null || source.isNull()) return fetchByDefault ? SourceFilter.ALL : new SourceFilter(false, List.of(), List.of()) ;
+
+        if (source.isBoolean()) return new SourceFilter(source.asBoolean(), List.of(), List.of()) ;
+
+        if (source.isTextual() || source.isArray()) return new SourceFilter(true, textValues(source), List.of()) ;
+
+        JsonNode includes = source.has("includes") ? source.get("includes") : source.path("include") ;
+        JsonNode excludes = source.has("excludes") ? source.get("excludes") : source.path("exclude") ;
+
+        return new SourceFilter(true, textValues(includes), textValues(excludes)) ;
+    }
+
+    // '_source', '_source_includes' and '_source_excludes' query parameters of get / mget / search
+    private static SourceFilter sourceFilter(Map<String, String> queryParameters) {
+
+        String source = queryParameters.get("_source") ;
+
+        if ("false".equals(source)) return new SourceFilter(false, List.of(), List.of()) ;
+
+        List<String> includes = new ArrayList<>() ;
+
+        if (source != null && !"true".equals(source)) includes.addAll(List.of(source.split(","))) ;
+        if (queryParameters.containsKey("_source_includes")) includes.addAll(List.of(queryParameters.get("_source_includes").split(","))) ;
+
+        List<String> excludes = queryParameters.containsKey("_source_excludes")
+                ? List.of(queryParameters.get("_source_excludes").split(","))
+                : List.of() ;
+
+        return new SourceFilter(true, includes, excludes) ;
+    }
+
+    private static ObjectNode filterSource(ObjectNode source, SourceFilter sourceFilter) {
+
+        if (sourceFilter.includes().isEmpty() && sourceFilter.excludes().isEmpty()) return source ;
+
+        return filterObject(source, "", sourceFilter) ;
+    }
+
+    private static ObjectNode filterObject(ObjectNode object, String prefix, SourceFilter sourceFilter) {
+
+        ObjectNode filtered = NODES.objectNode() ;
+
+        object.fields().forEachRemaining(field -> {
+
+            String path = prefix + field.getKey() ;
+
+            if (sourceFilter.excludes().stream().anyMatch(exclude -> globMatcher(exclude).test(path))) return ;
+
+            boolean included = sourceFilter.includes().isEmpty()
+                    || sourceFilter.includes().stream().anyMatch(include -> globMatcher(include).test(path) || path.startsWith(include + ".")) ;
+
+            JsonNode value = field.getValue() ;
+
+            if (included) {
+
+                filtered.set(field.getKey(), value.isObject() ? filterObject((ObjectNode) value, path + ".", sourceFilter) : value) ;
+            } else if (value.isObject() && sourceFilter.includes().stream().anyMatch(include -> include.startsWith(path + "."))) {
+
+                // An include below this object - keep only the included part of it
+                filtered.set(field.getKey(), filterObject((ObjectNode) value, path + ".", sourceFilter)) ;
+            }
+        }) ;
+
+        return filtered ;
+    }
+
+    // Small JSON helpers...
+
+    private static boolean isWildcard(String name) {
+
+        return name.contains("*") ;
+    }
+
+    private static Predicate<String> globMatcher(String glob) {
+
+        if (!isWildcard(glob)) return glob::equals ;
+
+        Pattern pattern = Pattern.compile(Arrays.stream(glob.split("\\*", -1))
+                .map(Pattern::quote)
+                .reduce((left, right) -> left + ".*" + right)
+                .orElse("")) ;
+
+        return name -> pattern.matcher(name).matches() ;
+    }
+
+    // A single name or a list, under either of two keys ('index' / 'indices', 'alias' / 'aliases')
+    private static List<String> namesOf(JsonNode node, String singleKey, String listKey) {
+
+        List<String> names = new ArrayList<>(textValues(node.path(singleKey))) ;
+
+        names.addAll(textValues(node.path(listKey))) ;
+
+        return names ;
+    }
+
+    private static List<String> textValues(JsonNode node) {
+
+        if (node.isMissingNode() || node.isNull()) return List.of() ;
+
+        if (!node.isArray()) return List.of(node.asText()) ;
+
+        List<String> values = new ArrayList<>() ;
+
+        node.forEach(value -> values.add(value.asText())) ;
+
+        return values ;
+    }
+
+    private static Long longParameter(Map<String, String> queryParameters, String name) {
+
+        String value = queryParameters.get(name) ;
+
+        return value == null ? null : Long.valueOf(value) ;
+    }
+
+    // One shard per index - every clause is timed by scoring it on its own over the same documentations,
+    // all of its time is reported as 'score'
+    private ObjectNode profile(Map<InMemoryIndex, List<StoredDocument>> targets, JsonNode query, long nowMillis) {
+
+        ObjectNode profile = NODES.objectNode() ;
+        ArrayNode shardArray = profile.putArray("shards") ;
+
+        for (Map.Entry<InMemoryIndex, List<StoredDocument>> target : targets.entrySet()) {
+
+            QueryEvaluator evaluator = new QueryEvaluator(target.getKey(), nowMillis) ;
+
+            ObjectNode shard = shardArray.addObject().put("id", "[in-memory][" + target.getKey().getName() + "][0]") ;
+            shard.putArray("aggregations") ;
+
+            ObjectNode search = shard.putArray("searches").addObject() ;
+            search.putArray("query").add(profileClause(evaluator, query, target.getValue())) ;
+            search.put("rewrite_time", 0) ;
+            search.putArray("collector").addObject()
+                    .put("name", "SimpleTopScoreDocCollector")
+                    .put("reason", "search_top_hits")
+                    .put("time_in_nanos", 0) ;
+        }
+
+        return profile ;
+    }
+
+    private ObjectNode profileClause(QueryEvaluator evaluator, JsonNode query, List<StoredDocument> documents) {
+
+        long start = System.nanoTime() ;
+
+        for (StoredDocument document : documents) evaluator.score(query, document) ;
+
+        long elapsedNanos = System.nanoTime() - start ;
+
+        boolean matchAll = query == null || query.isNull() || query.isEmpty() ;
+
+        ObjectNode node = NODES.objectNode()
+                .put("type", matchAll ? "match_all" : query.fieldNames().next())
+                .put("description", matchAll ? "*:*" : query.toString())
+                .put("time_in_nanos", elapsedNanos) ;
+
+        ObjectNode breakdown = node.putObject("breakdown") ;
+
+        for (String timing : PROFILE_TIMINGS) {
+
+            breakdown.put(timing, "score".equals(timing) ? elapsedNanos : 0) ;
+            breakdown.put(timing + "_count", "score".equals(timing) ? documents.size() : 0) ;
+        }
+
+        ArrayNode children = node.putArray("children") ;
+
+        if (!matchAll) {
+
+            for (JsonNode child : childClauses(query)) children.add(profileClause(evaluator, child, documents)) ;
+        }
+
+        return node ;
+    }
+
+    // The sub-queries of a compound query, each profiled as a child clause
+    private static List<JsonNode> childClauses(JsonNode query) {
+
+        Map.Entry<String, JsonNode> clause = query.fields().next() ;
+        JsonNode body = clause.getValue() ;
+
+        List<JsonNode> children = new ArrayList<>() ;
+
+        List<String> childFields = switch (clause.getKey()) {
+
+            case "bool" -> List.of("must", "filter", "should", "must_not") ;
+            case "function_score" -> List.of("query") ;
+            case "constant_score" -> List.of("filter") ;
+            case "dis_max" -> List.of("queries") ;
+            default -> List.of() ;
+        } ;
+
+        for (String childField : childFields) {
+
+            JsonNode child = body.get(childField) ;
+
+            if (child == null) continue ;
+
+            if (child.isArray()) child.forEach(children::add) ;
+            else children.add(child) ;
+        }
+
+        return children ;
+    }
+
+    private static ObjectNode shards(int total) {
+
+        return NODES.objectNode()
+                .put("total", total)
+                .put("successful", total)
+                .put("skipped", 0)
+                .put("failed", 0) ;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+
+        return (System.nanoTime() - startNanos) / 1_000_000 ;
+    }
+
+    private static Response ok(JsonNode body) {
+
+        return new Response(200, body) ;
+    }
+
+    private static Response acknowledged() {
+
+        return ok(NODES.objectNode().put("acknowledged", true)) ;
+    }
+
+    private static ObjectNode errorCause(InMemoryApiException e) {
+
+        return NODES.objectNode()
+                .put("type", e.getType())
+                .put("reason", e.getMessage()) ;
+    }
+
+    // { error: { root_cause: [...], type, reason }, status }
+    private static ObjectNode errorBody(InMemoryApiException e) {
+
+        ObjectNode error = errorCause(e) ;
+
+        error.putArray("root_cause").add(errorCause(e)) ;
+
+        ObjectNode body = NODES.objectNode() ;
+
+        body.set("error", error) ;
+        body.put("status", e.getStatus()) ;
+
+        return body ;
+    }
+}
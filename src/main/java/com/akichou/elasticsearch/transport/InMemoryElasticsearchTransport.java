@@ -0,0 +1,195 @@
+package com.akichou.elasticsearch.transport;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.NdJsonpSerializable;
+import co.elastic.clients.transport.*;
+import co.elastic.clients.transport.endpoints.BooleanEndpoint;
+import co.elastic.clients.transport.endpoints.BooleanResponse;
+import co.elastic.clients.util.BinaryData;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// ES stand-in that keeps every index in memory - for offline tests and for load tests of the application's own overhead.
+// Requests are serialized to JSON and responses parsed back through the client's own (de)serializers,
+// so the JSON cost of a real round trip is still paid, only the network and the cluster are left out.
+// Supported: index create / delete / exists, aliases, mappings, refresh, create / index / update / delete / get / mget,
+// bulk, search / msearch (bool, term, terms, range, match, exists, ids, constant_score, function_score), point-in-time,
+// reindex and tasks. Anything else is answered with a 400 'unsupported_operation_exception'.
+public class InMemoryElasticsearchTransport implements ElasticsearchTransport {
+
+    private final JsonpMapper jsonpMapper ;
+    private final TransportOptions transportOptions ;
+
+    private final ObjectMapper objectMapper = new ObjectMapper() ;
+    private final InMemoryCluster cluster = new InMemoryCluster() ;
+
+    // Async calls complete on their own threads, like callbacks of the http client's IO reactor
+    private final ExecutorService asyncExecutor = Executors.newCachedThreadPool(runnable -> {
+
+        Thread thread = new Thread(runnable, "in-memory-elasticsearch") ;
+        thread.setDaemon(true) ;
+
+        return thread ;
+    }) ;
+
+    // Constructor
+    public InMemoryElasticsearchTransport(JsonpMapper jsonpMapper) {
+
+        this(jsonpMapper, new DefaultTransportOptions()) ;
+    }
+
+    public InMemoryElasticsearchTransport(JsonpMapper jsonpMapper, TransportOptions transportOptions) {
+
+        this.jsonpMapper = jsonpMapper ;
+        this.transportOptions = transportOptions ;
+    }
+
+    // The next 'count' bulk items are answered with 429 instead of being applied - to exercise retries and backpressure
+    public void rejectBulkItems(int count) {
+
+        cluster.rejectBulkItems(count) ;
+    }
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+                                                                  Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                  TransportOptions options) throws IOException {
+
+        InMemoryCluster.Response response = cluster.handle(endpoint.id(),
+                endpoint.pathParameters(request),
+                endpoint.queryParameters(request),
+                toJsonLines(endpoint.body(request))) ;
+
+        return decode(response, endpoint) ;
+    }
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(RequestT request,
+                                                                                          Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                                          TransportOptions options) {
+
+        CompletableFuture<ResponseT> future = new CompletableFuture<>() ;
+
+        asyncExecutor.execute(() -> {
+
+            try {
+
+                future.complete(performRequest(request, endpoint, options)) ;
+            } catch (Throwable throwable) {
+
+                future.completeExceptionally(throwable) ;
+            }
+        }) ;
+
+        return future ;
+    }
+
+    @Override
+    public JsonpMapper jsonpMapper() {
+
+        return jsonpMapper ;
+    }
+
+    @Override
+    public TransportOptions options() {
+
+        return transportOptions ;
+    }
+
+    @Override
+    public void close() {
+
+        asyncExecutor.shutdownNow() ;
+    }
+
+    // The request body as the JSON lines that would go over the wire - one for a JSON body, several for NDJSON (bulk / msearch)
+    private List<JsonNode> toJsonLines(Object body) throws IOException {
+
+        List<JsonNode> lines = new ArrayList<>() ;
+
+        if (body instanceof NdJsonpSerializable ndJsonpSerializable) collectJsonLines(ndJsonpSerializable, lines) ;
+        else if (body != null) lines.add(toJson(body)) ;
+
+        return lines ;
+    }
+
+    // An NDJSON item may list itself among its lines (a bulk operation is its own action line)
+    private void collectJsonLines(NdJsonpSerializable value, List<JsonNode> lines) throws IOException {
+
+        Iterator<?> items = value._serializables() ;
+
+        while (items.hasNext()) {
+
+            Object item = items.next() ;
+
+            if (item instanceof NdJsonpSerializable ndJsonpSerializable && item != value) collectJsonLines(ndJsonpSerializable, lines) ;
+            else if (item != null) lines.add(toJson(item)) ;
+        }
+    }
+
+    private JsonNode toJson(Object value) throws IOException {
+
+        if (value instanceof BinaryData binaryData) return objectMapper.readTree(binaryData.asInputStream()) ;
+
+        StringWriter writer = new StringWriter() ;
+
+        try (JsonGenerator generator = jsonpMapper.jsonProvider().createGenerator(writer)) {
+
+            jsonpMapper.serialize(value, generator) ;
+        }
+
+        return objectMapper.readTree(writer.toString()) ;
+    }
+
+    // Decoded the same way RestClientTransport decodes an http response - errors become ElasticsearchException
+    private <ResponseT, ErrorT> ResponseT decode(InMemoryCluster.Response response, Endpoint<?, ResponseT, ErrorT> endpoint) throws IOException {
+
+        if (endpoint instanceof BooleanEndpoint<?> booleanEndpoint) {
+
+            @SuppressWarnings("unchecked")
+            ResponseT booleanResponse = (ResponseT) new BooleanResponse(booleanEndpoint.getResult(response.status())) ;
+
+            return booleanResponse ;
+        }
+
+        // A 404 of GET / DELETE by id is an 'error' status with a normal body ('found: false'), decoded as a response
+        if (endpoint.isError(response.status()) && response.body() != null && response.body().has("error")) {
+
+            ErrorT error = deserialize(response.body(), endpoint.errorDeserializer(response.status())) ;
+
+            if (error instanceof ErrorResponse errorResponse) throw new ElasticsearchException(endpoint.id(), errorResponse) ;
+
+            throw new IOException("Request [" + endpoint.id() + "] failed with status " + response.status() + ": " + response.body()) ;
+        }
+
+        if (endpoint instanceof JsonEndpoint<?, ResponseT, ?> jsonEndpoint) {
+
+            return deserialize(response.body(), jsonEndpoint.responseDeserializer()) ;
+        }
+
+        throw new IOException("Request [" + endpoint.id() + "] has a response type the in-memory transport cannot produce") ;
+    }
+
+    private <V> V deserialize(JsonNode body, JsonpDeserializer<V> deserializer) {
+
+        try (JsonParser parser = jsonpMapper.jsonProvider().createParser(new StringReader(body.toString()))) {
+
+            return deserializer.deserialize(parser, jsonpMapper) ;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.akichou.elasticsearch.transport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.*;
+
+// One concrete index of the in-memory cluster - a single shard, every write is visible right away (no refresh interval)
+class InMemoryIndex {
+
+    private final String name ;
+    private final ObjectNode mappings ;
+
+    // 'courses.point' -> 'byte', collected from the (nested) properties of the mapping
+    private final Map<String, String> fieldTypes = new HashMap<>() ;
+
+    private final Map<String, StoredDocument> documents = new LinkedHashMap<>() ;
+
+    private long nextSeqNo = 0 ;
+
+    // A stored documentation is never changed in place, every write replaces it -
+    // so a point-in-time only has to keep the records it saw. 'routing' is the custom routing it was written with (null -> by id)
+    record StoredDocument(String id, ObjectNode source, long version, long seqNo, long sequence, String routing) {}
+
+    InMemoryIndex(String name, ObjectNode mappings) {
+
+        this.name = name ;
+        this.mappings = mappings == null ? JsonNodeFactory.instance.objectNode() : mappings ;
+
+        collectFieldTypes("", this.mappings.path("properties")) ;
+    }
+
+    String getName() {
+
+        return name ;
+    }
+
+    ObjectNode getMappings() {
+
+        return mappings ;
+    }
+
+    // Type of a mapped field, null for an unmapped one.
+    // 'x.keyword' falls back to 'x', so queries written for a dynamic mapping still find their field
+    String fieldType(String path) {
+
+        String fieldType = fieldTypes.get(path) ;
+
+        if (fieldType == null && path.endsWith(".keyword")) {
+
+            String parentType = fieldTypes.get(path.substring(0, path.length() - ".keyword".length())) ;
+
+            return parentType == null || "text".equals(parentType) ? "keyword" : parentType ;
+        }
+
+        return fieldType ;
+    }
+
+    StoredDocument get(String id) {
+
+        return documents.get(id) ;
+    }
+
+    StoredDocument put(String id, ObjectNode source, long sequence, String routing) {
+
+        checkWholeNumbers(id, source) ;
+
+        StoredDocument current = documents.get(id) ;
+
+        long version = current == null ? 1 : current.version() + 1 ;
+
+        StoredDocument stored = new StoredDocument(id, source, version, nextSeqNo ++, sequence, routing) ;
+
+        documents.put(id, stored) ;
+
+        return stored ;
+    }
+
+    // Returns the deleted record with the seq_no of the delete itself
+    StoredDocument remove(String id) {
+
+        StoredDocument removed = documents.remove(id) ;
+
+        if (removed == null) return null ;
+
+        return new StoredDocument(id, removed.source(), removed.version() + 1, nextSeqNo ++, removed.sequence(), removed.routing()) ;
+    }
+
+    // seq_no of a write that stores nothing, such as a delete of a missing documentation
+    long claimSeqNo() {
+
+        return nextSeqNo ++ ;
+    }
+
+    int size() {
+
+        return documents.size() ;
+    }
+
+    List<StoredDocument> snapshot() {
+
+        return List.copyOf(documents.values()) ;
+    }
+
+    // Whole-number fields only take values in the range of their mapped type, like the mapper of Elasticsearch -
+    // so a 'grade' of 300 is rejected by a 'byte' mapping with a 400 'mapper_parsing_exception'
+    private void checkWholeNumbers(String id, ObjectNode source) {
+
+        fieldTypes.forEach((path, fieldType) -> {
+
+            long[] range = WHOLE_NUMBER_RANGES.get(fieldType) ;
+
+            if (range == null) return ;
+
+            for (JsonNode value : valuesAt(source, path.split("\\."), 0, new ArrayList<>())) {
+
+                if (value.isNull()) continue ;
+
+                Long number = wholeNumber(value) ;
+
+                boolean fits = number != null && number >= range[0] && number <= range[1] ;
+
+                if (!fits) {
+
+                    throw new InMemoryApiException(400, "mapper_parsing_exception",
+                            "failed to parse field [" + path + "] of type [" + fieldType + "] in document with id '" + id + "'. Preview of field's value: '" + value.asText() + "'") ;
+                }
+            }
+        }) ;
+    }
+
+    private static final Map<String, long[]> WHOLE_NUMBER_RANGES = Map.of(
+            "byte", new long[] {Byte.MIN_VALUE, Byte.MAX_VALUE},
+            "short", new long[] {Short.MIN_VALUE, Short.MAX_VALUE},
+            "integer", new long[] {Integer.MIN_VALUE, Integer.MAX_VALUE},
+            "long", new long[] {Long.MIN_VALUE, Long.MAX_VALUE}) ;
+
+    // Numeric strings are coerced, as Elasticsearch does by default
+    private static Long wholeNumber(JsonNode value) {
+
+        if (value.isIntegralNumber()) return value.canConvertToLong() ? value.asLong() : null ;
+
+        if (value.isTextual()) {
+
+            try {
+
+                return Long.parseLong(value.asText().trim()) ;
+            } catch (NumberFormatException e) {
+
+                return null ;
+            }
+        }
+
+        return null ;
+    }
+
+    // Values found at a dotted path, arrays (of nested objects) fan out
+    private static List<JsonNode> valuesAt(JsonNode node, String[] path, int depth, List<JsonNode> values) {
+
+        if (node == null || node.isMissingNode()) return values ;
+
+        if (node.isArray()) {
+
+            node.forEach(element -> valuesAt(element, path, depth, values)) ;
+        } else if (depth == path.length) {
+
+            values.add(node) ;
+        } else if (node.isObject()) {
+
+            valuesAt(node.get(path[depth]), path, depth + 1, values) ;
+        }
+
+        return values ;
+    }
+
+    private void collectFieldTypes(String prefix, JsonNode properties) {
+
+        properties.fields().forEachRemaining(entry -> {
+
+            String path = prefix + entry.getKey() ;
+            JsonNode property = entry.getValue() ;
+
+            if (property.has("properties")) {
+
+                fieldTypes.put(path, property.path("type").asText("object")) ;
+
+                collectFieldTypes(path + ".", property.get("properties")) ;
+            } else {
+
+                fieldTypes.put(path, property.path("type").asText("object")) ;
+            }
+
+            // Multi-fields, such as 'name.keyword'
+            property.path("fields").fields().forEachRemaining(field ->
+                    fieldTypes.put(path + "." + field.getKey(), field.getValue().path("type").asText("keyword"))) ;
+        }) ;
+    }
+}
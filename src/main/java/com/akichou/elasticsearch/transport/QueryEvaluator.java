@@ -0,0 +1,696 @@
+package com.akichou.elasticsearch.transport;
+
+import com.akichou.elasticsearch.transport.InMemoryIndex.StoredDocument;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.time.*;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Evaluates the query DSL (as JSON) against one documentation of one index.
+// A query returns its score, or null when the documentation does not match.
+// Scoring is simplified - term / terms / range / exists score 1, and match scores the number of matched query terms
+// instead of BM25 - while bool, function_score and the decay / field_value_factor functions follow the ES formulas,
+// so rankings driven by functions come out the same as on a real cluster.
+class QueryEvaluator {
+
+    private static final Pattern DURATION = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h|d|w)") ;
+    private static final Pattern DATE_MATH = Pattern.compile("([+-])(\\d+)([yMwdhHms])") ;
+
+    private static final Set<String> NUMERIC_TYPES = Set.of(
+            "byte", "short", "integer", "long", "float", "half_float", "double", "scaled_float", "unsigned_long") ;
+
+    private final InMemoryIndex index ;
+    private final long nowMillis ;
+
+    QueryEvaluator(InMemoryIndex index, long nowMillis) {
+
+        this.index = index ;
+        this.nowMillis = nowMillis ;
+    }
+
+    Double score(JsonNode query, StoredDocument document) {
+
+        if (query == null || query.isMissingNode() || query.isNull()) return 1.0 ;
+
+        Map.Entry<String, JsonNode> clause = singleEntry(query) ;
+        JsonNode body = clause.getValue() ;
+
+        return switch (clause.getKey()) {
+
+            case "match_all" -> boost(body) ;
+            case "match_none" -> null ;
+            case "bool" -> bool(body, document) ;
+            case "constant_score" -> score(body.get("filter"), document) == null ? null : boost(body) ;
+            case "term" -> term(body, document) ;
+            case "terms" -> terms(body, document) ;
+            case "range" -> range(body, document) ;
+            case "match" -> match(body, document) ;
+            case "exists" -> values(document.source(), body.path("field").asText()).isEmpty() ? null : boost(body) ;
+            case "ids" -> ids(body, document) ;
+            case "function_score" -> functionScore(body, document) ;
+
+            default -> throw new InMemoryApiException(400, "parsing_exception",
+                    "unknown query [" + clause.getKey() + "] for the in-memory transport") ;
+        } ;
+    }
+
+    // must / should add up, filter / must_not only restrict
+    private Double bool(JsonNode body, StoredDocument document) {
+
+        JsonNode must = clauses(body, "must") ;
+        JsonNode filter = clauses(body, "filter") ;
+        JsonNode mustNot = clauses(body, "must_not") ;
+        JsonNode should = clauses(body, "should") ;
+
+        // A bool without any clause matches everything
+        if (must.isEmpty() && filter.isEmpty() && mustNot.isEmpty() && should.isEmpty()) return boost(body) ;
+
+        double score = 0 ;
+
+        for (JsonNode clause : must) {
+
+            Double clauseScore = score(clause, document) ;
+
+            if (clauseScore == null) return null ;
+
+            score += clauseScore ;
+        }
+
+        for (JsonNode clause : filter) {
+
+            if (score(clause, document) == null) return null ;
+        }
+
+        for (JsonNode clause : mustNot) {
+
+            if (score(clause, document) != null) return null ;
+        }
+
+        var matchedShould = 0 ;
+
+        for (JsonNode clause : should) {
+
+            Double clauseScore = score(clause, document) ;
+
+            if (clauseScore == null) continue ;
+
+            matchedShould ++ ;
+            score += clauseScore ;
+        }
+
+        // Without must / filter at least one should clause has to match
+        int defaultMinimum = must.isEmpty() && filter.isEmpty() && !should.isEmpty() ? 1 : 0 ;
+
+        int minimumShouldMatch = body.has("minimum_should_match")
+                ? minimumShouldMatch(body.get("minimum_should_match").asText(), should.size())
+                : defaultMinimum ;
+
+        if (matchedShould < minimumShouldMatch) return null ;
+
+        return score * boost(body) ;
+    }
+
+    private Double term(JsonNode body, StoredDocument document) {
+
+        Map.Entry<String, JsonNode> field = singleEntry(body) ;
+
+        JsonNode params = field.getValue() ;
+        JsonNode value = params.isObject() ? params.get("value") : params ;
+
+        for (JsonNode documentValue : values(document.source(), field.getKey())) {
+
+            if (termMatches(field.getKey(), documentValue, value)) return boost(params) ;
+        }
+
+        return null ;
+    }
+
+    private Double terms(JsonNode body, StoredDocument document) {
+
+        Map.Entry<String, JsonNode> field = singleEntry(body) ;
+
+        if (!field.getValue().isArray()) {
+
+            throw new InMemoryApiException(400, "parsing_exception", "terms lookup is not supported by the in-memory transport") ;
+        }
+
+        for (JsonNode documentValue : values(document.source(), field.getKey())) {
+
+            for (JsonNode value : field.getValue()) {
+
+                if (termMatches(field.getKey(), documentValue, value)) return boost(body) ;
+            }
+        }
+
+        return null ;
+    }
+
+    private Double range(JsonNode body, StoredDocument document) {
+
+        Map.Entry<String, JsonNode> field = singleEntry(body) ;
+
+        String path = field.getKey() ;
+        JsonNode params = field.getValue() ;
+
+        for (JsonNode documentValue : values(document.source(), path)) {
+
+            Comparable<?> value = comparable(path, documentValue) ;
+
+            if (withinBound(path, value, params, "gt", false, false)
+                    && withinBound(path, value, params, "gte", false, true)
+                    && withinBound(path, value, params, "lt", true, false)
+                    && withinBound(path, value, params, "lte", true, true)
+                    && withinBound(path, value, params, "from", false, params.path("include_lower").asBoolean(true))
+                    && withinBound(path, value, params, "to", true, params.path("include_upper").asBoolean(true))) {
+
+                return boost(params) ;
+            }
+        }
+
+        return null ;
+    }
+
+    private boolean withinBound(String path, Comparable<?> value, JsonNode params, String bound, boolean upper, boolean inclusive) {
+
+        JsonNode boundValue = params.get(bound) ;
+
+        if (boundValue == null || boundValue.isNull()) return true ;
+
+        int comparison = compare(value, comparable(path, boundValue)) ;
+
+        if (comparison == 0) return inclusive ;
+
+        return upper ? comparison < 0 : comparison > 0 ;
+    }
+
+    // Full-text fields are matched term by term, any other field by its whole value
+    private Double match(JsonNode body, StoredDocument document) {
+
+        Map.Entry<String, JsonNode> field = singleEntry(body) ;
+
+        String path = field.getKey() ;
+        JsonNode params = field.getValue() ;
+        JsonNode query = params.isObject() ? params.get("query") : params ;
+
+        List<JsonNode> documentValues = values(document.source(), path) ;
+        String fieldType = index.fieldType(path) ;
+
+        boolean fullText = "text".equals(fieldType) || (fieldType == null && query.isTextual()) ;
+
+        if (!fullText) {
+
+            for (JsonNode documentValue : documentValues) {
+
+                if (termMatches(path, documentValue, query)) return boost(params) ;
+            }
+
+            return null ;
+        }
+
+        Set<String> documentTerms = new HashSet<>() ;
+
+        documentValues.forEach(documentValue -> documentTerms.addAll(analyze(documentValue.asText()))) ;
+
+        Set<String> queryTerms = new LinkedHashSet<>(analyze(query.asText())) ;
+
+        long matchedTerms = queryTerms.stream()
+                .filter(documentTerms::contains)
+                .count() ;
+
+        boolean requireAll = "and".equalsIgnoreCase(params.path("operator").asText("or")) ;
+
+        if (matchedTerms == 0 || (requireAll && matchedTerms < queryTerms.size())) return null ;
+
+        return matchedTerms * boost(params) ;
+    }
+
+    private Double ids(JsonNode body, StoredDocument document) {
+
+        for (JsonNode id : body.path("values")) {
+
+            if (id.asText().equals(document.id())) return boost(body) ;
+        }
+
+        return null ;
+    }
+
+    // score = boost_mode(query score, min(score_mode(function * weight ...), max_boost))
+    private Double functionScore(JsonNode body, StoredDocument document) {
+
+        Double queryScore = score(body.get("query"), document) ;
+
+        if (queryScore == null) return null ;
+
+        // The short form carries a single function on the function_score itself
+        JsonNode functions = body.has("functions") ? body.get("functions")
+                : isFunction(body) ? JsonNodeFactory.instance.arrayNode().add(body)
+                : JsonNodeFactory.instance.arrayNode() ;
+
+        List<Double> weightedScores = new ArrayList<>() ;
+        List<Double> weights = new ArrayList<>() ;
+
+        for (JsonNode function : functions) {
+
+            if (function.has("filter") && score(function.get("filter"), document) == null) continue ;
+
+            double weight = function.path("weight").asDouble(1.0) ;
+
+            weightedScores.add(functionValue(function, document) * weight) ;
+            weights.add(weight) ;
+        }
+
+        double functionScore = weightedScores.isEmpty()
+                ? 1.0
+                : combine(body.path("score_mode").asText("multiply"), weightedScores, weights) ;
+
+        functionScore = Math.min(functionScore, body.path("max_boost").asDouble(Float.MAX_VALUE)) ;
+
+        double score = switch (body.path("boost_mode").asText("multiply")) {
+
+            case "multiply" -> queryScore * functionScore ;
+            case "replace" -> functionScore ;
+            case "sum" -> queryScore + functionScore ;
+            case "avg" -> (queryScore + functionScore) / 2 ;
+            case "max" -> Math.max(queryScore, functionScore) ;
+            case "min" -> Math.min(queryScore, functionScore) ;
+
+            default -> throw InMemoryApiException.badRequest("illegal boost_mode [" + body.get("boost_mode").asText() + "]") ;
+        } ;
+
+        score *= boost(body) ;
+
+        if (body.has("min_score") && score < body.get("min_score").asDouble()) return null ;
+
+        return score ;
+    }
+
+    private static boolean isFunction(JsonNode node) {
+
+        return node.has("field_value_factor") || node.has("gauss") || node.has("exp") || node.has("linear") || node.has("weight") ;
+    }
+
+    private static double combine(String scoreMode, List<Double> weightedScores, List<Double> weights) {
+
+        return switch (scoreMode) {
+
+            case "multiply" -> weightedScores.stream().reduce(1.0, (a, b) -> a * b) ;
+            case "sum" -> weightedScores.stream().mapToDouble(Double::doubleValue).sum() ;
+            case "avg" -> weightedScores.stream().mapToDouble(Double::doubleValue).sum()
+                    / weights.stream().mapToDouble(Double::doubleValue).sum() ;
+            case "first" -> weightedScores.get(0) ;
+            case "max" -> weightedScores.stream().mapToDouble(Double::doubleValue).max().orElse(1.0) ;
+            case "min" -> weightedScores.stream().mapToDouble(Double::doubleValue).min().orElse(1.0) ;
+
+            default -> throw InMemoryApiException.badRequest("illegal score_mode [" + scoreMode + "]") ;
+        } ;
+    }
+
+    // A function without field_value_factor / decay is a weight-only function
+    private double functionValue(JsonNode function, StoredDocument document) {
+
+        if (function.has("field_value_factor")) return fieldValueFactor(function.get("field_value_factor"), document) ;
+        if (function.has("gauss")) return decay("gauss", function.get("gauss"), document) ;
+        if (function.has("exp")) return decay("exp", function.get("exp"), document) ;
+        if (function.has("linear")) return decay("linear", function.get("linear"), document) ;
+
+        if (function.has("script_score") || function.has("random_score")) {
+
+            throw new InMemoryApiException(400, "parsing_exception", "script_score / random_score are not supported by the in-memory transport") ;
+        }
+
+        return 1.0 ;
+    }
+
+    // modifier(factor * value) - the smallest value of a multi-valued field, like the first doc value in ES
+    private double fieldValueFactor(JsonNode params, StoredDocument document) {
+
+        String path = params.path("field").asText() ;
+
+        OptionalDouble fieldValue = values(document.source(), path).stream()
+                .mapToDouble(value -> ((Number) comparableNumber(path, value)).doubleValue())
+                .min() ;
+
+        double value ;
+
+        if (fieldValue.isPresent()) value = fieldValue.getAsDouble() ;
+        else if (params.has("missing")) value = params.get("missing").asDouble() ;
+        else throw InMemoryApiException.badRequest("Missing value for field [" + path + "]") ;
+
+        double factored = value * params.path("factor").asDouble(1.0) ;
+
+        return switch (params.path("modifier").asText("none")) {
+
+            case "none" -> factored ;
+            case "log" -> Math.log10(factored) ;
+            case "log1p" -> Math.log10(factored + 1) ;
+            case "log2p" -> Math.log10(factored + 2) ;
+            case "ln" -> Math.log(factored) ;
+            case "ln1p" -> Math.log1p(factored) ;
+            case "ln2p" -> Math.log(factored + 2) ;
+            case "square" -> factored * factored ;
+            case "sqrt" -> Math.sqrt(factored) ;
+            case "reciprocal" -> 1.0 / factored ;
+
+            default -> throw InMemoryApiException.badRequest("illegal modifier [" + params.get("modifier").asText() + "]") ;
+        } ;
+    }
+
+    // Distance beyond 'offset' from 'origin', scaled so that a value 'scale' further away scores 'decay'.
+    // A documentation without the field scores 1, as in ES.
+    private double decay(String function, JsonNode params, StoredDocument document) {
+
+        Map.Entry<String, JsonNode> field = singleEntry(params, "multi_value_mode") ;
+
+        String path = field.getKey() ;
+        JsonNode placement = field.getValue() ;
+
+        boolean date = isDate(index.fieldType(path)) ;
+
+        double origin = placement.has("origin")
+                ? (date ? toMillis(placement.get("origin")) : placement.get("origin").asDouble())
+                : (date ? nowMillis : 0) ;
+
+        double scale = date ? parseDuration(placement.path("scale")) : placement.path("scale").asDouble() ;
+        double offset = !placement.has("offset") ? 0 : date ? parseDuration(placement.get("offset")) : placement.get("offset").asDouble() ;
+        double decay = placement.path("decay").asDouble(0.5) ;
+
+        List<JsonNode> fieldValues = values(document.source(), path) ;
+
+        if (fieldValues.isEmpty()) return 1.0 ;
+
+        double[] distances = fieldValues.stream()
+                .mapToDouble(value -> ((Number) comparableNumber(path, value)).doubleValue())
+                .map(value -> Math.max(0, Math.abs(value - origin) - offset))
+                .toArray() ;
+
+        double distance = switch (params.path("multi_value_mode").asText("min").toLowerCase(Locale.ROOT)) {
+
+            case "min" -> Arrays.stream(distances).min().orElseThrow() ;
+            case "max" -> Arrays.stream(distances).max().orElseThrow() ;
+            case "avg" -> Arrays.stream(distances).average().orElseThrow() ;
+            case "sum" -> Arrays.stream(distances).sum() ;
+
+            default -> throw InMemoryApiException.badRequest("illegal multi_value_mode [" + params.get("multi_value_mode").asText() + "]") ;
+        } ;
+
+        return switch (function) {
+
+            case "gauss" -> Math.pow(decay, (distance / scale) * (distance / scale)) ;
+            case "exp" -> Math.pow(decay, distance / scale) ;
+
+            default -> {
+
+                double zeroAt = scale / (1.0 - decay) ;
+
+                yield Math.max(0, (zeroAt - distance) / zeroAt) ;
+            }
+        } ;
+    }
+
+    // Term-level equality - a text field is compared by its analyzed terms, any other field by its typed value
+    private boolean termMatches(String path, JsonNode documentValue, JsonNode queryValue) {
+
+        if ("text".equals(index.fieldType(path))) return analyze(documentValue.asText()).contains(queryValue.asText()) ;
+
+        return compare(comparable(path, documentValue), comparable(path, queryValue)) == 0 ;
+    }
+
+    // Typed value of a field, as ES compares and sorts it - dates as epoch millis, numbers as doubles
+    Comparable<?> comparable(String path, JsonNode value) {
+
+        String fieldType = index.fieldType(path) ;
+
+        if (isDate(fieldType)) return toMillis(value) ;
+
+        if (NUMERIC_TYPES.contains(fieldType) || (fieldType == null && value.isNumber())) return comparableNumber(path, value) ;
+
+        if ("boolean".equals(fieldType) || (fieldType == null && value.isBoolean())) {
+
+            return value.isBoolean() ? value.asBoolean() : Boolean.parseBoolean(value.asText()) ;
+        }
+
+        return value.asText() ;
+    }
+
+    private Comparable<?> comparableNumber(String path, JsonNode value) {
+
+        if (isDate(index.fieldType(path))) return toMillis(value) ;
+
+        if (value.isNumber()) return value.asDouble() ;
+
+        try {
+
+            return Double.parseDouble(value.asText()) ;
+        } catch (NumberFormatException e) {
+
+            throw new InMemoryApiException(400, "number_format_exception", "For input string: \"" + value.asText() + "\" of field [" + path + "]") ;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compare(Comparable left, Comparable right) {
+
+        if (left instanceof Number leftNumber && right instanceof Number rightNumber) {
+
+            return Double.compare(leftNumber.doubleValue(), rightNumber.doubleValue()) ;
+        }
+
+        if (left.getClass() != right.getClass()) return left.toString().compareTo(right.toString()) ;
+
+        return left.compareTo(right) ;
+    }
+
+    // Every value under a dotted path - arrays are flattened at any level, nulls are left out
+    static List<JsonNode> values(ObjectNode source, String path) {
+
+        List<JsonNode> values = new ArrayList<>() ;
+
+        collect(source, path.split("\\."), 0, values) ;
+
+        if (values.isEmpty() && path.endsWith(".keyword")) {
+
+            collect(source, path.substring(0, path.length() - ".keyword".length()).split("\\."), 0, values) ;
+        }
+
+        return values ;
+    }
+
+    private static void collect(JsonNode node, String[] parts, int depth, List<JsonNode> values) {
+
+        if (node == null || node.isMissingNode() || node.isNull()) return ;
+
+        if (node.isArray()) {
+
+            node.forEach(element -> collect(element, parts, depth, values)) ;
+
+            return ;
+        }
+
+        if (depth == parts.length) {
+
+            values.add(node) ;
+
+            return ;
+        }
+
+        if (node.isObject()) collect(node.get(parts[depth]), parts, depth + 1, values) ;
+    }
+
+    // Standard-analyzer-like terms - lowercased letter / digit runs, and every CJK ideograph on its own
+    static List<String> analyze(String text) {
+
+        List<String> terms = new ArrayList<>() ;
+        StringBuilder term = new StringBuilder() ;
+
+        text.toLowerCase(Locale.ROOT).codePoints().forEach(codePoint -> {
+
+            if (Character.isIdeographic(codePoint)) {
+
+                flush(term, terms) ;
+
+                terms.add(new String(Character.toChars(codePoint))) ;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+
+                term.appendCodePoint(codePoint) ;
+            } else {
+
+                flush(term, terms) ;
+            }
+        }) ;
+
+        flush(term, terms) ;
+
+        return terms ;
+    }
+
+    private static void flush(StringBuilder term, List<String> terms) {
+
+        if (term.isEmpty()) return ;
+
+        terms.add(term.toString()) ;
+        term.setLength(0) ;
+    }
+
+    static boolean isDate(String fieldType) {
+
+        return "date".equals(fieldType) || "date_nanos".equals(fieldType) ;
+    }
+
+    // Epoch millis, an ISO date / date-time, or date math on 'now' ('now-7d', 'now/d')
+    long toMillis(JsonNode value) {
+
+        if (value.isNumber()) return value.asLong() ;
+
+        String text = value.asText() ;
+
+        if (text.startsWith("now")) return dateMath(text.substring(3)) ;
+
+        try {
+
+            if (text.chars().allMatch(Character::isDigit)) return Long.parseLong(text) ;
+
+            if (text.length() <= 10) return LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() ;
+
+            return OffsetDateTime.parse(text).toInstant().toEpochMilli() ;
+        } catch (DateTimeParseException e) {
+
+            try {
+
+                return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli() ;
+            } catch (DateTimeParseException ignored) {
+
+                throw new InMemoryApiException(400, "parse_exception", "failed to parse date field [" + text + "]") ;
+            }
+        }
+    }
+
+    private long dateMath(String expression) {
+
+        String rounding = null ;
+
+        int roundingStart = expression.indexOf('/') ;
+
+        if (roundingStart >= 0) {
+
+            rounding = expression.substring(roundingStart + 1) ;
+            expression = expression.substring(0, roundingStart) ;
+        }
+
+        ZonedDateTime dateTime = Instant.ofEpochMilli(nowMillis).atZone(ZoneOffset.UTC) ;
+
+        Matcher matcher = DATE_MATH.matcher(expression) ;
+
+        while (matcher.find()) {
+
+            long amount = Long.parseLong(matcher.group(2)) * ("-".equals(matcher.group(1)) ? -1 : 1) ;
+
+            dateTime = dateTime.plus(amount, dateMathUnit(matcher.group(3))) ;
+        }
+
+        if (rounding != null) {
+
+            dateTime = switch (rounding) {
+
+                case "y" -> dateTime.with(TemporalAdjusters.firstDayOfYear()).truncatedTo(ChronoUnit.DAYS) ;
+                case "M" -> dateTime.with(TemporalAdjusters.firstDayOfMonth()).truncatedTo(ChronoUnit.DAYS) ;
+                case "w" -> dateTime.with(DayOfWeek.MONDAY).truncatedTo(ChronoUnit.DAYS) ;
+                default -> dateTime.truncatedTo(dateMathUnit(rounding)) ;
+            } ;
+        }
+
+        return dateTime.toInstant().toEpochMilli() ;
+    }
+
+    private static ChronoUnit dateMathUnit(String unit) {
+
+        return switch (unit) {
+
+            case "y" -> ChronoUnit.YEARS ;
+            case "M" -> ChronoUnit.MONTHS ;
+            case "w" -> ChronoUnit.WEEKS ;
+            case "d" -> ChronoUnit.DAYS ;
+            case "h", "H" -> ChronoUnit.HOURS ;
+            case "m" -> ChronoUnit.MINUTES ;
+            case "s" -> ChronoUnit.SECONDS ;
+
+            default -> throw new InMemoryApiException(400, "parse_exception", "unsupported date math unit [" + unit + "]") ;
+        } ;
+    }
+
+    // '90d', '1m', '500ms' - or plain millis
+    static long parseDuration(JsonNode value) {
+
+        if (value.isNumber()) return value.asLong() ;
+
+        Matcher matcher = DURATION.matcher(value.asText()) ;
+
+        if (!matcher.matches()) throw new InMemoryApiException(400, "parse_exception", "failed to parse time value [" + value.asText() + "]") ;
+
+        double amount = Double.parseDouble(matcher.group(1)) ;
+
+        long unitMillis = switch (matcher.group(2)) {
+
+            case "ms" -> 1L ;
+            case "s" -> 1_000L ;
+            case "m" -> 60_000L ;
+            case "h" -> 3_600_000L ;
+            case "d" -> 86_400_000L ;
+            default -> 604_800_000L ;
+        } ;
+
+        return (long) (amount * unitMillis) ;
+    }
+
+    // The single field (or query name) of a clause, ignoring the given option keys and the common ones
+    private static Map.Entry<String, JsonNode> singleEntry(JsonNode node, String... optionKeys) {
+
+        Set<String> ignoredKeys = new HashSet<>(List.of(optionKeys)) ;
+        ignoredKeys.add("boost") ;
+        ignoredKeys.add("_name") ;
+
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields() ;
+
+        while (fields.hasNext()) {
+
+            Map.Entry<String, JsonNode> field = fields.next() ;
+
+            if (!ignoredKeys.contains(field.getKey())) return field ;
+        }
+
+        throw new InMemoryApiException(400, "parsing_exception", "malformed query " + node) ;
+    }
+
+    // A clause list may also be written as a single clause
+    private static JsonNode clauses(JsonNode body, String occur) {
+
+        JsonNode clauses = body.path(occur) ;
+
+        if (clauses.isMissingNode()) return JsonNodeFactory.instance.arrayNode() ;
+        if (clauses.isArray()) return clauses ;
+
+        return JsonNodeFactory.instance.arrayNode().add(clauses) ;
+    }
+
+    private static double boost(JsonNode params) {
+
+        return params.isObject() ? params.path("boost").asDouble(1.0) : 1.0 ;
+    }
+
+    private static int minimumShouldMatch(String expression, int clauseCount) {
+
+        boolean percentage = expression.endsWith("%") ;
+
+        int value = Integer.parseInt(percentage ? expression.substring(0, expression.length() - 1) : expression) ;
+
+        int count = percentage ? clauseCount * Math.abs(value) / 100 : Math.abs(value) ;
+
+        return value < 0 ? clauseCount - count : count ;
+    }
+}
@@ -0,0 +1,242 @@
+package com.akichou.elasticsearch.utils;
+
+import com.akichou.elasticsearch.entity.Course;
+import com.akichou.elasticsearch.entity.Job;
+import com.akichou.elasticsearch.entity.Student;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+// Deterministic generator of synthetic student documentations, shaped like the samples in students.json.
+// Every documentation only depends on the seed and its own index - so any range can be generated again,
+// in any order and from any number of threads, and two runs with the same seed index exactly the same data.
+public class StudentGenerator {
+
+    public static final long DEFAULT_SEED = 42 ;
+
+    // Popular departments come first, they are picked far more often (roughly Zipf) - like real enrolment
+    private static final List<String> DEPARTMENTS = List.of(
+            "資訊管理", "企業管理", "會計", "法律", "財務金融", "資訊工程", "經濟", "外國語文",
+            "日本語文", "政治", "社會", "心理", "電機工程", "機械工程", "化學", "數學") ;
+
+    // Course name -> credit points
+    private static final Map<String, Integer> COURSES = orderedMap(
+            "計算機概論", 3, "程式設計", 4, "資料結構", 3, "演算法", 3, "資料庫系統", 3,
+            "會計學", 3, "經濟學", 4, "投資學", 3, "統計學", 3, "微積分", 4,
+            "憲法總則", 3, "民法總則", 3, "勞動法", 2, "行政法", 2, "資源規劃", 3,
+            "日文會話", 2, "英文寫作", 2, "心理學導論", 2, "政治學", 3, "線性代數", 3) ;
+
+    private static final List<String> JOBS = List.of("班長", "副班長", "衛生股長", "風紀股長", "學藝股長", "總務股長", "康樂股長") ;
+
+    private static final List<String> GIVEN_NAMES = List.of(
+            "Dan", "Malinda", "Vincent", "William", "Amy", "Kevin", "Grace", "Jason", "Emily", "Eric",
+            "Ivy", "Tony", "Sandy", "Leo", "Wendy", "Ryan", "Yuki", "Haruto", "Mei", "Ken") ;
+
+    private static final List<String> FAMILY_NAMES = List.of(
+            "Wang", "Lai", "Tsai", "Chang", "Chen", "Lin", "Huang", "Liu", "Wu", "Yang",
+            "Cheng", "Hsu", "Kuo", "Tanaka", "Sato", "Suzuki") ;
+
+    private static final List<String> BLOOD_TYPES = List.of("A", "B", "O", "AB") ;
+
+    // Introductions are a few sentences - mostly English as in the samples, some Chinese or Japanese
+    private static final List<String> ENGLISH_SENTENCES = List.of(
+            "I am a %s major and I have also taken courses in %s.",
+            "I have a keen interest in %s and I am eager to apply my knowledge in this area.",
+            "Recently I started learning programming on the internet, because %s work can be done by technology.",
+            "I have a blog used to record what I learned about %s.",
+            "My goal is to work in %s after graduation.",
+            "I enjoy team projects, and I took %s to understand how businesses make decisions.") ;
+
+    private static final List<String> CHINESE_SENTENCES = List.of(
+            "我主修%s，也修過%s。",
+            "我對%s很有興趣，希望畢業後能在這個領域工作。",
+            "課餘時間我會自學程式設計，並在部落格記錄%s的學習心得。") ;
+
+    private static final List<String> JAPANESE_SENTENCES = List.of(
+            "専攻は%sで、%sの授業も受けました。",
+            "将来は%sの分野で働きたいと思っています。") ;
+
+    // English test dates are spread over the three years before this day - fixed, so the data does not depend on today
+    private static final LocalDate LAST_TEST_DATE = LocalDate.of(2024, 12, 31) ;
+
+    private final long seed ;
+
+    // Constructor
+    public StudentGenerator(long seed) {
+
+        this.seed = seed ;
+    }
+
+    public StudentGenerator() {
+
+        this(DEFAULT_SEED) ;
+    }
+
+    // Documentations [fromIndex, fromIndex + count)
+    public List<Student> generate(long fromIndex, int count) {
+
+        List<Student> students = new ArrayList<>(count) ;
+
+        for (var i = 0 ; i < count ; i ++) students.add(generate(fromIndex + i)) ;
+
+        return students ;
+    }
+
+    // Lazily generated documentations [0, count) - constant memory at any scale
+    public Stream<Student> stream(long count) {
+
+        return LongStream.range(0, count).mapToObj(this::generate) ;
+    }
+
+    public Student generate(long index) {
+
+        // A generator of its own per documentation, seeded from (seed, index)
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index) ;
+
+        Student student = new Student() ;
+
+        student.setStudentId(String.valueOf(index)) ;
+        student.setName(pick(random, GIVEN_NAMES) + " " + pick(random, FAMILY_NAMES)) ;
+
+        // One department, a double major now and then
+        List<String> departments = new ArrayList<>(2) ;
+        departments.add(pickSkewed(random, DEPARTMENTS)) ;
+
+        if (random.nextInt(10) == 0) {
+
+            String secondDepartment = pickSkewed(random, DEPARTMENTS) ;
+
+            if (!departments.contains(secondDepartment)) departments.add(secondDepartment) ;
+        }
+
+        student.setDepartments(departments) ;
+
+        List<Course> courses = courses(random) ;
+        student.setCourses(courses) ;
+
+        student.setGrade(1 + random.nextInt(4)) ;
+        student.setChineseScore(score(random, 75, 10)) ;
+        student.setMathScore(score(random, 68, 15)) ;
+
+        // Most students hold no class job
+        if (random.nextInt(3) == 0) {
+
+            Job job = new Job() ;
+            job.setJobName(pick(random, JOBS)) ;
+            job.setPrimary(random.nextBoolean() ? null : random.nextBoolean()) ;
+
+            student.setJob(job) ;
+        }
+
+        student.setIntroduction(introduction(random, departments.get(0), courses)) ;
+
+        if (random.nextInt(4) != 0) {
+
+            LocalDate testDate = LAST_TEST_DATE.minusDays(random.nextInt(3 * 365)) ;
+
+            student.setEnglishTestIssuedDate(Date.from(testDate.atStartOfDay(ZoneOffset.UTC).toInstant())) ;
+        }
+
+        student.setBloodType(pick(random, BLOOD_TYPES)) ;
+
+        int phoneNumberCount = random.nextInt(3) ;
+
+        if (phoneNumberCount > 0) {
+
+            List<String> phoneNumbers = new ArrayList<>(phoneNumberCount) ;
+
+            for (var i = 0 ; i < phoneNumberCount ; i ++) phoneNumbers.add(String.format("09%08d", random.nextInt(100_000_000))) ;
+
+            student.setPhoneNumbers(phoneNumbers) ;
+        }
+
+        return student ;
+    }
+
+    private List<Course> courses(SplittableRandom random) {
+
+        List<String> courseNames = new ArrayList<>(COURSES.keySet()) ;
+        int courseCount = 1 + random.nextInt(6) ;
+
+        List<Course> courses = new ArrayList<>(courseCount) ;
+
+        for (var i = 0 ; i < courseCount ; i ++) {
+
+            // Partial shuffle, so no course is taken twice
+            Collections.swap(courseNames, i, i + random.nextInt(courseNames.size() - i)) ;
+
+            Course course = new Course() ;
+            course.setCourseName(courseNames.get(i)) ;
+            course.setPoint(COURSES.get(courseNames.get(i))) ;
+
+            courses.add(course) ;
+        }
+
+        return courses ;
+    }
+
+    private String introduction(SplittableRandom random, String department, List<Course> courses) {
+
+        int language = random.nextInt(10) ;
+
+        List<String> sentences = language < 7 ? ENGLISH_SENTENCES : language < 9 ? CHINESE_SENTENCES : JAPANESE_SENTENCES ;
+        String separator = sentences == ENGLISH_SENTENCES ? " " : "" ;
+
+        int sentenceCount = 1 + random.nextInt(sentences.size()) ;
+
+        StringJoiner introduction = new StringJoiner(separator) ;
+
+        for (var i = 0 ; i < sentenceCount ; i ++) {
+
+            String courseName = courses.get(random.nextInt(courses.size())).getCourseName() ;
+
+            introduction.add(String.format(pick(random, sentences), department, courseName)) ;
+        }
+
+        return introduction.toString() ;
+    }
+
+    // Normally distributed, clamped to 0 - 100
+    private static int score(SplittableRandom random, int mean, int standardDeviation) {
+
+        long score = Math.round(mean + random.nextGaussian() * standardDeviation) ;
+
+        return (int) Math.max(0, Math.min(100, score)) ;
+    }
+
+    private static <T> T pick(SplittableRandom random, List<T> values) {
+
+        return values.get(random.nextInt(values.size())) ;
+    }
+
+    // The i-th value is picked with a weight of 1 / (i + 1)
+    private static <T> T pickSkewed(SplittableRandom random, List<T> values) {
+
+        double totalWeight = 0 ;
+
+        for (var i = 0 ; i < values.size() ; i ++) totalWeight += 1.0 / (i + 1) ;
+
+        double target = random.nextDouble() * totalWeight ;
+
+        for (var i = 0 ; i < values.size() ; i ++) {
+
+            target -= 1.0 / (i + 1) ;
+
+            if (target < 0) return values.get(i) ;
+        }
+
+        return values.get(values.size() - 1) ;
+    }
+
+    private static Map<String, Integer> orderedMap(Object... keysAndValues) {
+
+        Map<String, Integer> map = new LinkedHashMap<>() ;
+
+        for (var i = 0 ; i < keysAndValues.length ; i += 2) map.put((String) keysAndValues[i], (Integer) keysAndValues[i + 1]) ;
+
+        return Collections.unmodifiableMap(map) ;
+    }
+}
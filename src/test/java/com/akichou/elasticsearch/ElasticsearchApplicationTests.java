@@ -1,40 +1,138 @@
 package com.akichou.elasticsearch;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
 import co.elastic.clients.elasticsearch._types.SortMode;
 import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch._types.query_dsl.*;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.akichou.elasticsearch.controller.GzipRequestFilter;
 import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.entity.ingest.BulkResult;
+import com.akichou.elasticsearch.entity.ingest.DeadLetter;
+import com.akichou.elasticsearch.entity.ingest.LoadResult;
+import com.akichou.elasticsearch.entity.search.InvalidSearchCursorException;
+import com.akichou.elasticsearch.entity.search.ScoredId;
+import com.akichou.elasticsearch.entity.search.SearchCursor;
 import com.akichou.elasticsearch.entity.search.SearchInfo;
+import com.akichou.elasticsearch.entity.search.SearchPage;
+import com.akichou.elasticsearch.entity.search.ShardQueryProfile;
+import com.akichou.elasticsearch.entity.search.SlowQuery;
+import com.akichou.elasticsearch.entity.update.UpdateInfo;
+import com.akichou.elasticsearch.entity.update.UpdateResult;
+import com.akichou.elasticsearch.repository.StudentElasticsearchAsyncRepository;
 import com.akichou.elasticsearch.repository.StudentElasticsearchRepository;
+import com.akichou.elasticsearch.repository.cache.SearchResultCache;
+import com.akichou.elasticsearch.repository.index.StudentIndexManager;
+import com.akichou.elasticsearch.repository.cache.StudentDocumentCache;
+import com.akichou.elasticsearch.repository.ingest.StudentBulkIngester;
+import com.akichou.elasticsearch.repository.ingest.StudentFileLoader;
+import com.akichou.elasticsearch.repository.ingest.StudentWriteCoalescer;
+import com.akichou.elasticsearch.repository.limit.AdaptiveConcurrencyLimiter;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyBudgets;
+import com.akichou.elasticsearch.repository.limit.ConcurrencyLimitExceededException;
+import com.akichou.elasticsearch.repository.metrics.ElasticsearchMetrics;
+import com.akichou.elasticsearch.repository.routing.PrimaryDepartmentRoutingStrategy;
+import com.akichou.elasticsearch.repository.routing.RoutingKeyChangedException;
+import com.akichou.elasticsearch.repository.routing.StudentRoutingStrategy;
+import com.akichou.elasticsearch.repository.search.MultiSearchCoalescer;
+import com.akichou.elasticsearch.repository.search.ReadHedger;
+import com.akichou.elasticsearch.repository.search.SlowQueryLog;
 import com.akichou.elasticsearch.utils.SampleData;
 import com.akichou.elasticsearch.utils.SearchUtils;
+import com.akichou.elasticsearch.transport.InMemoryElasticsearchTransport;
+import com.akichou.elasticsearch.utils.StudentGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-
-@SpringBootTest
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Runs against the in-memory transport unless -Dtest.elasticsearch.transport=rest points it to a real ES
+@AutoConfigureMockMvc
+@SpringBootTest(properties = "elasticsearch.transport=${test.elasticsearch.transport:in-memory}")
 @Slf4j
 class ElasticsearchApplicationTests {
 
     @Autowired
     private StudentElasticsearchRepository studentElasticsearchRepository ;
 
+    @Autowired
+    private StudentElasticsearchAsyncRepository studentElasticsearchAsyncRepository ;
+
+    @Autowired
+    private SearchResultCache searchResultCache ;
+
+    @Autowired
+    private StudentDocumentCache studentDocumentCache ;
+
+    @Autowired
+    private MeterRegistry meterRegistry ;
+
+    @Autowired
+    private ElasticsearchClient elasticsearchClient ;
+
+    @Autowired
+    private ElasticsearchAsyncClient elasticsearchAsyncClient ;
+
+    @Autowired
+    private MockMvc mockMvc ;
+
+    @Value("${elasticsearch.index.name}")
+    private String indexName ;
+
     @BeforeEach
-    public void setup() throws IOException, InterruptedException {
+    public void setup() throws IOException {
 
-        // Create the index
-        studentElasticsearchRepository.init() ;
+        // Start every test from an empty index
+        studentElasticsearchRepository.recreateIndex() ;
 
         // Get documentation configurations from json file
         List<Student> studentDocumentations = SampleData.get() ;
@@ -42,8 +140,8 @@ class ElasticsearchApplicationTests {
         // Insert student documentations into the index
         studentElasticsearchRepository.insertStudents(studentDocumentations) ;
 
-        // Mock IO blocking (Inserting)
-        Thread.sleep(2000) ;
+        // Make the inserted documentations searchable right away
+        studentElasticsearchRepository.refresh() ;
     }
 
     // Documentation ID Assertion Common Method
@@ -94,7 +192,7 @@ class ElasticsearchApplicationTests {
 
         // Precise Query - department
         Query departmentPreciseQuery =
-                SearchUtils.createTermQuery("departments.keyword", "財務金融") ;
+                SearchUtils.createTermQuery("departments", "財務金融") ;
 
         // FunctionScore of Precise Query - department
         FunctionScore departmentScore =
@@ -102,7 +200,7 @@ class ElasticsearchApplicationTests {
 
         // Precise Query - course
         Query coursePreciseQuery =
-                SearchUtils.createTermQuery("courses.courseName.keyword", "程式設計") ;
+                SearchUtils.createTermQuery("courses.courseName", "程式設計") ;
 
         // FunctionScore of Precise Query - course
         FunctionScore courseScore =
@@ -187,12 +285,12 @@ class ElasticsearchApplicationTests {
 
     // 測試 -- 精準查詢 ( 一對多 )
     @Test
-    public void testTermQuery_OneToMany_TextField() {
+    public void testTermQuery_OneToMany_KeywordField() {
 
         // Values for termsQuery
         List<String> values = List.of("資訊管理", "企業管理") ;
 
-        Query termsQuery = SearchUtils.createTermsQuery("departments.keyword", values) ;
+        Query termsQuery = SearchUtils.createTermsQuery("departments", values) ;
 
         SearchInfo searchInfo = SearchInfo.of(termsQuery) ;
 
@@ -292,7 +390,7 @@ class ElasticsearchApplicationTests {
 
         // Precise query the name of documentation, and sort it ascend
         SortOptions nameSort =
-                SearchUtils.createSortOption("name.keyword", SortOrder.Asc) ;
+                SearchUtils.createSortOption("name", SortOrder.Asc) ;
 
         Query matchAllQuery = MatchAllQuery.of(b -> b)._toQuery() ;
 
@@ -321,4 +419,969 @@ class ElasticsearchApplicationTests {
 
         assertDocumentIds(false, students, "101", "102") ;
     }
+
+    // 測試 -- 以 point-in-time + search_after 游標分頁, 每頁取兩個, 直到游標為 null
+    @Test
+    public void testCursorPaging_SearchAfter() throws Exception {
+
+        SortOptions gradeSort = SearchUtils.createSortOption("grade", SortOrder.Desc) ;
+
+        SearchInfo searchInfo = new SearchInfo() ;
+        searchInfo.setSortOptions(List.of(gradeSort)) ;
+        searchInfo.setSize(2) ;
+
+        List<Student> students = new ArrayList<>() ;
+
+        do {
+
+            SearchPage searchPage = studentElasticsearchRepository.findPage(searchInfo) ;
+
+            students.addAll(searchPage.getStudents()) ;
+
+            searchInfo.setCursor(searchPage.getCursor()) ;      // Pass the cursor back for the next page
+        } while (searchInfo.getCursor() != null) ;
+
+        assertDocumentIds(false, students, "101", "102", "103", "104") ;
+
+        // No sort given - the pages follow relevance, the same order as find()
+        SearchInfo scoredSearchInfo = SearchInfo.of(SearchUtils.createMatchQuery(Set.of("name", "introduction"), "vincent career")) ;
+        scoredSearchInfo.setSize(1) ;
+
+        List<Student> scoredStudents = new ArrayList<>() ;
+
+        do {
+
+            SearchPage searchPage = studentElasticsearchRepository.findPage(scoredSearchInfo) ;
+
+            scoredStudents.addAll(searchPage.getStudents()) ;
+
+            scoredSearchInfo.setCursor(searchPage.getCursor()) ;
+        } while (scoredSearchInfo.getCursor() != null) ;
+
+        Assertions.assertEquals(studentElasticsearchRepository.find(SearchInfo.of(SearchUtils.createMatchQuery(Set.of("name", "introduction"), "vincent career"))),
+                scoredStudents) ;
+
+        // A cursor that was not handed out is a client error
+        searchInfo.setCursor("not-a-cursor") ;
+
+        Assertions.assertThrows(InvalidSearchCursorException.class, () -> studentElasticsearchRepository.findPage(searchInfo)) ;
+
+        // So is a well-formed one whose sort values are not what a cursor holds
+        String craftedCursor = Base64.getUrlEncoder().encodeToString(
+                "{\"pitId\":\"pit\",\"searchAfter\":[{\"a\":1},[2]]}".getBytes(StandardCharsets.UTF_8)) ;
+
+        Assertions.assertThrows(InvalidSearchCursorException.class, () -> SearchCursor.decode(craftedCursor)) ;
+
+        // The same through the endpoint - a page, its cursor, and a 400 for a cursor the server never handed out
+        String pageJson = mockMvc.perform(get("/students/page").param("size", "3"))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8) ;
+
+        JsonNode firstPage = new ObjectMapper().readTree(pageJson) ;
+
+        Assertions.assertEquals(3, firstPage.get("students").size()) ;
+
+        mockMvc.perform(get("/students/page").param("size", "3").param("cursor", firstPage.get("cursor").asText()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.students.length()").value(1))
+                .andExpect(jsonPath("$.cursor").doesNotExist()) ;
+
+        mockMvc.perform(get("/students/page").param("cursor", craftedCursor)).andExpect(status().isBadRequest()) ;
+        mockMvc.perform(get("/students/page").param("size", "0")).andExpect(status().isBadRequest()) ;
+        mockMvc.perform(delete("/students/page").param("cursor", "not-a-cursor")).andExpect(status().isBadRequest()) ;
+    }
+
+    // 測試 -- 相同的 SearchInfo 第二次查詢由快取回應, 回傳的是副本, 寫入後快取失效
+    @Test
+    public void testSearchResultCache_HitAndInvalidate() {
+
+        Query termQuery = SearchUtils.createTermQuery("grade", 3) ;
+
+        long hitsBefore = searchResultCache.hitCount() ;
+
+        studentElasticsearchRepository.find(SearchInfo.of(termQuery)) ;
+        List<Student> cachedStudents = studentElasticsearchRepository.find(SearchInfo.of(termQuery)) ;
+
+        Assertions.assertEquals(hitsBefore + 1, searchResultCache.hitCount()) ;
+        assertDocumentIds(true, cachedStudents, "102") ;
+
+        // Changing a returned student does not change the cached result
+        cachedStudents.get(0).setName("Changed") ;
+        cachedStudents.get(0).getDepartments().clear() ;
+
+        Student cachedAgain = studentElasticsearchRepository.find(SearchInfo.of(termQuery)).get(0) ;
+
+        Assertions.assertNotEquals("Changed", cachedAgain.getName()) ;
+        Assertions.assertFalse(cachedAgain.getDepartments().isEmpty()) ;
+
+        // Any write makes the cached result stale
+        studentElasticsearchRepository.deleteStudentById("104") ;
+        studentElasticsearchRepository.find(SearchInfo.of(termQuery)) ;
+
+        Assertions.assertEquals(hitsBefore + 2, searchResultCache.hitCount()) ;
+    }
+
+    // 測試 -- 依 id 查詢經過文件快取, 回傳的是副本, 不存在的 id 也會被快取, 刪除後會移出快取
+    @Test
+    public void testDocumentCache_ReadThroughAndEvict() {
+
+        long hitsBefore = studentDocumentCache.hitCount() ;
+        long negativeHitsBefore = studentDocumentCache.negativeHitCount() ;
+
+        // Written through by the bulk insert in setup()
+        Student cachedStudent = studentElasticsearchRepository.findStudentById("101").orElseThrow() ;
+        Assertions.assertEquals(hitsBefore + 1, studentDocumentCache.hitCount()) ;
+
+        // Changing a returned student does not change the cached one
+        cachedStudent.setName("Changed") ;
+        cachedStudent.getDepartments().clear() ;
+
+        Student cachedAgain = studentElasticsearchRepository.findStudentById("101").orElseThrow() ;
+
+        Assertions.assertNotEquals("Changed", cachedAgain.getName()) ;
+        Assertions.assertFalse(cachedAgain.getDepartments().isEmpty()) ;
+
+        Assertions.assertTrue(studentElasticsearchRepository.findStudentById("999").isEmpty()) ;
+        Assertions.assertTrue(studentElasticsearchRepository.findStudentById("999").isEmpty()) ;
+        Assertions.assertEquals(negativeHitsBefore + 1, studentDocumentCache.negativeHitCount()) ;
+
+        studentElasticsearchRepository.deleteStudentById("101") ;
+
+        Assertions.assertTrue(studentElasticsearchRepository.findStudentById("101").isEmpty()) ;
+
+        // A loader that throws fails its callers, and does not keep the id in flight - the next miss loads again
+        StudentDocumentCache throwingCache = new StudentDocumentCache(10, 60_000, 60_000) ;
+
+        CompletableFuture<Optional<Student>> failedLoad = throwingCache.get("101", id -> {
+
+            throw new IllegalStateException("loader failed") ;
+        }) ;
+
+        Assertions.assertInstanceOf(IllegalStateException.class,
+                Assertions.assertThrows(CompletionException.class, failedLoad::join).getCause()) ;
+        Assertions.assertTrue(throwingCache.get("101", id -> CompletableFuture.completedFuture(Optional.empty())).join().isEmpty()) ;
+        Assertions.assertEquals(0, throwingCache.collapsedLoadCount()) ;
+    }
+
+    // 測試 -- 以 mget 一次取回多筆, 不存在的 id 略過, 並只回傳指定欄位
+    @Test
+    public void testFindStudentsByIds_Mget() {
+
+        List<Student> students = studentElasticsearchRepository
+                .findStudentsByIds(List.of("103", "999", "101"), List.of("name")) ;
+
+        assertDocumentIds(false, students, "103", "101") ;
+
+        Assertions.assertEquals("Vincent Tsai", students.get(0).getName()) ;
+        Assertions.assertNull(students.get(0).getIntroduction()) ;
+    }
+
+    // 測試 -- 只回傳指定欄位, 以及只回傳 id 與分數 (不取 _source)
+    @Test
+    public void testSourceFiltering_And_ScoredIds() {
+
+        SortOptions gradeSort = SearchUtils.createSortOption("grade", SortOrder.Desc) ;
+
+        SearchInfo searchInfo = new SearchInfo() ;
+        searchInfo.setSortOptions(List.of(gradeSort)) ;
+        searchInfo.setIncludes(List.of("name")) ;
+
+        List<Student> students = studentElasticsearchRepository.find(searchInfo) ;
+
+        // studentId is filled in from the hit id even though it was not included
+        assertDocumentIds(false, students, "101", "102", "103", "104") ;
+        Assertions.assertNull(students.get(0).getIntroduction()) ;
+
+        List<ScoredId> scoredIds = studentElasticsearchRepository.findScoredIds(searchInfo) ;
+
+        Assertions.assertEquals(List.of("101", "102", "103", "104"), scoredIds.stream().map(ScoredId::getStudentId).toList()) ;
+    }
+
+    // 測試 -- 每次請求都記錄來回時間與 ES 回報的 took, 批次寫入記錄筆數
+    @Test
+    public void testMetrics_RoundTripAndTook() throws IOException {
+
+        SearchInfo searchInfo = SearchInfo.of(SearchUtils.createTermQuery("grade", 3)) ;
+        searchInfo.setSize(1) ;
+
+        studentElasticsearchRepository.find(searchInfo) ;
+
+        Timer searchTimer = meterRegistry.find(ElasticsearchMetrics.REQUESTS)
+                .tags("operation", "search", "outcome", ElasticsearchMetrics.OUTCOME_SUCCESS)
+                .timer() ;
+
+        Timer tookTimer = meterRegistry.find(ElasticsearchMetrics.TOOK)
+                .tags("operation", "search")
+                .timer() ;
+
+        Assertions.assertNotNull(searchTimer) ;
+        Assertions.assertNotNull(tookTimer) ;
+        Assertions.assertTrue(searchTimer.count() >= 1) ;
+
+        // The items inserted in setup()
+        Assertions.assertTrue(meterRegistry.find(ElasticsearchMetrics.BULK_ITEMS)
+                .tags("outcome", ElasticsearchMetrics.OUTCOME_SUCCESS)
+                .counter()
+                .count() >= SampleData.get().size()) ;
+    }
+
+    // 測試 -- 同時送出的多個查詢合併成一個 _msearch, 每個呼叫者仍拿到自己的結果, 失敗的項目保留 ES 的狀態碼
+    @Test
+    public void testMultiSearchCoalescer_ConcurrentFinds() {
+
+        StudentElasticsearchRepository coalescingRepository =
+                new StudentElasticsearchRepository(elasticsearchClient, indexName) ;
+
+        // A long window, so all four searches end up in the full batch
+        try (MultiSearchCoalescer coalescer = new MultiSearchCoalescer(elasticsearchAsyncClient, 10_000, 4)) {
+
+            coalescingRepository.setMultiSearchCoalescer(coalescer) ;
+
+            List<CompletableFuture<List<Student>>> futures = new ArrayList<>() ;
+
+            for (var grade = 1 ; grade <= 4 ; grade ++) {
+
+                SearchInfo searchInfo = SearchInfo.of(SearchUtils.createTermQuery("grade", grade)) ;
+
+                futures.add(CompletableFuture.supplyAsync(() -> coalescingRepository.find(searchInfo))) ;
+            }
+
+            for (var grade = 1 ; grade <= 4 ; grade ++) {
+
+                int expectedGrade = grade ;
+
+                Assertions.assertTrue(futures.get(grade - 1).join()
+                        .stream()
+                        .allMatch(student -> student.getGrade() == expectedGrade)) ;
+            }
+
+            // A failed item keeps the status of ES, the same as a direct search
+            CompletableFuture<?> missingIndexSearch = coalescer.search(SearchRequest.of(b -> b.index("missing_index"))) ;
+            coalescer.flush() ;
+
+            CompletionException failure = Assertions.assertThrows(CompletionException.class, missingIndexSearch::join) ;
+
+            Assertions.assertEquals(404, ((ElasticsearchException) failure.getCause()).status()) ;
+        }
+    }
+
+    // 測試 -- 單筆寫入合併成 bulk, 每個呼叫者各自拿到成功或失敗 (例如版本衝突)
+    @Test
+    public void testWriteCoalescer_PerCallerResults() {
+
+        StudentElasticsearchRepository coalescingRepository =
+                new StudentElasticsearchRepository(elasticsearchClient, indexName) ;
+
+        try (StudentWriteCoalescer coalescer = new StudentWriteCoalescer(elasticsearchClient,
+                StudentIndexManager.writeAliasOf(indexName), 200, 100, 1)) {
+
+            coalescingRepository.setStudentWriteCoalescer(coalescer) ;
+
+            Student newStudent = new Student() ;
+            newStudent.setStudentId("105") ;
+            newStudent.setName("New Student") ;
+
+            Student duplicateStudent = new Student() ;
+            duplicateStudent.setStudentId("101") ;
+            duplicateStudent.setName("Duplicate") ;
+
+            // Both creates land in the same bulk, only the duplicate fails
+            CompletableFuture<Student> created = CompletableFuture.supplyAsync(() -> coalescingRepository.insertStudent(newStudent)) ;
+            CompletableFuture<Student> conflicted = CompletableFuture.supplyAsync(() -> coalescingRepository.insertStudent(duplicateStudent)) ;
+
+            Assertions.assertEquals("105", created.join().getStudentId()) ;
+
+            ElasticsearchException conflict = Assertions.assertThrows(ElasticsearchException.class, () -> {
+
+                try {
+
+                    conflicted.join() ;
+                } catch (CompletionException e) {
+
+                    throw e.getCause() ;
+                }
+            }) ;
+
+            Assertions.assertEquals(409, conflict.status()) ;
+
+            coalescingRepository.deleteStudentById("102") ;
+        }
+
+        Assertions.assertTrue(studentElasticsearchRepository.findStudentsByIds(List.of("102")).isEmpty()) ;
+        Assertions.assertEquals(1, studentElasticsearchRepository.findStudentsByIds(List.of("105")).size()) ;
+    }
+
+    // 測試 -- 部分更新只送出變更欄位, 沒有變更時不寫入, 並以 seq_no / primary_term 做樂觀鎖
+    @Test
+    public void testPartialUpdate_NoopAndOptimisticConcurrency() {
+
+        UpdateInfo updateInfo = new UpdateInfo() ;
+        updateInfo.setFields(Map.of("mathScore", 99)) ;
+
+        UpdateResult updated = studentElasticsearchRepository.updateStudent("101", updateInfo) ;
+
+        Assertions.assertTrue(updated.isChanged()) ;
+        Assertions.assertEquals(99, updated.getStudent().getMathScore().intValue()) ;
+
+        // Same value again - detect_noop skips the write
+        UpdateResult unchanged = studentElasticsearchRepository.updateStudent("101", updateInfo) ;
+
+        Assertions.assertFalse(unchanged.isChanged()) ;
+        Assertions.assertEquals(updated.getSeqNo(), unchanged.getSeqNo()) ;
+
+        // A stale seq_no is rejected
+        UpdateInfo staleUpdate = new UpdateInfo() ;
+        staleUpdate.setFields(Map.of("mathScore", 50)) ;
+        staleUpdate.setIfSeqNo(updated.getSeqNo() - 1) ;
+        staleUpdate.setIfPrimaryTerm(updated.getPrimaryTerm()) ;
+
+        ElasticsearchException conflict = Assertions.assertThrows(ElasticsearchException.class,
+                () -> studentElasticsearchRepository.updateStudent("101", staleUpdate)) ;
+
+        Assertions.assertEquals(409, conflict.status()) ;
+    }
+
+    // 測試 -- 合成資料產生器: 同一個 seed 產生相同的文件, 且文件可以直接批次寫入
+    @Test
+    public void testStudentGenerator_DeterministicAndInsertable() {
+
+        List<Student> generated = new StudentGenerator(7).generate(1000, 200) ;
+
+        Assertions.assertEquals(generated, new StudentGenerator(7).generate(1000, 200)) ;
+        Assertions.assertNotEquals(generated, new StudentGenerator(8).generate(1000, 200)) ;
+
+        // Any single documentation can be generated again on its own
+        Assertions.assertEquals(generated.get(150), new StudentGenerator(7).generate(1150)) ;
+
+        studentElasticsearchRepository.insertStudents(generated) ;
+
+        List<String> sampledIds = List.of("1000", "1099", "1199") ;
+
+        List<Student> found = studentElasticsearchRepository.findStudentsByIds(sampledIds) ;
+
+        Assertions.assertEquals(List.of(generated.get(0), generated.get(99), generated.get(199)), found) ;
+    }
+
+    // 測試 -- gzip 壓縮的請求內容會先解壓縮再交給 controller, 且解壓縮後的大小有上限
+    @Test
+    public void testGzipRequestFilter_InflateAndLimit() throws Exception {
+
+        byte[] json = "[{\"studentId\":\"201\",\"introduction\":\"我主修會計\"}]".getBytes(StandardCharsets.UTF_8) ;
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream() ;
+
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+
+            gzipOutputStream.write(json) ;
+        }
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/students/multi") ;
+        request.addHeader("Content-Encoding", "gzip") ;
+        request.setContent(compressed.toByteArray()) ;
+
+        new GzipRequestFilter(1024).doFilter(request, new MockHttpServletResponse(), (filteredRequest, response) -> {
+
+            HttpServletRequest httpRequest = (HttpServletRequest) filteredRequest ;
+
+            Assertions.assertNull(httpRequest.getHeader("Content-Encoding")) ;
+            Assertions.assertArrayEquals(json, httpRequest.getInputStream().readAllBytes()) ;
+        }) ;
+
+        // Inflated beyond the limit
+        MockHttpServletRequest oversizedRequest = new MockHttpServletRequest("POST", "/students/multi") ;
+        oversizedRequest.addHeader("Content-Encoding", "gzip") ;
+        oversizedRequest.setContent(compressed.toByteArray()) ;
+
+        Assertions.assertThrows(IOException.class, () -> new GzipRequestFilter(10).doFilter(oversizedRequest, new MockHttpServletResponse(),
+                (filteredRequest, response) -> filteredRequest.getInputStream().readAllBytes())) ;
+    }
+
+    // 測試 -- 串流載入 JSON 陣列與 NDJSON 檔案, 並從 checkpoint 繼續
+    @Test
+    public void testStudentFileLoader_ArrayNdjsonAndResume(@TempDir Path directory) throws IOException {
+
+        ObjectMapper objectMapper = new ObjectMapper() ;
+
+        List<String> lines = new ArrayList<>() ;
+
+        for (Student student : new StudentGenerator(3).generate(2000, 30)) lines.add(objectMapper.writeValueAsString(student)) ;
+
+        Path arrayFile = Files.writeString(directory.resolve("students.json"), "[\n" + String.join(",\n", lines) + "\n]") ;
+        Path ndjsonFile = Files.writeString(directory.resolve("students.ndjson"), String.join("\n", lines) + "\n") ;
+
+        // An earlier run acknowledged the first ten documentations of the array
+        Path checkpointFile = directory.resolve("students.json.checkpoint") ;
+        long tenthEnd = ("[\n" + String.join(",\n", lines.subList(0, 10))).getBytes(StandardCharsets.UTF_8).length ;
+        Files.writeString(checkpointFile, Long.toString(tenthEnd)) ;
+
+        try (StudentBulkIngester ingester = new StudentBulkIngester(elasticsearchClient, StudentIndexManager.writeAliasOf(indexName),
+                7, StudentBulkIngester.DEFAULT_MAX_SIZE_BYTES, 1000, 3)) {
+
+            StudentFileLoader studentFileLoader = new StudentFileLoader(ingester, objectMapper, 4) ;
+
+            LoadResult resumed = studentFileLoader.load(arrayFile, checkpointFile) ;
+
+            Assertions.assertEquals(20, resumed.getLoaded()) ;
+            Assertions.assertEquals(Files.size(arrayFile), resumed.getEndOffset()) ;
+            Assertions.assertEquals(Long.toString(Files.size(arrayFile)), Files.readString(checkpointFile)) ;
+
+            Assertions.assertTrue(studentElasticsearchRepository.findStudentsByIds(List.of("2009")).isEmpty()) ;
+            Assertions.assertEquals(1, studentElasticsearchRepository.findStudentsByIds(List.of("2010")).size()) ;
+
+            // Nothing left to load
+            Assertions.assertEquals(0, studentFileLoader.load(arrayFile, checkpointFile).getLoaded()) ;
+
+            LoadResult ndjson = studentFileLoader.load(ndjsonFile) ;
+
+            Assertions.assertEquals(30, ndjson.getLoaded()) ;
+            Assertions.assertEquals(0, ndjson.getFailed()) ;
+        }
+
+        Assertions.assertEquals(30, studentElasticsearchRepository.findStudentsByIds(
+                new StudentGenerator(3).generate(2000, 30).stream().map(Student::getStudentId).toList()).size()) ;
+    }
+
+    // 測試 -- 批次寫入逐筆回報結果: 被拒絕 (429) 的項目會重試, 永久失敗的項目送到 dead-letter
+    @Test
+    public void testBulkInsert_RetryRejectedItemsAndDeadLetter() throws IOException {
+
+        // A cluster of its own, which can be told to push back
+        try (InMemoryElasticsearchTransport transport = new InMemoryElasticsearchTransport(new JacksonJsonpMapper())) {
+
+            ElasticsearchClient client = new ElasticsearchClient(transport) ;
+
+            List<DeadLetter> deadLetters = new CopyOnWriteArrayList<>() ;
+
+            // Retried items wait for the flush interval, like any other queued operation
+            try (StudentBulkIngester ingester = new StudentBulkIngester(client, StudentIndexManager.writeAliasOf(indexName),
+                    StudentBulkIngester.DEFAULT_MAX_OPERATIONS, StudentBulkIngester.DEFAULT_MAX_SIZE_BYTES, 20, 2)) {
+
+                ingester.setRetries(3, 1, 10) ;
+                ingester.setDeadLetterSink(deadLetters::add) ;
+
+                StudentElasticsearchRepository repository = new StudentElasticsearchRepository(client, indexName, ingester) ;
+                repository.recreateIndex() ;
+
+                List<Student> students = new ArrayList<>(SampleData.get()) ;
+
+                // Duplicates the last sample, which is not rejected - a retried item lands after the items behind it
+                Student duplicateStudent = new Student() ;
+                duplicateStudent.setStudentId("104") ;
+                duplicateStudent.setName("Duplicate") ;
+                students.add(duplicateStudent) ;
+
+                // The first three items are rejected, and only they are sent again
+                transport.rejectBulkItems(3) ;
+
+                BulkResult bulkResult = repository.insertStudents(students) ;
+
+                Assertions.assertTrue(bulkResult.isErrors()) ;
+                Assertions.assertEquals(4, bulkResult.getSucceeded()) ;
+                Assertions.assertEquals(1, bulkResult.getFailed()) ;
+                Assertions.assertEquals(List.of(201, 201, 201, 201, 409),
+                        bulkResult.getItems().stream().map(item -> item.getStatus()).toList()) ;
+
+                Assertions.assertEquals(1, deadLetters.size()) ;
+                Assertions.assertEquals("104", deadLetters.get(0).getStudentId()) ;
+                Assertions.assertEquals("Duplicate", deadLetters.get(0).getStudent().getName()) ;
+                Assertions.assertEquals(409, deadLetters.get(0).getStatus()) ;
+
+                // Retries used up - the item is dead-lettered with its last status
+                transport.rejectBulkItems(10) ;
+
+                Student rejectedStudent = new Student() ;
+                rejectedStudent.setStudentId("301") ;
+
+                BulkResult rejected = repository.insertStudents(List.of(rejectedStudent)) ;
+
+                Assertions.assertEquals(429, rejected.getItems().get(0).getStatus()) ;
+                Assertions.assertEquals(4, deadLetters.get(1).getAttempts()) ;
+            }
+        }
+    }
+
+    // 測試 -- 自適應並行上限: 超過上限的請求排隊或立即被拒絕, 429 縮小上限, 正常回應放大上限
+    @Test
+    public void testConcurrencyLimiter_QueueRejectAndAdapt() throws IOException, InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 4, 1, 500) ;
+
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire().join() ;
+        AdaptiveConcurrencyLimiter.Permit second = limiter.acquire().join() ;
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> queued = limiter.acquire() ;
+
+        Assertions.assertFalse(queued.isDone()) ;
+        Assertions.assertEquals(1, limiter.getQueueSize()) ;
+
+        // The queue is full - rejected without waiting
+        CompletionException rejected = Assertions.assertThrows(CompletionException.class, () -> limiter.acquire().join()) ;
+        Assertions.assertInstanceOf(ConcurrencyLimitExceededException.class, rejected.getCause()) ;
+
+        // A released slot goes to the queued caller - errors other than overload leave the limit as it is
+        first.release(elasticsearchError(404)) ;
+        AdaptiveConcurrencyLimiter.Permit third = queued.join() ;
+
+        Assertions.assertEquals(2, limiter.getLimit()) ;
+
+        // No slot is released within the wait
+        CompletionException expired = Assertions.assertThrows(CompletionException.class, () -> limiter.acquire().join()) ;
+        Assertions.assertInstanceOf(ConcurrencyLimitExceededException.class, expired.getCause()) ;
+        Assertions.assertEquals(2, limiter.rejectedCount()) ;
+
+        // 429 -> multiplicative decrease
+        second.release(elasticsearchError(429)) ;
+        Assertions.assertEquals(1, limiter.getLimit()) ;
+
+        third.release(elasticsearchError(409)) ;
+        Assertions.assertEquals(0, limiter.getInFlight()) ;
+
+        // One caller at a time grows the limit only while it uses at least half of it - from 1 to 2 here, and no further
+        for (var i = 0 ; i < 100 ; i ++) limiter.acquire().join().release(null) ;
+
+        Assertions.assertEquals(2, limiter.getLimit()) ;
+
+        // Healthy round trips while the limit is in use -> additive increase up to the max
+        for (var i = 0 ; i < 100 ; i ++) {
+
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire().join() ;
+
+            limiter.acquire().join().release(null) ;
+            permit.release(null) ;
+        }
+
+        Assertions.assertEquals(4, limiter.getLimit()) ;
+
+        // Limiting is off by default - the budgets of the repositories are only published once it is enabled
+        Assertions.assertNull(meterRegistry.find(ElasticsearchMetrics.CONCURRENCY_LIMIT).tag("budget", "read").gauge()) ;
+
+        SimpleMeterRegistry limiterRegistry = new SimpleMeterRegistry() ;
+        new ElasticsearchMetrics(limiterRegistry).bindConcurrencyLimiter(limiter) ;
+
+        Assertions.assertEquals(4, limiterRegistry.find(ElasticsearchMetrics.CONCURRENCY_LIMIT).tag("budget", "test").gauge().value()) ;
+        Assertions.assertNotNull(limiterRegistry.find(ElasticsearchMetrics.CONCURRENCY_QUEUED).tag("budget", "test").gauge()) ;
+
+        // Bulks and _msearch count against the budgets too - a bulk shed by the full write budget is retried like a 429
+        AdaptiveConcurrencyLimiter readLimiter = AdaptiveConcurrencyLimiter.unlimited("read") ;
+        AdaptiveConcurrencyLimiter writeLimiter = new AdaptiveConcurrencyLimiter("write", 1, 1, 1, 0, 0) ;
+        ConcurrencyBudgets concurrencyBudgets = new ConcurrencyBudgets(readLimiter, writeLimiter) ;
+
+        Assertions.assertSame(writeLimiter, concurrencyBudgets.of("bulk")) ;
+        Assertions.assertSame(readLimiter, concurrencyBudgets.of("msearch")) ;
+
+        AdaptiveConcurrencyLimiter.Permit heldPermit = writeLimiter.acquire().join() ;
+
+        try (StudentBulkIngester ingester = new StudentBulkIngester(elasticsearchClient, StudentIndexManager.writeAliasOf(indexName),
+                1, StudentBulkIngester.DEFAULT_MAX_SIZE_BYTES, 1000, 1)) {
+
+            ingester.setConcurrencyBudgets(concurrencyBudgets) ;
+            ingester.setRetries(10, 20, 20) ;
+
+            CompletableFuture<Student> indexed = ingester.index(SampleData.get().get(0)) ;
+
+            for (var i = 0 ; i < 200 && writeLimiter.rejectedCount() == 0 ; i ++) Thread.sleep(10) ;
+
+            Assertions.assertTrue(writeLimiter.rejectedCount() > 0) ;
+            Assertions.assertFalse(indexed.isDone()) ;
+
+            heldPermit.release(null) ;
+
+            Assertions.assertEquals("101", indexed.join().getStudentId()) ;
+        }
+    }
+
+    // 測試 -- 對沖讀取: 第一次請求太慢時以其他 preference 再送一次, 先回來的結果勝出, 對沖比例有上限
+    @Test
+    public void testReadHedger_SlowReadHedgedAndRateCapped() throws InterruptedException {
+
+        ReadHedger readHedger = new ReadHedger("test", 0.9, 1, 1.0) ;
+
+        // Nothing is hedged before the latencies of enough reads are known
+        for (var i = 0 ; i < 64 ; i ++) readHedger.read(preference -> CompletableFuture.completedFuture("fast")).join() ;
+
+        Assertions.assertEquals(0, readHedger.hedgesSent()) ;
+        Assertions.assertEquals(1.0, readHedger.delayMillis()) ;
+
+        // The first attempt never answers - the hedge does, with a preference of its own
+        List<String> preferences = new CopyOnWriteArrayList<>() ;
+
+        String value = readHedger.read(preference -> {
+
+            preferences.add(String.valueOf(preference)) ;
+
+            return preference == null ? new CompletableFuture<String>() : CompletableFuture.completedFuture("hedged") ;
+        }).join() ;
+
+        Assertions.assertEquals("hedged", value) ;
+        Assertions.assertEquals("null", preferences.get(0)) ;
+        Assertions.assertTrue(preferences.get(1).startsWith("hedge-")) ;
+        Assertions.assertEquals(1, readHedger.hedgesWon()) ;
+
+        // No hedge budget - the read waits for its first attempt
+        ReadHedger cappedHedger = new ReadHedger("test", 0.9, 1, 0.0) ;
+
+        for (var i = 0 ; i < 64 ; i ++) cappedHedger.read(preference -> CompletableFuture.completedFuture("fast")).join() ;
+
+        CompletableFuture<String> slowAttempt = new CompletableFuture<>() ;
+        CompletableFuture<String> slowRead = cappedHedger.read(preference -> slowAttempt) ;
+
+        Thread.sleep(50) ;
+
+        Assertions.assertFalse(slowRead.isDone()) ;
+        Assertions.assertEquals(0, cappedHedger.hedgesSent()) ;
+        Assertions.assertEquals(1, cappedHedger.hedgesThrottled()) ;
+
+        slowAttempt.complete("slow") ;
+
+        Assertions.assertEquals("slow", slowRead.join()) ;
+
+        // Hedged reads of the repository answer the same as plain ones
+        StudentElasticsearchRepository hedgedRepository = new StudentElasticsearchRepository(elasticsearchClient, indexName) ;
+        hedgedRepository.setGetHedger(new ReadHedger("get", 0.5, 0, 1.0)) ;
+        hedgedRepository.setSearchHedger(new ReadHedger("search", 0.5, 0, 1.0)) ;
+
+        SearchInfo searchInfo = SearchInfo.of(SearchUtils.createTermQuery("grade", 3)) ;
+        List<Student> expectedStudents = studentElasticsearchRepository.find(searchInfo) ;
+
+        for (var i = 0 ; i < 100 ; i ++) {
+
+            Assertions.assertEquals("101", hedgedRepository.findStudentById("101").orElseThrow().getStudentId()) ;
+            Assertions.assertEquals(expectedStudents, hedgedRepository.find(searchInfo)) ;
+        }
+    }
+
+    // 測試 -- 慢查詢紀錄: 超過門檻的查詢依指紋累計, 抽樣的查詢以 profile API 重跑並保存各子句的耗時
+    @Test
+    public void testSlowQueryLog_FingerprintAndProfile() throws InterruptedException {
+
+        // Every search is slow, and every slow one is profiled
+        SlowQueryLog slowQueryLog = new SlowQueryLog(elasticsearchAsyncClient, 0, 1.0, 10) ;
+
+        StudentElasticsearchRepository loggedRepository = new StudentElasticsearchRepository(elasticsearchClient, indexName) ;
+        loggedRepository.setSlowQueryLog(slowQueryLog) ;
+
+        SearchInfo boolSearchInfo = SearchInfo.of(BoolQuery.of(b -> b
+                .must(SearchUtils.createTermQuery("grade", 3))
+                .should(SearchUtils.createMatchQuery(Set.of("introduction"), "engineer")))) ;
+
+        loggedRepository.find(boolSearchInfo) ;
+
+        // Other paging, same query -> same fingerprint
+        boolSearchInfo.setFrom(1) ;
+        loggedRepository.find(boolSearchInfo) ;
+
+        loggedRepository.find(SearchInfo.of(SearchUtils.createTermQuery("grade", 2))) ;
+
+        List<SlowQuery> slowQueries = slowQueryLog.top(10) ;
+
+        Assertions.assertEquals(2, slowQueries.size()) ;
+
+        // Both are bool queries - SearchInfo wraps a single query in a filter
+        SlowQuery boolQuery = slowQueries.stream()
+                .filter(slowQuery -> slowQuery.getQuery().contains("should"))
+                .findFirst()
+                .orElseThrow() ;
+
+        Assertions.assertEquals(2, boolQuery.getCount()) ;
+        Assertions.assertEquals(boolQuery.getSuccessfulShards(), boolQuery.getTotalShards()) ;
+        Assertions.assertTrue(boolQuery.getHits() > 0) ;
+
+        Assertions.assertEquals(1, slowQueryLog.top(1).size()) ;
+
+        // The profile is taken in the background
+        for (var i = 0 ; i < 100 && slowQueryLog.top(10).stream().anyMatch(slowQuery -> slowQuery.getProfile() == null) ; i ++) {
+
+            Thread.sleep(20) ;
+        }
+
+        boolQuery = slowQueryLog.top(10).stream()
+                .filter(slowQuery -> slowQuery.getQuery().contains("should"))
+                .findFirst()
+                .orElseThrow() ;
+
+        Assertions.assertNotNull(boolQuery.getProfile()) ;
+
+        ShardQueryProfile shardProfile = boolQuery.getProfile().get(0) ;
+
+        // bool -> its must and should clauses
+        Assertions.assertEquals("bool", shardProfile.getClauses().get(0).getType()) ;
+        Assertions.assertEquals(2, shardProfile.getClauses().get(0).getChildren().size()) ;
+        Assertions.assertTrue(shardProfile.getClauses().get(0).getBreakdown().containsKey("score")) ;
+    }
+
+    // 測試 -- 依主要科系路由: 寫入帶 routing, 以主要科系過濾的查詢與分頁只送往該科系的分片, 未給 routing 的 id 操作先以 id 查詢找出 routing (查無時 refresh 後再查一次), PUT 不能改變 routing
+    @Test
+    public void testRouting_PrimaryDepartment() throws IOException {
+
+        StudentRoutingStrategy routingStrategy = new PrimaryDepartmentRoutingStrategy() ;
+
+        Assertions.assertEquals("資訊管理", routingStrategy.routingOf(
+                SearchInfo.of(SearchUtils.createTermQuery("primaryDepartment", "資訊管理")))) ;
+        Assertions.assertEquals("法律,會計", routingStrategy.routingOf(
+                SearchInfo.of(SearchUtils.createTermsQuery("primaryDepartment.keyword", List.of("法律", "會計"))))) ;
+
+        // Filters on both -> only the departments of both
+        Assertions.assertEquals("會計", routingStrategy.routingOf(SearchInfo.of(BoolQuery.of(b -> b
+                .filter(SearchUtils.createTermsQuery("primaryDepartment", List.of("法律", "會計")))
+                .must(SearchUtils.createTermQuery("primaryDepartment", "會計")))))) ;
+
+        // A second department does not move the documentation, and a 'should' does not exclude the other departments
+        Assertions.assertNull(routingStrategy.routingOf(SearchInfo.of(SearchUtils.createTermQuery("departments.keyword", "財務金融")))) ;
+        Assertions.assertNull(routingStrategy.routingOf(SearchInfo.of(BoolQuery.of(b -> b
+                .should(SearchUtils.createTermQuery("primaryDepartment", "法律")))))) ;
+
+        try (StudentBulkIngester ingester = new StudentBulkIngester(elasticsearchClient, StudentIndexManager.writeAliasOf(indexName))) {
+
+            ingester.setStudentRoutingStrategy(routingStrategy) ;
+
+            StudentElasticsearchRepository routedRepository = new StudentElasticsearchRepository(elasticsearchClient, indexName, ingester) ;
+            routedRepository.setStudentRoutingStrategy(routingStrategy) ;
+
+            routedRepository.recreateIndex() ;
+            routedRepository.insertStudents(SampleData.get()) ;
+
+            Student newStudent = new Student() ;
+            newStudent.setStudentId("105") ;
+            newStudent.setName("New Student") ;
+            newStudent.setDepartments(List.of("會計", "法律")) ;
+
+            routedRepository.insertStudent(newStudent) ;
+            routedRepository.refresh() ;
+
+            // Stored on the shard of the first department, which is kept in the documentation
+            GetResponse<Student> getResponse =
+                    elasticsearchClient.get(b -> b.index(indexName).id("105").routing("會計"), Student.class) ;
+
+            Assertions.assertEquals("會計", getResponse.routing()) ;
+            Assertions.assertEquals("會計", getResponse.source().getPrimaryDepartment()) ;
+
+            assertDocumentIds(true, routedRepository.find(SearchInfo.of(SearchUtils.createTermQuery("primaryDepartment", "會計"))),
+                    "102", "105") ;
+
+            // Pages through a point-in-time opened on the shards of the filtered departments only
+            SearchInfo pageInfo = SearchInfo.of(SearchUtils.createTermQuery("primaryDepartment", "會計")) ;
+            pageInfo.setSize(10) ;
+
+            assertDocumentIds(true, routedRepository.findPage(pageInfo).getStudents(), "102", "105") ;
+
+            SimpleMeterRegistry routedRegistry = new SimpleMeterRegistry() ;
+            routedRepository.setElasticsearchMetrics(new ElasticsearchMetrics(routedRegistry)) ;
+
+            // With and without the routing - the latter is found by a search on every shard, and a miss never refreshes the index
+            Assertions.assertEquals("Vincent Tsai", routedRepository.findStudentById("103", "資訊管理").orElseThrow().getName()) ;
+            Assertions.assertEquals("Dan Wang", routedRepository.findStudentById("101").orElseThrow().getName()) ;
+            Assertions.assertNull(routedRegistry.find(ElasticsearchMetrics.REQUESTS).tag("operation", "refresh").timer()) ;
+
+            Assertions.assertTrue(routedRepository.findStudentById("999").isEmpty()) ;
+            Assertions.assertNull(routedRegistry.find(ElasticsearchMetrics.REQUESTS).tag("operation", "refresh").timer()) ;
+
+            // A PUT cannot move a documentation to the shard of another department - it would be stored twice
+            Student movedStudent = routedRepository.findStudentById("104").orElseThrow() ;
+            movedStudent.setPrimaryDepartment("法律") ;
+
+            Assertions.assertThrows(RoutingKeyChangedException.class, () -> routedRepository.saveStudent(movedStudent)) ;
+
+            movedStudent.setPrimaryDepartment(null) ;
+
+            Assertions.assertEquals("企業管理", routedRepository.saveStudent(movedStudent).getPrimaryDepartment()) ;
+
+            // A PUT of a new id is a create - of two racing PUTs with different departments, the second one gets a 409
+            Student putStudent = new Student() ;
+            putStudent.setStudentId("106") ;
+            putStudent.setDepartments(List.of("法律")) ;
+
+            routedRepository.saveStudent(putStudent) ;
+
+            Assertions.assertEquals(1, routedRegistry.find(ElasticsearchMetrics.REQUESTS).tag("operation", "create").timer().count()) ;
+            Assertions.assertEquals("法律", elasticsearchClient.get(b -> b.index(indexName).id("106").routing("法律"), Student.class).routing()) ;
+
+            assertDocumentIds(false, routedRepository.findStudentsByIds(List.of("104", "999", "102")), "104", "102") ;
+
+            UpdateInfo updateInfo = new UpdateInfo() ;
+            updateInfo.setFields(Map.of("mathScore", 99)) ;
+
+            Assertions.assertTrue(routedRepository.updateStudent("104", updateInfo).isChanged()) ;
+
+            routedRepository.deleteStudentById("105") ;
+            routedRepository.deleteStudentById("101", "法律") ;
+            routedRepository.refresh() ;
+
+            Assertions.assertTrue(routedRepository.findStudentsByIds(List.of("101", "105")).isEmpty()) ;
+            Assertions.assertEquals(99, routedRepository.findStudentById("104").orElseThrow().getMathScore().intValue()) ;
+        }
+    }
+
+    // 測試 -- 非同步 repository: 寫入, 查詢, 部分更新與刪除都回傳 future, 失敗時 future 以 ES 的錯誤完成, 同步 repository 也是等待同一組 future
+    @Test
+    public void testAsyncRepository_Futures() throws IOException {
+
+        Assertions.assertSame(studentElasticsearchAsyncRepository, studentElasticsearchRepository.getStudentElasticsearchAsyncRepository()) ;
+
+        Student student = SampleData.get().get(0) ;
+        student.setStudentId("105") ;
+
+        studentElasticsearchAsyncRepository.insertStudent(student).join() ;
+
+        // Creating the same id again - the future completes with the 409 of ES
+        CompletionException duplicated = Assertions.assertThrows(CompletionException.class,
+                () -> studentElasticsearchAsyncRepository.insertStudent(student).join()) ;
+
+        Assertions.assertEquals(409, ((ElasticsearchException) duplicated.getCause()).status()) ;
+
+        Assertions.assertEquals("105", studentElasticsearchAsyncRepository.findStudentById("105").join().orElseThrow().getStudentId()) ;
+
+        UpdateInfo updateInfo = new UpdateInfo() ;
+        updateInfo.setFields(Map.of("mathScore", 99)) ;
+
+        Assertions.assertTrue(studentElasticsearchAsyncRepository.updateStudent("105", updateInfo).join().isChanged()) ;
+        Assertions.assertEquals(99, studentElasticsearchRepository.findStudentById("105").orElseThrow().getMathScore().intValue()) ;
+
+        studentElasticsearchRepository.refresh() ;
+
+        Query mathScore = SearchUtils.createTermQuery("mathScore", 99) ;
+
+        assertDocumentIds(true, studentElasticsearchAsyncRepository.find(SearchInfo.of(mathScore)).join(), "105") ;
+
+        studentElasticsearchAsyncRepository.deleteStudentById("105").join() ;
+
+        Assertions.assertTrue(studentElasticsearchAsyncRepository.findStudentById("105").join().isEmpty()) ;
+    }
+
+    // 測試 -- 匯出: 以 NDJSON 串流回傳所有文件, slices 與 batchSize 超出範圍時回傳 400 (不開 point-in-time)
+    @Test
+    public void testExport_NdjsonAndParameterLimits() throws Exception {
+
+        MvcResult exportResult = mockMvc.perform(get("/students/export").param("slices", "2").param("batchSize", "1"))
+                .andExpect(request().asyncStarted())
+                .andReturn() ;
+
+        String ndjson = mockMvc.perform(asyncDispatch(exportResult))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8) ;
+
+        ObjectMapper objectMapper = new ObjectMapper() ;
+        List<Student> exported = new ArrayList<>() ;
+
+        for (String line : ndjson.split("\n")) exported.add(objectMapper.readValue(line, Student.class)) ;
+
+        assertDocumentIds(true, exported, "101", "102", "103", "104") ;
+
+        // No thread pool of zero threads, and no thousands of slices either
+        mockMvc.perform(get("/students/export").param("slices", "0")).andExpect(status().isBadRequest()) ;
+        mockMvc.perform(get("/students/export").param("slices", "10000")).andExpect(status().isBadRequest()) ;
+        mockMvc.perform(get("/students/export").param("batchSize", "0")).andExpect(status().isBadRequest()) ;
+        mockMvc.perform(get("/students/export").param("batchSize", "100000")).andExpect(status().isBadRequest()) ;
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> studentElasticsearchRepository.exportStudents(new SearchInfo(), 0, 1000, student -> {})) ;
+    }
+
+    // 測試 -- 映射變更時在背景遷移: 中斷後留下的目標索引會被接續 (不刪除), 別名依目前的持有者搬移, 遷移失敗時保留錯誤且不動到資料
+    @Test
+    public void testIndexMigration_ResumeAndFailure() throws IOException, InterruptedException {
+
+        String migrationIndexName = "migration_test" ;
+        String writeAlias = StudentIndexManager.writeAliasOf(migrationIndexName) ;
+
+        Map<String, Property> oldMapping = Map.of("grade", Property.of(p -> p.integer(i -> i))) ;
+        Map<String, Property> newMapping = Map.of("grade", Property.of(p -> p.byte_(b -> b))) ;
+
+        StudentIndexManager oldManager = new StudentIndexManager(elasticsearchClient, migrationIndexName, () -> oldMapping) ;
+        oldManager.deleteIndices() ;
+        oldManager.ensureIndex() ;
+
+        String sourceIndex = oldManager.currentIndexName() ;
+
+        for (Student student : SampleData.get()) {
+
+            elasticsearchClient.index(b -> b.index(writeAlias).id(student.getStudentId()).document(student)) ;
+        }
+
+        // Interrupted after step 1 - the target exists, the write alias points at it, and it holds a documentation written since
+        StudentIndexManager newManager = new StudentIndexManager(elasticsearchClient, migrationIndexName, () -> newMapping) ;
+
+        String targetIndex = newManager.currentIndexName() ;
+        String mappingHash = targetIndex.substring(migrationIndexName.length() + 1) ;
+
+        elasticsearchClient.indices().create(b -> b
+                .index(targetIndex)
+                .mappings(m -> m.properties(newMapping).meta("mapping_hash", JsonData.of(mappingHash)))) ;
+        elasticsearchClient.indices().updateAliases(b -> b
+                .actions(a -> a.remove(r -> r.index(sourceIndex).alias(writeAlias)))
+                .actions(a -> a.add(r -> r.index(targetIndex).alias(writeAlias)))) ;
+
+        Student writtenMeanwhile = SampleData.get().get(0) ;
+        writtenMeanwhile.setStudentId("105") ;
+
+        elasticsearchClient.index(b -> b.index(writeAlias).id("105").document(writtenMeanwhile)) ;
+
+        newManager.ensureIndex() ;
+
+        for (var i = 0 ; i < 200 && newManager.isMigrating() ; i ++) Thread.sleep(50) ;
+
+        Assertions.assertNull(newManager.getMigrationFailure()) ;
+        Assertions.assertEquals(Set.of(targetIndex), elasticsearchClient.indices().getAlias(b -> b.name(migrationIndexName)).result().keySet()) ;
+        Assertions.assertEquals(Set.of(targetIndex), elasticsearchClient.indices().getAlias(b -> b.name(writeAlias)).result().keySet()) ;
+        Assertions.assertFalse(elasticsearchClient.indices().exists(b -> b.index(sourceIndex)).value()) ;
+
+        // The resumed target kept what was written to it, and got the rest copied
+        elasticsearchClient.indices().refresh(b -> b.index(migrationIndexName)) ;
+
+        Assertions.assertEquals(5, elasticsearchClient.search(b -> b.index(migrationIndexName).size(10), Student.class).hits().hits().size()) ;
+
+        // A target of the same name with another mapping is not touched - the migration fails and says why
+        Map<String, Property> conflictingMapping = Map.of("grade", Property.of(p -> p.short_(b -> b))) ;
+
+        StudentIndexManager failingManager = new StudentIndexManager(elasticsearchClient, migrationIndexName, () -> conflictingMapping) ;
+
+        String conflictingIndex = failingManager.currentIndexName() ;
+
+        elasticsearchClient.indices().create(b -> b
+                .index(conflictingIndex)
+                .mappings(m -> m.properties(conflictingMapping).meta("mapping_hash", JsonData.of("other")))) ;
+
+        failingManager.ensureIndex() ;
+
+        for (var i = 0 ; i < 200 && failingManager.isMigrating() ; i ++) Thread.sleep(50) ;
+
+        Assertions.assertNotNull(failingManager.getMigrationFailure()) ;
+        Assertions.assertEquals(Set.of(targetIndex), elasticsearchClient.indices().getAlias(b -> b.name(writeAlias)).result().keySet()) ;
+
+        elasticsearchClient.indices().delete(b -> b.index(conflictingIndex)) ;
+        newManager.deleteIndices() ;
+
+        // A documentation the target rejects ('grade' 300 does not fit a byte) fails the migration after the task completed -
+        // the read alias stays on the source, which is kept
+        oldManager.ensureIndex() ;
+
+        String keptIndex = oldManager.currentIndexName() ;
+
+        Student outOfRange = SampleData.get().get(0) ;
+        outOfRange.setGrade(300) ;
+
+        elasticsearchClient.index(b -> b.index(writeAlias).id(outOfRange.getStudentId()).document(outOfRange)) ;
+
+        StudentIndexManager rejectingManager = new StudentIndexManager(elasticsearchClient, migrationIndexName, () -> newMapping) ;
+
+        rejectingManager.ensureIndex() ;
+
+        for (var i = 0 ; i < 200 && rejectingManager.isMigrating() ; i ++) Thread.sleep(50) ;
+
+        Assertions.assertTrue(rejectingManager.getMigrationFailure().contains("failed to parse field [grade]")) ;
+        Assertions.assertEquals(Set.of(keptIndex), elasticsearchClient.indices().getAlias(b -> b.name(migrationIndexName)).result().keySet()) ;
+        Assertions.assertTrue(elasticsearchClient.indices().exists(b -> b.index(keptIndex)).value()) ;
+
+        rejectingManager.deleteIndices() ;
+    }
+
+    private static ElasticsearchException elasticsearchError(int status) {
+
+        return new ElasticsearchException("test", ErrorResponse.of(e -> e
+                .status(status)
+                .error(c -> c.type("test_exception").reason("status " + status)))) ;
+    }
 }
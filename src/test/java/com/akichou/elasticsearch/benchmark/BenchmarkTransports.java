@@ -0,0 +1,22 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.akichou.elasticsearch.transport.InMemoryElasticsearchTransport;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+
+// Transport of a load benchmark - 'in-memory' as host url leaves ES out, so only the application's own overhead is measured
+class BenchmarkTransports {
+
+    static final String IN_MEMORY = "in-memory" ;
+
+    // Closing the transport also closes its rest client
+    static ElasticsearchTransport create(String hostUrl) {
+
+        if (IN_MEMORY.equals(hostUrl)) return new InMemoryElasticsearchTransport(new JacksonJsonpMapper()) ;
+
+        return new RestClientTransport(RestClient.builder(HttpHost.create(hostUrl)).build(), new JacksonJsonpMapper()) ;
+    }
+}
@@ -0,0 +1,124 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import com.akichou.elasticsearch.entity.ingest.BulkItemResult;
+import com.akichou.elasticsearch.repository.StudentElasticsearchAsyncRepository;
+import com.akichou.elasticsearch.repository.StudentElasticsearchRepository;
+import com.akichou.elasticsearch.utils.SampleData;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+// Load benchmark - the same number of "servlet" worker threads drive GET-by-id through the blocking and the async repository.
+// Usage: BlockingVsAsyncThroughputBenchmark [host-url | in-memory] [worker-threads] [requests] [max-in-flight]
+public class BlockingVsAsyncThroughputBenchmark {
+
+    private static final String BENCHMARK_INDEX = "student_benchmark" ;
+
+    public static void main(String[] args) throws Exception {
+
+        String hostUrl = args.length > 0 ? args[0] : "http://localhost:9200" ;
+        int workerThreads = args.length > 1 ? Integer.parseInt(args[1]) : 16 ;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 20_000 ;
+        int maxInFlight = args.length > 3 ? Integer.parseInt(args[3]) : 256 ;
+
+        try (ElasticsearchTransport transport = BenchmarkTransports.create(hostUrl)) {
+
+            StudentElasticsearchRepository blockingRepository =
+                    new StudentElasticsearchRepository(new ElasticsearchClient(transport), BENCHMARK_INDEX) ;
+            StudentElasticsearchAsyncRepository asyncRepository =
+                    new StudentElasticsearchAsyncRepository(new ElasticsearchAsyncClient(transport), BENCHMARK_INDEX) ;
+
+            // Seed a dedicated index, so the application index is never touched
+            blockingRepository.recreateIndex() ;
+            List<String> studentIds = blockingRepository.insertStudents(SampleData.get())
+                    .getItems()
+                    .stream()
+                    .map(BulkItemResult::getStudentId)
+                    .toList() ;
+
+            // Warm up both paths before measuring
+            runBlocking(blockingRepository, studentIds, workerThreads, requests / 10) ;
+            runAsync(asyncRepository, studentIds, workerThreads, maxInFlight, requests / 10) ;
+
+            double blockingThroughput = runBlocking(blockingRepository, studentIds, workerThreads, requests) ;
+            double asyncThroughput = runAsync(asyncRepository, studentIds, workerThreads, maxInFlight, requests) ;
+
+            System.out.printf("workers=%d, requests=%d, maxInFlight=%d%n", workerThreads, requests, maxInFlight) ;
+            System.out.printf("blocking : %.1f req/s%n", blockingThroughput) ;
+            System.out.printf("async    : %.1f req/s%n", asyncThroughput) ;
+
+            blockingRepository.deleteIndex() ;
+        }
+    }
+
+    // Every worker thread is held for the whole round trip
+    private static double runBlocking(StudentElasticsearchRepository repository,
+                                      List<String> studentIds, int workerThreads, int requests) throws InterruptedException {
+
+        ExecutorService workers = Executors.newFixedThreadPool(workerThreads) ;
+        CountDownLatch latch = new CountDownLatch(requests) ;
+
+        long start = System.nanoTime() ;
+
+        for (var i = 0 ; i < requests ; i ++) {
+
+            String studentId = studentIds.get(i % studentIds.size()) ;
+
+            workers.execute(() -> {
+
+                try {
+
+                    repository.findStudentById(studentId) ;
+                } finally {
+
+                    latch.countDown() ;
+                }
+            }) ;
+        }
+
+        latch.await() ;
+        long elapsed = System.nanoTime() - start ;
+
+        workers.shutdown() ;
+
+        return requests / (elapsed / 1_000_000_000.0) ;
+    }
+
+    // Worker threads only dispatch, the number of outstanding requests is bounded by 'maxInFlight'
+    private static double runAsync(StudentElasticsearchAsyncRepository repository,
+                                   List<String> studentIds, int workerThreads, int maxInFlight, int requests) throws InterruptedException {
+
+        ExecutorService workers = Executors.newFixedThreadPool(workerThreads) ;
+        Semaphore inFlight = new Semaphore(maxInFlight) ;
+        CountDownLatch latch = new CountDownLatch(requests) ;
+
+        long start = System.nanoTime() ;
+
+        for (var i = 0 ; i < requests ; i ++) {
+
+            String studentId = studentIds.get(i % studentIds.size()) ;
+
+            workers.execute(() -> {
+
+                inFlight.acquireUninterruptibly() ;
+
+                repository.findStudentById(studentId)
+                        .whenComplete((result, throwable) -> {
+
+                            inFlight.release() ;
+                            latch.countDown() ;
+                        }) ;
+            }) ;
+        }
+
+        latch.await() ;
+        long elapsed = System.nanoTime() - start ;
+
+        workers.shutdown() ;
+
+        return requests / (elapsed / 1_000_000_000.0) ;
+    }
+}
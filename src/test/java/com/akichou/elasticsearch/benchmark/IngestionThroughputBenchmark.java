@@ -0,0 +1,203 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import com.akichou.elasticsearch.controller.StudentController;
+import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.repository.StudentElasticsearchAsyncRepository;
+import com.akichou.elasticsearch.repository.StudentElasticsearchRepository;
+import com.akichou.elasticsearch.repository.index.StudentIndexManager;
+import com.akichou.elasticsearch.repository.ingest.StudentBulkIngester;
+import com.akichou.elasticsearch.repository.metrics.ElasticsearchMetrics;
+import com.akichou.elasticsearch.utils.StudentGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Load benchmark - generated student documentations are pushed through insertStudents() and through the controller's
+// POST /students/multi, each into a fresh index. Reports docs/sec, bulk request latency and heap usage per path.
+// The controller path also pays the JSON (de)serialization of request and response bodies the message converters would.
+// With 'in-memory' the heap numbers include the stored documentations themselves.
+// Usage: IngestionThroughputBenchmark [host-url | in-memory] [documents] [batch-size] [clients] [seed]
+public class IngestionThroughputBenchmark {
+
+    private static final String BENCHMARK_INDEX = "student_benchmark" ;
+
+    public static void main(String[] args) throws Exception {
+
+        String hostUrl = args.length > 0 ? args[0] : "http://localhost:9200" ;
+        long documents = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000 ;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 5_000 ;
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 4 ;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : StudentGenerator.DEFAULT_SEED ;
+
+        StudentGenerator studentGenerator = new StudentGenerator(seed) ;
+        ObjectMapper objectMapper = new ObjectMapper() ;
+
+        try (ElasticsearchTransport transport = BenchmarkTransports.create(hostUrl)) {
+
+            ElasticsearchClient elasticsearchClient = new ElasticsearchClient(transport) ;
+
+            // Repository and controller share one ingester, like the application context
+            StudentBulkIngester studentBulkIngester =
+                    new StudentBulkIngester(elasticsearchClient, StudentIndexManager.writeAliasOf(BENCHMARK_INDEX)) ;
+            StudentElasticsearchRepository repository =
+                    new StudentElasticsearchRepository(elasticsearchClient, BENCHMARK_INDEX, studentBulkIngester) ;
+            StudentController studentController = new StudentController(studentBulkIngester, repository, objectMapper,
+                    new StudentElasticsearchAsyncRepository(new ElasticsearchAsyncClient(transport), BENCHMARK_INDEX)) ;
+
+            System.out.printf("documents=%d, batchSize=%d, clients=%d, seed=%d%n", documents, batchSize, clients, seed) ;
+
+            // Warm up both paths before measuring
+            long warmUpDocuments = Math.min(documents, 10L * batchSize) ;
+
+            run(repository, studentBulkIngester, studentGenerator, warmUpDocuments, batchSize, clients,
+                    repository::insertStudents) ;
+            run(repository, studentBulkIngester, studentGenerator, warmUpDocuments, batchSize, clients,
+                    batch -> postThroughController(studentController, objectMapper, batch)) ;
+
+            report("insertStudents", run(repository, studentBulkIngester, studentGenerator, documents, batchSize, clients,
+                    repository::insertStudents)) ;
+            report("controller", run(repository, studentBulkIngester, studentGenerator, documents, batchSize, clients,
+                    batch -> postThroughController(studentController, objectMapper, batch))) ;
+
+            studentBulkIngester.close() ;
+            repository.deleteIndex() ;
+        }
+    }
+
+    private record Result(long documents, long elapsedNanos, Timer bulkTimer, long peakHeapBytes, long heapAfterGcBytes) {}
+
+    // 'clients' threads take the next batch until all documentations are sent, each batch is generated by its client
+    private static Result run(StudentElasticsearchRepository repository, StudentBulkIngester studentBulkIngester,
+                              StudentGenerator studentGenerator, long documents, int batchSize, int clients,
+                              Consumer<List<Student>> ingest) throws InterruptedException, ExecutionException {
+
+        repository.recreateIndex() ;
+
+        // Fresh meters per run - the bulk round trips are timed by the ingester itself
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry() ;
+        meterRegistry.config().meterFilter(new MeterFilter() {
+
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+
+                return DistributionStatisticConfig.builder().percentiles(0.5, 0.99).build().merge(config) ;
+            }
+        }) ;
+        studentBulkIngester.setElasticsearchMetrics(new ElasticsearchMetrics(meterRegistry)) ;
+
+        System.gc() ;
+        resetPeakHeap() ;
+
+        ExecutorService clientPool = Executors.newFixedThreadPool(clients) ;
+        AtomicLong nextIndex = new AtomicLong() ;
+
+        long start = System.nanoTime() ;
+
+        List<Future<?>> futures = new ArrayList<>(clients) ;
+
+        for (var i = 0 ; i < clients ; i ++) {
+
+            futures.add(clientPool.submit(() -> {
+
+                long fromIndex ;
+
+                while ((fromIndex = nextIndex.getAndAdd(batchSize)) < documents) {
+
+                    int count = (int) Math.min(batchSize, documents - fromIndex) ;
+
+                    ingest.accept(studentGenerator.generate(fromIndex, count)) ;
+                }
+            })) ;
+        }
+
+        for (Future<?> future : futures) future.get() ;
+
+        long elapsed = System.nanoTime() - start ;
+
+        clientPool.shutdown() ;
+
+        long peakHeap = peakHeap() ;
+
+        System.gc() ;
+        long heapAfterGc = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() ;
+
+        Timer bulkTimer = meterRegistry.find(ElasticsearchMetrics.REQUESTS)
+                .tag("operation", "bulk")
+                .tag("outcome", ElasticsearchMetrics.OUTCOME_SUCCESS)
+                .timer() ;
+
+        return new Result(documents, elapsed, bulkTimer, peakHeap, heapAfterGc) ;
+    }
+
+    // What POST /students/multi does besides the handler itself - read the request body, write the response body
+    private static void postThroughController(StudentController studentController, ObjectMapper objectMapper, List<Student> batch) {
+
+        try {
+
+            byte[] requestBody = objectMapper.writeValueAsBytes(batch) ;
+
+            List<Student> requestStudents = objectMapper.readValue(requestBody, new TypeReference<>() {}) ;
+
+            objectMapper.writeValueAsBytes(studentController.create(requestStudents).join().getBody()) ;
+        } catch (IOException e) {
+
+            throw new UncheckedIOException(e) ;
+        }
+    }
+
+    private static void report(String path, Result result) {
+
+        double seconds = result.elapsedNanos() / 1_000_000_000.0 ;
+
+        System.out.printf("%-15s: %,.0f docs/s", path, result.documents() / seconds) ;
+
+        if (result.bulkTimer() != null) {
+
+            System.out.printf(", bulks=%d", result.bulkTimer().count()) ;
+
+            for (ValueAtPercentile percentile : result.bulkTimer().takeSnapshot().percentileValues()) {
+
+                System.out.printf(", p%.0f bulk=%.1f ms", percentile.percentile() * 100, percentile.value(TimeUnit.MILLISECONDS)) ;
+            }
+        }
+
+        System.out.printf(", heap peak=%,d MB, heap after gc=%,d MB%n",
+                result.peakHeapBytes() / (1024 * 1024), result.heapAfterGcBytes() / (1024 * 1024)) ;
+    }
+
+    private static void resetPeakHeap() {
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage() ;
+        }
+    }
+
+    // Sum of the per-pool peaks - an upper bound, the pools do not necessarily peak at the same moment
+    private static long peakHeap() {
+
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum() ;
+    }
+}
@@ -0,0 +1,144 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.DateProperty;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.akichou.elasticsearch.entity.Student;
+import com.akichou.elasticsearch.repository.mapping.PropertyMappingGenerator;
+import com.akichou.elasticsearch.utils.SampleData;
+import com.akichou.elasticsearch.utils.SearchUtils;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Index size and query latency of the old dynamic mapping (only englishTestIssuedDate declared)
+// against the explicit mapping generated from Student.
+// Needs a real node - the in-memory transport has neither segments nor a store size to compare.
+// Usage: MappingFootprintBenchmark [host-url] [documents] [query-iterations]
+public class MappingFootprintBenchmark {
+
+    private static final String DYNAMIC_INDEX = "student_mapping_dynamic" ;
+    private static final String EXPLICIT_INDEX = "student_mapping_explicit" ;
+
+    private static final int BULK_SIZE = 1000 ;
+
+    public static void main(String[] args) throws Exception {
+
+        String hostUrl = args.length > 0 ? args[0] : "http://localhost:9200" ;
+        int documents = args.length > 1 ? Integer.parseInt(args[1]) : 100_000 ;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 500 ;
+
+        try (RestClient restClient = RestClient.builder(HttpHost.create(hostUrl)).build()) {
+
+            ElasticsearchClient client = new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper())) ;
+
+            Map<String, Property> dynamicMapping = Map.of("englishTestIssuedDate", DateProperty.of(b -> b)._toProperty()) ;
+            Map<String, Property> explicitMapping = PropertyMappingGenerator.generate(Student.class) ;
+
+            List<Student> samples = SampleData.get() ;
+
+            load(client, DYNAMIC_INDEX, dynamicMapping, samples, documents) ;
+            load(client, EXPLICIT_INDEX, explicitMapping, samples, documents) ;
+
+            System.out.printf("documents=%d%n", documents) ;
+            System.out.printf("store size   dynamic: %,d bytes, explicit: %,d bytes%n",
+                    storeSize(client, DYNAMIC_INDEX), storeSize(client, EXPLICIT_INDEX)) ;
+
+            // The dynamic mapping needs the '.keyword' sub-field for exact matches
+            report(client, "term departments", iterations,
+                    SearchUtils.createTermQuery("departments.keyword", "資訊管理"),
+                    SearchUtils.createTermQuery("departments", "資訊管理")) ;
+
+            report(client, "range mathScore", iterations,
+                    SearchUtils.createRangeQuery("mathScore", 60, 80),
+                    SearchUtils.createRangeQuery("mathScore", 60, 80)) ;
+
+            Query introductionMatch = SearchUtils.createMatchQuery(Set.of("introduction"), "programming finance") ;
+
+            report(client, "match introduction", iterations, introductionMatch, introductionMatch) ;
+
+            client.indices().delete(b -> b.index(DYNAMIC_INDEX, EXPLICIT_INDEX)) ;
+        }
+    }
+
+    // Copies of the sample students with unique ids, force-merged to one segment so sizes are comparable
+    private static void load(ElasticsearchClient client, String index, Map<String, Property> mapping,
+                             List<Student> samples, int documents) throws Exception {
+
+        if (client.indices().exists(b -> b.index(index)).value()) client.indices().delete(b -> b.index(index)) ;
+
+        client.indices().create(b -> b.index(index).mappings(m -> m.properties(mapping))) ;
+
+        for (var start = 0 ; start < documents ; start += BULK_SIZE) {
+
+            BulkRequest.Builder builder = new BulkRequest.Builder().index(index) ;
+
+            for (var i = start ; i < Math.min(start + BULK_SIZE, documents) ; i ++) {
+
+                Student student = samples.get(i % samples.size()) ;
+                String studentId = String.valueOf(i) ;
+
+                builder.operations(o -> o.index(op -> op.id(studentId).document(student))) ;
+            }
+
+            client.bulk(builder.build()) ;
+        }
+
+        client.indices().refresh(b -> b.index(index)) ;
+        client.indices().forcemerge(b -> b.index(index).maxNumSegments(1L)) ;
+    }
+
+    private static long storeSize(ElasticsearchClient client, String index) throws Exception {
+
+        return client.indices().stats(b -> b.index(index))
+                .indices()
+                .get(index)
+                .primaries()
+                .store()
+                .sizeInBytes() ;
+    }
+
+    private static void report(ElasticsearchClient client, String name, int iterations,
+                               Query dynamicQuery, Query explicitQuery) throws Exception {
+
+        long[] dynamicLatencies = measure(client, DYNAMIC_INDEX, dynamicQuery, iterations) ;
+        long[] explicitLatencies = measure(client, EXPLICIT_INDEX, explicitQuery, iterations) ;
+
+        System.out.printf("%-20s dynamic p50=%.2fms p99=%.2fms | explicit p50=%.2fms p99=%.2fms%n", name,
+                percentile(dynamicLatencies, 0.50), percentile(dynamicLatencies, 0.99),
+                percentile(explicitLatencies, 0.50), percentile(explicitLatencies, 0.99)) ;
+    }
+
+    // Client-side round trip, request cache off so every iteration really searches
+    private static long[] measure(ElasticsearchClient client, String index, Query query, int iterations) throws Exception {
+
+        long[] latencies = new long[iterations] ;
+
+        for (var i = 0 ; i < iterations ; i ++) {
+
+            long start = System.nanoTime() ;
+
+            client.search(b -> b.index(index).query(query).requestCache(false), Student.class) ;
+
+            latencies[i] = System.nanoTime() - start ;
+        }
+
+        return latencies ;
+    }
+
+    private static double percentile(long[] latencies, double percentile) {
+
+        long[] sorted = latencies.clone() ;
+        Arrays.sort(sorted) ;
+
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(percentile * sorted.length))] / 1_000_000.0 ;
+    }
+}
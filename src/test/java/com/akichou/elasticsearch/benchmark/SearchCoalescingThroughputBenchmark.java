@@ -0,0 +1,96 @@
+package com.akichou.elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import com.akichou.elasticsearch.entity.search.SearchInfo;
+import com.akichou.elasticsearch.repository.StudentElasticsearchRepository;
+import com.akichou.elasticsearch.repository.search.MultiSearchCoalescer;
+import com.akichou.elasticsearch.utils.SampleData;
+import com.akichou.elasticsearch.utils.SearchUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Load benchmark - many worker threads run small find() calls, once as one search request each
+// and once coalesced into shared _msearch requests.
+// Usage: SearchCoalescingThroughputBenchmark [host-url | in-memory] [worker-threads] [requests] [window-ms] [max-batch-size]
+public class SearchCoalescingThroughputBenchmark {
+
+    private static final String BENCHMARK_INDEX = "student_benchmark" ;
+
+    public static void main(String[] args) throws Exception {
+
+        String hostUrl = args.length > 0 ? args[0] : "http://localhost:9200" ;
+        int workerThreads = args.length > 1 ? Integer.parseInt(args[1]) : 200 ;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 50_000 ;
+        long windowMillis = args.length > 3 ? Long.parseLong(args[3]) : 2 ;
+        int maxBatchSize = args.length > 4 ? Integer.parseInt(args[4]) : 50 ;
+
+        try (ElasticsearchTransport transport = BenchmarkTransports.create(hostUrl)) {
+
+            StudentElasticsearchRepository repository =
+                    new StudentElasticsearchRepository(new ElasticsearchClient(transport), BENCHMARK_INDEX) ;
+
+            // Seed a dedicated index, so the application index is never touched
+            repository.recreateIndex() ;
+            repository.insertStudents(SampleData.get()) ;
+
+            try (MultiSearchCoalescer coalescer =
+                         new MultiSearchCoalescer(new ElasticsearchAsyncClient(transport), windowMillis, maxBatchSize)) {
+
+                // Warm up both paths before measuring
+                run(repository, workerThreads, requests / 10) ;
+                repository.setMultiSearchCoalescer(coalescer) ;
+                run(repository, workerThreads, requests / 10) ;
+
+                repository.setMultiSearchCoalescer(null) ;
+                double directThroughput = run(repository, workerThreads, requests) ;
+
+                repository.setMultiSearchCoalescer(coalescer) ;
+                double coalescedThroughput = run(repository, workerThreads, requests) ;
+
+                System.out.printf("workers=%d, requests=%d, window=%dms, maxBatchSize=%d%n",
+                        workerThreads, requests, windowMillis, maxBatchSize) ;
+                System.out.printf("search    : %.1f req/s%n", directThroughput) ;
+                System.out.printf("coalesced : %.1f req/s%n", coalescedThroughput) ;
+            }
+
+            repository.deleteIndex() ;
+        }
+    }
+
+    private static double run(StudentElasticsearchRepository repository, int workerThreads, int requests) throws InterruptedException {
+
+        ExecutorService workers = Executors.newFixedThreadPool(workerThreads) ;
+        CountDownLatch latch = new CountDownLatch(requests) ;
+
+        long start = System.nanoTime() ;
+
+        for (var i = 0 ; i < requests ; i ++) {
+
+            // Grades 1 - 4, like the sample students
+            SearchInfo searchInfo = SearchInfo.of(SearchUtils.createTermQuery("grade", i % 4 + 1)) ;
+            searchInfo.setSize(5) ;
+
+            workers.execute(() -> {
+
+                try {
+
+                    repository.find(searchInfo) ;
+                } finally {
+
+                    latch.countDown() ;
+                }
+            }) ;
+        }
+
+        latch.await() ;
+        long elapsed = System.nanoTime() - start ;
+
+        workers.shutdown() ;
+
+        return requests / (elapsed / 1_000_000_000.0) ;
+    }
+}